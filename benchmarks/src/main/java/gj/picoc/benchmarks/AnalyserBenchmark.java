@@ -0,0 +1,59 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.Node;
+import gj.picoc.Parser;
+import gj.picoc.Scanner;
+import gj.picoc.SemAnalyser;
+import gj.picoc.SymbolTable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Semantic analysis of a parsed tree, as nodes per second in the "nodes" counter.  The same tree is analysed again
+ * every time, which the analyser allows.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AnalyserBenchmark {
+
+    @Param({Programs.PROG1, "64k", "1m", "4m", Programs.RANDOM})
+    public String program;
+
+    private Node tree;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        tree = new Parser(new Scanner(Programs.source(program)).tokenize()).program();
+        nodes = Programs.nodes(tree);
+    }
+
+    @Benchmark
+    public SymbolTable analyse(Counters counters) {
+        counters.nodes += nodes;
+        SemAnalyser analyser = new SemAnalyser();
+        analyser.analyse(tree);
+        return analyser.getSymbols();
+    }
+}
@@ -0,0 +1,77 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.BytecodeCompiler;
+import gj.picoc.Interpreter;
+import gj.picoc.Node;
+import gj.picoc.OutputSink;
+import gj.picoc.Parser;
+import gj.picoc.Scanner;
+import gj.picoc.VirtualMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Running a prepared program, with the tree-walking interpreter and with the bytecode VM, metered or not.  The output
+ * goes into a black hole so that it is neither kept nor optimised away.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExecutionBenchmark {
+
+    @Param({Programs.PROG1, "64k", "1m"})
+    public String program;
+
+    private Interpreter interpreter;
+    private VirtualMachine machine;
+    private VirtualMachine metered;
+
+    @Setup
+    public void setup() {
+        String source = Programs.source(program);
+        interpreter = new Interpreter(new Parser(new Scanner(source).tokenize()).program());
+        Node tree = new Parser(new Scanner(source).tokenize()).program();
+        machine = new VirtualMachine(new BytecodeCompiler().compile(tree));
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        compiler.setMetered(true);
+        metered = new VirtualMachine(compiler.compile(tree));
+    }
+
+    private static OutputSink sink(Blackhole blackhole) {
+        return new OutputSink() {
+            @Override
+            public void writeInt(long value) {
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void writeFloat(double value) {
+                blackhole.consume(value);
+            }
+        };
+    }
+
+    @Benchmark
+    public void interpreter(Blackhole blackhole) {
+        interpreter.run(sink(blackhole));
+    }
+
+    @Benchmark
+    public void virtualMachine(Blackhole blackhole) {
+        machine.run(sink(blackhole));
+    }
+
+    // With a budget that never runs out, to compare with the unmetered VM.
+    @Benchmark
+    public VirtualMachine.Outcome virtualMachineMetered(Blackhole blackhole) {
+        return metered.run(sink(blackhole), Long.MAX_VALUE);
+    }
+}
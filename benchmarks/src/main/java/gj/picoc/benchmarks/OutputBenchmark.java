@@ -0,0 +1,89 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.BinaryOutputSink;
+import gj.picoc.BufferedOutputSink;
+import gj.picoc.BytecodeCompiler;
+import gj.picoc.ChannelOutputSink;
+import gj.picoc.DiscardOutputSink;
+import gj.picoc.OutputSink;
+import gj.picoc.Parser;
+import gj.picoc.PrintStreamOutputSink;
+import gj.picoc.Scanner;
+import gj.picoc.VirtualMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+
+/**
+ * A program that does little but "out", on the bytecode VM with each of the output sinks.  Text and binary output go
+ * to a stream that drops them, so that the cost measured is that of the sink and not of the device; the buffered
+ * sinks hand their batches to a binary sink, "async" on a thread of its own.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OutputBenchmark {
+
+    private static final String PROGRAM = "{ int i; float f; while (i < 100000) { out(i); f = i / 3.0; out(f); "
+            + "i = i + 1; } }";
+
+    @Param({"print", "channel", "binary", "buffered", "async", "discard"})
+    public String sink;
+
+    private VirtualMachine machine;
+    private OutputSink out;
+
+    @Setup
+    public void setup() {
+        machine = new VirtualMachine(new BytecodeCompiler().compile(
+                new Parser(new Scanner(PROGRAM).tokenize()).program()));
+        switch (sink) {
+            case "print":
+                out = new PrintStreamOutputSink(new PrintStream(OutputStream.nullOutputStream()));
+                break;
+            case "channel":
+                out = new ChannelOutputSink(Channels.newChannel(OutputStream.nullOutputStream()));
+                break;
+            case "binary":
+                out = binary();
+                break;
+            case "buffered":
+                BinaryOutputSink target = binary();
+                out = new BufferedOutputSink(4096, batch -> batch.writeTo(target));
+                break;
+            case "async":
+                BinaryOutputSink consumer = binary();
+                out = new BufferedOutputSink(4096, 4, batch -> batch.writeTo(consumer));
+                break;
+            default:
+                out = new DiscardOutputSink();
+        }
+    }
+
+    private static BinaryOutputSink binary() {
+        return new BinaryOutputSink(Channels.newChannel(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (out instanceof AutoCloseable) {
+            ((AutoCloseable) out).close();
+        }
+    }
+
+    @Benchmark
+    public void run() {
+        machine.run(out);
+    }
+}
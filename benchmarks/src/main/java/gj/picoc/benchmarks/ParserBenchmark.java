@@ -0,0 +1,65 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.AstArena;
+import gj.picoc.Node;
+import gj.picoc.Parser;
+import gj.picoc.Scanner;
+import gj.picoc.TokenBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing from a token buffer, as nodes per second in the "nodes" counter.  Run with "-prof gc" for the allocation
+ * per program, which divided by the nodes of the program is the allocation per node.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+
+    @Param({Programs.PROG1, "64k", "1m", "4m", Programs.RANDOM})
+    public String program;
+
+    private TokenBuffer tokens;
+    private int nodes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        tokens = new Scanner(Programs.source(program)).tokenize();
+        nodes = Programs.nodes(new Parser(tokens).program());
+    }
+
+    @Benchmark
+    public Node program(Counters counters) {
+        counters.nodes += nodes;
+        tokens.rewind();
+        return new Parser(tokens).program();
+    }
+
+    @Benchmark
+    public AstArena programArena(Counters counters) {
+        counters.nodes += nodes;
+        tokens.rewind();
+        return new Parser(tokens).programArena();
+    }
+}
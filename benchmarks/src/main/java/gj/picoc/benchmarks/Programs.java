@@ -0,0 +1,88 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.Node;
+import gj.picoc.ProgramGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The inputs of the benchmarks, by name: "prog1" is prog1.pc, "64k", "1m" and "4m" are generated programs of about
+ * that many bytes.  Generated programs declare a few variables and then repeat a mix of arithmetic, ifs and short
+ * loops, with literals that differ from one repetition to the next, so they execute in time linear in their size.
+ * "random" is a program of 20,000 statements from the {@link ProgramGenerator}, nested up to six deep, with
+ * expressions that mix ints and floats, for the front end.
+ */
+public final class Programs {
+
+    public static final String PROG1 = "prog1";
+    public static final String RANDOM = "random";
+
+    private Programs() {
+    }
+
+    public static String source(String name) {
+        switch (name) {
+            case PROG1:
+                return resource("/prog1.pc");
+            case "64k":
+                return generate(64 * 1024);
+            case "1m":
+                return generate(1024 * 1024);
+            case "4m":
+                return generate(4 * 1024 * 1024);
+            case RANDOM:
+                ProgramGenerator generator = new ProgramGenerator(1);
+                generator.setStatements(20_000);
+                generator.setDepth(6);
+                return generator.generate();
+        }
+        throw new IllegalArgumentException("Unknown program " + name);
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = Programs.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException(name + " not found");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String generate(int size) {
+        StringBuilder code = new StringBuilder(size + 256);
+        code.append("{\n  int i0, i1 = 1, i2 = 2, i3;\n  float f0 = 0.5, f1, f2;\n");
+        for (int k = 0; code.length() < size; k++) {
+            code.append("  i0 = i1 * ").append(k % 97).append(" + i2 - ").append(k % 13).append(";\n");
+            code.append("  f1 = f0 * ").append(k % 7).append(".25 + i0 / 3;\n");
+            code.append("  if (i0 > i2 && !(i1 == ").append(k % 5).append(")) { i2 = i2 + 1; } else { out(i0); }\n");
+            code.append("  i3 = 0;\n  while (i3 < ").append(k % 4).append(") { f2 = f2 + f1 * 0.5; i3 = i3 + 1; }\n");
+        }
+        return code.append("  out(i0 + i1 + i2);\n  out(f2);\n}\n").toString();
+    }
+
+    // The number of nodes in a tree.
+    public static int nodes(Node root) {
+        int count = 0;
+        Node[] todo = new Node[64];
+        int size = 0;
+        todo[size++] = root;
+        while (size > 0) {
+            Node node = todo[--size];
+            count++;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] == null) continue;
+                if (size == todo.length) {
+                    todo = Arrays.copyOf(todo, size * 2);
+                }
+                todo[size++] = node.getChildren()[i];
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,74 @@
+package gj.picoc.benchmarks;
+
+import gj.picoc.DfaLexer;
+import gj.picoc.Scanner;
+import gj.picoc.Token;
+import gj.picoc.TokenBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lexing, as tokens per second in the "tokens" counter.  Run with "-prof gc" for the allocation per program, which
+ * divided by the tokens of the program is the allocation per token.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScannerBenchmark {
+
+    @Param({Programs.PROG1, "64k", "1m", "4m", Programs.RANDOM})
+    public String program;
+
+    private String source;
+    private int tokens;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        source = Programs.source(program);
+        tokens = new Scanner(source).tokenize().size();
+    }
+
+    // One Token object at a time, as the Parser reads a Scanner.
+    @Benchmark
+    public int nextToken(Counters counters) {
+        Scanner scanner = new Scanner(source);
+        int count = 1;
+        while (scanner.nextToken().getType() != Token.TokenType.EOF) {
+            count++;
+        }
+        counters.tokens += count;
+        return count;
+    }
+
+    @Benchmark
+    public TokenBuffer tokenize(Counters counters) {
+        counters.tokens += tokens;
+        return new Scanner(source).tokenize();
+    }
+
+    @Benchmark
+    public TokenBuffer dfaLexer(Counters counters) {
+        counters.tokens += tokens;
+        return DfaLexer.tokenize(source);
+    }
+}
@@ -0,0 +1,371 @@
+package gj.picoc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An abstract syntax tree stored as parallel int columns instead of {@link Node} objects.  A node is an index into the
+ * columns, which hold its kind, its type, the index of its value in a pool of distinct strings, its first child and its
+ * next sibling.  A node without a value, type, child or next sibling has -1 in that column.
+ *
+ * The {@link Parser} fills an arena directly (see {@link Parser#programArena()}), and {@link #fromNode(Node)} and
+ * {@link #toNode()} convert from and to Node trees.  Traversal is either by index, with a {@link Cursor} or with a
+ * {@link Visitor}, none of which recurse.
+ */
+public class AstArena implements AstBuilder {
+
+    private static final Node.NodeType[] KINDS = Node.NodeType.values();
+    private static final Node.TypeType[] TYPES = Node.TypeType.values();
+
+    private int[] kinds;
+    private int[] types;
+    private int[] values;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+
+    // Only needed to append children in constant time.
+    private int[] lastChildren;
+
+    private int size;
+    private int root = -1;
+
+    // Every distinct value (id, literal or type name) is stored once.
+    private String[] pool = new String[16];
+    private int poolSize;
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+
+    public AstArena() {
+        this(64);
+    }
+
+    public AstArena(int capacity) {
+        capacity = Math.max(1, capacity);
+        kinds = new int[capacity];
+        types = new int[capacity];
+        values = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        lastChildren = new int[capacity];
+    }
+
+    // --- Building ---
+
+    @Override
+    public int node(Node.NodeType kind, String value) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+        }
+        kinds[size] = kind.ordinal();
+        types[size] = -1;
+        values[size] = value == null ? -1 : intern(value);
+        firstChildren[size] = -1;
+        nextSiblings[size] = -1;
+        lastChildren[size] = -1;
+        return size++;
+    }
+
+    @Override
+    public void addChild(int parent, int child) {
+        if (firstChildren[parent] < 0) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[lastChildren[parent]] = child;
+        }
+        lastChildren[parent] = child;
+    }
+
+    private int intern(String value) {
+        Integer index = poolIndex.get(value);
+        if (index != null) {
+            return index;
+        }
+        if (poolSize == pool.length) {
+            pool = Arrays.copyOf(pool, poolSize * 2);
+        }
+        pool[poolSize] = value;
+        poolIndex.put(value, poolSize);
+        return poolSize++;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    // --- Reading ---
+
+    public int root() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Node.NodeType kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public String value(int node) {
+        return values[node] < 0 ? null : pool[values[node]];
+    }
+
+    // Index of the value in the string pool, so that equal values can be compared as ints.
+    public int valueIndex(int node) {
+        return values[node];
+    }
+
+    public int poolSize() {
+        return poolSize;
+    }
+
+    public Node.TypeType type(int node) {
+        return types[node] < 0 ? null : TYPES[types[node]];
+    }
+
+    public void setType(int node, Node.TypeType type) {
+        types[node] = type == null ? -1 : type.ordinal();
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * The n-th child of a node, counting from 0.  Takes time linear in 'which'.
+     *
+     * @param node the parent.
+     * @param which which child.
+     * @return the child, or -1 if the node has fewer children.
+     */
+    public int child(int node, int which) {
+        int child = firstChildren[node];
+        while (child >= 0 && which-- > 0) {
+            child = nextSiblings[child];
+        }
+        return child;
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    // --- Traversal ---
+
+    /**
+     * Called for every node of a tree, in depth first order.
+     */
+    public interface Visitor {
+
+        /**
+         * Called before the children of a node are visited.
+         *
+         * @param arena the tree.
+         * @param node the node.
+         * @return false to skip the children of the node (and its 'exit').
+         */
+        boolean enter(AstArena arena, int node);
+
+        /**
+         * Called after all the children of a node were visited.
+         *
+         * @param arena the tree.
+         * @param node the node.
+         */
+        default void exit(AstArena arena, int node) {
+        }
+    }
+
+    /**
+     * Visit the tree from the root, using an explicit stack so that the depth of the tree does not matter.
+     *
+     * @param visitor called for every node.
+     */
+    public void walk(Visitor visitor) {
+        if (root >= 0) {
+            walk(root, visitor);
+        }
+    }
+
+    public void walk(int from, Visitor visitor) {
+        Cursor cursor = new Cursor(from);
+        boolean descend = visitor.enter(this, from);
+        while (true) {
+            if (descend && cursor.firstChild()) {
+                descend = visitor.enter(this, cursor.node());
+                continue;
+            }
+            if (descend) {
+                visitor.exit(this, cursor.node());
+            }
+
+            // Move on to the next sibling, or back up until there is one.  Every node above was entered.
+            while (true) {
+                if (cursor.depth() == 0) {
+                    return;
+                }
+                if (cursor.nextSibling()) {
+                    descend = visitor.enter(this, cursor.node());
+                    break;
+                }
+                cursor.parent();
+                visitor.exit(this, cursor.node());
+            }
+        }
+    }
+
+    /**
+     * A position in the tree that can move to the first child, next sibling or parent of the current node.  The path
+     * back to where the cursor started is kept in an int stack.
+     */
+    public class Cursor {
+        private int node;
+        private int[] path = new int[16];
+        private int depth;
+
+        public Cursor() {
+            this(root);
+        }
+
+        public Cursor(int node) {
+            this.node = node;
+        }
+
+        public int node() {
+            return node;
+        }
+
+        // How many times 'parent' can still be called.
+        public int depth() {
+            return depth;
+        }
+
+        public Node.NodeType kind() {
+            return AstArena.this.kind(node);
+        }
+
+        public String value() {
+            return AstArena.this.value(node);
+        }
+
+        public Node.TypeType type() {
+            return AstArena.this.type(node);
+        }
+
+        public boolean firstChild() {
+            int child = firstChildren[node];
+            if (child < 0) {
+                return false;
+            }
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        // Only moves within the children of the node the cursor descended from.
+        public boolean nextSibling() {
+            int sibling = nextSiblings[node];
+            if (depth == 0 || sibling < 0) {
+                return false;
+            }
+            node = sibling;
+            return true;
+        }
+
+        public boolean parent() {
+            if (depth == 0) {
+                return false;
+            }
+            node = path[--depth];
+            return true;
+        }
+    }
+
+    // --- Conversion ---
+
+    /**
+     * Copy a tree of nodes into a new arena.  Types are copied, slots are not.
+     *
+     * @param ast the root of the tree.
+     * @return the arena with the copy as its root.
+     */
+    public static AstArena fromNode(Node ast) {
+        AstArena arena = new AstArena();
+        arena.setRoot(arena.node(ast.getNodeType(), ast.getValue()));
+        arena.setType(arena.root, ast.getTypeType());
+
+        // Pairs of a node and its copy still to be done.
+        Node[] todo = new Node[16];
+        int[] copies = new int[16];
+        int count = 0;
+        todo[count] = ast;
+        copies[count++] = arena.root;
+        while (count > 0) {
+            Node node = todo[--count];
+            int copy = copies[count];
+            for (Node child : node.getChildren()) {
+                if (child == null) {
+                    break;
+                }
+                int childCopy = arena.node(child.getNodeType(), child.getValue());
+                arena.setType(childCopy, child.getTypeType());
+                arena.addChild(copy, childCopy);
+                if (count == todo.length) {
+                    todo = Arrays.copyOf(todo, count * 2);
+                    copies = Arrays.copyOf(copies, count * 2);
+                }
+                todo[count] = child;
+                copies[count++] = childCopy;
+            }
+        }
+        return arena;
+    }
+
+    /**
+     * Convert the tree to nodes, for instance to visualise it.
+     *
+     * @return the root of the tree of nodes, null if the arena has no root.
+     */
+    public Node toNode() {
+        return root < 0 ? null : toNode(root);
+    }
+
+    public Node toNode(int from) {
+        Node[] nodes = new Node[size];
+        walk(from, new Visitor() {
+            @Override
+            public boolean enter(AstArena arena, int node) {
+                Node copy = new Node(kind(node), value(node));
+                copy.setTypeType(type(node));
+                nodes[node] = copy;
+                return true;
+            }
+
+            @Override
+            public void exit(AstArena arena, int node) {
+                for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                    nodes[node].addChild(nodes[child]);
+                }
+            }
+        });
+        return nodes[from];
+    }
+}
@@ -0,0 +1,20 @@
+package gj.picoc;
+
+/**
+ * What the {@link Parser} builds a tree with.  Nodes are referred to by an int handle, so that the same parser can
+ * build a tree of {@link Node} objects or fill the columns of an {@link AstArena} without creating any objects.
+ */
+interface AstBuilder {
+
+    // A new node without children, 'value' may be null.  Returns its handle.
+    int node(Node.NodeType type, String value);
+
+    // Append 'child' to the children of 'parent'.
+    void addChild(int parent, int child);
+
+    Node.NodeType kind(int node);
+
+    // The line of the source 'node' comes from.  Only trees of Node objects keep it.
+    default void setLine(int node, int line) {
+    }
+}
@@ -0,0 +1,294 @@
+package gj.picoc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary format for abstract syntax trees, to load a saved tree instead of parsing its source again.
+ *
+ * <pre>
+ * "PCAS" version                         4 bytes and a byte
+ * count (length utf-8)...                the string pool: every distinct value once
+ * count (kind type value children)...    the nodes in depth first order, parents before their children
+ * </pre>
+ *
+ * All counts, lengths, values and children are unsigned varints (7 bits per byte, low bits first, the high bit set on
+ * all but the last byte).  A kind is the ordinal of its {@link Node.NodeType} in a byte, a type is 0 for none or 1 +
+ * the ordinal of its {@link Node.TypeType} in a byte, a value is 0 for none or 1 + its index in the pool and children
+ * is the number of children.  Since the children of a node follow it, a tree is read in one pass with a stack of nodes
+ * that still expect children.  Symbols and slots are not saved: they are derived again by the {@link SemAnalyser}.
+ *
+ * Trees are read from a {@link ByteBuffer}, so a saved file is simply mapped into memory (see {@link #load(Path)}).
+ */
+public class AstFormat {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'C', 'A', 'S'};
+    private static final Node.NodeType[] KINDS = Node.NodeType.values();
+    private static final Node.TypeType[] TYPES = Node.TypeType.values();
+
+    private AstFormat() {
+    }
+
+    // --- Writing ---
+
+    public static byte[] toBytes(Node ast) {
+        return toBytes(AstArena.fromNode(ast));
+    }
+
+    /**
+     * Encode the tree of an arena from its root.
+     *
+     * @param arena the tree.
+     * @return the encoded tree.
+     */
+    public static byte[] toBytes(AstArena arena) {
+        // Only the values in the tree are pooled, in the order they are first met, so that the same tree is always
+        // encoded the same way however its arena was filled.
+        Map<String, Integer> pool = new LinkedHashMap<>();
+        int[] count = new int[1];
+        arena.walk((tree, node) -> {
+            count[0]++;
+            if (tree.value(node) != null) {
+                pool.putIfAbsent(tree.value(node), pool.size());
+            }
+            return true;
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + count[0] * 4);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        writeVarint(out, pool.size());
+        for (String value : pool.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, count[0]);
+        arena.walk((tree, node) -> {
+            out.write(tree.kind(node).ordinal());
+            out.write(tree.type(node) == null ? 0 : tree.type(node).ordinal() + 1);
+            writeVarint(out, tree.value(node) == null ? 0 : pool.get(tree.value(node)) + 1);
+            writeVarint(out, tree.childCount(node));
+            return true;
+        });
+        return out.toByteArray();
+    }
+
+    public static void save(Node ast, Path file) throws IOException {
+        Files.write(file, toBytes(ast));
+    }
+
+    public static void save(AstArena arena, Path file) throws IOException {
+        Files.write(file, toBytes(arena));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // --- Reading ---
+
+    /**
+     * Decode a tree from the position of a buffer, which is left after the tree.
+     *
+     * @param buffer the encoded tree.
+     * @return the root of the tree, with the types it was saved with.
+     * @throws RuntimeException if the buffer does not hold a tree of this version.
+     */
+    public static Node read(ByteBuffer buffer) {
+        try {
+            String[] pool = readHeader(buffer);
+            int size = readVarint(buffer);
+
+            // Nodes that still expect children, with the number of children still expected.
+            Node[] parents = new Node[16];
+            int[] remaining = new int[16];
+            int depth = 0;
+            Node root = null;
+            for (int i = 0; i < size; i++) {
+                Node.NodeType kind = readKind(buffer);
+                Node.TypeType type = readType(buffer);
+                Node node = new Node(kind, readValue(buffer, pool));
+                node.setTypeType(type);
+                int children = readVarint(buffer);
+                if (depth > 0) {
+                    parents[depth - 1].addChild(node);
+                    remaining[depth - 1]--;
+                } else if (root == null) {
+                    root = node;
+                } else {
+                    throw new RuntimeException("Format error, more than one root");
+                }
+                if (children > 0) {
+                    if (depth == parents.length) {
+                        parents = Arrays.copyOf(parents, depth * 2);
+                        remaining = Arrays.copyOf(remaining, depth * 2);
+                    }
+                    parents[depth] = node;
+                    remaining[depth++] = children;
+                }
+                while (depth > 0 && remaining[depth - 1] == 0) {
+                    depth--;
+                }
+            }
+            if (root == null || depth > 0) {
+                throw new RuntimeException("Format error, incomplete tree");
+            }
+            return root;
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Format error, unexpected end of data");
+        }
+    }
+
+    /**
+     * Decode a tree into a new arena, as {@link #read(ByteBuffer)}.
+     *
+     * @param buffer the encoded tree.
+     * @return the arena with the tree as its root.
+     */
+    public static AstArena readArena(ByteBuffer buffer) {
+        try {
+            String[] pool = readHeader(buffer);
+            int size = readVarint(buffer);
+            // Every node takes at least four bytes, which bounds the capacity of a damaged buffer.
+            AstArena arena = new AstArena(Math.max(Math.min(size, buffer.remaining() / 4), 1));
+
+            int[] parents = new int[16];
+            int[] remaining = new int[16];
+            int depth = 0;
+            for (int i = 0; i < size; i++) {
+                Node.NodeType kind = readKind(buffer);
+                Node.TypeType type = readType(buffer);
+                int node = arena.node(kind, readValue(buffer, pool));
+                arena.setType(node, type);
+                int children = readVarint(buffer);
+                if (depth > 0) {
+                    arena.addChild(parents[depth - 1], node);
+                    remaining[depth - 1]--;
+                } else if (arena.root() < 0) {
+                    arena.setRoot(node);
+                } else {
+                    throw new RuntimeException("Format error, more than one root");
+                }
+                if (children > 0) {
+                    if (depth == parents.length) {
+                        parents = Arrays.copyOf(parents, depth * 2);
+                        remaining = Arrays.copyOf(remaining, depth * 2);
+                    }
+                    parents[depth] = node;
+                    remaining[depth++] = children;
+                }
+                while (depth > 0 && remaining[depth - 1] == 0) {
+                    depth--;
+                }
+            }
+            if (arena.root() < 0 || depth > 0) {
+                throw new RuntimeException("Format error, incomplete tree");
+            }
+            return arena;
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Format error, unexpected end of data");
+        }
+    }
+
+    /**
+     * Load a saved tree by mapping its file into memory.
+     *
+     * @param file the file written by {@link #save(Node, Path)}.
+     * @return the root of the tree.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Node load(Path file) throws IOException {
+        return read(map(file));
+    }
+
+    public static AstArena loadArena(Path file) throws IOException {
+        return readArena(map(file));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String[] readHeader(ByteBuffer buffer) {
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) {
+                throw new RuntimeException("Format error, not a saved tree");
+            }
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new RuntimeException("Format error, version " + version + " instead of " + VERSION);
+        }
+        String[] pool = new String[readVarint(buffer)];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < pool.length; i++) {
+            int length = readVarint(buffer);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            pool[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return pool;
+    }
+
+    private static Node.NodeType readKind(ByteBuffer buffer) {
+        int kind = buffer.get();
+        if (kind < 0 || kind >= KINDS.length) {
+            throw new RuntimeException("Format error, unknown node kind " + kind);
+        }
+        return KINDS[kind];
+    }
+
+    private static Node.TypeType readType(ByteBuffer buffer) {
+        int type = buffer.get();
+        if (type < 0 || type > TYPES.length) {
+            throw new RuntimeException("Format error, unknown type " + type);
+        }
+        return type == 0 ? null : TYPES[type - 1];
+    }
+
+    private static String readValue(ByteBuffer buffer, String[] pool) {
+        int value = readVarint(buffer);
+        if (value > pool.length) {
+            throw new RuntimeException("Format error, value " + value + " not in the pool");
+        }
+        return value == 0 ? null : pool[value - 1];
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new RuntimeException("Format error, varint too large");
+    }
+}
@@ -0,0 +1,138 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output sink that writes values in binary to a channel such as a file, for consumers that would rather not parse
+ * text.  Every value is a tag byte, {@link #INT} or {@link #FLOAT}, followed by 8 bytes little-endian: the value of
+ * an int, or the bits of a float as given by {@link Double#doubleToRawLongBits(double)}.  {@link #read} reads the
+ * values back.
+ */
+public class BinaryOutputSink implements OutputSink, AutoCloseable {
+
+    public static final byte INT = 0;
+    public static final byte FLOAT = 1;
+
+    // The bytes of a value.
+    private static final int LENGTH = 9;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public BinaryOutputSink(WritableByteChannel channel) {
+        this(channel, 64 * 1024);
+    }
+
+    /**
+     * Create a sink.
+     *
+     * @param channel where the values go.
+     * @param size the size of the buffer in bytes, at least 9.
+     */
+    public BinaryOutputSink(WritableByteChannel channel, int size) {
+        if (size < LENGTH) {
+            throw new IllegalArgumentException("Buffer too small: " + size);
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Create a sink that writes to a file, replacing what was in it.
+     *
+     * @param file the file.
+     * @return the sink, to be closed.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static BinaryOutputSink create(Path file) throws IOException {
+        return new BinaryOutputSink(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public void writeInt(long value) {
+        if (buffer.remaining() < LENGTH) {
+            drain();
+        }
+        buffer.put(INT).putLong(value);
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        if (buffer.remaining() < LENGTH) {
+            drain();
+        }
+        buffer.put(FLOAT).putLong(Double.doubleToRawLongBits(value));
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    /**
+     * Flush and close the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read values written by a binary sink and write them to another sink, without flushing it.
+     *
+     * @param channel where the values come from, read to the end.
+     * @param out where the values go.
+     * @return the number of values.
+     * @throws IOException if reading fails, or the values end halfway or have an unknown tag.
+     */
+    public static long read(ReadableByteChannel channel, OutputSink out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        long count = 0;
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.remaining() >= LENGTH) {
+                byte tag = buffer.get();
+                long bits = buffer.getLong();
+                if (tag == INT) {
+                    out.writeInt(bits);
+                } else if (tag == FLOAT) {
+                    out.writeFloat(Double.longBitsToDouble(bits));
+                } else {
+                    throw new IOException("Unknown tag " + tag + " at value " + count);
+                }
+                count++;
+            }
+            buffer.compact();
+        }
+        if (buffer.position() > 0) {
+            throw new IOException("Incomplete value at the end");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,236 @@
+package gj.picoc;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Output sink that collects values as primitives in batches and hands every full batch to a consumer, so that the
+ * consumer is called once per batch instead of once per value.
+ *
+ * Without a queue the consumer is called by the thread that runs the program.  With a queue it is called by a thread
+ * of its own, and up to 'queue' full batches wait for it: when the consumer falls further behind the program blocks
+ * until it catches up, so that a slow consumer slows the program down rather than filling the heap.  A fixed set of
+ * batches is reused, so writing values allocates nothing.  Flushing hands over the batch being filled and waits until
+ * the consumer has had all batches.  An exception thrown by the consumer is thrown again to the program by the next
+ * flush or hand-over.
+ */
+public class BufferedOutputSink implements OutputSink, AutoCloseable {
+
+    /** Values in the order they were written, ints and floats mixed.  Valid only while the consumer has it. */
+    public static final class Batch {
+        private final long[] values;
+        // A bit per value, set for floats.
+        private final long[] floats;
+        private int size;
+
+        private Batch(int capacity) {
+            values = new long[capacity];
+            floats = new long[(capacity + 63) >>> 6];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isFloat(int index) {
+            return (floats[index >>> 6] & (1L << index)) != 0;
+        }
+
+        public long getInt(int index) {
+            return values[index];
+        }
+
+        public double getFloat(int index) {
+            return Double.longBitsToDouble(values[index]);
+        }
+
+        // Write all values to another sink, without flushing it.
+        public void writeTo(OutputSink sink) {
+            for (int i = 0; i < size; i++) {
+                if (isFloat(i)) {
+                    sink.writeFloat(getFloat(i));
+                } else {
+                    sink.writeInt(values[i]);
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(floats, 0, (size + 63) >>> 6, 0);
+            size = 0;
+        }
+    }
+
+    // Tells the consumer thread to stop.
+    private static final Batch END = new Batch(0);
+
+    private final Consumer<Batch> consumer;
+    private Batch current;
+
+    // Only with a queue: full batches for the consumer thread and empty ones for the program.
+    private final ArrayBlockingQueue<Batch> full;
+    private final ArrayBlockingQueue<Batch> free;
+    private final Thread thread;
+
+    // Batches handed over and not yet consumed, and the first exception of the consumer.  Guarded by 'this'.
+    private int pending;
+    private RuntimeException failure;
+
+    /**
+     * Create a sink that calls the consumer on the thread that writes.
+     *
+     * @param batch the number of values in a batch.
+     * @param consumer takes every batch.
+     */
+    public BufferedOutputSink(int batch, Consumer<Batch> consumer) {
+        this(batch, 0, consumer);
+    }
+
+    /**
+     * Create a sink.
+     *
+     * @param batch the number of values in a batch.
+     * @param queue the most full batches waiting for the consumer, 0 to call the consumer on the thread that writes.
+     * @param consumer takes every batch.
+     */
+    public BufferedOutputSink(int batch, int queue, Consumer<Batch> consumer) {
+        if (batch < 1 || queue < 0) {
+            throw new IllegalArgumentException("Invalid batch or queue size");
+        }
+        this.consumer = consumer;
+        this.current = new Batch(batch);
+        if (queue == 0) {
+            full = null;
+            free = null;
+            thread = null;
+            return;
+        }
+        full = new ArrayBlockingQueue<>(queue + 1);
+        free = new ArrayBlockingQueue<>(queue);
+        for (int i = 0; i < queue; i++) {
+            free.add(new Batch(batch));
+        }
+        thread = new Thread(this::consume, "picoc-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void writeInt(long value) {
+        Batch batch = current;
+        batch.values[batch.size++] = value;
+        if (batch.size == batch.values.length) {
+            handOver();
+        }
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        Batch batch = current;
+        batch.floats[batch.size >>> 6] |= 1L << batch.size;
+        batch.values[batch.size++] = Double.doubleToRawLongBits(value);
+        if (batch.size == batch.values.length) {
+            handOver();
+        }
+    }
+
+    private void handOver() {
+        if (thread == null) {
+            try {
+                consumer.accept(current);
+            } finally {
+                current.clear();
+            }
+            return;
+        }
+        synchronized (this) {
+            check();
+            pending++;
+        }
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the output consumer", e);
+        }
+    }
+
+    private void check() {
+        if (failure != null) {
+            throw new RuntimeException("Output consumer failed", failure);
+        }
+    }
+
+    private void consume() {
+        try {
+            while (true) {
+                Batch batch = full.take();
+                if (batch == END) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        consumer.accept(batch);
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        failure = e;
+                    }
+                }
+                batch.clear();
+                free.put(batch);
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop, the sink is not used anymore.
+        }
+    }
+
+    /**
+     * Hand over the values written so far and wait until the consumer has had them.
+     */
+    @Override
+    public void flush() {
+        if (current.size > 0) {
+            handOver();
+        }
+        if (thread == null) {
+            return;
+        }
+        synchronized (this) {
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the output consumer", e);
+                }
+            }
+            check();
+        }
+    }
+
+    /**
+     * Flush, and stop the consumer thread if there is one.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            if (thread != null) {
+                full.add(END);
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
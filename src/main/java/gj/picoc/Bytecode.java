@@ -0,0 +1,167 @@
+package gj.picoc;
+
+/**
+ * A compiled PicoC program: a dense array of instructions for the {@link VirtualMachine}, produced by the
+ * {@link BytecodeCompiler}.
+ *
+ * Every instruction is an opcode followed by at most one operand.  Integers and floats share a single constant pool of
+ * longs, floats being stored as their raw bits.  Jump operands are absolute positions in the code array, resolved when
+ * the program is compiled.
+ *
+ * Metered code charges for the instructions it executes with FUEL instructions, see
+ * {@link BytecodeCompiler#setMetered(boolean)} and {@link VirtualMachine#run(OutputSink, long)}.
+ */
+public class Bytecode {
+
+    // Opcodes.  The operand, if any, is noted after the name.
+    public static final int HALT = 0;
+    public static final int IPUSH = 1;       // <value>     push an integer that fits in 32 bits
+    public static final int ICONST = 2;      // <index>     push an integer from the constant pool
+    public static final int FCONST = 3;      // <index>     push a float from the constant pool
+    public static final int ILOAD = 4;       // <slot>
+    public static final int FLOAD = 5;       // <slot>
+    public static final int ISTORE = 6;      // <slot>
+    public static final int FSTORE = 7;      // <slot>
+    public static final int DUP = 8;
+    public static final int POP = 9;
+    public static final int IADD = 10;
+    public static final int ISUB = 11;
+    public static final int IMUL = 12;
+    public static final int IDIV = 13;
+    public static final int INEG = 14;
+    public static final int FADD = 15;
+    public static final int FSUB = 16;
+    public static final int FMUL = 17;
+    public static final int FDIV = 18;
+    public static final int FNEG = 19;
+    public static final int I2F = 20;
+    public static final int F2I = 21;
+    public static final int NOT = 22;
+    public static final int ICMPLT = 23;
+    public static final int ICMPGT = 24;
+    public static final int ICMPLE = 25;
+    public static final int ICMPGE = 26;
+    public static final int ICMPEQ = 27;
+    public static final int ICMPNE = 28;
+    public static final int FCMPLT = 29;
+    public static final int FCMPGT = 30;
+    public static final int FCMPLE = 31;
+    public static final int FCMPGE = 32;
+    public static final int FCMPEQ = 33;
+    public static final int FCMPNE = 34;
+    public static final int JMP = 35;        // <target>
+    public static final int JZ = 36;         // <target>    pop, jump if zero
+    public static final int JNZ = 37;        // <target>    pop, jump if not zero
+    public static final int JLT = 38;        // <target>    pop two integers, jump if the comparison holds
+    public static final int JGT = 39;        // <target>
+    public static final int JLE = 40;        // <target>
+    public static final int JGE = 41;        // <target>
+    public static final int JEQ = 42;        // <target>
+    public static final int JNE = 43;        // <target>
+    public static final int IOUT = 44;
+    public static final int FOUT = 45;
+    public static final int FUEL = 46;       // <cost>      take the cost from the fuel, stop when there is none left
+
+    private static final String[] NAMES = {
+            "HALT", "IPUSH", "ICONST", "FCONST", "ILOAD", "FLOAD", "ISTORE", "FSTORE", "DUP", "POP",
+            "IADD", "ISUB", "IMUL", "IDIV", "INEG", "FADD", "FSUB", "FMUL", "FDIV", "FNEG", "I2F", "F2I", "NOT",
+            "ICMPLT", "ICMPGT", "ICMPLE", "ICMPGE", "ICMPEQ", "ICMPNE",
+            "FCMPLT", "FCMPGT", "FCMPLE", "FCMPGE", "FCMPEQ", "FCMPNE",
+            "JMP", "JZ", "JNZ", "JLT", "JGT", "JLE", "JGE", "JEQ", "JNE", "IOUT", "FOUT", "FUEL"
+    };
+
+    private final int[] code;
+    private final long[] constants;
+    private final int intSlots;
+    private final int floatSlots;
+    private final int maxStack;
+    private final boolean metered;
+
+    public Bytecode(int[] code, long[] constants, int intSlots, int floatSlots, int maxStack) {
+        this(code, constants, intSlots, floatSlots, maxStack, false);
+    }
+
+    public Bytecode(int[] code, long[] constants, int intSlots, int floatSlots, int maxStack, boolean metered) {
+        this.code = code;
+        this.constants = constants;
+        this.intSlots = intSlots;
+        this.floatSlots = floatSlots;
+        this.maxStack = maxStack;
+        this.metered = metered;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+    public long[] getConstants() {
+        return constants;
+    }
+    public int getIntSlots() {
+        return intSlots;
+    }
+    public int getFloatSlots() {
+        return floatSlots;
+    }
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    // Whether the code charges fuel for what it executes.
+    public boolean isMetered() {
+        return metered;
+    }
+
+    /**
+     * Does the opcode take an operand?
+     *
+     * @param opcode the opcode.
+     * @return true if the next int in the code array belongs to this instruction.
+     */
+    public static boolean hasOperand(int opcode) {
+        return (opcode >= IPUSH && opcode <= FSTORE) || (opcode >= JMP && opcode <= JNE) || opcode == FUEL;
+    }
+
+    /**
+     * Name of an opcode, as used by the disassembler.
+     *
+     * @param opcode the opcode.
+     * @return its name.
+     */
+    public static String nameOf(int opcode) {
+        return opcode >= 0 && opcode < NAMES.length ? NAMES[opcode] : "???(" + opcode + ")";
+    }
+
+    /**
+     * Disassemble the program, one instruction per line.
+     *
+     * @return human readable listing of the code.
+     */
+    public String disassemble() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("; %d ints, %d floats, max stack %d%n", intSlots, floatSlots, maxStack));
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            result.append(String.format("%5d: %s", pc, nameOf(opcode)));
+            if (hasOperand(opcode)) {
+                int operand = code[pc + 1];
+                result.append(' ').append(operand);
+                if (opcode == ICONST) {
+                    result.append("  ; ").append(constants[operand]);
+                } else if (opcode == FCONST) {
+                    result.append("  ; ").append(Double.longBitsToDouble(constants[operand]));
+                }
+                pc += 2;
+            } else {
+                pc++;
+            }
+            result.append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return disassemble();
+    }
+}
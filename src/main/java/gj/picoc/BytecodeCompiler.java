@@ -0,0 +1,405 @@
+package gj.picoc;
+
+import java.util.Arrays;
+
+/**
+ * Compiles the tree produced by the {@link Parser} into {@link Bytecode} for the {@link VirtualMachine}.
+ *
+ * The tree is first passed through the {@link Resolver} for slots and types.  Conditions of "if" and "while" are
+ * compiled into conditional jumps directly (integer comparisons fuse with the jump) and a "while" loop is laid out
+ * with its test at the bottom so that every iteration executes a single jump.
+ *
+ * Metered code starts with a FUEL instruction that charges for every instruction outside loops, and every loop
+ * charges for its own instructions, less those of the loops in it, with a FUEL instruction in its test.  Fuel is thus
+ * only checked at the start and at loop back-edges, and a program is charged at least for what it executes: every
+ * instruction of a loop is charged on every iteration, whichever branches are taken.
+ */
+public class BytecodeCompiler {
+
+    private int[] code = new int[256];
+    private int size;
+
+    // Current and maximum depth of the operand stack, tracked while emitting.
+    private int depth;
+    private int maxDepth;
+
+    // Labels are indexes into 'labels' which holds their position in the code (or -1 while unknown).  Jumps to labels
+    // are recorded as (code index, label) pairs in 'fixups' and patched once everything is emitted.
+    private int[] labels = new int[16];
+    private int labelCount;
+    private int[] fixups = new int[32];
+    private int fixupCount;
+
+    private long[] intConstants;
+    private double[] floatConstants;
+    private long[] constants;
+
+    private boolean metered;
+
+    // When metered, the number of instructions emitted and of those the ones in loops, which the loops charge for.
+    private int instructions;
+    private int looped;
+
+    // Whether to compile metered code, false by default.
+    public void setMetered(boolean metered) {
+        this.metered = metered;
+    }
+
+    /**
+     * Compile a program.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     * @return the compiled program.
+     */
+    public Bytecode compile(Node program) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.COMPILE);
+        Bytecode bytecode = generate(program);
+        Metrics.end(probe, bytecode.getCode().length);
+        return bytecode;
+    }
+
+    private Bytecode generate(Node program) {
+        Resolver resolver = new Resolver();
+        resolver.resolve(program);
+
+        // The constant pool holds the integer constants followed by the raw bits of the float constants.
+        intConstants = resolver.getIntConstants();
+        floatConstants = resolver.getFloatConstants();
+        constants = Arrays.copyOf(intConstants, intConstants.length + floatConstants.length);
+        for (int i = 0; i < floatConstants.length; i++) {
+            constants[intConstants.length + i] = Double.doubleToRawLongBits(floatConstants[i]);
+        }
+
+        size = depth = maxDepth = labelCount = fixupCount = instructions = looped = 0;
+        if (metered) {
+            emit(Bytecode.FUEL, 0, 0);
+        }
+        statement(program);
+        emit(Bytecode.HALT);
+        if (metered) {
+            code[1] = instructions - looped;
+        }
+
+        for (int i = 0; i < fixupCount; i += 2) {
+            code[fixups[i]] = labels[fixups[i + 1]];
+        }
+        return new Bytecode(Arrays.copyOf(code, size), constants, resolver.getIntSlots(), resolver.getFloatSlots(),
+                maxDepth, metered);
+    }
+
+    // --- Emitting ---
+
+    // Emit an instruction, adjusting the stack depth by 'effect'.
+    private void emit(int opcode, int effect) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = opcode;
+        instructions++;
+        depth += effect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void emit(int opcode) {
+        emit(opcode, 0);
+    }
+
+    private void emit(int opcode, int operand, int effect) {
+        emit(opcode, effect);
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = operand;
+    }
+
+    private int newLabel() {
+        if (labelCount == labels.length) labels = Arrays.copyOf(labels, labelCount * 2);
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    private void mark(int label) {
+        labels[label] = size;
+    }
+
+    private void jump(int opcode, int label, int effect) {
+        emit(opcode, 0, effect);
+        if (fixupCount + 2 > fixups.length) fixups = Arrays.copyOf(fixups, fixups.length * 2);
+        fixups[fixupCount++] = size - 1;
+        fixups[fixupCount++] = label;
+    }
+
+    // --- Statements ---
+
+    private void statement(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case PROG:
+                statement(children[0]);
+                break;
+            case SEQ:
+                for (Node child : children) {
+                    if (child == null) break;
+                    statement(child);
+                }
+                break;
+            case IF: {
+                int otherwise = newLabel();
+                jumpIfFalse(children[0], otherwise);
+                statement(children[1]);
+                if (children[2] != null) {
+                    int end = newLabel();
+                    jump(Bytecode.JMP, end, 0);
+                    mark(otherwise);
+                    statement(children[2]);
+                    mark(end);
+                } else {
+                    mark(otherwise);
+                }
+                break;
+            }
+            case WHILE: {
+                int body = newLabel();
+                int test = newLabel();
+                int start = instructions;
+                int inner = looped;
+                jump(Bytecode.JMP, test, 0);
+                mark(body);
+                statement(children[1]);
+                mark(test);
+                int fuel = size + 1;
+                if (metered) {
+                    emit(Bytecode.FUEL, 0, 0);
+                }
+                jumpIfTrue(children[0], body);
+                if (metered) {
+                    code[fuel] = instructions - start - (looped - inner);
+                    looped = inner + instructions - start;
+                }
+                break;
+            }
+            case OUTPUT:
+                expression(children[0], children[0].getTypeType());
+                emit(children[0].getTypeType() == Node.TypeType.INT ? Bytecode.IOUT : Bytecode.FOUT, -1);
+                break;
+            case DECLARATION:
+                if (children[1] != null) {
+                    expression(children[1], node.getTypeType());
+                } else if (node.getTypeType() == Node.TypeType.INT) {
+                    emit(Bytecode.IPUSH, 0, 1);
+                } else {
+                    emit(Bytecode.FCONST, constant(0.0), 1);
+                }
+                store(node);
+                break;
+            case ASSIGNMENT:
+                expression(children[1], node.getTypeType());
+                store(node);
+                break;
+            case EMPTY:
+                break;
+            default:
+                throw new RuntimeException("Compile error, unexpected statement " + node.getNodeType());
+        }
+    }
+
+    private void store(Node node) {
+        emit(node.getTypeType() == Node.TypeType.INT ? Bytecode.ISTORE : Bytecode.FSTORE, node.getSlot(), -1);
+    }
+
+    // Index of a float in the constant pool, adding it if needed.
+    private int constant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = intConstants.length; i < constants.length; i++) {
+            if (constants[i] == bits) return i;
+        }
+        constants = Arrays.copyOf(constants, constants.length + 1);
+        constants[constants.length - 1] = bits;
+        return constants.length - 1;
+    }
+
+    // --- Expressions ---
+
+    // Compile an expression leaving its value on the stack, converted to 'type'.
+    private void expression(Node node, Node.TypeType type) {
+        expression(node);
+        if (node.getTypeType() == Node.TypeType.INT && type == Node.TypeType.FLOAT) {
+            emit(Bytecode.I2F);
+        } else if (node.getTypeType() == Node.TypeType.FLOAT && type == Node.TypeType.INT) {
+            emit(Bytecode.F2I);
+        }
+    }
+
+    // Compile an expression leaving its value on the stack in its own type.
+    private void expression(Node node) {
+        Node[] children = node.getChildren();
+        boolean isInt = node.getTypeType() == Node.TypeType.INT;
+        switch (node.getNodeType()) {
+            case VAL_INT: {
+                long value = intConstants[node.getSlot()];
+                if (value == (int) value) {
+                    emit(Bytecode.IPUSH, (int) value, 1);
+                } else {
+                    emit(Bytecode.ICONST, node.getSlot(), 1);
+                }
+                break;
+            }
+            case VAL_FLOAT:
+                emit(Bytecode.FCONST, intConstants.length + node.getSlot(), 1);
+                break;
+            case ID:
+                emit(isInt ? Bytecode.ILOAD : Bytecode.FLOAD, node.getSlot(), 1);
+                break;
+            case ASSIGNMENT:
+                expression(children[1], node.getTypeType());
+                emit(Bytecode.DUP, 1);
+                store(node);
+                break;
+            case PLUS:
+                binary(node, isInt ? Bytecode.IADD : Bytecode.FADD);
+                break;
+            case MINUS:
+                binary(node, isInt ? Bytecode.ISUB : Bytecode.FSUB);
+                break;
+            case MUL:
+                binary(node, isInt ? Bytecode.IMUL : Bytecode.FMUL);
+                break;
+            case DIV:
+                binary(node, isInt ? Bytecode.IDIV : Bytecode.FDIV);
+                break;
+            case NEGATE:
+                expression(children[0], node.getTypeType());
+                emit(isInt ? Bytecode.INEG : Bytecode.FNEG);
+                break;
+            case NOT:
+                expression(children[0], Node.TypeType.INT);
+                emit(Bytecode.NOT);
+                break;
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                if (isIntComparison(node)) {
+                    binary(node, compareOpcode(node.getNodeType(), Bytecode.ICMPLT), Node.TypeType.INT);
+                } else {
+                    binary(node, compareOpcode(node.getNodeType(), Bytecode.FCMPLT), Node.TypeType.FLOAT);
+                }
+                break;
+            case AND:
+            case OR: {
+                // Short-circuit, so materialise the outcome of the condition as 1 or 0.
+                int otherwise = newLabel();
+                int end = newLabel();
+                jumpIfFalse(node, otherwise);
+                emit(Bytecode.IPUSH, 1, 1);
+                jump(Bytecode.JMP, end, -1);
+                mark(otherwise);
+                emit(Bytecode.IPUSH, 0, 1);
+                mark(end);
+                break;
+            }
+            default:
+                throw new RuntimeException("Compile error, unexpected expression " + node.getNodeType());
+        }
+    }
+
+    private void binary(Node node, int opcode) {
+        binary(node, opcode, node.getTypeType());
+    }
+
+    // Both operands converted to 'type' followed by the operator.
+    private void binary(Node node, int opcode, Node.TypeType type) {
+        expression(node.getChildren()[0], type);
+        expression(node.getChildren()[1], type);
+        emit(opcode, -1);
+    }
+
+    private boolean isIntComparison(Node node) {
+        return node.getChildren()[0].getTypeType() == Node.TypeType.INT
+                && node.getChildren()[1].getTypeType() == Node.TypeType.INT;
+    }
+
+    // The comparison opcodes are laid out in the same order for every group, starting at 'base'.
+    private int compareOpcode(Node.NodeType type, int base) {
+        switch (type) {
+            case SMALLER: return base;
+            case GREATER: return base + 1;
+            case SMALLER_EQUAL: return base + 2;
+            case GREATER_EQUAL: return base + 3;
+            case EQUALS: return base + 4;
+            default: return base + 5;
+        }
+    }
+
+    private boolean isComparison(Node.NodeType type) {
+        switch (type) {
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The comparison that holds exactly when 'type' does not (for integers).
+    private Node.NodeType inverse(Node.NodeType type) {
+        switch (type) {
+            case SMALLER: return Node.NodeType.GREATER_EQUAL;
+            case GREATER: return Node.NodeType.SMALLER_EQUAL;
+            case SMALLER_EQUAL: return Node.NodeType.GREATER;
+            case GREATER_EQUAL: return Node.NodeType.SMALLER;
+            case EQUALS: return Node.NodeType.NOT_EQUALS;
+            default: return Node.NodeType.EQUALS;
+        }
+    }
+
+    // --- Conditions ---
+
+    private void jumpIfFalse(Node node, int label) {
+        Node[] children = node.getChildren();
+        Node.NodeType type = node.getNodeType();
+        if (isComparison(type) && isIntComparison(node)) {
+            expression(children[0]);
+            expression(children[1]);
+            jump(compareOpcode(inverse(type), Bytecode.JLT), label, -2);
+        } else if (type == Node.NodeType.NOT) {
+            jumpIfTrue(children[0], label);
+        } else if (type == Node.NodeType.AND) {
+            jumpIfFalse(children[0], label);
+            jumpIfFalse(children[1], label);
+        } else if (type == Node.NodeType.OR) {
+            int skip = newLabel();
+            jumpIfTrue(children[0], skip);
+            jumpIfFalse(children[1], label);
+            mark(skip);
+        } else {
+            expression(node, Node.TypeType.INT);
+            jump(Bytecode.JZ, label, -1);
+        }
+    }
+
+    private void jumpIfTrue(Node node, int label) {
+        Node[] children = node.getChildren();
+        Node.NodeType type = node.getNodeType();
+        if (isComparison(type) && isIntComparison(node)) {
+            expression(children[0]);
+            expression(children[1]);
+            jump(compareOpcode(type, Bytecode.JLT), label, -2);
+        } else if (type == Node.NodeType.NOT) {
+            jumpIfFalse(children[0], label);
+        } else if (type == Node.NodeType.AND) {
+            int skip = newLabel();
+            jumpIfFalse(children[0], skip);
+            jumpIfTrue(children[1], label);
+            mark(skip);
+        } else if (type == Node.NodeType.OR) {
+            jumpIfTrue(children[0], label);
+            jumpIfTrue(children[1], label);
+        } else {
+            expression(node, Node.TypeType.INT);
+            jump(Bytecode.JNZ, label, -1);
+        }
+    }
+}
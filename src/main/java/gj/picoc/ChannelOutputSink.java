@@ -0,0 +1,115 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output sink that writes every value on its own line, as {@link PrintStreamOutputSink} does, to a channel such as a
+ * file.  Lines are collected in a direct buffer and written when it is full or flushed, and integers are formatted
+ * without allocating.
+ */
+public class ChannelOutputSink implements OutputSink, AutoCloseable {
+
+    // Long.MIN_VALUE has 19 digits, a sign and a newline.
+    private static final int INT_LENGTH = 21;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[INT_LENGTH];
+
+    public ChannelOutputSink(WritableByteChannel channel) {
+        this(channel, 64 * 1024);
+    }
+
+    /**
+     * Create a sink.
+     *
+     * @param channel where the lines go.
+     * @param size the size of the buffer in bytes, at least large enough for a line.
+     */
+    public ChannelOutputSink(WritableByteChannel channel, int size) {
+        if (size < 32) {
+            throw new IllegalArgumentException("Buffer too small: " + size);
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Create a sink that writes to a file, replacing what was in it.
+     *
+     * @param file the file.
+     * @return the sink, to be closed.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static ChannelOutputSink create(Path file) throws IOException {
+        return new ChannelOutputSink(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public void writeInt(long value) {
+        if (buffer.remaining() < INT_LENGTH) {
+            drain();
+        }
+        // Digits from the end, negated so that Long.MIN_VALUE needs no special case.
+        int start = digits.length;
+        digits[--start] = '\n';
+        long rest = value < 0 ? value : -value;
+        do {
+            digits[--start] = (byte) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        String text = Double.toString(value);
+        if (buffer.remaining() < text.length() + 1) {
+            drain();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    /**
+     * Flush and close the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
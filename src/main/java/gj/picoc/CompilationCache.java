@@ -0,0 +1,209 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of analysed programs, in front of the {@link Scanner}, the {@link Parser} and the {@link SemAnalyser}.
+ *
+ * Programs are keyed by the SHA-256 of {@link Compiler#VERSION} and the source text, so an unchanged program is
+ * scanned, parsed and analysed only once, and a new compiler never sees trees of an old one.  Trees are kept as an
+ * {@link AstArena} with their types, and every hit gets a tree of its own since the optimisation passes change trees
+ * in place.  Symbols are not kept: every pass that needs them analyses the tree again.
+ *
+ * The cache holds at most a number of nodes in memory and evicts the least recently used programs beyond that.  With
+ * a directory, programs are also written there in the {@link AstFormat}, one file per key, and mapped back into memory
+ * on a miss in memory.  Programs with errors are not cached.  The cache may be shared by threads.
+ */
+public class CompilationCache {
+
+    private final int capacity;
+    private final Path directory;
+
+    // In access order, the least recently used first.
+    private final LinkedHashMap<String, AstArena> programs = new LinkedHashMap<>(16, 0.75f, true);
+    private int nodes;
+
+    private long hits;
+    private long diskHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * A cache in memory only.
+     *
+     * @param capacity the number of nodes to keep.
+     */
+    public CompilationCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * A cache in memory and in a directory.
+     *
+     * @param capacity the number of nodes to keep in memory.
+     * @param directory where to keep programs, created if needed, or null to keep them in memory only.
+     */
+    public CompilationCache(int capacity, Path directory) {
+        this.capacity = capacity;
+        this.directory = directory;
+    }
+
+    /**
+     * The analysed tree of a program, from the cache if possible.
+     *
+     * @param source the text of the program.
+     * @return a tree that belongs to the caller.
+     * @throws RuntimeException on the first lexical, syntax or semantic error.
+     */
+    public Node program(String source) {
+        String key = key(source);
+        AstArena arena;
+        synchronized (this) {
+            arena = programs.get(key);
+            if (arena != null) {
+                hits++;
+                return arena.toNode();
+            }
+        }
+
+        arena = load(key);
+        if (arena != null) {
+            synchronized (this) {
+                hits++;
+                diskHits++;
+                put(key, arena);
+            }
+            return arena.toNode();
+        }
+
+        Node program = new Parser(new Scanner(source)).program();
+        new SemAnalyser().analyse(program);
+        arena = AstArena.fromNode(program);
+        synchronized (this) {
+            misses++;
+            put(key, arena);
+        }
+        store(key, arena);
+        return program;
+    }
+
+    private void put(String key, AstArena arena) {
+        if (arena.size() > capacity) {
+            return;
+        }
+        AstArena old = programs.put(key, arena);
+        nodes += arena.size() - (old == null ? 0 : old.size());
+        Iterator<Map.Entry<String, AstArena>> eldest = programs.entrySet().iterator();
+        while (nodes > capacity) {
+            nodes -= eldest.next().getValue().size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * The key of a program: the hexadecimal SHA-256 of the compiler version and the source.
+     *
+     * @param source the text of the program.
+     * @return the key.
+     */
+    public static String key(String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(Compiler.VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    // --- Directory ---
+
+    private Path file(String key) {
+        return directory.resolve(key + ".ast");
+    }
+
+    // The program from the directory, null if it is not there or cannot be read.
+    private AstArena load(String key) {
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return AstFormat.loadArena(file(key));
+        } catch (IOException | RuntimeException e) {
+            // A missing, damaged or foreign file is a miss, and is written again.
+            return null;
+        }
+    }
+
+    // Written to a file of its own first and then moved, so that readers never see half a file.
+    private void store(String key, AstArena arena) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            AstFormat.save(arena, temporary);
+            Files.move(temporary, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The cache is only an optimisation, the program was compiled anyway.
+        }
+    }
+
+    // --- Statistics ---
+
+    // Programs found, in memory or in the directory.
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    // Programs found in the directory but not in memory.
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    // Programs scanned, parsed and analysed.
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Programs dropped from memory to stay within the capacity.
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Programs in memory.
+    public synchronized int getPrograms() {
+        return programs.size();
+    }
+
+    // Nodes in memory.
+    public synchronized int getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%d hits (%d from disk), %d misses (%.1f%% hits), %d evictions, %d programs, "
+                + "%d of %d nodes", hits, diskHits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions,
+                programs.size(), nodes, capacity);
+    }
+}
@@ -0,0 +1,15 @@
+package gj.picoc;
+
+/**
+ * A PicoC program compiled to a JVM class by the {@link JvmCompiler}.  Since all variables are locals of 'run', a
+ * compiled program may be run any number of times, also concurrently.
+ */
+public interface CompiledProgram {
+
+    /**
+     * Execute the program from the start.  All variables start out as zero.
+     *
+     * @param out where the values of "out" statements go.
+     */
+    void run(OutputSink out);
+}
@@ -0,0 +1,435 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Batch compiler: compiles many PicoC files at once, in parallel on a {@link ForkJoinPool}.
+ *
+ * Every file goes through the {@link Scanner}, the {@link Parser}, the {@link SemAnalyser}, optionally the
+ * optimisation passes and then a backend.  Files are independent, so the list is split in halves until a task has a
+ * few files left, and idle workers steal the other halves.  A failing file does not stop the others: each one gets a
+ * {@link Result} with its diagnostic, and a {@link Summary} adds them up.
+ *
+ * <pre>
+ * java gj.picoc.Compiler [-b check|bytecode|jvm] [-O] [-j threads] [-d dir] [-c dir] [-m] [-v]
+ *                        (file|directory|glob)...
+ * </pre>
+ *
+ * Directories are searched for ".pc" files, arguments with "*", "?", "[" or "{" are globs.  With "-d" the JVM backend
+ * writes a class file per program, with "-c" analysed programs are cached in a directory (see
+ * {@link CompilationCache}), with "-m" the time and allocation of every phase are added up and printed (see
+ * {@link Metrics}).  The exit code is 1 if any file failed.
+ *
+ * A class is named after its file, with the directories below the one that all files of the batch are in as packages,
+ * and class files are written in the same layout, so that the output directory can go on the class path.  A file
+ * whose class name was taken by another file fails.
+ */
+public class Compiler {
+
+    // Part of the key of cached programs, to be changed whenever the trees the front end produces change.
+    public static final String VERSION = "1.0";
+
+    public enum Backend {
+        // Analyse only.
+        CHECK,
+        // Bytecode for the VirtualMachine.
+        BYTECODE,
+        // A class file for the JVM.
+        JVM
+    }
+
+    // Files per task below which a task no longer splits.
+    private static final int BATCH = 4;
+
+    // Nodes kept in memory by the cache of the command line.
+    private static final int CACHE_NODES = 1 << 20;
+
+    private final Backend backend;
+    private final boolean optimise;
+    private final int parallelism;
+    private Path output;
+    private CompilationCache cache;
+
+    public Compiler(Backend backend, boolean optimise, int parallelism) {
+        this.backend = backend;
+        this.optimise = optimise;
+        this.parallelism = parallelism;
+    }
+
+    // Where the JVM backend writes class files, null (the default) to write none.
+    public void setOutput(Path output) {
+        this.output = output;
+    }
+
+    // The cache for analysed programs, null (the default) to analyse every file.
+    public void setCache(CompilationCache cache) {
+        this.cache = cache;
+    }
+
+    /** The outcome of compiling one file. */
+    public static class Result {
+        private final Path file;
+        private final String error;
+        private final long nanos;
+        private final int nodes;
+        private final int size;
+
+        Result(Path file, String error, long nanos, int nodes, int size) {
+            this.file = file;
+            this.error = error;
+            this.nanos = nanos;
+            this.nodes = nodes;
+            this.size = size;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        // The diagnostic, null if the file compiled.
+        public String getError() {
+            return error;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        // Number of nodes in the (optimised) tree.
+        public int getNodes() {
+            return nodes;
+        }
+
+        // Size of the generated code: bytecode instructions and operands, or class file bytes.
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return isOk() ? String.format("%s: ok, %d nodes, %d code, %.2f ms", file, nodes, size, nanos / 1e6)
+                    : file + ": " + error;
+        }
+    }
+
+    /** The outcome of a batch, one result per file in the order given. */
+    public static class Summary {
+        private final List<Result> results;
+        private final long nanos;
+
+        Summary(List<Result> results, long nanos) {
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public int getFailed() {
+            return (int) results.stream().filter(result -> !result.isOk()).count();
+        }
+
+        // Wall clock time of the whole batch.
+        public long getNanos() {
+            return nanos;
+        }
+
+        // Files per second.
+        public double getThroughput() {
+            return results.size() / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            long work = results.stream().mapToLong(Result::getNanos).sum();
+            return String.format("%d files, %d failed, %d nodes, %d code in %.1f ms (%.0f files/s, %.1f ms of work)",
+                    results.size(), getFailed(), results.stream().mapToLong(Result::getNodes).sum(),
+                    results.stream().mapToLong(Result::getSize).sum(), nanos / 1e6, getThroughput(), work / 1e6);
+        }
+    }
+
+    /**
+     * Compile files in parallel.
+     *
+     * @param files the files to compile.
+     * @return a result per file, in the same order.
+     */
+    public Summary compile(List<Path> files) {
+        Result[] results = new Result[files.size()];
+        long start = System.nanoTime();
+        // The directory that all files are in, null if they are on different roots.
+        Path base = files.isEmpty() ? null : directory(files.get(0));
+        for (Path file : files) {
+            while (base != null && !directory(file).startsWith(base)) {
+                base = base.getParent();
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Batch(files, base, new ConcurrentHashMap<>(), results, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return new Summary(Arrays.asList(results), System.nanoTime() - start);
+    }
+
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final Path base;
+        private final Map<String, Path> classes;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        Batch(List<Path> files, Path base, Map<String, Path> classes, Result[] results, int from, int to) {
+            this.files = files;
+            this.base = base;
+            this.classes = classes;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    results[i] = compile(files.get(i), base, classes);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(files, base, classes, results, from, middle),
+                        new Batch(files, base, classes, results, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Compile one file.  Errors in the program are reported in the result, not thrown.
+     *
+     * @param file the file to compile.
+     * @return the result.
+     */
+    public Result compile(Path file) {
+        return compile(file, directory(file), new ConcurrentHashMap<>());
+    }
+
+    private static Path directory(Path file) {
+        return file.toAbsolutePath().normalize().getParent();
+    }
+
+    // Classes are named after the path of their file below 'base', and 'classes' has the file each was written for.
+    private Result compile(Path file, Path base, Map<String, Path> classes) {
+        long start = System.nanoTime();
+        try {
+            Node program;
+            if (cache != null) {
+                program = cache.program(Files.readString(file));
+            } else {
+                try (Scanner scanner = new Scanner(file)) {
+                    program = new Parser(scanner).program();
+                }
+                new SemAnalyser().analyse(program);
+            }
+            if (optimise) {
+                new DeadCodeEliminator().optimise(program);
+                new LoopOptimiser().optimise(program);
+                new ValueNumbering().optimise(program);
+            }
+            int size = 0;
+            switch (backend) {
+                case BYTECODE:
+                    size = new BytecodeCompiler().compile(program).getCode().length;
+                    break;
+                case JVM:
+                    Path path = file.toAbsolutePath().normalize();
+                    String name = className(base == null ? path.getFileName() : base.relativize(path));
+                    byte[] bytes = new JvmCompiler().generate(program, name);
+                    if (output != null) {
+                        Path other = classes.putIfAbsent(name, file);
+                        if (other != null) {
+                            throw new RuntimeException("Class " + name.replace('/', '.') + " already written for "
+                                    + other);
+                        }
+                        Path target = output.resolve(name + ".class");
+                        Files.createDirectories(target.getParent());
+                        Files.write(target, bytes);
+                    }
+                    size = bytes.length;
+                    break;
+                default:
+                    break;
+            }
+            return new Result(file, null, System.nanoTime() - start, count(program), size);
+        } catch (IOException | RuntimeException e) {
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            return new Result(file, message, System.nanoTime() - start, 0, 0);
+        } catch (StackOverflowError e) {
+            return new Result(file, "Program nested too deeply", System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    /**
+     * The internal name of the class for a file: the directories become packages and the file name without ".pc" the
+     * class, with characters that cannot be in a Java identifier replaced by "_".
+     *
+     * @param file the path of the file, relative to the directory of the packages.
+     * @return the name, as in "demo/Fib" for "demo/Fib.pc".
+     */
+    static String className(Path file) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < file.getNameCount(); i++) {
+            String part = file.getName(i).toString();
+            if (i == file.getNameCount() - 1) {
+                part = part.replaceFirst("\\.pc$", "");
+            }
+            if (i > 0) {
+                name.append('/');
+            }
+            StringBuilder identifier = new StringBuilder();
+            for (int j = 0; j < part.length(); j++) {
+                char c = part.charAt(j);
+                identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+            }
+            if (identifier.length() == 0 || !Character.isJavaIdentifierStart(identifier.charAt(0))) {
+                identifier.insert(0, '_');
+            }
+            name.append(identifier);
+        }
+        return name.toString();
+    }
+
+    /**
+     * The files named by command line arguments: files as they are, ".pc" files under directories and files matching
+     * globs, each sorted by name.
+     *
+     * @param arguments files, directories and globs.
+     * @return the files.
+     * @throws IOException if a directory cannot be read.
+     */
+    public static List<Path> expand(List<String> arguments) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String argument : arguments) {
+            if (argument.matches(".*[*?\\[{].*")) {
+                // Search from the directory before the first wildcard.
+                int wildcard = argument.replaceAll("[*?\\[{].*", "").lastIndexOf('/');
+                Path base = Path.of(wildcard < 0 ? "." : argument.substring(0, wildcard + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument);
+                try (Stream<Path> walk = Files.walk(base)) {
+                    files.addAll(walk.filter(Files::isRegularFile)
+                            .map(path -> wildcard < 0 ? base.relativize(path) : path)
+                            .filter(matcher::matches).sorted().collect(Collectors.toList()));
+                }
+            } else if (Files.isDirectory(Path.of(argument))) {
+                try (Stream<Path> walk = Files.walk(Path.of(argument))) {
+                    files.addAll(walk.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".pc"))
+                            .sorted().collect(Collectors.toList()));
+                }
+            } else {
+                files.add(Path.of(argument));
+            }
+        }
+        return files;
+    }
+
+    private static int count(Node root) {
+        int count = 0;
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            count++;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Backend backend = Backend.CHECK;
+        boolean optimise = false;
+        boolean verbose = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path output = null;
+        Path cacheDirectory = null;
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-b":
+                    backend = Backend.valueOf(args[++i].toUpperCase());
+                    break;
+                case "-O":
+                    optimise = true;
+                    break;
+                case "-j":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-d":
+                    output = Path.of(args[++i]);
+                    break;
+                case "-c":
+                    cacheDirectory = Path.of(args[++i]);
+                    break;
+                case "-m":
+                    Metrics.setEnabled(true);
+                    break;
+                case "-v":
+                    verbose = true;
+                    break;
+                default:
+                    arguments.add(args[i]);
+            }
+        }
+        if (arguments.isEmpty()) {
+            System.err.println("Usage: java gj.picoc.Compiler [-b check|bytecode|jvm] [-O] [-j threads] [-d dir] "
+                    + "[-c dir] [-m] [-v] (file|directory|glob)...");
+            System.exit(2);
+        }
+
+        Compiler compiler = new Compiler(backend, optimise, threads);
+        if (output != null) {
+            Files.createDirectories(output);
+            compiler.setOutput(output);
+        }
+        CompilationCache cache = null;
+        if (cacheDirectory != null) {
+            cache = new CompilationCache(CACHE_NODES, cacheDirectory);
+            compiler.setCache(cache);
+        }
+        Summary summary = compiler.compile(expand(arguments));
+        for (Result result : summary.getResults()) {
+            if (verbose || !result.isOk()) {
+                System.out.println(result);
+            }
+        }
+        System.out.println(summary);
+        if (Metrics.isEnabled()) {
+            System.out.print(Metrics.snapshot());
+        }
+        if (verbose && cache != null) {
+            System.out.println("Cache: " + cache);
+        }
+        System.exit(summary.getFailed() > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,394 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optimisation pass that evaluates at compile time whatever does not depend on a variable.
+ *
+ * <ul>
+ * <li>Arithmetic, negation, "!", comparisons and boolean logic on literals are replaced by their value, with the same
+ * INT/FLOAT promotion as at runtime.  Integer division by zero is left for the runtime to report.</li>
+ * <li>Integer identities: x*1, 1*x, x/1, x+0, 0+x and x-0 become x, and x*0 and 0*x become 0 if x has no
+ * assignment in it and cannot fail.  Float identities are not applied since, for instance, -0.0 + 0 is not -0.0.</li>
+ * <li>"0 && x" and "1 || x" become 0 and 1, x is never evaluated anyway.</li>
+ * <li>An "if" with a constant condition is replaced by the branch taken, a "while" whose condition is 0 is removed.
+ * Since there is only one scope, declarations in removed code are kept, without their initialisers, at the start of
+ * the program where they change nothing.</li>
+ * </ul>
+ *
+ * The tree must have been through the {@link SemAnalyser} (which 'fold' does first) since folding depends on the
+ * types of the nodes.  The walk uses an explicit stack, like the analyser.
+ */
+public class ConstantFolder {
+
+    private int folded;
+    private int simplified;
+    private int pruned;
+    private int nodesBefore;
+    private int nodesAfter;
+
+    // Declarations taken from removed code, for the start of the program.
+    private final List<Node> rescued = new ArrayList<>();
+
+    /**
+     * Fold a program in place.
+     *
+     * @param program the tree as produced by the parser.
+     * @return the folded tree, the same PROG node.
+     */
+    public Node fold(Node program) {
+        new SemAnalyser().analyse(program);
+        folded = simplified = pruned = 0;
+        rescued.clear();
+        nodesBefore = count(program);
+
+        // Post-order: once all children of a node have been folded, the node is folded and replaces itself in its
+        // parent.  The root is never replaced.
+        Node[] nodes = new Node[64];
+        int[] next = new int[64];
+        int depth = 0;
+        nodes[depth] = program;
+        next[depth++] = 0;
+        while (depth > 0) {
+            Node node = nodes[depth - 1];
+            int i = next[depth - 1]++;
+            if (i < node.getChildCount()) {
+                Node child = node.getChildren()[i];
+                if (child == null) continue;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth++] = 0;
+            } else {
+                depth--;
+                Node replacement = foldNode(node);
+                if (replacement != node) {
+                    nodes[depth - 1].setChild(next[depth - 1] - 1, replacement);
+                }
+            }
+        }
+
+        // Every variable is still zero at the start of the program, so declaring them there changes nothing.  Anywhere
+        // else, such as in a loop, a declaration would reset the variable, which the removed code never did.
+        if (!rescued.isEmpty()) {
+            Node seq = new Node(Node.NodeType.SEQ);
+            seq.setTypeType(Node.TypeType.EMPTY);
+            for (Node declaration : rescued) {
+                seq.addChild(declaration);
+            }
+            if (program.getChildren()[0] != null) {
+                seq.addChild(program.getChildren()[0]);
+            }
+            program.setChild(0, flatten(seq));
+        }
+
+        nodesAfter = count(program);
+        return program;
+    }
+
+    // Number of expressions and tests replaced by a literal.
+    public int getFolded() {
+        return folded;
+    }
+
+    // Number of algebraic identities applied.
+    public int getSimplified() {
+        return simplified;
+    }
+
+    // Number of "if" and "while" statements of which code was removed.
+    public int getPruned() {
+        return pruned;
+    }
+
+    public int getNodesBefore() {
+        return nodesBefore;
+    }
+
+    public int getNodesAfter() {
+        return nodesAfter;
+    }
+
+    public int getRemoved() {
+        return nodesBefore - nodesAfter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("folded=%d simplified=%d pruned=%d nodes=%d->%d (removed %d)",
+                folded, simplified, pruned, nodesBefore, nodesAfter, getRemoved());
+    }
+
+    // Returns what replaces the node, which may be the node itself.
+    private Node foldNode(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case PLUS:
+            case MINUS:
+            case MUL:
+            case DIV:
+                if (isLiteral(children[0]) && isLiteral(children[1])) {
+                    return arithmetic(node);
+                }
+                return identity(node);
+            case NEGATE:
+                if (isLiteral(children[0])) {
+                    folded++;
+                    return node.getTypeType() == Node.TypeType.INT
+                            ? intLiteral(-intValue(children[0])) : floatLiteral(-floatValue(children[0]));
+                }
+                return node;
+            case NOT:
+                if (isLiteral(children[0])) {
+                    folded++;
+                    return intLiteral(intValue(children[0]) == 0 ? 1 : 0);
+                }
+                return node;
+            case AND:
+            case OR: {
+                // The left operand decides: "0 && x" is 0 and "1 || x" is 1.  Otherwise both have to be known.
+                if (!isLiteral(children[0])) {
+                    return node;
+                }
+                boolean left = intValue(children[0]) != 0;
+                if (node.getNodeType() == Node.NodeType.AND ? !left : left) {
+                    folded++;
+                    return intLiteral(left ? 1 : 0);
+                }
+                if (isLiteral(children[1])) {
+                    folded++;
+                    return intLiteral(intValue(children[1]) != 0 ? 1 : 0);
+                }
+                return node;
+            }
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                if (isLiteral(children[0]) && isLiteral(children[1])) {
+                    folded++;
+                    return intLiteral(compare(node) ? 1 : 0);
+                }
+                return node;
+            case IF:
+                if (isLiteral(children[0])) {
+                    pruned++;
+                    if (intValue(children[0]) != 0) {
+                        return children[2] == null ? children[1] : keepDeclarations(children[1], children[2]);
+                    }
+                    return children[2] == null
+                            ? keepDeclarations(new Node(Node.NodeType.EMPTY), children[1])
+                            : keepDeclarations(children[2], children[1]);
+                }
+                return node;
+            case WHILE:
+                if (isLiteral(children[0]) && intValue(children[0]) == 0) {
+                    pruned++;
+                    return keepDeclarations(new Node(Node.NodeType.EMPTY), children[1]);
+                }
+                return node;
+            case SEQ:
+                return flatten(node);
+            default:
+                return node;
+        }
+    }
+
+    private Node arithmetic(Node node) {
+        Node[] children = node.getChildren();
+        if (node.getTypeType() == Node.TypeType.INT) {
+            long a = intValue(children[0]);
+            long b = intValue(children[1]);
+            switch (node.getNodeType()) {
+                case PLUS: folded++; return intLiteral(a + b);
+                case MINUS: folded++; return intLiteral(a - b);
+                case MUL: folded++; return intLiteral(a * b);
+                default:
+                    if (b == 0) return node;
+                    folded++;
+                    return intLiteral(a / b);
+            }
+        }
+        double a = floatValue(children[0]);
+        double b = floatValue(children[1]);
+        folded++;
+        switch (node.getNodeType()) {
+            case PLUS: return floatLiteral(a + b);
+            case MINUS: return floatLiteral(a - b);
+            case MUL: return floatLiteral(a * b);
+            default: return floatLiteral(a / b);
+        }
+    }
+
+    // Integer identities with one literal operand.
+    private Node identity(Node node) {
+        if (node.getTypeType() != Node.TypeType.INT) {
+            return node;
+        }
+        Node left = node.getChildren()[0];
+        Node right = node.getChildren()[1];
+        Long l = isLiteral(left) ? intValue(left) : null;
+        Long r = isLiteral(right) ? intValue(right) : null;
+        switch (node.getNodeType()) {
+            case PLUS:
+                if (r != null && r == 0) return simplified(left);
+                if (l != null && l == 0) return simplified(right);
+                break;
+            case MINUS:
+                if (r != null && r == 0) return simplified(left);
+                break;
+            case MUL:
+                if (r != null && r == 1) return simplified(left);
+                if (l != null && l == 1) return simplified(right);
+                if (r != null && r == 0 && isRemovable(left)) return simplified(intLiteral(0));
+                if (l != null && l == 0 && isRemovable(right)) return simplified(intLiteral(0));
+                break;
+            case DIV:
+                if (r != null && r == 1) return simplified(left);
+                break;
+        }
+        return node;
+    }
+
+    private Node simplified(Node replacement) {
+        simplified++;
+        return replacement;
+    }
+
+    // Remove empty statements from a sequence and splice in nested sequences, as left behind by pruning.
+    private Node flatten(Node seq) {
+        int count = seq.getChildCount();
+        boolean changed = false;
+        for (int i = 0; i < count; i++) {
+            Node.NodeType type = seq.getChildren()[i].getNodeType();
+            changed |= type == Node.NodeType.EMPTY || type == Node.NodeType.SEQ;
+        }
+        if (!changed) {
+            return seq;
+        }
+        Node result = new Node(Node.NodeType.SEQ);
+        result.setTypeType(Node.TypeType.EMPTY);
+        for (int i = 0; i < count; i++) {
+            Node child = seq.getChildren()[i];
+            if (child.getNodeType() == Node.NodeType.SEQ) {
+                for (int j = 0; j < child.getChildCount(); j++) {
+                    result.addChild(child.getChildren()[j]);
+                }
+            } else if (child.getNodeType() != Node.NodeType.EMPTY) {
+                result.addChild(child);
+            }
+        }
+        return result;
+    }
+
+    // The statement that is kept.  The declarations in the code that is removed are kept, without initialisers, for the
+    // start of the program.
+    private Node keepDeclarations(Node kept, Node removed) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(removed);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.DECLARATION) {
+                Node declaration = new Node(Node.NodeType.DECLARATION, node.getValue(), node.getChildren()[0]);
+                declaration.setTypeType(node.getTypeType());
+                declaration.setSymbol(node.getSymbol());
+                rescued.add(declaration);
+            } else if (node.getNodeType() == Node.NodeType.SEQ || node.getNodeType() == Node.NodeType.IF
+                    || node.getNodeType() == Node.NodeType.WHILE) {
+                // Declarations are statements, so only statements need to be searched.  Keep them in order.
+                for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                    if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+                }
+            }
+        }
+        return kept;
+    }
+
+    private boolean compare(Node node) {
+        Node left = node.getChildren()[0];
+        Node right = node.getChildren()[1];
+        if (left.getTypeType() == Node.TypeType.INT && right.getTypeType() == Node.TypeType.INT) {
+            long a = intValue(left);
+            long b = intValue(right);
+            switch (node.getNodeType()) {
+                case SMALLER: return a < b;
+                case GREATER: return a > b;
+                case SMALLER_EQUAL: return a <= b;
+                case GREATER_EQUAL: return a >= b;
+                case EQUALS: return a == b;
+                default: return a != b;
+            }
+        }
+        double a = floatValue(left);
+        double b = floatValue(right);
+        switch (node.getNodeType()) {
+            case SMALLER: return a < b;
+            case GREATER: return a > b;
+            case SMALLER_EQUAL: return a <= b;
+            case GREATER_EQUAL: return a >= b;
+            case EQUALS: return a == b;
+            default: return a != b;
+        }
+    }
+
+    // Can the expression be left out without a difference: it assigns nothing and cannot fail?
+    private static boolean isRemovable(Node node) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(node);
+        while (!todo.isEmpty()) {
+            Node n = todo.remove(todo.size() - 1);
+            if (n.getNodeType() == Node.NodeType.ASSIGNMENT || Temporaries.canTrap(n)) return false;
+            for (int i = 0; i < n.getChildCount(); i++) {
+                todo.add(n.getChildren()[i]);
+            }
+        }
+        return true;
+    }
+
+    private static int count(Node root) {
+        int count = 0;
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node n = todo.remove(todo.size() - 1);
+            count++;
+            for (int i = 0; i < n.getChildCount(); i++) {
+                if (n.getChildren()[i] != null) todo.add(n.getChildren()[i]);
+            }
+        }
+        return count;
+    }
+
+    private static boolean isLiteral(Node node) {
+        return node.getNodeType() == Node.NodeType.VAL_INT || node.getNodeType() == Node.NodeType.VAL_FLOAT;
+    }
+
+    // The value of a literal, as the runtime would see it.  A float used as an int is truncated.
+    private static long intValue(Node literal) {
+        return literal.getNodeType() == Node.NodeType.VAL_INT
+                ? Long.parseLong(literal.getValue()) : (long) Double.parseDouble(literal.getValue());
+    }
+
+    private static double floatValue(Node literal) {
+        return literal.getNodeType() == Node.NodeType.VAL_INT
+                ? Long.parseLong(literal.getValue()) : Double.parseDouble(literal.getValue());
+    }
+
+    private static Node intLiteral(long value) {
+        Node node = new Node(Node.NodeType.VAL_INT, Long.toString(value));
+        node.setTypeType(Node.TypeType.INT);
+        return node;
+    }
+
+    private static Node floatLiteral(double value) {
+        Node node = new Node(Node.NodeType.VAL_FLOAT, Double.toString(value));
+        node.setTypeType(Node.TypeType.FLOAT);
+        return node;
+    }
+}
@@ -0,0 +1,402 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimisation pass that removes code whose effect can never be observed.
+ *
+ * <ol>
+ * <li>The {@link ConstantFolder} runs first, which removes the branches of "if" and "while" statements whose
+ * condition is constant.</li>
+ * <li>Copy propagation: after "a = b", later reads of "a" read "b" instead, for as long as neither is assigned again.
+ * Loops and branches are handled conservatively: a copy survives a loop only if the loop assigns neither variable, and
+ * after an "if" only the copies made on both paths remain.</li>
+ * <li>Dead store elimination: a backward liveness analysis over the tree finds assignments whose value is never read.
+ * These are removed, or reduced to the assignments nested in them.  A declaration whose initial value is never read
+ * loses its initialiser (it stays, since there is only one scope).  The body of a loop is analysed until liveness no
+ * longer changes before anything in it is removed.</li>
+ * </ol>
+ *
+ * "out" statements, loops (which may not terminate) and expressions that may fail at runtime (integer division by a
+ * variable) are never removed.  The tree is rewritten in place.
+ */
+public class DeadCodeEliminator {
+
+    private int copiesPropagated;
+    private int storesRemoved;
+    private int statementsBefore;
+    private int statementsAfter;
+
+    // Names of the variables copied from, by symbol.
+    private final Map<Integer, String> names = new HashMap<>();
+
+    /**
+     * Optimise a program.
+     *
+     * @param program the tree as produced by the parser.
+     * @return the same PROG node.
+     */
+    public Node optimise(Node program) {
+        copiesPropagated = storesRemoved = 0;
+        statementsBefore = countStatements(program);
+
+        new ConstantFolder().fold(program);
+        new SemAnalyser().analyse(program);
+        propagate(program.getChildren()[0], new HashMap<>());
+        program.setChild(0, eliminate(program.getChildren()[0], new BitSet(), true));
+
+        statementsAfter = countStatements(program);
+        return program;
+    }
+
+    public int getCopiesPropagated() {
+        return copiesPropagated;
+    }
+
+    // Assignments and initialisers removed, including assignments removed from the middle of "a = b = c".
+    public int getStoresRemoved() {
+        return storesRemoved;
+    }
+
+    public int getStatementsBefore() {
+        return statementsBefore;
+    }
+
+    public int getStatementsAfter() {
+        return statementsAfter;
+    }
+
+    public int getStatementsRemoved() {
+        return statementsBefore - statementsAfter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("copies=%d stores=%d statements=%d->%d (removed %d)", copiesPropagated,
+                storesRemoved, statementsBefore, statementsAfter, getStatementsRemoved());
+    }
+
+    // --- Copy propagation, forward.  'copies' maps a variable to the variable it currently holds a copy of. ---
+
+    private void propagate(Node node, Map<Integer, Integer> copies) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    propagate(children[i], copies);
+                }
+                break;
+            case DECLARATION:
+            case ASSIGNMENT: {
+                Node value = children[1];
+                if (value != null) {
+                    value = substitute(value, copies);
+                    node.setChild(1, value);
+                }
+                kill(node.getSymbol(), copies);
+                if (value != null && value.getNodeType() == Node.NodeType.ID && value.getSymbol() != node.getSymbol()
+                        && value.getTypeType() == node.getTypeType()) {
+                    copies.put(node.getSymbol(), value.getSymbol());
+                    names.put(value.getSymbol(), value.getValue());
+                }
+                break;
+            }
+            case OUTPUT:
+                node.setChild(0, substitute(children[0], copies));
+                break;
+            case IF: {
+                node.setChild(0, substitute(children[0], copies));
+                Map<Integer, Integer> otherwise = new HashMap<>(copies);
+                propagate(children[1], copies);
+                if (children[2] != null) {
+                    propagate(children[2], otherwise);
+                }
+                copies.entrySet().retainAll(otherwise.entrySet());
+                break;
+            }
+            case WHILE: {
+                BitSet assigned = new BitSet();
+                assigned(node, assigned);
+                for (int v = assigned.nextSetBit(0); v >= 0; v = assigned.nextSetBit(v + 1)) {
+                    kill(v, copies);
+                }
+                node.setChild(0, substitute(children[0], copies));
+                propagate(children[1], new HashMap<>(copies));
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // Replace reads of copies in an expression.  If the expression assigns, its reads may come after the assignment,
+    // so nothing is replaced and the assigned variables stop being copies.
+    private Node substitute(Node expression, Map<Integer, Integer> copies) {
+        if (copies.isEmpty()) {
+            return expression;
+        }
+        BitSet assigned = new BitSet();
+        assigned(expression, assigned);
+        if (!assigned.isEmpty()) {
+            for (int v = assigned.nextSetBit(0); v >= 0; v = assigned.nextSetBit(v + 1)) {
+                kill(v, copies);
+            }
+            return expression;
+        }
+        List<Node> todo = new ArrayList<>();
+        todo.add(expression);
+        Node result = replace(expression, copies);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            for (int i = 0; i < node.getChildCount(); i++) {
+                Node child = node.getChildren()[i];
+                Node replacement = replace(child, copies);
+                if (replacement != child) {
+                    node.setChild(i, replacement);
+                } else {
+                    todo.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Node replace(Node node, Map<Integer, Integer> copies) {
+        if (node.getNodeType() != Node.NodeType.ID) {
+            return node;
+        }
+        Integer source = copies.get(node.getSymbol());
+        if (source == null) {
+            return node;
+        }
+        copiesPropagated++;
+        Node id = new Node(Node.NodeType.ID, names.get(source));
+        id.setSymbol(source);
+        id.setTypeType(node.getTypeType());
+        return id;
+    }
+
+    private void kill(int variable, Map<Integer, Integer> copies) {
+        copies.remove(variable);
+        copies.values().removeIf(source -> source == variable);
+    }
+
+    // --- Dead store elimination, backward.  'live' holds the variables that may be read later. ---
+
+    // Returns the statement that replaces 'node', null to remove it.  Only when 'transform' is set is anything changed,
+    // otherwise 'live' is just updated (as when finding the fixed point of a loop).
+    private Node eliminate(Node node, BitSet live, boolean transform) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ: {
+                Node[] kept = new Node[node.getChildCount()];
+                int count = 0;
+                for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                    Node statement = eliminate(children[i], live, transform);
+                    if (statement != null && statement.getNodeType() != Node.NodeType.EMPTY) {
+                        kept[count++] = statement;
+                    }
+                }
+                if (!transform || count == node.getChildCount()) {
+                    return node;
+                }
+                Node seq = new Node(Node.NodeType.SEQ);
+                seq.setTypeType(Node.TypeType.EMPTY);
+                for (int i = count - 1; i >= 0; i--) {
+                    seq.addChild(kept[i]);
+                }
+                return seq;
+            }
+            case DECLARATION: {
+                Node value = children[1];
+                if (value != null && !live.get(node.getSymbol()) && isRemovable(value)) {
+                    if (transform) {
+                        node.setChild(1, null);
+                        storesRemoved++;
+                    }
+                    return node;
+                }
+                live.clear(node.getSymbol());
+                if (value != null) uses(value, live);
+                return node;
+            }
+            case ASSIGNMENT:
+                return assignment(node, live, transform);
+            case OUTPUT:
+                uses(children[0], live);
+                return node;
+            case IF: {
+                BitSet otherwise = (BitSet) live.clone();
+                Node then = eliminate(children[1], live, transform);
+                Node elsewise = children[2] == null ? null : eliminate(children[2], otherwise, transform);
+                live.or(otherwise);
+                uses(children[0], live);
+                if (!transform) {
+                    return node;
+                }
+                boolean thenEmpty = then == null || isEmpty(then);
+                boolean elseEmpty = elsewise == null || isEmpty(elsewise);
+                if (thenEmpty && elseEmpty && isRemovable(children[0])) {
+                    return null;
+                }
+                node.setChild(1, then == null ? empty() : then);
+                node.setChild(2, elseEmpty ? null : elsewise);
+                return node;
+            }
+            case WHILE: {
+                // Live at the top of the loop: what is live after it, plus whatever the condition and body read
+                // before writing, around the loop as often as it takes for this to stop growing.
+                BitSet after = (BitSet) live.clone();
+                BitSet top = (BitSet) after.clone();
+                uses(children[0], top);
+                while (true) {
+                    BitSet next = (BitSet) top.clone();
+                    eliminate(children[1], next, false);
+                    next.or(after);
+                    uses(children[0], next);
+                    if (next.equals(top)) break;
+                    top = next;
+                }
+                if (transform) {
+                    BitSet body = (BitSet) top.clone();
+                    Node statement = eliminate(children[1], body, true);
+                    node.setChild(1, statement == null ? empty() : statement);
+                }
+                live.clear();
+                live.or(top);
+                return node;
+            }
+            default:
+                return node;
+        }
+    }
+
+    // "x = e" as a statement.  "a = b = e" assigns every variable in the chain, which may be dropped separately.
+    private Node assignment(Node node, BitSet live, boolean transform) {
+        Node value = node.getChildren()[1];
+        if (!live.get(node.getSymbol())) {
+            if (value.getNodeType() == Node.NodeType.ASSIGNMENT) {
+                if (transform) storesRemoved++;
+                return assignment(value, live, transform);
+            }
+            if (isRemovable(value)) {
+                if (transform) storesRemoved++;
+                return null;
+            }
+        }
+
+        // Dead variables inside the chain are dropped if the value needs no conversion on the way.
+        if (transform) {
+            Node link = node;
+            Node inner = link.getChildren()[1];
+            while (inner.getNodeType() == Node.NodeType.ASSIGNMENT) {
+                Node innerValue = inner.getChildren()[1];
+                if (!live.get(inner.getSymbol()) && inner.getSymbol() != node.getSymbol()
+                        && innerValue.getTypeType() == inner.getTypeType()) {
+                    link.setChild(1, innerValue);
+                    storesRemoved++;
+                } else {
+                    link = inner;
+                }
+                inner = link.getChildren()[1];
+            }
+        }
+
+        // Every variable of the chain is written; everything read is live.
+        for (Node link = node; link.getNodeType() == Node.NodeType.ASSIGNMENT; link = link.getChildren()[1]) {
+            live.clear(link.getSymbol());
+        }
+        uses(node, live);
+        return node;
+    }
+
+    // Add the variables read by an expression.  The targets of assignments are not read.
+    private void uses(Node expression, BitSet live) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(expression);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.ID) {
+                live.set(node.getSymbol());
+            }
+            int first = node.getNodeType() == Node.NodeType.ASSIGNMENT ? 1 : 0;
+            for (int i = first; i < node.getChildCount(); i++) {
+                todo.add(node.getChildren()[i]);
+            }
+        }
+    }
+
+    // The variables assigned anywhere in a tree.
+    private void assigned(Node root, BitSet assigned) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.ASSIGNMENT || node.getNodeType() == Node.NodeType.DECLARATION) {
+                assigned.set(node.getSymbol());
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+    }
+
+    // Can the expression be left out without a difference: it assigns nothing and cannot fail?
+    private static boolean isRemovable(Node expression) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(expression);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.ASSIGNMENT || Temporaries.canTrap(node)) {
+                return false;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                todo.add(node.getChildren()[i]);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Node statement) {
+        return statement.getNodeType() == Node.NodeType.EMPTY
+                || (statement.getNodeType() == Node.NodeType.SEQ && statement.getChildCount() == 0);
+    }
+
+    private static Node empty() {
+        Node empty = new Node(Node.NodeType.EMPTY);
+        empty.setTypeType(Node.TypeType.EMPTY);
+        return empty;
+    }
+
+    // Statements are the children of sequences and the branches and bodies of "if" and "while", sequences excluded.
+    private static int countStatements(Node program) {
+        int count = 0;
+        List<Node> todo = new ArrayList<>();
+        todo.add(program.getChildren()[0]);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            Node[] children = node.getChildren();
+            switch (node.getNodeType()) {
+                case SEQ:
+                    for (int i = 0; i < node.getChildCount(); i++) todo.add(children[i]);
+                    break;
+                case IF:
+                    count++;
+                    todo.add(children[1]);
+                    if (children[2] != null) todo.add(children[2]);
+                    break;
+                case WHILE:
+                    count++;
+                    todo.add(children[1]);
+                    break;
+                default:
+                    count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,280 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Table driven lexer producing the same tokens as the {@link Scanner}, straight into a {@link TokenBuffer}.
+ *
+ * Every byte of the (ASCII) source is mapped to a character class by a lookup table, and tokens are recognised by a
+ * DFA whose transitions are a table indexed by state and character class.  The longest match wins, as with the
+ * Scanner.  Ids that could be keywords are looked up in a perfect hash of the keywords, so every keyword test is a
+ * single comparison.
+ */
+public class DfaLexer {
+
+    private static final Token.TokenType[] TYPES = Token.TokenType.values();
+
+    // Character classes.  White space and new lines come first so that both can be skipped with a single test.
+    private static final int C_WS = 0, C_NL = 1, C_OTHER = 2, C_END = 3, C_DIGIT = 4, C_ALPHA = 5, C_DOT = 6,
+            C_MINUS = 7, C_SLASH = 8, C_GT = 9, C_LT = 10, C_EQ = 11, C_BANG = 12, C_BAR = 13, C_AMP = 14,
+            C_LPAR = 15, C_RPAR = 16, C_LBRA = 17, C_RBRA = 18, C_COMMA = 19, C_SEMI = 20, C_PLUS = 21, C_STAR = 22;
+    private static final int CLASSES = 23;
+    private static final byte[] CLASS = new byte[256];
+
+    // States.  There is no transition out of STOP, so a token ends as soon as the DFA would move there.
+    private static final int STOP = 0, START = 1, S_LPAR = 2, S_RPAR = 3, S_LBRA = 4, S_RBRA = 5, S_COMMA = 6,
+            S_SEMI = 7, S_PLUS = 8, S_STAR = 9, S_SLASH = 10, S_COMMENT = 11, S_GT = 12, S_GE = 13, S_LT = 14,
+            S_LE = 15, S_ASSIGN = 16, S_EQUALS = 17, S_BANG = 18, S_NE = 19, S_BAR = 20, S_OR = 21, S_AMP = 22,
+            S_AND = 23, S_MINUS = 24, S_INT = 25, S_FLOAT = 26, S_ID = 27;
+    private static final int STATES = 28;
+    private static final byte[] NEXT = new byte[STATES * CLASSES];
+
+    // What a state accepts: the ordinal of a token type, SKIP for a comment or NONE if reaching the end of a token in
+    // this state is an error.
+    private static final int NONE = -1, SKIP = -2;
+    private static final byte[] ACCEPT = new byte[STATES];
+
+    // Keywords, at the index given by 'hash'.
+    private static final byte[][] KEYWORDS = new byte[8][];
+    private static final Token.TokenType[] KEYWORD_TYPES = new Token.TokenType[8];
+
+    static {
+        CLASS[' '] = CLASS['\t'] = CLASS['\r'] = C_WS;
+        CLASS['\n'] = C_NL;
+        for (int ch = 0; ch < 256; ch++) {
+            if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n') CLASS[ch] = C_OTHER;
+        }
+        for (int ch = '0'; ch <= '9'; ch++) CLASS[ch] = C_DIGIT;
+        for (int ch = 'a'; ch <= 'z'; ch++) CLASS[ch] = C_ALPHA;
+        CLASS['\u001a'] = C_END;
+        CLASS['.'] = C_DOT;
+        CLASS['-'] = C_MINUS;
+        CLASS['/'] = C_SLASH;
+        CLASS['>'] = C_GT;
+        CLASS['<'] = C_LT;
+        CLASS['='] = C_EQ;
+        CLASS['!'] = C_BANG;
+        CLASS['|'] = C_BAR;
+        CLASS['&'] = C_AMP;
+        CLASS['('] = C_LPAR;
+        CLASS[')'] = C_RPAR;
+        CLASS['{'] = C_LBRA;
+        CLASS['}'] = C_RBRA;
+        CLASS[','] = C_COMMA;
+        CLASS[';'] = C_SEMI;
+        CLASS['+'] = C_PLUS;
+        CLASS['*'] = C_STAR;
+
+        edge(START, C_LPAR, S_LPAR);
+        edge(START, C_RPAR, S_RPAR);
+        edge(START, C_LBRA, S_LBRA);
+        edge(START, C_RBRA, S_RBRA);
+        edge(START, C_COMMA, S_COMMA);
+        edge(START, C_SEMI, S_SEMI);
+        edge(START, C_PLUS, S_PLUS);
+        edge(START, C_STAR, S_STAR);
+        edge(START, C_SLASH, S_SLASH);
+        edge(START, C_GT, S_GT);
+        edge(START, C_LT, S_LT);
+        edge(START, C_EQ, S_ASSIGN);
+        edge(START, C_BANG, S_BANG);
+        edge(START, C_BAR, S_BAR);
+        edge(START, C_AMP, S_AMP);
+        edge(START, C_MINUS, S_MINUS);
+        edge(START, C_DIGIT, S_INT);
+        edge(START, C_ALPHA, S_ID);
+
+        // A comment runs up to (not including) the end of the line.
+        edge(S_SLASH, C_SLASH, S_COMMENT);
+        for (int c = 0; c < CLASSES; c++) {
+            if (c != C_NL && c != C_END) edge(S_COMMENT, c, S_COMMENT);
+        }
+
+        edge(S_GT, C_EQ, S_GE);
+        edge(S_LT, C_EQ, S_LE);
+        edge(S_ASSIGN, C_EQ, S_EQUALS);
+        edge(S_BANG, C_EQ, S_NE);
+        edge(S_BAR, C_BAR, S_OR);
+        edge(S_AMP, C_AMP, S_AND);
+
+        // A minus followed by a digit is a negative number.  Numbers are digits and dots, with a dot making a float.
+        edge(S_MINUS, C_DIGIT, S_INT);
+        edge(S_INT, C_DIGIT, S_INT);
+        edge(S_INT, C_DOT, S_FLOAT);
+        edge(S_FLOAT, C_DIGIT, S_FLOAT);
+        edge(S_FLOAT, C_DOT, S_FLOAT);
+
+        edge(S_ID, C_ALPHA, S_ID);
+        edge(S_ID, C_DIGIT, S_ID);
+
+        Arrays.fill(ACCEPT, (byte) NONE);
+        accept(S_LPAR, Token.TokenType.LPAR);
+        accept(S_RPAR, Token.TokenType.RPAR);
+        accept(S_LBRA, Token.TokenType.LBRA);
+        accept(S_RBRA, Token.TokenType.RBRA);
+        accept(S_COMMA, Token.TokenType.COMMA);
+        accept(S_SEMI, Token.TokenType.SEMI);
+        accept(S_PLUS, Token.TokenType.PLUS);
+        accept(S_STAR, Token.TokenType.MUL);
+        accept(S_SLASH, Token.TokenType.DIV);
+        ACCEPT[S_COMMENT] = SKIP;
+        accept(S_GT, Token.TokenType.CMP_G);
+        accept(S_GE, Token.TokenType.CMP_GE);
+        accept(S_LT, Token.TokenType.CMP_S);
+        accept(S_LE, Token.TokenType.CMP_SE);
+        accept(S_ASSIGN, Token.TokenType.ASSIGN);
+        accept(S_EQUALS, Token.TokenType.CMP_EQUALS);
+        accept(S_BANG, Token.TokenType.NOT);
+        accept(S_NE, Token.TokenType.CMP_NE);
+        accept(S_OR, Token.TokenType.OR);
+        accept(S_AND, Token.TokenType.AND);
+        accept(S_MINUS, Token.TokenType.MINUS);
+        accept(S_INT, Token.TokenType.VAL_INT);
+        accept(S_FLOAT, Token.TokenType.VAL_FLOAT);
+        accept(S_ID, Token.TokenType.ID);
+
+        keyword("int", Token.TokenType.KW_INT);
+        keyword("float", Token.TokenType.KW_FLOAT);
+        keyword("if", Token.TokenType.KW_IF);
+        keyword("else", Token.TokenType.KW_ELSE);
+        keyword("while", Token.TokenType.KW_WHILE);
+        keyword("out", Token.TokenType.KW_OUT);
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (KEYWORDS[i] == null) KEYWORDS[i] = new byte[0];
+        }
+    }
+
+    private static void edge(int from, int characterClass, int to) {
+        NEXT[from * CLASSES + characterClass] = (byte) to;
+    }
+
+    private static void accept(int state, Token.TokenType type) {
+        ACCEPT[state] = (byte) type.ordinal();
+    }
+
+    private static void keyword(String keyword, Token.TokenType type) {
+        byte[] bytes = keyword.getBytes(StandardCharsets.US_ASCII);
+        int h = hash(bytes[0], bytes[bytes.length - 1], bytes.length);
+        if (KEYWORDS[h] != null) {
+            throw new IllegalStateException("Keyword hash is not perfect for " + keyword);
+        }
+        KEYWORDS[h] = bytes;
+        KEYWORD_TYPES[h] = type;
+    }
+
+    // Perfect hash of the keywords, from their first and last character and their length.
+    private static int hash(int first, int last, int length) {
+        return (first + last + 5 * length) & 7;
+    }
+
+    private DfaLexer() {
+    }
+
+    /**
+     * Tokenize a program.
+     *
+     * @param program the program, which must be ASCII.
+     * @return the tokens, up to and including EOF.
+     */
+    public static TokenBuffer tokenize(String program) {
+        return tokenize(ByteBuffer.wrap(program.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Tokenize a program held in a file, which is memory mapped as a whole.
+     *
+     * @param path the file, containing ASCII.
+     * @return the tokens, up to and including EOF.
+     * @throws IOException if the file cannot be read or is larger than 2GB.
+     */
+    public static TokenBuffer tokenize(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to tokenize in one piece: " + path);
+            }
+            return tokenize(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    /**
+     * Tokenize the bytes of a program between the position and the limit of a buffer.  Offsets of the tokens are
+     * indexes in the buffer.  The position of the buffer is not changed.
+     *
+     * @param source the program, ASCII.
+     * @return the tokens, up to and including EOF.
+     */
+    public static TokenBuffer tokenize(ByteBuffer source) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.LEX);
+        TokenBuffer tokens = lex(source);
+        Metrics.end(probe, tokens.size());
+        return tokens;
+    }
+
+    private static TokenBuffer lex(ByteBuffer source) {
+        // Typical programs have a token for every 3 to 4 bytes, about half of them ids and literals.
+        TokenBuffer tokens = new TokenBuffer(source.remaining() / 3 + 16, source.remaining() / 3 + 16);
+        final byte[] classOf = CLASS;
+        final byte[] next = NEXT;
+        final int limit = source.limit();
+        int pos = source.position();
+        int line = 1;
+
+        while (true) {
+            // Skip white space, counting lines.
+            int cls = C_END;
+            while (pos < limit && (cls = classOf[source.get(pos) & 0xff]) <= C_NL) {
+                if (cls == C_NL) line++;
+                pos++;
+            }
+            if (pos >= limit || cls == C_END) {
+                tokens.add(Token.TokenType.EOF, pos, 0, line, source);
+                return tokens;
+            }
+
+            // Run the DFA for as long as there are transitions.
+            int start = pos;
+            int state = START;
+            while (pos < limit) {
+                int to = next[state * CLASSES + classOf[source.get(pos) & 0xff]];
+                if (to == STOP) break;
+                state = to;
+                pos++;
+            }
+
+            int accepted = ACCEPT[state];
+            if (accepted == SKIP) {
+                continue;
+            }
+            if (accepted == NONE) {
+                char ch = (char) (source.get(start) & 0xff);
+                throw new RuntimeException("Lexical error, unknown character: " + ch + "(ordinal=" + (int)ch + ")");
+            }
+            Token.TokenType type = TYPES[accepted];
+            if (type == Token.TokenType.ID) {
+                type = keyword(source, start, pos - start);
+            }
+            tokens.add(type, start, pos - start, line, source);
+        }
+    }
+
+    // Is the id at 'start' a keyword?
+    private static Token.TokenType keyword(ByteBuffer source, int start, int length) {
+        int h = hash(source.get(start) & 0xff, source.get(start + length - 1) & 0xff, length);
+        byte[] keyword = KEYWORDS[h];
+        if (keyword.length != length) {
+            return Token.TokenType.ID;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.get(start + i) != keyword[i]) {
+                return Token.TokenType.ID;
+            }
+        }
+        return KEYWORD_TYPES[h];
+    }
+}
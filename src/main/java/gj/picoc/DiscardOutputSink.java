@@ -0,0 +1,24 @@
+package gj.picoc;
+
+/**
+ * Output sink that drops every value and only counts them, so that benchmarks measure execution rather than output.
+ */
+public class DiscardOutputSink implements OutputSink {
+
+    private long count;
+
+    @Override
+    public void writeInt(long value) {
+        count++;
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        count++;
+    }
+
+    // The values written so far.
+    public long getCount() {
+        return count;
+    }
+}
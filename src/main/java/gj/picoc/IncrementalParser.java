@@ -0,0 +1,398 @@
+package gj.picoc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the tokens and the tree of a source that is edited a little at a time, as in an editor, and brings both up to
+ * date after every edit without starting over.
+ *
+ * Next to the tokens in a {@link TokenBuffer} it keeps, for every statement of a sequence (see
+ * {@link Parser.StatementListener}), its first and last token and where its nodes are in their SEQ.  After an edit
+ * the {@link Scanner} lexes again from the last token that ends before the edit, until a token starts where an old
+ * one did after the edit: from there on the old tokens are kept, moved along.  The {@link Parser} then parses again
+ * only the innermost statement around the changed tokens, or the statements of the innermost block around them, and
+ * splices the new nodes into the SEQ the old ones were in.  All other nodes are kept as they are.  When the new tokens
+ * do not parse as the same kind of statement, for example when a brace was added, the enclosing statement is parsed
+ * again instead, up to the whole program.
+ *
+ * Apart from moving the offsets of the tokens and statements after an edit, which is a loop over arrays, the work is
+ * bounded by the size of the edited statement and not of the source.  The result is the same tree {@link Parser}
+ * gives for the whole source, but not analysed, and it belongs to the incremental parser: passes that change trees
+ * must work on a copy.  Kept nodes keep their line numbers too, which are those of the source they were parsed from.
+ */
+public class IncrementalParser {
+
+    private String source;
+    private TokenBuffer tokens;
+    private Node program;
+
+    // The outermost statements, with the statements in them.
+    private List<Statement> statements = new ArrayList<>();
+
+    // Tokens lexed and parsed by the last edit.
+    private int lexed;
+    private int parsed;
+
+    // A statement of a sequence.  Its nodes are the children 'index' up to 'index' + 'count' of 'sequence', its tokens
+    // 'first' up to 'end'.
+    private static class Statement {
+        int first;
+        int end;
+        Node sequence;
+        int index;
+        int count;
+        Statement parent;
+        final List<Statement> inner = new ArrayList<>();
+
+        // The handles while parsing, until the sequence is known.
+        List<Integer> handles;
+    }
+
+    /**
+     * Lex and parse a source completely.
+     *
+     * @param source the program.
+     * @throws RuntimeException on the first lexical or syntax error.
+     */
+    public IncrementalParser(String source) {
+        this.source = source;
+        reparse();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    // The tree of the source, null while it has errors.
+    public Node getProgram() {
+        return program;
+    }
+
+    public int getLexed() {
+        return lexed;
+    }
+
+    public int getParsed() {
+        return parsed;
+    }
+
+    /**
+     * Replace part of the source and bring the tokens and the tree up to date.  The edit is kept also when the new
+     * source has errors, and the next edit starts over from the whole source.
+     *
+     * @param offset where the replaced characters start.
+     * @param length the number of characters replaced.
+     * @param text what they are replaced with.
+     * @return the tree of the new source, the same as {@link #getProgram()}.
+     * @throws RuntimeException on the first lexical or syntax error in the new source.
+     */
+    public Node edit(int offset, int length, String text) {
+        Objects.checkFromIndexSize(offset, length, source.length());
+        String old = source;
+        source = old.substring(0, offset) + text + old.substring(offset + length);
+        if (program == null) {
+            tokens = null;
+            return reparse();
+        }
+
+        // The last token that ends before the edit is the same, lex from there until a token starts where an old one
+        // did after the edit.  Everything from there on is the same, only moved along.
+        int from = 0;
+        for (int low = 0, high = tokens.size() - 1; low <= high; ) {
+            int middle = (low + high) >>> 1;
+            if (tokens.end(middle) < offset) {
+                from = middle + 1;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int shift = text.length() - length;
+        int to = from;
+        while (tokens.start(to) < offset + length) {
+            to++;
+        }
+        Scanner scanner = from == 0 ? new Scanner(source)
+                : new Scanner(source, tokens.end(from - 1), tokens.line(from - 1));
+        TokenBuffer changed = new TokenBuffer();
+        try {
+            while (true) {
+                scanner.scan(changed);
+                int start = changed.start(changed.size() - 1);
+                if (start >= offset + text.length()) {
+                    while (tokens.start(to) < start - shift) {
+                        to++;
+                    }
+                    if (tokens.start(to) == start - shift) {
+                        break;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            tokens = null;
+            program = null;
+            throw e;
+        }
+        int count = changed.size() - 1;
+        lexed = changed.size();
+        tokens.replace(from, to, changed, count, shift, changed.line(count) - tokens.line(to));
+
+        // Tokens 'from' up to 'to' became 'count' others, the statement around them is parsed again.
+        parsed = 0;
+        if (count == 0 && from == to) {
+            return program;
+        }
+        try {
+            if (!reparse(from, to, count - (to - from))) {
+                reparse();
+            }
+        } catch (RuntimeException e) {
+            program = null;
+            throw e;
+        }
+        return program;
+    }
+
+    // Parse all tokens, after lexing the whole source if there are none.
+    private Node reparse() {
+        statements = new ArrayList<>();
+        program = null;
+        if (tokens == null) {
+            tokens = new Scanner(source).tokenize();
+            lexed = tokens.size();
+        }
+        Recorder recorder = new Recorder(null, null, 0);
+        tokens.position(0);
+        Node root = recorder.builder.get(new Parser(tokens, recorder).program(recorder.builder));
+        parsed = tokens.size();
+        statements = recorder.done(null);
+        program = root;
+        return program;
+    }
+
+    // Parse the tokens 'from' up to 'to', which became 'delta' more, again within the innermost statement around
+    // them.  Returns false if only the whole program can be parsed again.
+    private boolean reparse(int from, int to, int delta) {
+
+        // The innermost statement of which the first and last token did not change.
+        Statement around = null;
+        List<Statement> level = statements;
+        for (int i = search(level, to + 1); i < level.size() && level.get(i).first < from; i = search(level, to + 1)) {
+            around = level.get(i);
+            level = around.inner;
+        }
+
+        // In a block, the statements around the changed tokens.  Otherwise the sequence holds a single statement.
+        if (around != null && isBlock(around) && !level.isEmpty()) {
+            int first = search(level, from);
+            int last = first - 1;
+            while (last + 1 < level.size() && level.get(last + 1).first < to) {
+                last++;
+            }
+            if (reparse(around, level, first, last, from, to, delta)) {
+                return true;
+            }
+        } else {
+            int i = search(level, to);
+            if (i < level.size() && level.get(i).first <= from && reparse(around, level, i, i, from, to, delta)) {
+                return true;
+            }
+        }
+
+        // Then every statement further out.
+        for (; around != null; around = around.parent) {
+            List<Statement> outer = around.parent == null ? statements : around.parent.inner;
+            int i = search(outer, around.end);
+            if (reparse(around.parent, outer, i, i, from, to, delta)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Parse the statements 'first' up to and including 'last' of a level again, which may become fewer or more.  When
+    // there are none, the changed tokens are new statements before 'first'.  In a block more statements of the level
+    // are parsed again while the new ones end after the old ones, otherwise the new statement must also be a
+    // sequence and end where the old one did.
+    private boolean reparse(Statement parent, List<Statement> level, int first, int last, int from, int to,
+                            int delta) {
+        boolean block = parent != null && isBlock(parent);
+        int start = first <= last ? level.get(first).first : from;
+        int stop = (first <= last ? level.get(last).end : to) + delta;
+        Node sequence = level.get(first).sequence;
+        int index = level.get(first).index;
+        int count = 0;
+
+        List<Integer> handles = new ArrayList<>();
+        Recorder recorder = new Recorder(handles, sequence, index);
+        Parser parser = new Parser(tokens, recorder);
+        tokens.position(start);
+        try {
+            while (tokens.position() < stop) {
+                parser.statement(recorder.builder, handles);
+                while (block && tokens.position() > stop && last + 1 < level.size()) {
+                    last++;
+                    stop = level.get(last).end + delta;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Not a statement, or not on its own.
+            parsed += tokens.position() - start;
+            return false;
+        }
+        parsed += tokens.position() - start;
+        if (tokens.position() != stop) {
+            return false;
+        }
+        if (!block && (recorder.outermost.size() != 1 || !opensSequence(tokens.type(start)))) {
+            return false;
+        }
+
+        // Splice the new nodes and statements in place of the old ones.
+        for (int i = first; i <= last; i++) {
+            count += level.get(i).count;
+        }
+        List<Node> nodes = new ArrayList<>(handles.size());
+        for (int handle : handles) {
+            nodes.add(recorder.builder.get(handle));
+        }
+        sequence.replaceChildren(index, count, nodes);
+        List<Statement> replaced = recorder.done(parent);
+        int added = replaced.size();
+        level.subList(first, last + 1).clear();
+        level.addAll(first, replaced);
+
+        // Move the statements after them along.
+        int moved = nodes.size() - count;
+        if (delta != 0 || moved != 0) {
+            for (int i = first + added; i < level.size(); i++) {
+                move(level.get(i), delta, sequence, moved);
+            }
+            for (Statement outer = parent; outer != null; outer = outer.parent) {
+                List<Statement> siblings = outer.parent == null ? statements : outer.parent.inner;
+                int next = search(siblings, outer.end) + 1;
+                outer.end += delta;
+                if (outer.sequence == sequence) {
+                    outer.count += moved;
+                }
+                for (int i = next; i < siblings.size(); i++) {
+                    move(siblings.get(i), delta, sequence, moved);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Move a statement and the statements in it 'delta' tokens along, and 'moved' children if they are in 'sequence'.
+    private static void move(Statement statement, int delta, Node sequence, int moved) {
+        Deque<Statement> todo = new ArrayDeque<>();
+        todo.push(statement);
+        while (!todo.isEmpty()) {
+            Statement next = todo.pop();
+            next.first += delta;
+            next.end += delta;
+            if (next.sequence == sequence) {
+                next.index += moved;
+            }
+            for (Statement inner : next.inner) {
+                todo.push(inner);
+            }
+        }
+    }
+
+    // The first statement of a level that ends at or after a token, or the size of the level.
+    private static int search(List<Statement> level, int token) {
+        int low = 0;
+        int high = level.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (level.get(middle).end < token) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean isBlock(Statement statement) {
+        return tokens.type(statement.first) == Token.TokenType.LBRA;
+    }
+
+    // The statements that the parser turns into a SEQ when they are the body of an if or while, see Parser.statement.
+    private static boolean opensSequence(Token.TokenType type) {
+        return type == Token.TokenType.LBRA || type == Token.TokenType.ID || type == Token.TokenType.KW_INT
+                || type == Token.TokenType.KW_FLOAT;
+    }
+
+    // Collects the statements of a parse.  Statements added to 'handles' go into 'sequence' from 'index' on, the
+    // others into the SEQ the parser makes for them.
+    private class Recorder implements Parser.StatementListener {
+        final Parser.NodeBuilder builder = new Parser.NodeBuilder();
+        private final List<Integer> handles;
+        private final Node sequence;
+        private final int index;
+
+        private final Deque<Statement> open = new ArrayDeque<>();
+        private final List<Statement> outermost = new ArrayList<>();
+        private final List<Statement> all = new ArrayList<>();
+        private final Map<List<Integer>, Node> sequences = new IdentityHashMap<>();
+
+        Recorder(List<Integer> handles, Node sequence, int index) {
+            this.handles = handles;
+            this.sequence = sequence;
+            this.index = index;
+        }
+
+        @Override
+        public void enter() {
+            Statement statement = new Statement();
+            statement.first = tokens.position();
+            statement.parent = open.peek();
+            open.push(statement);
+        }
+
+        @Override
+        public void exit(List<Integer> sequence, int from) {
+            Statement statement = open.pop();
+            statement.end = tokens.position();
+            statement.handles = sequence;
+            statement.index = from;
+            statement.count = sequence.size() - from;
+            (statement.parent == null ? outermost : statement.parent.inner).add(statement);
+            all.add(statement);
+        }
+
+        @Override
+        public void sequence(List<Integer> sequence, int node) {
+            sequences.put(sequence, builder.get(node));
+        }
+
+        // The outermost statements, which are in 'parent'.
+        List<Statement> done(Statement parent) {
+            for (Statement statement : all) {
+                if (statement.handles == handles) {
+                    statement.sequence = sequence;
+                    statement.index += index;
+                } else {
+                    statement.sequence = sequences.get(statement.handles);
+                }
+                statement.handles = null;
+            }
+            for (Statement statement : outermost) {
+                statement.parent = parent;
+            }
+            return outermost;
+        }
+    }
+}
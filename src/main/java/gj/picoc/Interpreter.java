@@ -0,0 +1,188 @@
+package gj.picoc;
+
+import java.util.Arrays;
+
+/**
+ * Tree-walking interpreter for PicoC programs.
+ *
+ * Before execution the tree is passed through the {@link Resolver} so that every variable lives in a slot of either
+ * the integer or the float frame and every literal in a constant pool.  Expressions are then evaluated by two
+ * mutually recursive methods, 'evalInt' and 'evalFloat', which return primitives: the interpreter loop does no
+ * hashing, no boxing and no allocation.
+ */
+public class Interpreter {
+
+    private final Node program;
+
+    // The frame, one array per type, indexed by the slot assigned during resolution.
+    private final long[] ints;
+    private final double[] floats;
+
+    // Literals, indexed by the slot assigned during resolution.
+    private final long[] intConstants;
+    private final double[] floatConstants;
+
+    private OutputSink out;
+
+    /**
+     * Prepare a program for execution.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     */
+    public Interpreter(Node program) {
+        Resolver resolver = new Resolver();
+        resolver.resolve(program);
+
+        this.program = program;
+        this.ints = new long[resolver.getIntSlots()];
+        this.floats = new double[resolver.getFloatSlots()];
+        this.intConstants = resolver.getIntConstants();
+        this.floatConstants = resolver.getFloatConstants();
+    }
+
+    /**
+     * Execute the program from the start.  All variables start out as zero.
+     *
+     * @param out where the values of "out" statements go.
+     */
+    public void run(OutputSink out) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.EXECUTE);
+        this.out = out;
+        Arrays.fill(ints, 0);
+        Arrays.fill(floats, 0);
+        execute(program);
+        out.flush();
+        Metrics.end(probe, 0);
+    }
+
+    // Statements.  This and the evaluation of expressions are overridden by the Profiler to count what runs.
+    void execute(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case PROG:
+                execute(children[0]);
+                break;
+            case SEQ:
+                for (Node child : children) {
+                    if (child == null) break;
+                    execute(child);
+                }
+                break;
+            case IF:
+                if (evalInt(children[0]) != 0) {
+                    execute(children[1]);
+                } else if (children[2] != null) {
+                    execute(children[2]);
+                }
+                break;
+            case WHILE:
+                while (evalInt(children[0]) != 0) {
+                    execute(children[1]);
+                }
+                break;
+            case OUTPUT:
+                if (children[0].getTypeType() == Node.TypeType.INT) {
+                    out.writeInt(evalInt(children[0]));
+                } else {
+                    out.writeFloat(evalFloat(children[0]));
+                }
+                break;
+            case DECLARATION:
+                if (node.getTypeType() == Node.TypeType.INT) {
+                    ints[node.getSlot()] = children[1] == null ? 0 : evalInt(children[1]);
+                } else {
+                    floats[node.getSlot()] = children[1] == null ? 0 : evalFloat(children[1]);
+                }
+                break;
+            case ASSIGNMENT:
+                if (node.getTypeType() == Node.TypeType.INT) {
+                    evalInt(node);
+                } else {
+                    evalFloat(node);
+                }
+                break;
+            case EMPTY:
+                break;
+            default:
+                throw new RuntimeException("Runtime error, unexpected statement " + node.getNodeType());
+        }
+    }
+
+    // Evaluate an expression as an integer.  Float expressions are truncated, as with a C cast.
+    long evalInt(Node node) {
+        if (node.getTypeType() == Node.TypeType.FLOAT) {
+            return (long) evalFloat(node);
+        }
+
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case VAL_INT: return intConstants[node.getSlot()];
+            case ID: return ints[node.getSlot()];
+            case ASSIGNMENT: return ints[node.getSlot()] = evalInt(children[1]);
+            case PLUS: return evalInt(children[0]) + evalInt(children[1]);
+            case MINUS: return evalInt(children[0]) - evalInt(children[1]);
+            case MUL: return evalInt(children[0]) * evalInt(children[1]);
+            case DIV: return evalInt(children[0]) / evalInt(children[1]);
+            case NEGATE: return -evalInt(children[0]);
+            case NOT: return evalInt(children[0]) == 0 ? 1 : 0;
+            case AND: return evalInt(children[0]) != 0 && evalInt(children[1]) != 0 ? 1 : 0;
+            case OR: return evalInt(children[0]) != 0 || evalInt(children[1]) != 0 ? 1 : 0;
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                return compare(node) ? 1 : 0;
+        }
+        throw new RuntimeException("Runtime error, unexpected expression " + node.getNodeType());
+    }
+
+    // Evaluate an expression as a float.  Integer expressions are evaluated as integers and widened.
+    double evalFloat(Node node) {
+        if (node.getTypeType() == Node.TypeType.INT) {
+            return evalInt(node);
+        }
+
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case VAL_FLOAT: return floatConstants[node.getSlot()];
+            case ID: return floats[node.getSlot()];
+            case ASSIGNMENT: return floats[node.getSlot()] = evalFloat(children[1]);
+            case PLUS: return evalFloat(children[0]) + evalFloat(children[1]);
+            case MINUS: return evalFloat(children[0]) - evalFloat(children[1]);
+            case MUL: return evalFloat(children[0]) * evalFloat(children[1]);
+            case DIV: return evalFloat(children[0]) / evalFloat(children[1]);
+            case NEGATE: return -evalFloat(children[0]);
+        }
+        throw new RuntimeException("Runtime error, unexpected expression " + node.getNodeType());
+    }
+
+    // Comparisons are done as integers if both sides are integers, otherwise as floats.
+    private boolean compare(Node node) {
+        Node left = node.getChildren()[0];
+        Node right = node.getChildren()[1];
+        if (left.getTypeType() == Node.TypeType.INT && right.getTypeType() == Node.TypeType.INT) {
+            long a = evalInt(left);
+            long b = evalInt(right);
+            switch (node.getNodeType()) {
+                case SMALLER: return a < b;
+                case GREATER: return a > b;
+                case SMALLER_EQUAL: return a <= b;
+                case GREATER_EQUAL: return a >= b;
+                case EQUALS: return a == b;
+                default: return a != b;
+            }
+        }
+        double a = evalFloat(left);
+        double b = evalFloat(right);
+        switch (node.getNodeType()) {
+            case SMALLER: return a < b;
+            case GREATER: return a > b;
+            case SMALLER_EQUAL: return a <= b;
+            case GREATER_EQUAL: return a >= b;
+            case EQUALS: return a == b;
+            default: return a != b;
+        }
+    }
+}
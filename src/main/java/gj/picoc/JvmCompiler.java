@@ -0,0 +1,419 @@
+package gj.picoc;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+
+/**
+ * Compiles the tree produced by the {@link Parser} to a JVM class implementing {@link CompiledProgram}, so that HotSpot
+ * can JIT-compile PicoC loops to machine code.
+ *
+ * Variables become JVM locals of 'run' (long for int, double for float), "if" and "while" become native branches and
+ * "out" calls the {@link OutputSink} directly.  On Java 15 and later the class is defined as a hidden class, which is
+ * unloaded as soon as the program is no longer referenced.  On older runtimes every program gets a class loader of its
+ * own to the same effect.
+ *
+ * The JVM limits a method to 64K of bytecode and HotSpot does not JIT-compile methods larger than 8000 bytes, so very
+ * large programs are better served by the {@link VirtualMachine}.
+ */
+public class JvmCompiler {
+
+    private static final String CLASS_NAME = "gj/picoc/PicoCProgram";
+    private static final String SINK = Type.getInternalName(OutputSink.class);
+
+    private MethodVisitor mv;
+
+    // JVM local variable index of the first int and first float variable.  Local 0 is 'this', local 1 the sink and
+    // every variable takes two locals.
+    private int firstInt;
+    private int firstFloat;
+
+    /**
+     * Compile a program and load it.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     * @return the loaded program, ready to run.
+     */
+    public CompiledProgram compile(Node program) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.COMPILE);
+        byte[] bytes = assemble(program, CLASS_NAME);
+        CompiledProgram compiled;
+        try {
+            compiled = (CompiledProgram) define(bytes).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Compile error, unable to load generated class", e);
+        }
+        Metrics.end(probe, bytes.length);
+        return sink -> {
+            Metrics.Probe execution = Metrics.begin(Metrics.Phase.EXECUTE);
+            compiled.run(sink);
+            Metrics.end(execution, 0);
+        };
+    }
+
+    /**
+     * Compile a program to the bytes of a class file.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     * @return the class file.
+     */
+    public byte[] generate(Node program) {
+        return generate(program, CLASS_NAME);
+    }
+
+    /**
+     * Compile a program to the bytes of a class file with a name of its own, to be loaded from a class path.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     * @param name the internal name of the class, with "/" between the packages and the class, as in "demo/Fib".
+     * @return the class file.
+     */
+    public byte[] generate(Node program, String name) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.COMPILE);
+        byte[] bytes = assemble(program, name);
+        Metrics.end(probe, bytes.length);
+        return bytes;
+    }
+
+    private byte[] assemble(Node program, String name) {
+        Resolver resolver = new Resolver();
+        resolver.resolve(program);
+        firstInt = 2;
+        firstFloat = firstInt + 2 * resolver.getIntSlots();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null,
+                "java/lang/Object", new String[] { Type.getInternalName(CompiledProgram.class) });
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(L" + SINK + ";)V", null, null);
+        mv.visitCode();
+
+        // The verifier insists that locals are assigned before use, and the language says they start out as zero.
+        for (int i = 0; i < resolver.getIntSlots(); i++) {
+            mv.visitInsn(Opcodes.LCONST_0);
+            mv.visitVarInsn(Opcodes.LSTORE, firstInt + 2 * i);
+        }
+        for (int i = 0; i < resolver.getFloatSlots(); i++) {
+            mv.visitInsn(Opcodes.DCONST_0);
+            mv.visitVarInsn(Opcodes.DSTORE, firstFloat + 2 * i);
+        }
+
+        statement(program);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, SINK, "flush", "()V", true);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        try {
+            return cw.toByteArray();
+        } catch (MethodTooLargeException e) {
+            throw new RuntimeException("Compile error, program too large for the JVM backend");
+        }
+    }
+
+    // Define the class as a hidden class if the runtime supports it (Java 15+), through reflection since we compile
+    // for Java 11.  Otherwise use a class loader of its own.
+    private static Class<?> define(byte[] bytes) throws ReflectiveOperationException {
+        Class<?> option;
+        try {
+            option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+        } catch (ClassNotFoundException e) {
+            return new ProgramClassLoader().define(bytes);
+        }
+        Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                boolean.class, Array.newInstance(option, 0).getClass());
+        MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHiddenClass.invoke(MethodHandles.lookup(), bytes,
+                true, Array.newInstance(option, 0));
+        return lookup.lookupClass();
+    }
+
+    private static class ProgramClassLoader extends ClassLoader {
+        private ProgramClassLoader() {
+            super(JvmCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+
+    // --- Statements ---
+
+    private void statement(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case PROG:
+                statement(children[0]);
+                break;
+            case SEQ:
+                for (Node child : children) {
+                    if (child == null) break;
+                    statement(child);
+                }
+                break;
+            case IF: {
+                Label otherwise = new Label();
+                jumpIfFalse(children[0], otherwise);
+                statement(children[1]);
+                if (children[2] != null) {
+                    Label end = new Label();
+                    mv.visitJumpInsn(Opcodes.GOTO, end);
+                    mv.visitLabel(otherwise);
+                    statement(children[2]);
+                    mv.visitLabel(end);
+                } else {
+                    mv.visitLabel(otherwise);
+                }
+                break;
+            }
+            case WHILE: {
+                Label body = new Label();
+                Label test = new Label();
+                mv.visitJumpInsn(Opcodes.GOTO, test);
+                mv.visitLabel(body);
+                statement(children[1]);
+                mv.visitLabel(test);
+                jumpIfTrue(children[0], body);
+                break;
+            }
+            case OUTPUT:
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                expression(children[0], children[0].getTypeType());
+                if (children[0].getTypeType() == Node.TypeType.INT) {
+                    mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, SINK, "writeInt", "(J)V", true);
+                } else {
+                    mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, SINK, "writeFloat", "(D)V", true);
+                }
+                break;
+            case DECLARATION:
+                if (children[1] != null) {
+                    expression(children[1], node.getTypeType());
+                } else {
+                    mv.visitInsn(node.getTypeType() == Node.TypeType.INT ? Opcodes.LCONST_0 : Opcodes.DCONST_0);
+                }
+                store(node);
+                break;
+            case ASSIGNMENT:
+                expression(children[1], node.getTypeType());
+                store(node);
+                break;
+            case EMPTY:
+                break;
+            default:
+                throw new RuntimeException("Compile error, unexpected statement " + node.getNodeType());
+        }
+    }
+
+    private int local(Node node) {
+        return node.getTypeType() == Node.TypeType.INT ? firstInt + 2 * node.getSlot() : firstFloat + 2 * node.getSlot();
+    }
+
+    private void store(Node node) {
+        mv.visitVarInsn(node.getTypeType() == Node.TypeType.INT ? Opcodes.LSTORE : Opcodes.DSTORE, local(node));
+    }
+
+    // --- Expressions ---
+
+    // Compile an expression leaving its value on the stack, converted to 'type'.
+    private void expression(Node node, Node.TypeType type) {
+        expression(node);
+        if (node.getTypeType() == Node.TypeType.INT && type == Node.TypeType.FLOAT) {
+            mv.visitInsn(Opcodes.L2D);
+        } else if (node.getTypeType() == Node.TypeType.FLOAT && type == Node.TypeType.INT) {
+            mv.visitInsn(Opcodes.D2L);
+        }
+    }
+
+    // Compile an expression leaving its value on the stack in its own type.
+    private void expression(Node node) {
+        Node[] children = node.getChildren();
+        boolean isInt = node.getTypeType() == Node.TypeType.INT;
+        switch (node.getNodeType()) {
+            case VAL_INT:
+                pushLong(Long.parseLong(node.getValue()));
+                break;
+            case VAL_FLOAT:
+                pushDouble(Double.parseDouble(node.getValue()));
+                break;
+            case ID:
+                mv.visitVarInsn(isInt ? Opcodes.LLOAD : Opcodes.DLOAD, local(node));
+                break;
+            case ASSIGNMENT:
+                expression(children[1], node.getTypeType());
+                mv.visitInsn(Opcodes.DUP2);
+                store(node);
+                break;
+            case PLUS:
+                binary(node, isInt ? Opcodes.LADD : Opcodes.DADD);
+                break;
+            case MINUS:
+                binary(node, isInt ? Opcodes.LSUB : Opcodes.DSUB);
+                break;
+            case MUL:
+                binary(node, isInt ? Opcodes.LMUL : Opcodes.DMUL);
+                break;
+            case DIV:
+                binary(node, isInt ? Opcodes.LDIV : Opcodes.DDIV);
+                break;
+            case NEGATE:
+                expression(children[0], node.getTypeType());
+                mv.visitInsn(isInt ? Opcodes.LNEG : Opcodes.DNEG);
+                break;
+            case NOT:
+            case AND:
+            case OR:
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS: {
+                // Materialise the outcome of the condition as 1 or 0.
+                Label otherwise = new Label();
+                Label end = new Label();
+                jumpIfFalse(node, otherwise);
+                mv.visitInsn(Opcodes.LCONST_1);
+                mv.visitJumpInsn(Opcodes.GOTO, end);
+                mv.visitLabel(otherwise);
+                mv.visitInsn(Opcodes.LCONST_0);
+                mv.visitLabel(end);
+                break;
+            }
+            default:
+                throw new RuntimeException("Compile error, unexpected expression " + node.getNodeType());
+        }
+    }
+
+    private void binary(Node node, int opcode) {
+        expression(node.getChildren()[0], node.getTypeType());
+        expression(node.getChildren()[1], node.getTypeType());
+        mv.visitInsn(opcode);
+    }
+
+    private void pushLong(long value) {
+        if (value == 0 || value == 1) {
+            mv.visitInsn(value == 0 ? Opcodes.LCONST_0 : Opcodes.LCONST_1);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L || value == 1.0) {
+            mv.visitInsn(value == 0 ? Opcodes.DCONST_0 : Opcodes.DCONST_1);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    // --- Conditions ---
+
+    private boolean isComparison(Node.NodeType type) {
+        switch (type) {
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Compare both sides of a comparison, leaving -1, 0 or 1 on the stack.  For floats the variant of the compare is
+    // chosen so that NaN makes the comparison false, like javac does.
+    private void compare(Node node) {
+        Node left = node.getChildren()[0];
+        Node right = node.getChildren()[1];
+        if (left.getTypeType() == Node.TypeType.INT && right.getTypeType() == Node.TypeType.INT) {
+            expression(left);
+            expression(right);
+            mv.visitInsn(Opcodes.LCMP);
+        } else {
+            expression(left, Node.TypeType.FLOAT);
+            expression(right, Node.TypeType.FLOAT);
+            Node.NodeType type = node.getNodeType();
+            mv.visitInsn(type == Node.NodeType.SMALLER || type == Node.NodeType.SMALLER_EQUAL
+                    ? Opcodes.DCMPG : Opcodes.DCMPL);
+        }
+    }
+
+    // The IFxx opcode that jumps when the comparison holds ('holds' true) or does not hold ('holds' false).
+    private int branch(Node.NodeType type, boolean holds) {
+        switch (type) {
+            case SMALLER: return holds ? Opcodes.IFLT : Opcodes.IFGE;
+            case GREATER: return holds ? Opcodes.IFGT : Opcodes.IFLE;
+            case SMALLER_EQUAL: return holds ? Opcodes.IFLE : Opcodes.IFGT;
+            case GREATER_EQUAL: return holds ? Opcodes.IFGE : Opcodes.IFLT;
+            case EQUALS: return holds ? Opcodes.IFEQ : Opcodes.IFNE;
+            default: return holds ? Opcodes.IFNE : Opcodes.IFEQ;
+        }
+    }
+
+    private void jumpIfFalse(Node node, Label label) {
+        Node[] children = node.getChildren();
+        Node.NodeType type = node.getNodeType();
+        if (isComparison(type)) {
+            compare(node);
+            mv.visitJumpInsn(branch(type, false), label);
+        } else if (type == Node.NodeType.NOT) {
+            jumpIfTrue(children[0], label);
+        } else if (type == Node.NodeType.AND) {
+            jumpIfFalse(children[0], label);
+            jumpIfFalse(children[1], label);
+        } else if (type == Node.NodeType.OR) {
+            Label skip = new Label();
+            jumpIfTrue(children[0], skip);
+            jumpIfFalse(children[1], label);
+            mv.visitLabel(skip);
+        } else {
+            expression(node, Node.TypeType.INT);
+            mv.visitInsn(Opcodes.LCONST_0);
+            mv.visitInsn(Opcodes.LCMP);
+            mv.visitJumpInsn(Opcodes.IFEQ, label);
+        }
+    }
+
+    private void jumpIfTrue(Node node, Label label) {
+        Node[] children = node.getChildren();
+        Node.NodeType type = node.getNodeType();
+        if (isComparison(type)) {
+            compare(node);
+            mv.visitJumpInsn(branch(type, true), label);
+        } else if (type == Node.NodeType.NOT) {
+            jumpIfFalse(children[0], label);
+        } else if (type == Node.NodeType.AND) {
+            Label skip = new Label();
+            jumpIfFalse(children[0], skip);
+            jumpIfTrue(children[1], label);
+            mv.visitLabel(skip);
+        } else if (type == Node.NodeType.OR) {
+            jumpIfTrue(children[0], label);
+            jumpIfTrue(children[1], label);
+        } else {
+            expression(node, Node.TypeType.INT);
+            mv.visitInsn(Opcodes.LCONST_0);
+            mv.visitInsn(Opcodes.LCMP);
+            mv.visitJumpInsn(Opcodes.IFNE, label);
+        }
+    }
+}
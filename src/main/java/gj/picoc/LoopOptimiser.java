@@ -0,0 +1,595 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimisation pass for "while" loops, innermost loops first.
+ *
+ * <ul>
+ * <li>Full unrolling: a loop over "i" with a literal bound, step and start (the statement right before the loop
+ * assigns it) that runs at most {@link #MAX_TRIPS} times is replaced by copies of its body.  Bodies with declarations
+ * are left alone since a variable can only be declared once.</li>
+ * <li>Strength reduction: for an induction variable, assigned once per iteration by "i = i + s" or "i = i - s" at the
+ * top of the body with s invariant, "i * k" with k invariant is replaced by a temporary that starts as "i * k" and
+ * has "s * k" added right after "i" is stepped.  Integers only, since integers wrap the same either way.</li>
+ * <li>Invariant code motion: expressions that read no variable assigned in the loop are computed once before it.  An
+ * expression that may fail (integer division by anything but a non-zero literal) is not moved since the loop might
+ * not run at all.  Temporaries from inner loops move further out when they can.</li>
+ * </ul>
+ *
+ * {@link Temporaries} are declared right before the loop (its preheader).  As there is only one scope, variables are
+ * told apart by name.  The tree is rewritten in place and analysed again afterwards.
+ */
+public class LoopOptimiser {
+
+    // Limits for unrolling: the number of iterations and the number of nodes that may result.
+    static final int MAX_TRIPS = 16;
+    static final int MAX_NODES = 256;
+
+    private Temporaries temporaries;
+
+    private int unrolled;
+    private int reduced;
+    private int hoisted;
+
+    // What is known about the loop being optimised.
+    private static class Loop {
+        // How often each variable is assigned in the loop, declarations included.
+        final Map<String, Integer> assigned = new HashMap<>();
+        // Declarations to put before the loop.
+        final List<Node> preheader = new ArrayList<>();
+        // Temporaries by the expression they hold.
+        final Map<String, String> temporaries = new HashMap<>();
+    }
+
+    /**
+     * Optimise the loops of a program.
+     *
+     * @param program the tree as produced by the parser.
+     * @return the same PROG node.
+     */
+    public Node optimise(Node program) {
+        new SemAnalyser().analyse(program);
+        unrolled = reduced = hoisted = 0;
+        temporaries = new Temporaries(program);
+
+        program.setChild(0, statement(program.getChildren()[0]));
+        new SemAnalyser().analyse(program);
+        return program;
+    }
+
+    // Loops replaced by copies of their body.
+    public int getUnrolled() {
+        return unrolled;
+    }
+
+    // Multiplications replaced by an addition per iteration.
+    public int getReduced() {
+        return reduced;
+    }
+
+    // Expressions and declarations moved out of a loop.
+    public int getHoisted() {
+        return hoisted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("unrolled=%d reduced=%d hoisted=%d", unrolled, reduced, hoisted);
+    }
+
+    // --- Statements ---
+
+    // Optimise the loops in a statement, returning its replacement.
+    private Node statement(Node node) {
+        List<Node> statements = new ArrayList<>();
+        statement(node, null, statements);
+        if (statements.size() == 1) {
+            return statements.get(0);
+        }
+        return sequence(statements);
+    }
+
+    // Add the optimised statement to 'statements'.  'previous' is the statement before it, if any.
+    private void statement(Node node, Node previous, List<Node> statements) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ: {
+                List<Node> sequence = new ArrayList<>(node.getChildCount());
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    statement(children[i], sequence.isEmpty() ? null : sequence.get(sequence.size() - 1), sequence);
+                }
+                statements.add(sequence(sequence));
+                break;
+            }
+            case IF:
+                node.setChild(1, statement(children[1]));
+                if (children[2] != null) {
+                    node.setChild(2, statement(children[2]));
+                }
+                statements.add(node);
+                break;
+            case WHILE:
+                node.setChild(1, statement(children[1]));
+                loop(node, previous, statements);
+                break;
+            default:
+                statements.add(node);
+        }
+    }
+
+    private void loop(Node node, Node previous, List<Node> statements) {
+        Loop loop = new Loop();
+        count(node, loop.assigned);
+
+        List<Node> copies = unroll(node, previous, loop);
+        if (copies != null) {
+            unrolled++;
+            statements.addAll(copies);
+            return;
+        }
+
+        reduce(node, loop);
+        hoist(node, loop);
+        statements.addAll(loop.preheader);
+        statements.add(node);
+    }
+
+    // --- Unrolling ---
+
+    // The statements that replace the loop, or null if it is not unrolled.
+    private List<Node> unroll(Node node, Node previous, Loop loop) {
+        Node condition = node.getChildren()[0];
+        Node body = node.getChildren()[1];
+        Node[] operands = condition.getChildren();
+        if (!isComparison(condition) || operands[0].getNodeType() != Node.NodeType.ID
+                || operands[0].getTypeType() != Node.TypeType.INT
+                || operands[1].getNodeType() != Node.NodeType.VAL_INT) {
+            return null;
+        }
+        String name = operands[0].getValue();
+        long bound = Long.parseLong(operands[1].getValue());
+        Long start = start(previous, name);
+        Node step = findStep(body, name, loop);
+        if (start == null || step == null || step.getChildren()[1].getNodeType() != Node.NodeType.VAL_INT
+                || contains(body, Node.NodeType.DECLARATION)) {
+            return null;
+        }
+        long delta = Long.parseLong(step.getChildren()[1].getValue());
+        if (step.getNodeType() == Node.NodeType.MINUS) {
+            delta = -delta;
+        }
+
+        int trips = 0;
+        for (long i = start; compare(condition.getNodeType(), i, bound); i += delta) {
+            if (++trips > MAX_TRIPS) return null;
+        }
+        if (trips * size(body) > MAX_NODES) {
+            return null;
+        }
+        List<Node> copies = new ArrayList<>();
+        for (int trip = 0; trip < trips; trip++) {
+            Node copy = copy(body);
+            if (copy.getNodeType() == Node.NodeType.SEQ) {
+                copies.addAll(Arrays.asList(copy.getChildren()).subList(0, copy.getChildCount()));
+            } else {
+                copies.add(copy);
+            }
+        }
+        return copies;
+    }
+
+    // The literal value 'previous' gives to an int variable.
+    private static Long start(Node previous, String name) {
+        if (previous == null || (previous.getNodeType() != Node.NodeType.ASSIGNMENT
+                && previous.getNodeType() != Node.NodeType.DECLARATION)) {
+            return null;
+        }
+        Node[] children = previous.getChildren();
+        if (!name.equals(children[0].getValue()) || previous.getTypeType() != Node.TypeType.INT) {
+            return null;
+        }
+        if (children[1] == null) {
+            return 0L;
+        }
+        return children[1].getNodeType() == Node.NodeType.VAL_INT ? Long.parseLong(children[1].getValue()) : null;
+    }
+
+    private static boolean isComparison(Node node) {
+        switch (node.getNodeType()) {
+            case SMALLER:
+            case SMALLER_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case NOT_EQUALS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean compare(Node.NodeType type, long a, long b) {
+        switch (type) {
+            case SMALLER: return a < b;
+            case SMALLER_EQUAL: return a <= b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            default: return a != b;
+        }
+    }
+
+    // --- Strength reduction ---
+
+    private void reduce(Node node, Loop loop) {
+        Node body = node.getChildren()[1];
+        if (body.getNodeType() != Node.NodeType.SEQ) {
+            body = sequence(new ArrayList<>(List.of(body)));
+            node.setChild(1, body);
+        }
+
+        // Induction variables by name, with the statement stepping them.
+        Map<String, Node> steps = new HashMap<>();
+        for (int i = 0; i < body.getChildCount(); i++) {
+            Node statement = body.getChildren()[i];
+            if (statement.getNodeType() == Node.NodeType.ASSIGNMENT) {
+                String name = statement.getChildren()[0].getValue();
+                if (findStep(body, name, loop) != null) {
+                    steps.put(name, statement);
+                }
+            }
+        }
+        if (steps.isEmpty()) {
+            return;
+        }
+
+        // Replace each "i * k" by its temporary, keeping the temporaries per statement stepping 'i'.
+        Map<String, String> products = new HashMap<>();
+        Map<Node, List<Node>> updates = new HashMap<>();
+        List<Node> todo = new ArrayList<>();
+        todo.add(node);
+        while (!todo.isEmpty()) {
+            Node parent = todo.remove(todo.size() - 1);
+            for (int i = 0; i < parent.getChildCount(); i++) {
+                Node child = parent.getChildren()[i];
+                if (child == null) continue;
+                Node[] operands = child.getChildren();
+                int which = -1;
+                if (child.getNodeType() == Node.NodeType.MUL && child.getTypeType() == Node.TypeType.INT) {
+                    which = isInduction(operands[0], steps) ? 0 : isInduction(operands[1], steps) ? 1 : -1;
+                }
+                Node factor = which < 0 ? null : operands[1 - which];
+                if (factor == null || factor.getTypeType() != Node.TypeType.INT || !isInvariant(factor, loop)) {
+                    todo.add(child);
+                    continue;
+                }
+
+                String name = operands[which].getValue();
+                String key = name + "*" + factor;
+                String temporary = products.get(key);
+                if (temporary == null) {
+                    temporary = temporaries.next();
+                    products.put(key, temporary);
+                    reduced++;
+                    loop.preheader.add(Temporaries.declaration(temporary, copy(child)));
+                    Node step = findStep(body, name, loop);
+                    Node increment = product(step.getChildren()[1], factor);
+                    Node value = new Node(step.getNodeType(), null, Temporaries.id(temporary, Node.TypeType.INT),
+                            increment);
+                    value.setTypeType(Node.TypeType.INT);
+                    updates.computeIfAbsent(steps.get(name), s -> new ArrayList<>())
+                            .add(assignment(temporary, value));
+                    loop.assigned.put(temporary, 2);
+                }
+                parent.setChild(i, Temporaries.id(temporary, Node.TypeType.INT));
+            }
+        }
+
+        List<Node> statements = new ArrayList<>();
+        for (int i = 0; i < body.getChildCount(); i++) {
+            Node statement = body.getChildren()[i];
+            statements.add(statement);
+            statements.addAll(updates.getOrDefault(statement, List.of()));
+        }
+        node.setChild(1, sequence(statements));
+    }
+
+    // "s * k" for the step of a reduced multiplication, without multiplying literals or by one.
+    private static Node product(Node step, Node factor) {
+        boolean literals = step.getNodeType() == Node.NodeType.VAL_INT && factor.getNodeType() == Node.NodeType.VAL_INT;
+        Node product;
+        if (literals) {
+            product = new Node(Node.NodeType.VAL_INT, String.valueOf(Long.parseLong(step.getValue())
+                    * Long.parseLong(factor.getValue())));
+        } else if (step.getNodeType() == Node.NodeType.VAL_INT && "1".equals(step.getValue())) {
+            return copy(factor);
+        } else {
+            product = new Node(Node.NodeType.MUL, null, copy(step), copy(factor));
+        }
+        product.setTypeType(Node.TypeType.INT);
+        return product;
+    }
+
+    private static boolean isInduction(Node node, Map<String, Node> steps) {
+        return node.getNodeType() == Node.NodeType.ID && steps.containsKey(node.getValue());
+    }
+
+    // The value of "name = name + s", "name = s + name" or "name = name - s", the only assignment of 'name' in the
+    // loop and a statement of its body, with s invariant.  The result has 'name' first.  Null if there is none.
+    private static Node findStep(Node body, String name, Loop loop) {
+        if (loop.assigned.getOrDefault(name, 0) != 1) {
+            return null;
+        }
+        List<Node> statements = body.getNodeType() == Node.NodeType.SEQ
+                ? Arrays.asList(body.getChildren()).subList(0, body.getChildCount()) : List.of(body);
+        for (Node statement : statements) {
+            if (statement.getNodeType() != Node.NodeType.ASSIGNMENT || statement.getTypeType() != Node.TypeType.INT
+                    || !name.equals(statement.getChildren()[0].getValue())) {
+                continue;
+            }
+            Node value = statement.getChildren()[1];
+            if (value.getNodeType() != Node.NodeType.PLUS && value.getNodeType() != Node.NodeType.MINUS) {
+                return null;
+            }
+            Node[] operands = value.getChildren();
+            int which = isId(operands[0], name) ? 0 : value.getNodeType() == Node.NodeType.PLUS
+                    && isId(operands[1], name) ? 1 : -1;
+            if (which < 0 || operands[1 - which].getTypeType() != Node.TypeType.INT
+                    || !isInvariant(operands[1 - which], loop)) {
+                return null;
+            }
+            Node step = new Node(value.getNodeType(), null, operands[which], operands[1 - which]);
+            step.setTypeType(Node.TypeType.INT);
+            return step;
+        }
+        return null;
+    }
+
+    private static boolean isId(Node node, String name) {
+        return node.getNodeType() == Node.NodeType.ID && name.equals(node.getValue());
+    }
+
+    // --- Invariant code motion ---
+
+    private void hoist(Node node, Loop loop) {
+        // Declarations of temporaries from inner loops that are only set there, to an invariant value.
+        Node body = node.getChildren()[1];
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            List<Node> statements = new ArrayList<>();
+            for (int i = 0; i < body.getChildCount(); i++) {
+                Node statement = body.getChildren()[i];
+                Node[] children = statement.getChildren();
+                if (statement.getNodeType() == Node.NodeType.DECLARATION
+                        && Temporaries.isTemporary(children[0].getValue())
+                        && loop.assigned.getOrDefault(children[0].getValue(), 0) == 1 && children[1] != null
+                        && isInvariant(children[1], loop)) {
+                    loop.assigned.remove(children[0].getValue());
+                    loop.preheader.add(statement);
+                    hoisted++;
+                    moved = true;
+                } else {
+                    statements.add(statement);
+                }
+            }
+            body = sequence(statements);
+        }
+        node.setChild(1, body);
+
+        node.setChild(0, hoistExpression(node.getChildren()[0], loop));
+        hoistStatement(body, loop);
+    }
+
+    private void hoistStatement(Node node, Loop loop) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    hoistStatement(children[i], loop);
+                }
+                break;
+            case DECLARATION:
+                if (children[1] != null) {
+                    node.setChild(1, hoistExpression(children[1], loop));
+                }
+                break;
+            case ASSIGNMENT:
+                hoistExpression(node, loop);
+                break;
+            case OUTPUT:
+                node.setChild(0, hoistExpression(children[0], loop));
+                break;
+            case IF:
+                node.setChild(0, hoistExpression(children[0], loop));
+                hoistStatement(children[1], loop);
+                if (children[2] != null) {
+                    hoistStatement(children[2], loop);
+                }
+                break;
+            case WHILE:
+                node.setChild(0, hoistExpression(children[0], loop));
+                hoistStatement(children[1], loop);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Replace the largest invariant parts of an expression by temporaries, returning its replacement.
+    private Node hoistExpression(Node root, Loop loop) {
+        // Post-order with an explicit stack.  For each node on it: the index of its next child, whether its children
+        // so far are invariant and which of them are.
+        Node[] nodes = new Node[64];
+        int[] next = new int[64];
+        boolean[] invariant = new boolean[64];
+        int[] masks = new int[64];
+        int depth = 0;
+        nodes[depth] = root;
+        invariant[depth] = true;
+        masks[depth] = 0;
+        next[depth++] = 0;
+        boolean result = false;
+        while (depth > 0) {
+            Node node = nodes[depth - 1];
+            int i = next[depth - 1]++;
+            if (i < node.getChildCount()) {
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                    invariant = Arrays.copyOf(invariant, depth * 2);
+                    masks = Arrays.copyOf(masks, depth * 2);
+                }
+                nodes[depth] = node.getChildren()[i];
+                invariant[depth] = true;
+                masks[depth] = 0;
+                next[depth++] = 0;
+                continue;
+            }
+
+            depth--;
+            boolean isInvariant = invariant[depth] && isInvariantNode(node, loop);
+            if (!isInvariant) {
+                for (int c = 0; c < node.getChildCount(); c++) {
+                    if ((masks[depth] & (1 << c)) != 0 && Temporaries.isWorthATemporary(node.getChildren()[c])) {
+                        node.setChild(c, temporary(node.getChildren()[c], loop));
+                    }
+                }
+            }
+            if (depth == 0) {
+                result = isInvariant;
+            } else if (isInvariant) {
+                masks[depth - 1] |= 1 << (next[depth - 1] - 1);
+            } else {
+                invariant[depth - 1] = false;
+            }
+        }
+        return result && Temporaries.isWorthATemporary(root) ? temporary(root, loop) : root;
+    }
+
+    // A temporary holding the value of an invariant expression, declared before the loop.
+    private Node temporary(Node expression, Loop loop) {
+        String key = expression.getTypeType() + " " + expression;
+        String name = loop.temporaries.get(key);
+        if (name == null) {
+            name = temporaries.next();
+            loop.temporaries.put(key, name);
+            loop.preheader.add(Temporaries.declaration(name, expression));
+            hoisted++;
+        }
+        return Temporaries.id(name, expression.getTypeType());
+    }
+
+    private static boolean isInvariant(Node expression, Loop loop) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(expression);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (!isInvariantNode(node, loop)) {
+                return false;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                todo.add(node.getChildren()[i]);
+            }
+        }
+        return true;
+    }
+
+    // Can the node be evaluated before the loop, if its children can?
+    private static boolean isInvariantNode(Node node, Loop loop) {
+        switch (node.getNodeType()) {
+            case ID:
+                return !loop.assigned.containsKey(node.getValue());
+            case ASSIGNMENT:
+                return false;
+            case DIV:
+                return !Temporaries.canTrap(node);
+            default:
+                return true;
+        }
+    }
+
+    // --- Helpers ---
+
+    // Count the assignments and declarations of each variable in a tree.
+    private static void count(Node root, Map<String, Integer> assigned) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.ASSIGNMENT || node.getNodeType() == Node.NodeType.DECLARATION) {
+                assigned.merge(node.getChildren()[0].getValue(), 1, Integer::sum);
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+    }
+
+    private static boolean contains(Node root, Node.NodeType type) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == type) {
+                return true;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+        return false;
+    }
+
+    private static int size(Node root) {
+        int size = 0;
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            size++;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+        return size;
+    }
+
+    // Unrolled bodies are small, so this may recurse.
+    private static Node copy(Node node) {
+        Node[] children = new Node[node.getChildCount()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = node.getChildren()[i] == null ? null : copy(node.getChildren()[i]);
+        }
+        Node copy = new Node(node.getNodeType(), node.getValue(), children);
+        copy.setTypeType(node.getTypeType());
+        copy.setSymbol(node.getSymbol());
+        copy.setLine(node.getLine());
+        return copy;
+    }
+
+    // A flat sequence: nested sequences are spliced in.
+    private static Node sequence(List<Node> statements) {
+        Node seq = new Node(Node.NodeType.SEQ);
+        seq.setTypeType(Node.TypeType.EMPTY);
+        for (Node statement : statements) {
+            if (statement.getNodeType() == Node.NodeType.SEQ) {
+                for (int i = 0; i < statement.getChildCount(); i++) {
+                    seq.addChild(statement.getChildren()[i]);
+                }
+            } else {
+                seq.addChild(statement);
+            }
+        }
+        return seq;
+    }
+
+    private static Node assignment(String name, Node value) {
+        Node assignment = new Node(Node.NodeType.ASSIGNMENT, null, Temporaries.id(name, value.getTypeType()), value);
+        assignment.setTypeType(value.getTypeType());
+        return assignment;
+    }
+}
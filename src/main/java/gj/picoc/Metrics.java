@@ -0,0 +1,218 @@
+package gj.picoc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wall time and allocation of every phase a program goes through: lexing, parsing, analysis, compilation by a backend
+ * and execution.
+ *
+ * A phase is measured while metrics are enabled with {@link #setEnabled(boolean)}, or while a Java Flight Recorder
+ * recording has the "gj.picoc.Phase" event enabled, for example with
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=picoc.jfr,settings=profile ...
+ * </pre>
+ *
+ * Measured phases are added to totals per phase, see {@link #snapshot()}, and are committed as a {@link PhaseEvent}
+ * when the event is enabled.  Otherwise a phase costs no more than reading two flags, and allocates nothing.
+ *
+ * The count of a phase is the number of tokens for {@link Phase#LEX}, of nodes for {@link Phase#PARSE}, of variables
+ * for {@link Phase#ANALYSE} and the size of the generated code for {@link Phase#COMPILE}.  A parser that reads from a
+ * {@link Scanner} lexes while parsing, and its lexing is part of the parse.  Allocation is that of the thread doing
+ * the phase, when the runtime can tell.
+ */
+public final class Metrics {
+
+    public enum Phase {
+        LEX, PARSE, ANALYSE, COMPILE, EXECUTE
+    }
+
+    @Name("gj.picoc.Phase")
+    @Label("PicoC Phase")
+    @Category("PicoC")
+    @Description("A phase of lexing, parsing, analysing, compiling or executing a PicoC program")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Count")
+        @Description("Tokens, nodes, variables or generated code, depending on the phase")
+        long count;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // Runs, nanoseconds, count and allocated bytes of every phase, in that order.
+    private static final int FIELDS = 4;
+    private static final AtomicLongArray totals = new AtomicLongArray(Phase.values().length * FIELDS);
+
+    private static final EventType EVENT = EventType.getEventType(PhaseEvent.class);
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private static volatile boolean enabled;
+
+    private Metrics() {
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            return (com.sun.management.ThreadMXBean) threads;
+        }
+        return null;
+    }
+
+    // Whether phases are added to the totals, whether or not a recording is running.  Off by default.
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** A phase being measured. */
+    static final class Probe {
+        private final Phase phase;
+        private final long start;
+        private final long allocated;
+        private final PhaseEvent event;
+
+        private Probe(Phase phase, PhaseEvent event) {
+            this.phase = phase;
+            this.event = event;
+            this.allocated = allocated();
+            this.start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Start measuring a phase.
+     *
+     * @param phase the phase.
+     * @return the probe to pass to {@link #end(Probe, long)}, null when nothing is measured.
+     */
+    static Probe begin(Phase phase) {
+        boolean recording = EVENT.isEnabled();
+        if (!enabled && !recording) {
+            return null;
+        }
+        PhaseEvent event = null;
+        if (recording) {
+            event = new PhaseEvent();
+            event.begin();
+        }
+        return new Probe(phase, event);
+    }
+
+    /**
+     * Stop measuring a phase.  Phases that fail are not ended, and not counted.
+     *
+     * @param probe the probe returned by {@link #begin(Phase)}, may be null.
+     * @param count the number of tokens, nodes and so on the phase handled.
+     */
+    static void end(Probe probe, long count) {
+        if (probe == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - probe.start;
+        long allocated = allocated() - probe.allocated;
+        if (enabled) {
+            int at = probe.phase.ordinal() * FIELDS;
+            totals.incrementAndGet(at);
+            totals.addAndGet(at + 1, nanos);
+            totals.addAndGet(at + 2, count);
+            totals.addAndGet(at + 3, allocated);
+        }
+        PhaseEvent event = probe.event;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = probe.phase.name();
+                event.count = count;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long allocated() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The totals so far, since the start or the last {@link #reset()}.  Phases that run concurrently with the snapshot
+     * may be partly included.
+     *
+     * @return the totals.
+     */
+    public static Snapshot snapshot() {
+        long[] values = new long[totals.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = totals.get(i);
+        }
+        return new Snapshot(values);
+    }
+
+    // Set all totals back to zero.
+    public static void reset() {
+        for (int i = 0; i < totals.length(); i++) {
+            totals.set(i, 0);
+        }
+    }
+
+    /** The totals of every phase at some point. */
+    public static final class Snapshot {
+        private final long[] values;
+
+        private Snapshot(long[] values) {
+            this.values = values;
+        }
+
+        // The number of times the phase ran.
+        public long getRuns(Phase phase) {
+            return values[phase.ordinal() * FIELDS];
+        }
+
+        public long getNanos(Phase phase) {
+            return values[phase.ordinal() * FIELDS + 1];
+        }
+
+        public long getCount(Phase phase) {
+            return values[phase.ordinal() * FIELDS + 2];
+        }
+
+        // Bytes allocated, 0 if the runtime cannot tell.
+        public long getAllocated(Phase phase) {
+            return values[phase.ordinal() * FIELDS + 3];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                if (getRuns(phase) > 0) {
+                    result.append(String.format("%-8s %6d runs %10.2f ms %12d count %14d bytes%n", phase,
+                            getRuns(phase), getNanos(phase) / 1e6, getCount(phase), getAllocated(phase)));
+                }
+            }
+            return result.toString();
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package gj.picoc;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
 public class Node {
 
-    private static final int MAX_CHILDREN = 3;
+    // Every node has room for three children, which is all any node but a SEQ needs.  A SEQ holds all the statements
+    // of a block and grows as they are added.
+    private static final int CHILDREN = 3;
 
     public enum NodeType {
         PROG, IF, MINUS, PLUS, OR, MUL, DIV, AND, ID, VAL_INT, VAL_FLOAT, NOT, NEGATE,
@@ -21,22 +28,34 @@ public class Node {
     // possible value.
     private final NodeType nodeType;
     private final String value;
-    private final Node[] children;
+    private Node[] children;
+    private int childCount;
 
     // For semantic analysis, the type of the tree can be either float or int.
     private TypeType typeType;
 
+    // For execution, identifiers are resolved to a slot in the frame of their type and literals to an index in the
+    // constant pool of their type.  Unresolved nodes have a slot of -1.
+    private int slot;
+
+    // Identifiers, declarations and assignments refer to a variable by its symbol id in the SymbolTable filled by the
+    // SemAnalyser, -1 before analysis.
+    private int symbol;
+
+    // The line of the source the node was parsed from, 0 if unknown.
+    private int line;
+
     public Node(NodeType nodeType, String value, Node... children) {
         this.nodeType = nodeType;
 
         this.value = value;
-        this.children = new Node[MAX_CHILDREN];
-
-        for (int i = 0; i < Math.min(children.length, MAX_CHILDREN); i++) {
-            this.children[i] = children[i];
-        }
+        this.children = Arrays.copyOf(children, Math.max(children.length, CHILDREN));
+        this.childCount = children.length;
+        while (childCount > 0 && this.children[childCount - 1] == null) childCount--;
 
         this.typeType = null;
+        this.slot = -1;
+        this.symbol = -1;
     }
 
     public Node(NodeType nodeType) {
@@ -53,12 +72,47 @@ public class Node {
     }
     public void setChild(int which, Node c) {
         this.children[which] = c;
+        if (c != null && which >= childCount) {
+            childCount = which + 1;
+        }
+        while (childCount > 0 && children[childCount - 1] == null) childCount--;
+    }
+    // Put 'c' right after the last child.
+    public void addChild(Node c) {
+        if (childCount == children.length) {
+            children = Arrays.copyOf(children, childCount * 2);
+        }
+        this.children[childCount++] = c;
+    }
+    // Replace 'count' children from 'from' on with 'with', moving the children after them along.
+    public void replaceChildren(int from, int count, List<Node> with) {
+        int size = childCount - count + with.size();
+        if (size > children.length) {
+            children = Arrays.copyOf(children, Math.max(size, children.length * 2));
+        }
+        System.arraycopy(children, from + count, children, from + with.size(), childCount - from - count);
+        for (int i = 0; i < with.size(); i++) {
+            children[from + i] = with.get(i);
+        }
+        Arrays.fill(children, size, Math.max(size, childCount), null);
+        childCount = size;
     }
+    // The array may be longer than the number of children, with nulls at the end.
     public Node[] getChildren() {
         return children;
     }
+    // The number of children, up to and including the last one that is not null.
+    public int getChildCount() {
+        return childCount;
+    }
     public void setTypeType(TypeType typeType) { this.typeType = typeType; }
     public TypeType getTypeType() { return typeType; }
+    public void setSlot(int slot) { this.slot = slot; }
+    public int getSlot() { return slot; }
+    public void setSymbol(int symbol) { this.symbol = symbol; }
+    public int getSymbol() { return symbol; }
+    public void setLine(int line) { this.line = line; }
+    public int getLine() { return line; }
 
     // Other methods
 
@@ -71,17 +125,39 @@ public class Node {
         return true;
     }
 
+    // Iterative, so that neither long blocks nor deeply nested expressions can overflow the stack.
     @Override
     public String toString() {
-        StringBuilder result = new StringBuilder(nodeType.toString());
-        if (value != null)  result.append("=" + value);
-        int cnt = MAX_CHILDREN - 1;
-        while (cnt >= 0 && this.children[cnt] == null) cnt--;
-        if (cnt >= 0) {
-            result.append("{");
-            for (int i = 0; i <= cnt; i++) result.append(this.children[i].toString()+ " ");
-            result.append("}");
+        StringBuilder result = new StringBuilder();
+
+        // Nodes of which the children are being printed, along with the index of the next child to print.
+        Deque<Node> parents = new ArrayDeque<>();
+        Deque<Integer> next = new ArrayDeque<>();
+        Node node = this;
+        while (true) {
+            result.append(node.nodeType);
+            if (node.value != null) result.append("=").append(node.value);
+            if (node.getChildCount() > 0) {
+                result.append("{");
+                parents.push(node);
+                next.push(0);
+            }
+
+            // Find the next node to print, closing the children of every node that is done.
+            node = null;
+            while (node == null && !parents.isEmpty()) {
+                int i = next.pop();
+                Node parent = parents.peek();
+                if (i < parent.getChildCount()) {
+                    if (i > 0) result.append(" ");
+                    next.push(i + 1);
+                    node = parent.children[i];
+                } else {
+                    result.append(" }");
+                    parents.pop();
+                }
+            }
+            if (node == null) return result.toString();
         }
-        return result.toString();
     }
 }
@@ -0,0 +1,28 @@
+package gj.picoc;
+
+/**
+ * Destination for the values produced by the "out" statement.  Values are handed over as primitives so that no boxing
+ * is required on the execution path.
+ */
+public interface OutputSink {
+
+    /**
+     * Write the result of an "out" statement with an integer expression.
+     *
+     * @param value the value to write.
+     */
+    void writeInt(long value);
+
+    /**
+     * Write the result of an "out" statement with a float expression.
+     *
+     * @param value the value to write.
+     */
+    void writeFloat(double value);
+
+    /**
+     * Flush any buffered values.  Called once a program has finished executing.
+     */
+    default void flush() {
+    }
+}
@@ -44,23 +44,126 @@ import java.util.List;
 
 public class Parser {
 
-    private final Scanner scanner;
+    private final TokenStream tokens;
+
+    // What the tree is built with, nodes are int handles given out by it.
+    private AstBuilder ast;
+
+    // When set, told where the statements of every sequence start and end.
+    private final StatementListener listener;
 
     public Parser(Scanner scanner) {
-        this.scanner = scanner;
+        this.tokens = new ScannerStream(scanner);
+        this.listener = null;
+    }
+
+    /**
+     * Parse from a token buffer, starting at its current position.  No Token objects are created.
+     *
+     * @param tokens the tokens as produced by {@link Scanner#tokenize()}.
+     */
+    public Parser(TokenBuffer tokens) {
+        this(tokens, null);
+    }
+
+    Parser(TokenBuffer tokens, StatementListener listener) {
+        this.tokens = tokens;
+        this.listener = listener;
+    }
+
+    /**
+     * Told about every statement the parser adds to a sequence, that is every statement of a block and every body of
+     * an if or while that becomes a SEQ.  Statements nest, since a block or an if is a statement itself.  The
+     * {@link IncrementalParser} uses this to re-parse single statements.
+     */
+    interface StatementListener {
+
+        // A statement starts at the next token.
+        void enter();
+
+        // The statement ended before the next token, adding the handles in 'sequence' from 'from' on.
+        void exit(List<Integer> sequence, int from);
+
+        // The handles in 'sequence' became the children of the SEQ 'node'.
+        void sequence(List<Integer> sequence, int node);
+    }
+
+    // Reads the tokens from a scanner, one Token at a time.
+    private static class ScannerStream implements TokenStream {
+        private final Scanner scanner;
+        private Token last;
+
+        private ScannerStream(Scanner scanner) {
+            this.scanner = scanner;
+        }
+
+        @Override
+        public Token.TokenType peek() {
+            return scanner.peekToken().getType();
+        }
+
+        @Override
+        public int peekLine() {
+            return scanner.peekToken().getLineNumber();
+        }
+
+        @Override
+        public Token.TokenType advance() {
+            last = scanner.nextToken();
+            return last.getType();
+        }
+
+        @Override
+        public String lexeme() {
+            return last.getLexeme();
+        }
+
+        @Override
+        public int line() {
+            return last.getLineNumber();
+        }
+    }
+
+    // Builds a tree of Node objects, the handle of a node is its index in 'nodes'.
+    static class NodeBuilder implements AstBuilder {
+        private final List<Node> nodes = new ArrayList<>();
+
+        Node get(int node) {
+            return nodes.get(node);
+        }
+
+        @Override
+        public int node(Node.NodeType type, String value) {
+            nodes.add(new Node(type, value));
+            return nodes.size() - 1;
+        }
+
+        @Override
+        public void addChild(int parent, int child) {
+            nodes.get(parent).addChild(nodes.get(child));
+        }
+
+        @Override
+        public Node.NodeType kind(int node) {
+            return nodes.get(node).getNodeType();
+        }
+
+        @Override
+        public void setLine(int node, int line) {
+            nodes.get(node).setLine(line);
+        }
     }
 
     // --- Convenience, house-keeping functions. ---
     // It is ALWAYS a good idea to write a few housekeeping functions to make the actual parsing functions (which can
     // get tricky enough) as short as possible.
 
-    // Convenience method to check for a specific token expected at a location.
-    private Token mustHave(Token.TokenType type, String looksLike) {
-        Token token = scanner.nextToken();
-        if (token.getType() != type) {
-            throw new RuntimeException(String.format("%s expected, line %d.", looksLike, token.getLineNumber()));
+    // Convenience method to check for a specific token expected at a location.  Returns its lexeme.
+    private String mustHave(Token.TokenType type, String looksLike) {
+        if (tokens.advance() != type) {
+            throw new RuntimeException(String.format("%s expected, line %d.", looksLike, tokens.line()));
         }
-        return token;
+        return tokens.lexeme();
     }
 
     // Convenience method to check if thing is in things.
@@ -71,23 +174,39 @@ public class Parser {
         return false;
     }
 
-    // This converts blocks of statements and declarations into a sequence tree structure
-    private Node listToTree(List<Node> list) {
+    // Convenience methods to create a node along with its children.  A node is on the line of the last token read,
+    // which for "if" and "while" is their keyword.
+    private int node(Node.NodeType type) {
+        return node(type, null);
+    }
 
-        // Optimisation: If the list contains a single sequence, collapse immediately.
-        if (list.size() == 1 && list.get(0).getNodeType() == Node.NodeType.SEQ) {
-            return list.get(0);
-        }
+    private int node(Node.NodeType type, String value) {
+        int node = ast.node(type, value);
+        ast.setLine(node, tokens.line());
+        return node;
+    }
 
-        int child = 0;
-        Node root = new Node(Node.NodeType.SEQ);
-        for (Node node : list) {
-            root.setChild(child++, node);
-            if (child > 2) {
-                Node tmp = new Node(Node.NodeType.SEQ, null, root);
-                root = tmp;
-                child = 1;
-            }
+    private int node(Node.NodeType type, int child) {
+        int node = node(type, null);
+        ast.addChild(node, child);
+        return node;
+    }
+
+    private int node(Node.NodeType type, int left, int right) {
+        int node = node(type, null);
+        ast.addChild(node, left);
+        ast.addChild(node, right);
+        return node;
+    }
+
+    // This converts blocks of statements and declarations into a single sequence node, however many there are.
+    private int listToTree(List<Integer> list) {
+        int root = node(Node.NodeType.SEQ);
+        for (int node : list) {
+            ast.addChild(root, node);
+        }
+        if (listener != null) {
+            listener.sequence(list, root);
         }
         return root;
     }
@@ -95,13 +214,45 @@ public class Parser {
     // --- Start of recursive descent methods ---
     // The break in Java convention for method names is intensional.  It mimics the CFG's non-terminals.
 
-    // <program> ::= <statement>
+    /**
+     * Parse a whole program into a tree of nodes.
+     *
+     * @return the PROG node at the root.
+     */
     public Node program() {
-        Node program = new Node(Node.NodeType.PROG);
-        program.setChild(0, statement());
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.PARSE);
+        NodeBuilder builder = new NodeBuilder();
+        Node program = builder.nodes.get(program(builder));
+        Metrics.end(probe, builder.nodes.size());
+        return program;
+    }
+
+    /**
+     * Parse a whole program straight into the columns of an arena, without creating any Node objects.
+     *
+     * @return the arena, with the PROG node as its root.
+     */
+    public AstArena programArena() {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.PARSE);
+        AstArena arena = new AstArena();
+        arena.setRoot(program(arena));
+        Metrics.end(probe, arena.size());
+        return arena;
+    }
+
+    // Parse one statement of a block into 'sequence', from the current token.
+    void statement(AstBuilder builder, List<Integer> sequence) {
+        ast = builder;
+        sequenced(sequence);
+    }
+
+    // <program> ::= <statement>
+    int program(AstBuilder builder) {
+        ast = builder;
+        int program = node(Node.NodeType.PROG, statement());
 
         // No garbage at the end.
-        if (scanner.nextToken().getType() != Token.TokenType.EOF) {
+        if (tokens.advance() != Token.TokenType.EOF) {
             throw new RuntimeException("End-of-file expected.");
         }
         return program;
@@ -114,269 +265,295 @@ public class Parser {
     //                   <declare_statement> |
     //                   <assignment_statement> |
     //                   ";"
-    private Node statement() {
-        Token peek = scanner.peekToken();
-        if (peek.getType() == Token.TokenType.KW_IF) {
-            return if_statement();
+    private int statement() {
+        Token.TokenType peek = tokens.peek();
+        if (peek == Token.TokenType.LBRA || in(peek, Token.TYPES) || peek == Token.TokenType.ID) {
+            List<Integer> sequence = new ArrayList<>();
+            sequenced(sequence);
+            return listToTree(sequence);
+        }
+        List<Integer> statement = new ArrayList<>(1);
+        statement(statement);
+        return statement.get(0);
+    }
+
+    // Add the statement to a sequence that becomes a SEQ, telling the listener where it starts and ends.
+    private void sequenced(List<Integer> sequence) {
+        if (listener == null) {
+            statement(sequence);
+            return;
+        }
+        int from = sequence.size();
+        listener.enter();
+        statement(sequence);
+        listener.exit(sequence, from);
+    }
+
+    // Add the statement to 'sequence'.  Blocks, declarations and assignments add each of their statements, so a block
+    // and all the blocks nested in it become a single SEQ.
+    private void statement(List<Integer> sequence) {
+        Token.TokenType peek = tokens.peek();
+        if (peek == Token.TokenType.KW_IF) {
+            sequence.add(if_statement());
         } else
-        if (peek.getType() == Token.TokenType.KW_WHILE) {
-            return while_statement();
+        if (peek == Token.TokenType.KW_WHILE) {
+            sequence.add(while_statement());
         } else
-        if (peek.getType() == Token.TokenType.LBRA) {
-            return block_statement();
+        if (peek == Token.TokenType.LBRA) {
+            block_statement(sequence);
         } else
-        if (peek.getType() == Token.TokenType.KW_OUT) {
-            return output_statement();
+        if (peek == Token.TokenType.KW_OUT) {
+            sequence.add(output_statement());
         } else
-        if (in(peek.getType(), Token.TYPES)) {
-            return declare_statement();
+        if (in(peek, Token.TYPES)) {
+            declare_statement(sequence);
         } else
-        if (peek.getType() == Token.TokenType.ID) {
-            return assignment_statement();
+        if (peek == Token.TokenType.ID) {
+            assignment_statement(sequence);
         } else
-        if (peek.getType() == Token.TokenType.SEMI) {
-            scanner.nextToken();
-            return new Node(Node.NodeType.EMPTY);
+        if (peek == Token.TokenType.SEMI) {
+            tokens.advance();
+            sequence.add(node(Node.NodeType.EMPTY));
+        } else {
+            // Missing statement.
+            throw new RuntimeException(String.format("Statement or } expected, line %d", tokens.peekLine()));
         }
-
-        // Missing statement.
-        throw new RuntimeException(String.format("Statement or } expected, line %d", peek.getLineNumber()));
     }
 
     // <if_statement> ::= "if" "(" <bool_expr> ")" <statement> [ "else" <statement> ]
-    private Node if_statement() {
-        scanner.nextToken(); // gobble up "if".
-        Node statement = new Node(Node.NodeType.IF);
+    private int if_statement() {
+        tokens.advance(); // gobble up "if".
+        int statement = node(Node.NodeType.IF);
         mustHave(Token.TokenType.LPAR, "(");
-        statement.setChild(0, bool_expr());
+        ast.addChild(statement, bool_expr());
         mustHave(Token.TokenType.RPAR, ")");
-        statement.setChild(1, statement());
+        ast.addChild(statement, statement());
 
         // is there an else?
-        if (scanner.peekToken().getType() == Token.TokenType.KW_ELSE) {
-            scanner.nextToken(); // gobble up "else"
-            statement.setChild(2, statement());
+        if (tokens.peek() == Token.TokenType.KW_ELSE) {
+            tokens.advance(); // gobble up "else"
+            ast.addChild(statement, statement());
         }
 
         return statement;
     }
 
     // <while_statement> ::= "while" "(" <expr> ")" <statement>
-    private Node while_statement() {
-        scanner.nextToken(); //gobble up "white"
-        Node statement = new Node(Node.NodeType.WHILE);
+    private int while_statement() {
+        tokens.advance(); //gobble up "white"
+        int statement = node(Node.NodeType.WHILE);
         mustHave(Token.TokenType.LPAR, "(");
-        statement.setChild(0, bool_expr());
+        ast.addChild(statement, bool_expr());
         mustHave(Token.TokenType.RPAR, ")");
-        statement.setChild(1, statement());
+        ast.addChild(statement, statement());
         return statement;
     }
 
     // <block_statement> ::= "{" { <statement> } "}"
-    private Node block_statement() {
-        scanner.nextToken(); // gobble up "{"
+    private void block_statement(List<Integer> sequence) {
+        tokens.advance(); // gobble up "{"
 
-        // Extract all the sequences and put them in a list.  This can also be done without using a list, but gets
-        // hairy quickly.  This makes it easier to follow even though it requires a slightly larger memory footprint.
-        List<Node> sequence = new ArrayList<>();
-        while (scanner.peekToken().getType() != Token.TokenType.RBRA) {
-            sequence.add(statement());
+        // Add all the statements to the sequence of the enclosing block, since there is only one scope a nested block
+        // need not be kept apart.
+        while (tokens.peek() != Token.TokenType.RBRA) {
+            sequenced(sequence);
         }
-        scanner.nextToken(); // gobble up "}"
-
-        // Put all the statements in a tree with the lower leaves the first statements to execute.
-        return listToTree(sequence);
+        tokens.advance(); // gobble up "}"
     }
 
     // <output_statement> ::=  "out" "(" <simple_expr> ")" ";"
-    private Node output_statement() {
-        scanner.nextToken(); // gobble up "out"
+    private int output_statement() {
+        tokens.advance(); // gobble up "out"
+        int line = tokens.line();
         mustHave(Token.TokenType.LPAR, "(");
-        Node expr = bool_expr();
+        int expr = bool_expr();
         mustHave(Token.TokenType.RPAR, ")");
         mustHave(Token.TokenType.SEMI, ";");
-        return new Node(Node.NodeType.OUTPUT, null, expr);
+        int output = node(Node.NodeType.OUTPUT, expr);
+        ast.setLine(output, line);
+        return output;
     }
 
     // <declare_statement> ::= <type_specifier> <id> ["=" <simple_expr> ] {"," <id> ["="  <simple_expr> ] } ";"
-    private Node declare_statement() {
-
-        // Since multiple declarations are possible, get each and put in a list.
-        List<Node> declarations = new ArrayList<>();
-
-        Token type = scanner.nextToken();
-        Node id = new Node(Node.NodeType.ID, mustHave(Token.TokenType.ID, "identifier").getLexeme());
-        Node declare = new Node(Node.NodeType.DECLARATION, type.getLexeme(), id);
-        if (scanner.peekToken().getType() == Token.TokenType.ASSIGN) {
-            scanner.nextToken(); // gobble up "="
-            declare.setChild(1, bool_expr());
+    private void declare_statement(List<Integer> declarations) {
+
+        // Since multiple declarations are possible, add each to the sequence.
+
+        tokens.advance();
+        String type = tokens.lexeme();
+        int id = node(Node.NodeType.ID, mustHave(Token.TokenType.ID, "identifier"));
+        int declare = node(Node.NodeType.DECLARATION, type);
+        ast.addChild(declare, id);
+        if (tokens.peek() == Token.TokenType.ASSIGN) {
+            tokens.advance(); // gobble up "="
+            ast.addChild(declare, bool_expr());
         }
         declarations.add(declare);
 
         // Add extras.
-        while (scanner.peekToken().getType() == Token.TokenType.COMMA)  {
-            scanner.nextToken(); // gobble up ","
-
-            id = new Node(Node.NodeType.ID, mustHave(Token.TokenType.ID, "identifier").getLexeme());
-            declare = new Node(Node.NodeType.DECLARATION, type.getLexeme(), id);
-            if (scanner.peekToken().getType() == Token.TokenType.ASSIGN) {
-                scanner.nextToken(); // gobble up "="
-                declare.setChild(1, bool_expr());
+        while (tokens.peek() == Token.TokenType.COMMA)  {
+            tokens.advance(); // gobble up ","
+
+            id = node(Node.NodeType.ID, mustHave(Token.TokenType.ID, "identifier"));
+            declare = node(Node.NodeType.DECLARATION, type);
+            ast.addChild(declare, id);
+            if (tokens.peek() == Token.TokenType.ASSIGN) {
+                tokens.advance(); // gobble up "="
+                ast.addChild(declare, bool_expr());
             }
             declarations.add(declare);
         }
         mustHave(Token.TokenType.SEMI, ";");
-
-        // Put all the assignments in a tree with the lower leaves the first assignments to execute.
-        return listToTree(declarations);
     }
 
     // <assign_statement> ::= <id> "=" <simple_expr> {"," <id> "="  <simple_expr> } ";"
-    private Node assignment_statement() {
+    private void assignment_statement(List<Integer> assignments) {
 
-        // Since multiple assignments are possible, get each and put in a list.
-        List<Node> assignments = new ArrayList<>();
+        // Since multiple assignments are possible, add each to the sequence.
 
         // Get the first one.
-        Token id = scanner.nextToken();
+        tokens.advance();
+        String id = tokens.lexeme();
+        int line = tokens.line();
         mustHave(Token.TokenType.ASSIGN, "=");
-        assignments.add(new Node(Node.NodeType.ASSIGNMENT, null,
-                new Node(Node.NodeType.ID, id.getLexeme()), bool_expr()));
+        assignments.add(assignment(id, line));
 
         // Add extras.
-        while (scanner.peekToken().getType() == Token.TokenType.COMMA)  {
-            scanner.nextToken(); // gobble up ","
+        while (tokens.peek() == Token.TokenType.COMMA)  {
+            tokens.advance(); // gobble up ","
             id = mustHave(Token.TokenType.ID, "identifier");
+            line = tokens.line();
             mustHave(Token.TokenType.ASSIGN, "=");
-            assignments.add(new Node(Node.NodeType.ASSIGNMENT, id.getLexeme(), bool_expr()));
+            assignments.add(assignment(id, line));
         }
         mustHave(Token.TokenType.SEMI, ";");
+    }
 
-        // Put all the assignments in a tree with the lower leaves the first assignments to execute.
-        return listToTree(assignments);
+    // The assignment to 'id' on 'line', of the expression that follows.
+    private int assignment(String id, int line) {
+        int assignment = node(Node.NodeType.ASSIGNMENT, node(Node.NodeType.ID, id), bool_expr());
+        ast.setLine(assignment, line);
+        return assignment;
     }
 
     // A technique to handle boolean expressions is to mix them with normal expressions.  This helps generalize the
     // parser, but can slow it down.  In these case, the parser alwyas looks for a boolean expression first.
 
     // <bool_expression> ::= <bool_term> { "||" <bool_term> }
-    private Node bool_expr() {
-        Node root = bool_term();
-        while (scanner.peekToken().getType() == Token.TokenType.OR) {
-            scanner.nextToken(); // gobble up the ||
-            root = new Node(Node.NodeType.OR, null, root, bool_term());
+    private int bool_expr() {
+        int root = bool_term();
+        while (tokens.peek() == Token.TokenType.OR) {
+            tokens.advance(); // gobble up the ||
+            root = node(Node.NodeType.OR, root, bool_term());
         }
         return root;
     }
 
     // <bool_term> ::= <bool_factor> { "&&" <bool_factor> }
-    private Node bool_term() {
-        Node root = bool_factor();
-        while (scanner.peekToken().getType() == Token.TokenType.AND) {
-            scanner.nextToken(); // gobble up the &&
-            root = new Node(Node.NodeType.AND, null, root, bool_factor());
+    private int bool_term() {
+        int root = bool_factor();
+        while (tokens.peek() == Token.TokenType.AND) {
+            tokens.advance(); // gobble up the &&
+            root = node(Node.NodeType.AND, root, bool_factor());
         }
         return root;
     }
 
     // <bool_factor> ::= ["!"] <relation>
-    private Node bool_factor() {
+    private int bool_factor() {
 
         boolean hasNot = false;
-        if (scanner.peekToken().getType() == Token.TokenType.NOT) {
-            scanner.nextToken();
+        if (tokens.peek() == Token.TokenType.NOT) {
+            tokens.advance();
             hasNot = true;
         }
 
-        Node relation = relation();
-        return hasNot ? new Node(Node.NodeType.NOT, null, relation) : relation;
+        int relation = relation();
+        return hasNot ? node(Node.NodeType.NOT, relation) : relation;
     }
 
     // The transition from boolean expression to normal expression occurs here.  The trick is to make the last
     // comparison part optional.
     //
     // <relation> ::= <expression> [ (">" | "<" | "<=" | ">=" | "==" | "!=" | "=") <expression> ]
-    private Node relation() {
-        Node expression = expression();
-        if (in(scanner.peekToken().getType(), Token.BOOL_OP) || (scanner.peekToken().getType() == Token.TokenType.ASSIGN)) {
-            Token token = scanner.nextToken();
-            switch (token.getType()) {
+    private int relation() {
+        int expression = expression();
+        if (in(tokens.peek(), Token.BOOL_OP) || (tokens.peek() == Token.TokenType.ASSIGN)) {
+            switch (tokens.advance()) {
                 case CMP_G:
-                    return new Node(Node.NodeType.GREATER, null, expression, expression());
+                    return node(Node.NodeType.GREATER, expression, expression());
                 case CMP_S:
-                    return new Node(Node.NodeType.SMALLER, null, expression, expression());
+                    return node(Node.NodeType.SMALLER, expression, expression());
                 case CMP_SE:
-                    return new Node(Node.NodeType.SMALLER_EQUAL, null, expression, expression());
+                    return node(Node.NodeType.SMALLER_EQUAL, expression, expression());
                 case CMP_GE:
-                    return new Node(Node.NodeType.GREATER_EQUAL, null, expression, expression());
+                    return node(Node.NodeType.GREATER_EQUAL, expression, expression());
                 case CMP_EQUALS:
-                    return new Node(Node.NodeType.EQUALS, null, expression, expression());
+                    return node(Node.NodeType.EQUALS, expression, expression());
                 case CMP_NE:
-                    return new Node(Node.NodeType.NOT_EQUALS, null, expression, expression());
+                    return node(Node.NodeType.NOT_EQUALS, expression, expression());
                 case ASSIGN:
-                    return new Node(Node.NodeType.ASSIGNMENT, null, expression, expression());
+                    return node(Node.NodeType.ASSIGNMENT, expression, expression());
             }
         }
         return expression;
     }
 
     //  <expression> :== <term> { ("+"|"-") <term> }
-    private Node expression() {
-        Node root = term();
-        while (in(scanner.peekToken().getType(), Token.ADDITION_OP)) {
-            Token token = scanner.nextToken();
-            if (token.getType() == Token.TokenType.PLUS) {
-                root = new Node(Node.NodeType.PLUS, null, root, term());
-            } else if (token.getType() == Token.TokenType.PLUS) {
-                root = new Node(Node.NodeType.MINUS, null, root, term());
+    private int expression() {
+        int root = term();
+        while (in(tokens.peek(), Token.ADDITION_OP)) {
+            Token.TokenType token = tokens.advance();
+            if (token == Token.TokenType.PLUS) {
+                root = node(Node.NodeType.PLUS, root, term());
+            } else if (token == Token.TokenType.MINUS) {
+                root = node(Node.NodeType.MINUS, root, term());
             }
         }
         return root;
     }
 
     // <term> :== ("+"|"-") <factor> { ("*" "/") <factor> }
-    private Node term() {
+    private int term() {
         boolean negate = false;
-        if (in(scanner.peekToken().getType(), Token.ADDITION_OP)) {
-            Token token = scanner.nextToken();
-            if (token.getType() == Token.TokenType.MINUS) {
+        if (in(tokens.peek(), Token.ADDITION_OP)) {
+            if (tokens.advance() == Token.TokenType.MINUS) {
                 negate = true;
             } // ...just skip the plus.
         }
 
-        Node root = factor();
+        int root = factor();
         if (negate) {
-            root = new Node(Node.NodeType.NEGATE, null, root);
+            root = node(Node.NodeType.NEGATE, root);
         }
 
-        while (in(scanner.peekToken().getType(), Token.MULTIPLY_OP)) {
-            Token token = scanner.nextToken();
-            if (token.getType() == Token.TokenType.MUL) {
-                root = new Node(Node.NodeType.MUL, null, root, factor());
-            } else if (token.getType() == Token.TokenType.DIV) {
-                root = new Node(Node.NodeType.DIV, null, root, factor());
+        while (in(tokens.peek(), Token.MULTIPLY_OP)) {
+            Token.TokenType token = tokens.advance();
+            if (token == Token.TokenType.MUL) {
+                root = node(Node.NodeType.MUL, root, factor());
+            } else if (token == Token.TokenType.DIV) {
+                root = node(Node.NodeType.DIV, root, factor());
             }
         }
         return root;
     }
 
     // <factor> :==  <id> | <int> | <float> | "(" bool_expression ")"
-    private Node factor() {
-        Token token = scanner.nextToken();
-        switch (token.getType()) {
+    private int factor() {
+        switch (tokens.advance()) {
             case LPAR:
-                Node expr = bool_expr();
+                int expr = bool_expr();
                 mustHave(Token.TokenType.RPAR, ")");
                 return expr;
             case ID:
-                return new Node(Node.NodeType.ID, token.getLexeme());
+                return node(Node.NodeType.ID, tokens.lexeme());
             case VAL_INT:
-                return new Node(Node.NodeType.VAL_INT, token.getLexeme());
+                return node(Node.NodeType.VAL_INT, tokens.lexeme());
             case VAL_FLOAT:
-                return new Node(Node.NodeType.VAL_FLOAT, token.getLexeme());
+                return node(Node.NodeType.VAL_FLOAT, tokens.lexeme());
         }
         String error = String.format("Unexpected symbol %s on line %d, expected a factor (i.d. like an ID or constant)",
-                token.getLexeme(), token.getLineNumber());
+                tokens.lexeme(), tokens.line());
         throw new RuntimeException(error);
     }
 
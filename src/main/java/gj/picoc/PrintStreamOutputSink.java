@@ -0,0 +1,30 @@
+package gj.picoc;
+
+import java.io.PrintStream;
+
+/**
+ * Output sink that prints every value on its own line, i.e. what "out" does on the console.
+ */
+public class PrintStreamOutputSink implements OutputSink {
+
+    private final PrintStream stream;
+
+    public PrintStreamOutputSink(PrintStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void writeInt(long value) {
+        stream.println(value);
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        stream.println(value);
+    }
+
+    @Override
+    public void flush() {
+        stream.flush();
+    }
+}
@@ -0,0 +1,361 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interpreter that profiles the program it runs.
+ *
+ * It counts how often every node runs, how often the condition of every "if" and "while" is true, and measures the
+ * time spent in every "while" loop and in both branches of every "if".  Loops and branches are regions: the program
+ * is the outermost, and every region is in the loop or branch around it.  The time of a region less the time of the
+ * regions in it is its self time.
+ *
+ * <pre>
+ * java gj.picoc.Profiler [-n top] [-f file] program.pc
+ * </pre>
+ *
+ * The command line runs a program with its output on stdout and the report on stderr.  With "-f" it also writes the
+ * self times as collapsed stacks to a file, as taken by flame graph tools such as flamegraph.pl.
+ *
+ * Counting slows execution down, and timing even more so: every region entered reads the clock twice.  Line numbers
+ * are those the {@link Parser} put on the nodes.
+ */
+public class Profiler extends Interpreter {
+
+    /** What was measured of a node. */
+    private static final class Counts {
+        private long hits;
+        // Times the condition of an "if" or "while" was true.
+        private long taken;
+        // The regions of a "while", or of the branches of an "if".
+        private Region region;
+        private Region otherwise;
+    }
+
+    /** A loop, a branch or the program, with the time spent in it. */
+    public static final class Region {
+        private final Node node;
+        private final String name;
+        private final Region parent;
+        private long entries;
+        private long nanos;
+        private long inner;
+
+        private Region(Node node, String name, Region parent) {
+            this.node = node;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        // The "if" or "while" node, or the PROG.
+        public Node getNode() {
+            return node;
+        }
+
+        // "program", or the keyword ("while", "if" or "else") and the line, as in "while:3".
+        public String getName() {
+            return name;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        // Time not spent in the regions inside.
+        public long getSelfNanos() {
+            return nanos - inner;
+        }
+
+        // The names of the regions from the program to this one, separated by ";".
+        public String getStack() {
+            return parent == null ? name : parent.getStack() + ";" + name;
+        }
+    }
+
+    private final Map<Node, Counts> counts = new IdentityHashMap<>();
+    private final List<Region> regions = new ArrayList<>();
+
+    // The region being executed.
+    private Region current;
+
+    /**
+     * Prepare a program for profiling.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     */
+    public Profiler(Node program) {
+        super(program);
+    }
+
+    /**
+     * Execute the program from the start, counting from zero.
+     *
+     * @param out where the values of "out" statements go.
+     */
+    @Override
+    public void run(OutputSink out) {
+        counts.clear();
+        regions.clear();
+        current = null;
+        super.run(out);
+    }
+
+    @Override
+    void execute(Node node) {
+        // An assignment is executed by evaluating it, which counts it.
+        if (node.getNodeType() == Node.NodeType.ASSIGNMENT) {
+            super.execute(node);
+            return;
+        }
+        Counts counts = counts(node);
+        counts.hits++;
+        Node[] children = node.getChildren();
+        long start;
+        switch (node.getNodeType()) {
+            case PROG:
+                if (counts.region == null) {
+                    counts.region = region(node, "program");
+                }
+                start = enter(counts.region);
+                super.execute(node);
+                leave(counts.region, start);
+                break;
+            case IF:
+                boolean taken = evalInt(children[0]) != 0;
+                Node branch = taken ? children[1] : children[2];
+                if (taken) {
+                    counts.taken++;
+                    if (counts.region == null) {
+                        counts.region = region(node, "if:" + node.getLine());
+                    }
+                } else if (branch != null && counts.otherwise == null) {
+                    counts.otherwise = region(node, "else:" + node.getLine());
+                }
+                if (branch != null) {
+                    Region region = taken ? counts.region : counts.otherwise;
+                    start = enter(region);
+                    execute(branch);
+                    leave(region, start);
+                }
+                break;
+            case WHILE:
+                if (counts.region == null) {
+                    counts.region = region(node, "while:" + node.getLine());
+                }
+                start = enter(counts.region);
+                while (evalInt(children[0]) != 0) {
+                    counts.taken++;
+                    execute(children[1]);
+                }
+                leave(counts.region, start);
+                break;
+            default:
+                super.execute(node);
+        }
+    }
+
+    // An expression of either type is evaluated as the other by widening or truncating it, which is counted once.
+    @Override
+    long evalInt(Node node) {
+        if (node.getTypeType() != Node.TypeType.FLOAT) {
+            counts(node).hits++;
+        }
+        return super.evalInt(node);
+    }
+
+    @Override
+    double evalFloat(Node node) {
+        if (node.getTypeType() != Node.TypeType.INT) {
+            counts(node).hits++;
+        }
+        return super.evalFloat(node);
+    }
+
+    private Counts counts(Node node) {
+        Counts result = counts.get(node);
+        if (result == null) {
+            result = new Counts();
+            counts.put(node, result);
+        }
+        return result;
+    }
+
+    // Regions are always entered from the same region, the one around them in the program.
+    private Region region(Node node, String name) {
+        Region region = new Region(node, name, current);
+        regions.add(region);
+        return region;
+    }
+
+    private long enter(Region region) {
+        region.entries++;
+        current = region;
+        return System.nanoTime();
+    }
+
+    private void leave(Region region, long start) {
+        long nanos = System.nanoTime() - start;
+        region.nanos += nanos;
+        if (region.parent != null) {
+            region.parent.inner += nanos;
+        }
+        current = region.parent;
+    }
+
+    /**
+     * How often a node ran in the last run: for a statement how often it was executed, for an expression how often it
+     * was evaluated.
+     *
+     * @param node a node of the program.
+     * @return the count, 0 for nodes that did not run.
+     */
+    public long getHits(Node node) {
+        Counts result = counts.get(node);
+        return result == null ? 0 : result.hits;
+    }
+
+    /**
+     * How often the condition of an "if" or "while" was true in the last run.  For an "if" that is how often the
+     * first branch was taken, for a "while" the number of iterations.
+     *
+     * @param node an IF or WHILE node.
+     * @return the count.
+     */
+    public long getTaken(Node node) {
+        Counts result = counts.get(node);
+        return result == null ? 0 : result.taken;
+    }
+
+    /**
+     * The loops and branches that ran in the last run, along with the program itself.
+     *
+     * @return the regions, by decreasing self time.
+     */
+    public List<Region> getRegions() {
+        List<Region> result = new ArrayList<>(regions);
+        result.sort(Comparator.comparingLong(Region::getSelfNanos).reversed());
+        return result;
+    }
+
+    /**
+     * A report of the last run: the loops and branches that took most time by themselves, and the statements that
+     * ran most often.
+     *
+     * @param top the most loops and branches and the most statements listed.
+     * @return the report.
+     */
+    public String report(int top) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %10s %10s %8s %12s %12s%n", "Region", "Entries", "Iterations", "Taken",
+                "Total ms", "Self ms"));
+        List<Region> sorted = getRegions();
+        for (Region region : sorted.subList(0, Math.min(top, sorted.size()))) {
+            Node node = region.getNode();
+            String iterations = "";
+            String taken = "";
+            if (node.getNodeType() == Node.NodeType.WHILE) {
+                iterations = Long.toString(getTaken(node));
+                taken = percentage(getTaken(node), getTaken(node) + getHits(node));
+            } else if (node.getNodeType() == Node.NodeType.IF) {
+                taken = percentage(region.getEntries(), getHits(node));
+            }
+            report.append(String.format("%-16s %10d %10s %8s %12.3f %12.3f%n", region.getName(), region.getEntries(),
+                    iterations, taken, region.getNanos() / 1e6, region.getSelfNanos() / 1e6));
+        }
+
+        List<Map.Entry<Node, Counts>> statements = new ArrayList<>();
+        for (Map.Entry<Node, Counts> entry : counts.entrySet()) {
+            if (isStatement(entry.getKey().getNodeType())) {
+                statements.add(entry);
+            }
+        }
+        statements.sort(Comparator.comparingLong((Map.Entry<Node, Counts> entry) -> entry.getValue().hits).reversed()
+                .thenComparingInt(entry -> entry.getKey().getLine()));
+        report.append(String.format("%n%-6s %-12s %12s%n", "Line", "Statement", "Hits"));
+        for (Map.Entry<Node, Counts> entry : statements.subList(0, Math.min(top, statements.size()))) {
+            report.append(String.format("%-6d %-12s %12d%n", entry.getKey().getLine(), entry.getKey().getNodeType(),
+                    entry.getValue().hits));
+        }
+        return report.toString();
+    }
+
+    private static boolean isStatement(Node.NodeType type) {
+        switch (type) {
+            case IF:
+            case WHILE:
+            case OUTPUT:
+            case DECLARATION:
+            case ASSIGNMENT:
+            case EMPTY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String percentage(long part, long whole) {
+        return whole == 0 ? "" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+
+    /**
+     * The self time of every region of the last run as collapsed stacks: a line per region with the names of the
+     * regions from the program down to it separated by ";", a space and the self time in microseconds.
+     *
+     * @return the lines.
+     */
+    public String collapsed() {
+        StringBuilder result = new StringBuilder();
+        for (Region region : regions) {
+            long micros = region.getSelfNanos() / 1000;
+            if (micros > 0) {
+                result.append(region.getStack()).append(' ').append(micros).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int top = 20;
+        Path collapsed = null;
+        Path file = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "-f":
+                    collapsed = Path.of(args[++i]);
+                    break;
+                default:
+                    file = Path.of(args[i]);
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: java gj.picoc.Profiler [-n top] [-f file] program.pc");
+            System.exit(2);
+        }
+
+        Node program;
+        try (Scanner scanner = new Scanner(file)) {
+            program = new Parser(scanner).program();
+        }
+        Profiler profiler = new Profiler(program);
+        profiler.run(new ChannelOutputSink(Channels.newChannel(System.out)));
+        System.err.print(profiler.report(top));
+        if (collapsed != null) {
+            Files.writeString(collapsed, profiler.collapsed());
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package gj.picoc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates random PicoC programs that follow the grammar at the top of {@link Parser}, pass the {@link SemAnalyser}
+ * and always terminate, for testing and benchmarking at scale.  The same seed and settings always give the same
+ * program.
+ *
+ * <pre>
+ * java gj.picoc.ProgramGenerator [-s seed] [-n statements] [-d depth] [-b block] [-e operands] [-v variables]
+ *                                [-l iterations] [-k count] [-o dir]
+ * </pre>
+ *
+ * The shape is set by the number of statements, the deepest nesting of blocks, ifs and whiles, the most statements in
+ * a nested block (the outer block takes whatever is left), the most operands in an expression and the number of
+ * variables of each type.  Conditions are always of type int.  Integer division is only by literals other than zero.
+ * Every while counts its iterations in a variable of its own that nothing else assigns, and stops after at most a
+ * number of iterations, so a program executes at most statements * iterations ^ depth statements.  With "-o" the
+ * command line writes "count" programs with consecutive seeds to a directory, otherwise one program to stdout.
+ */
+public class ProgramGenerator {
+
+    private static final String[] INT_OPS = {" + ", " - ", " * "};
+    private static final String[] COMPARISONS = {" < ", " > ", " <= ", " >= ", " == ", " != "};
+
+    private final long seed;
+    private int statements = 100;
+    private int depth = 4;
+    private int block = 8;
+    private int operands = 4;
+    private int variables = 4;
+    private int iterations = 3;
+
+    // While generating.
+    private Random random;
+    private StringBuilder code;
+    private int remaining;
+    private int declaredInts;
+    private int declaredFloats;
+    private int counters;
+
+    public ProgramGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    // About the number of statements in the program, at least one.
+    public void setStatements(int statements) {
+        this.statements = Math.max(1, statements);
+    }
+
+    // The deepest nesting of blocks, ifs and whiles, 0 for a single flat block.
+    public void setDepth(int depth) {
+        this.depth = Math.max(0, depth);
+    }
+
+    // The most statements in a nested block.
+    public void setBlock(int block) {
+        this.block = Math.max(1, block);
+    }
+
+    // The most operands in an expression.
+    public void setOperands(int operands) {
+        this.operands = Math.max(1, operands);
+    }
+
+    // The number of int and of float variables declared at the start.
+    public void setVariables(int variables) {
+        this.variables = Math.max(1, variables);
+    }
+
+    // The most iterations of every while.
+    public void setIterations(int iterations) {
+        this.iterations = Math.max(0, iterations);
+    }
+
+    /**
+     * Generate a program.
+     *
+     * @return the source.
+     */
+    public String generate() {
+        random = new Random(seed);
+        code = new StringBuilder();
+        remaining = statements;
+        declaredInts = 0;
+        declaredFloats = 0;
+        counters = 0;
+
+        // The body first, since the loop counters it needs are declared before it.
+        while (remaining > 0) {
+            statement(1, 0);
+        }
+        StringBuilder body = code;
+        code = new StringBuilder(body.length() + 64 * variables + 8 * counters + 64);
+        code.append("{\n");
+        code.append("  int ");
+        for (int i = 0; i < variables; i++) {
+            code.append(i > 0 ? ", " : "").append('i').append(i).append(" = ").append(random.nextInt(10));
+        }
+        code.append(";\n  float ");
+        for (int i = 0; i < variables; i++) {
+            code.append(i > 0 ? ", " : "").append('f').append(i).append(" = ").append(random.nextInt(10))
+                    .append('.').append(random.nextInt(10));
+        }
+        code.append(";\n");
+        for (int i = 0; i < counters; i++) {
+            code.append(i == 0 ? "  int " : ", ").append('k').append(i);
+        }
+        code.append(counters > 0 ? ";\n" : "");
+        code.append(body);
+        code.append("  out(i0);\n  out(f0);\n}\n");
+        String result = code.toString();
+        code = null;
+        return result;
+    }
+
+    private void indent(int level) {
+        for (int i = Math.min(level, 32); i > 0; i--) {
+            code.append("  ");
+        }
+    }
+
+    // A statement in a block.  'loops' is the number of whiles around it.
+    private void statement(int level, int loops) {
+        remaining--;
+        int kind = random.nextInt(level <= depth ? 10 : 6);
+        indent(level);
+        switch (kind) {
+            case 0:
+            case 1:
+            case 2:
+                assignment();
+                break;
+            case 3:
+                code.append("out(").append(expression(random.nextBoolean())).append(");");
+                break;
+            case 4:
+                declaration();
+                break;
+            case 5:
+                if (random.nextBoolean()) {
+                    code.append(';');
+                } else {
+                    code.append("// ").append(random.nextInt(100)).append('\n');
+                    indent(level);
+                    assignment();
+                }
+                break;
+            case 6:
+                code.append("{\n");
+                block(level + 1, loops);
+                indent(level);
+                code.append("}");
+                break;
+            case 7:
+            case 8:
+                // An else right after an if without braces would belong to that if instead.
+                boolean otherwise = random.nextBoolean();
+                code.append("if (").append(condition()).append(") ");
+                body(level, loops, !otherwise);
+                if (otherwise) {
+                    code.append(" else ");
+                    body(level, loops, true);
+                }
+                break;
+            default:
+                loop(level, loops);
+        }
+        code.append('\n');
+    }
+
+    // The statements of a nested block.
+    private void block(int level, int loops) {
+        for (int count = 1 + random.nextInt(block); count > 0 && remaining > 0; count--) {
+            statement(level, loops);
+        }
+    }
+
+    // The body of an if: a block or, without braces, an assignment or, if 'nested', another if.
+    private void body(int level, int loops, boolean nested) {
+        int kind = random.nextInt(4);
+        if (kind == 0 && remaining > 0) {
+            remaining--;
+            assignment();
+        } else if (kind == 1 && nested && remaining > 0 && level < depth) {
+            remaining--;
+            code.append("if (").append(condition()).append(") ");
+            body(level + 1, loops, true);
+        } else {
+            code.append("{\n");
+            block(level + 1, loops);
+            indent(level);
+            code.append("}");
+        }
+    }
+
+    // A while that counts its iterations in its own variable.
+    private void loop(int level, int loops) {
+        String counter = "k" + loops;
+        counters = Math.max(counters, loops + 1);
+        code.append(counter).append(" = 0;\n");
+        indent(level);
+        code.append("while (").append(counter).append(" < ").append(random.nextInt(iterations + 1));
+        if (random.nextBoolean()) {
+            code.append(" && (").append(condition()).append(')');
+        }
+        code.append(") {\n");
+        block(level + 1, loops + 1);
+        indent(level + 1);
+        code.append(counter).append(" = ").append(counter).append(" + 1;\n");
+        indent(level);
+        code.append("}");
+    }
+
+    private void assignment() {
+        code.append(variable(random.nextBoolean())).append(" = ").append(expression(random.nextBoolean()));
+        if (random.nextInt(8) == 0) {
+            code.append(", ").append(variable(random.nextBoolean())).append(" = ").append(expression(true));
+        }
+        code.append(';');
+    }
+
+    // A new variable, "id" or "fd" followed by the number of variables of its type declared before.  It can be used
+    // anywhere after it, since PicoC has a single scope.
+    private void declaration() {
+        boolean integer = random.nextBoolean();
+        code.append(integer ? "int id" : "float fd").append(integer ? declaredInts : declaredFloats);
+        if (random.nextBoolean()) {
+            code.append(" = ").append(expression(!integer));
+        }
+        code.append(';');
+        if (integer) {
+            declaredInts++;
+        } else {
+            declaredFloats++;
+        }
+    }
+
+    // One of the variables declared at the start or after it, not a loop counter.
+    private String variable(boolean integer) {
+        int choice = random.nextInt(variables + (integer ? declaredInts : declaredFloats));
+        if (choice < variables) {
+            return (integer ? "i" : "f") + choice;
+        }
+        return (integer ? "id" : "fd") + (choice - variables);
+    }
+
+    // An expression of type int, or of either type if 'mixed'.
+    private String expression(boolean mixed) {
+        StringBuilder expression = new StringBuilder();
+        int open = 0;
+        boolean product = false;
+        for (int count = 1 + random.nextInt(operands); count > 0; count--) {
+            if (count > 2 && random.nextInt(4) == 0) {
+                expression.append('(');
+                open++;
+                product = false;
+            }
+            // A sign only starts a term, so there is none right after a "*".
+            if (!product && random.nextInt(10) == 0) {
+                expression.append('-');
+            }
+            operand(expression, mixed);
+            if (open > 0 && random.nextInt(3) == 0) {
+                expression.append(')');
+                open--;
+            }
+            if (count > 1) {
+                if (random.nextInt(6) == 0) {
+                    // Divide by a literal that is not zero, then carry on.
+                    expression.append(" / ").append(mixed && random.nextBoolean() ? "2.5" : 1 + random.nextInt(9));
+                }
+                String op = INT_OPS[random.nextInt(INT_OPS.length)];
+                expression.append(op);
+                product = op.equals(" * ");
+            }
+        }
+        for (; open > 0; open--) {
+            expression.append(')');
+        }
+        return expression.toString();
+    }
+
+    private void operand(StringBuilder expression, boolean mixed) {
+        boolean integer = !mixed || random.nextBoolean();
+        if (random.nextInt(3) > 0) {
+            expression.append(variable(integer));
+        } else if (integer) {
+            expression.append(random.nextInt(100));
+        } else {
+            expression.append(random.nextInt(100)).append('.').append(random.nextInt(100));
+        }
+    }
+
+    // A condition, of type int: comparisons joined by "&&" and "||", some of them negated.
+    private String condition() {
+        StringBuilder condition = new StringBuilder();
+        for (int count = 1 + random.nextInt(3); count > 0; count--) {
+            if (random.nextInt(5) == 0) {
+                condition.append('!');
+            }
+            if (random.nextInt(5) == 0) {
+                condition.append(expression(false));
+            } else {
+                condition.append(expression(true)).append(COMPARISONS[random.nextInt(COMPARISONS.length)])
+                        .append(expression(true));
+            }
+            if (count > 1) {
+                condition.append(random.nextBoolean() ? " && " : " || ");
+            }
+        }
+        return condition.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int count = 1;
+        Path output = null;
+        ProgramGenerator settings = new ProgramGenerator(seed);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-s":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-n":
+                    settings.setStatements(Integer.parseInt(args[++i]));
+                    break;
+                case "-d":
+                    settings.setDepth(Integer.parseInt(args[++i]));
+                    break;
+                case "-b":
+                    settings.setBlock(Integer.parseInt(args[++i]));
+                    break;
+                case "-e":
+                    settings.setOperands(Integer.parseInt(args[++i]));
+                    break;
+                case "-v":
+                    settings.setVariables(Integer.parseInt(args[++i]));
+                    break;
+                case "-l":
+                    settings.setIterations(Integer.parseInt(args[++i]));
+                    break;
+                case "-k":
+                    count = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    output = Path.of(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: java gj.picoc.ProgramGenerator [-s seed] [-n statements] [-d depth] "
+                            + "[-b block] [-e operands] [-v variables] [-l iterations] [-k count] [-o dir]");
+                    System.exit(2);
+            }
+        }
+
+        if (output == null) {
+            System.out.print(settings.copy(seed).generate());
+            return;
+        }
+        Files.createDirectories(output);
+        for (int i = 0; i < count; i++) {
+            Files.writeString(output.resolve("gen-" + (seed + i) + ".pc"), settings.copy(seed + i).generate());
+        }
+    }
+
+    // A generator with the same settings and another seed.
+    private ProgramGenerator copy(long seed) {
+        ProgramGenerator copy = new ProgramGenerator(seed);
+        copy.statements = statements;
+        copy.depth = depth;
+        copy.block = block;
+        copy.operands = operands;
+        copy.variables = variables;
+        copy.iterations = iterations;
+        return copy;
+    }
+}
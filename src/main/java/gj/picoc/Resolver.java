@@ -0,0 +1,91 @@
+package gj.picoc;
+
+import java.util.Arrays;
+
+/**
+ * Resolution pass run before a program is executed.  The tree is first passed through the {@link SemAnalyser}, which
+ * types every node and resolves every identifier to a symbol.  This pass then maps every variable to its slot in
+ * either the integer or the float part of the frame (chosen by its declared type) and every literal to an index in the
+ * constant pool of its type.  After this pass nothing needs to be looked up by name anymore.
+ */
+class Resolver {
+
+    private SymbolTable symbols;
+
+    private long[] intConstants = new long[16];
+    private int intConstantCount;
+    private double[] floatConstants = new double[16];
+    private int floatConstantCount;
+
+    /**
+     * Analyse the tree, then resolve all variables and literals in it.
+     *
+     * @param root the tree as produced by the parser.
+     */
+    public void resolve(Node root) {
+        SemAnalyser analyser = new SemAnalyser();
+        analyser.analyse(root);
+        symbols = analyser.getSymbols();
+
+        // Every node is visited once, in no particular order.
+        Node[] todo = new Node[64];
+        int count = 0;
+        todo[count++] = root;
+        while (count > 0) {
+            Node node = todo[--count];
+            resolveNode(node);
+            Node[] children = node.getChildren();
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                if (children[i] == null) continue;
+                if (count == todo.length) {
+                    todo = Arrays.copyOf(todo, count * 2);
+                }
+                todo[count++] = children[i];
+            }
+        }
+    }
+
+    public int getIntSlots() {
+        return symbols.count(Node.TypeType.INT);
+    }
+
+    public int getFloatSlots() {
+        return symbols.count(Node.TypeType.FLOAT);
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public long[] getIntConstants() {
+        return Arrays.copyOf(intConstants, intConstantCount);
+    }
+
+    public double[] getFloatConstants() {
+        return Arrays.copyOf(floatConstants, floatConstantCount);
+    }
+
+    private void resolveNode(Node node) {
+        switch (node.getNodeType()) {
+            case ID:
+            case DECLARATION:
+            case ASSIGNMENT:
+                node.setSlot(symbols.slot(node.getSymbol()));
+                break;
+            case VAL_INT:
+                if (intConstantCount == intConstants.length) {
+                    intConstants = Arrays.copyOf(intConstants, intConstantCount * 2);
+                }
+                intConstants[intConstantCount] = Long.parseLong(node.getValue());
+                node.setSlot(intConstantCount++);
+                break;
+            case VAL_FLOAT:
+                if (floatConstantCount == floatConstants.length) {
+                    floatConstants = Arrays.copyOf(floatConstants, floatConstantCount * 2);
+                }
+                floatConstants[floatConstantCount] = Double.parseDouble(node.getValue());
+                node.setSlot(floatConstantCount++);
+                break;
+        }
+    }
+}
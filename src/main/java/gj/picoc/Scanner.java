@@ -1,20 +1,46 @@
 package gj.picoc;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 /**
  * Scanner component for SimpleSee language.
  *
  * Tokens: if, else, while ( ) { } int float, = , ; out > < <= >= + - * / || && ! <int> <float> <id>
+ *
+ * The program is either given as a String, or read as ASCII bytes from a channel or a memory-mapped file.  In the
+ * latter case only a window of the source is held in memory at any time, so memory use does not grow with the size of
+ * the source and lexing starts before the source has been read completely.
  */
-public class Scanner {
+public class Scanner implements Closeable {
 
     // Define EOF to be the Unicode character for the end-of-line.
     private static final char EOF = '\u001a';
 
+    // Size of the window when reading from a channel, and of every mapped region of a file.
+    private static final int CHANNEL_WINDOW = 64 * 1024;
+    private static final int MAPPED_WINDOW = 64 * 1024 * 1024;
+
     // Store the entire program in a String and define 'charPointer' that will be used to point to the next character to
     // process.
     private final String program;
     private int charPointer;
 
+    // When not reading from a String, 'window' holds the part of the source currently being lexed.  It is refilled
+    // from 'channel' or, for a file, the next region of 'file' is mapped.  'mapped' is how far the file has been mapped.
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private final int windowSize;
+    private ByteBuffer window;
+    private long windowStart;
+    private long mapped;
+
     // We store the next token to return in token.  This is used so that 'peekToken' can be supported.  If we call
     // 'peekToken' we can temporarily store the token so that ether 'peekToken' or 'nextToken' can still return it.
     private Token token;
@@ -22,20 +48,128 @@ public class Scanner {
     // As we process characters, lineNumber is incremented for every '\n' we encounter.
     private int lineNumber;
 
+    // Details of the token scanned last, see 'scan'.  The characters of ids and literals are collected in 'lexeme'
+    // which is reused for every token.
+    private final StringBuilder lexeme = new StringBuilder();
+    private int tokenLine;
+    private long tokenStart;
+    private int tokenLength;
+
     public Scanner(String program) {
+        this(program, 0, 1);
+    }
+
+    // Scan a program from an offset, at which the line is 'lineNumber'.  Used to lex part of an edited source again.
+    Scanner(String program, int offset, int lineNumber) {
         this.program = program;
-        this.charPointer = 0;
+        this.charPointer = offset;
+        this.lineNumber = lineNumber;
+        this.channel = null;
+        this.file = null;
+        this.windowSize = 0;
+    }
+
+    /**
+     * Scan a program read from a channel.  The channel is read as needed and is not closed by the scanner.
+     *
+     * @param channel source of the program, as ASCII.
+     */
+    public Scanner(ReadableByteChannel channel) {
+        this(channel, CHANNEL_WINDOW);
+    }
+
+    /**
+     * Scan a program from a file, which is memory mapped one region at a time.  The file is closed when the end is
+     * reached or when the scanner is closed.
+     *
+     * @param path file containing the program, as ASCII.
+     * @throws IOException if the file cannot be opened.
+     */
+    public Scanner(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), MAPPED_WINDOW);
+    }
+
+    // Window sizes are configurable so that window boundaries can be tested.
+    Scanner(ReadableByteChannel channel, int windowSize) {
+        this.program = null;
+        this.lineNumber = 1;
+        this.channel = channel;
+        this.file = null;
+        this.windowSize = windowSize;
+        this.window = ByteBuffer.allocateDirect(windowSize).flip();
+    }
+
+    Scanner(FileChannel file, int windowSize) {
+        this.program = null;
         this.lineNumber = 1;
+        this.channel = null;
+        this.file = file;
+        this.windowSize = windowSize;
+        this.window = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    // Make sure the window has at least one byte left, returns false at the end of the input.
+    private boolean fill() {
+        try {
+            if (channel != null) {
+                windowStart += window.limit();
+                window.clear();
+                int read = 0;
+                while (read == 0) {
+                    read = channel.read(window);
+                }
+                window.flip();
+                return read > 0;
+            }
+            if (!file.isOpen()) {
+                return false;
+            }
+            long size = file.size();
+            if (mapped >= size) {
+                file.close();
+                return false;
+            }
+            windowStart = mapped;
+            window = file.map(FileChannel.MapMode.READ_ONLY, mapped, Math.min(windowSize, size - mapped));
+            mapped += window.limit();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Offset in the source of the next character.
+    private long position() {
+        return program != null ? charPointer : windowStart + window.position();
     }
 
     // Returns the current character in the program (or EOF) and increment the charPointer to advance.
     private char nextChar() {
-        return charPointer >= program.length() ? EOF : program.charAt(charPointer++);
+        if (program != null) {
+            return charPointer >= program.length() ? EOF : program.charAt(charPointer++);
+        }
+        if (!window.hasRemaining() && !fill()) {
+            return EOF;
+        }
+        return (char) (window.get() & 0xff);
     }
 
     // Returns the current character in the program (or EOF), but do NOT advance the charPointer.
     private char peekChar() {
-        return charPointer >= program.length() ? EOF : program.charAt(charPointer);
+        if (program != null) {
+            return charPointer >= program.length() ? EOF : program.charAt(charPointer);
+        }
+        if (!window.hasRemaining() && !fill()) {
+            return EOF;
+        }
+        return (char) (window.get(window.position()) & 0xff);
     }
 
     // The next three methods checks for the type of the character.  It is also possible to use the build in function
@@ -56,12 +190,13 @@ public class Scanner {
     }
 
 
-    // Handle comments (c-style)
+    // Handle comments (c-style), also when several follow each other.
     private char handleComments(char ch) {
-        if (ch == '/' && peekChar() == '/') {
+        while (ch == '/' && peekChar() == '/') {
             while (ch != '\n' && ch != EOF) ch = nextChar();
+            ch = handleWhiteSpace(ch);
         }
-        return handleWhiteSpace(ch);
+        return ch;
     }
 
     // All kinds of white-space.
@@ -75,50 +210,49 @@ public class Scanner {
         return ch;
     }
 
-    // Special characters forming double-character tokens.
-    private Token handleDoubleSpecial(char ch) {
-        if ((String.valueOf(ch) + peekChar()).equals(">=")) {
-            nextChar();
-            return new Token(Token.TokenType.CMP_GE, ">=", lineNumber);
-        } else if ((String.valueOf(ch) + peekChar()).equals("<=")) {
-            nextChar();
-            return new Token(Token.TokenType.CMP_SE, "<=", lineNumber);
-        } else if ((String.valueOf(ch) + peekChar()).equals("==")) {
-            nextChar();
-            return new Token(Token.TokenType.CMP_EQUALS, "==", lineNumber);
-        } else if ((String.valueOf(ch) + peekChar()).equals("||")) {
-            nextChar();
-            return new Token(Token.TokenType.OR, "||", lineNumber);
-        } else if ((String.valueOf(ch) + peekChar()).equals("&&")) {
-            nextChar();
-            return new Token(Token.TokenType.AND, "&&", lineNumber);
-        } else if ((String.valueOf(ch) + peekChar()).equals("!=")) {
-            nextChar();
-            return new Token(Token.TokenType.CMP_NE, "!=", lineNumber);
-        } else if (ch == '>') {
-            return new Token(Token.TokenType.CMP_G, ">", lineNumber);
-        } else if (ch == '<') {
-            return new Token(Token.TokenType.CMP_S, "<", lineNumber);
-        } else if (ch == '=') {
-            return new Token(Token.TokenType.ASSIGN, "=", lineNumber);
-        } else if (ch == '!') {
-            return new Token(Token.TokenType.NOT, "!", lineNumber);
+    // Special characters forming double-character tokens, as well as their single-character prefixes.
+    private Token.TokenType handleDoubleSpecial(char ch) {
+        char peek = peekChar();
+        switch (ch) {
+            case '>':
+                if (peek != '=') return Token.TokenType.CMP_G;
+                nextChar();
+                return Token.TokenType.CMP_GE;
+            case '<':
+                if (peek != '=') return Token.TokenType.CMP_S;
+                nextChar();
+                return Token.TokenType.CMP_SE;
+            case '=':
+                if (peek != '=') return Token.TokenType.ASSIGN;
+                nextChar();
+                return Token.TokenType.CMP_EQUALS;
+            case '!':
+                if (peek != '=') return Token.TokenType.NOT;
+                nextChar();
+                return Token.TokenType.CMP_NE;
+            case '|':
+                if (peek != '|') return null;
+                nextChar();
+                return Token.TokenType.OR;
+            case '&':
+                if (peek != '&') return null;
+                nextChar();
+                return Token.TokenType.AND;
         }
         return null;
     }
 
-    // Handles numbers and the minus sign.
-    private Token handleNumbersAndNegativeSign(char ch) {
+    // Handles numbers and the minus sign.  The digits are collected in 'lexeme'.
+    private Token.TokenType handleNumbersAndNegativeSign(char ch) {
 
         // Handle the MINUS token as well as negative numbers.
-        StringBuilder builder = new StringBuilder();
-        boolean isNegative = false;
+        lexeme.setLength(0);
         if (ch == '-') {
             if (!isDigit(peekChar())) {
-                return new Token(Token.TokenType.MINUS, "-", lineNumber);
+                return Token.TokenType.MINUS;
             }
             ch = nextChar();
-            builder.append("-");
+            lexeme.append('-');
         }
 
         // If the current number is not a digit, return immediately.
@@ -127,42 +261,43 @@ public class Scanner {
         }
 
         // Get the number, either INT or FLOAT.
-        builder.append(ch);
+        boolean isFloat = false;
+        lexeme.append(ch);
         while (isDigit(peekChar()) || peekChar() == '.') {
-            builder.append (nextChar());
-        }
-        if (builder.toString().contains(".")) {
-            return new Token(Token.TokenType.VAL_FLOAT, builder.toString(), lineNumber);
+            ch = nextChar();
+            isFloat |= ch == '.';
+            lexeme.append(ch);
         }
-        return new Token(Token.TokenType.VAL_INT, builder.toString(), lineNumber);
+        return isFloat ? Token.TokenType.VAL_FLOAT : Token.TokenType.VAL_INT;
     }
 
-    // Keywords and ids.
-    private Token handleKeywordsAndIDs(char ch) {
+    // Keywords and ids.  The characters are collected in 'lexeme'.
+    private Token.TokenType handleKeywordsAndIDs(char ch) {
         if (!isAlpha(ch)) {
             return null;
         }
 
-        StringBuilder tmp = new StringBuilder(String.valueOf(ch));
+        lexeme.setLength(0);
+        lexeme.append(ch);
         while (isAlpha(peekChar()) || isDigit(peekChar())) {
-            tmp.append(nextChar());
+            lexeme.append(nextChar());
         }
-        String alpha = tmp.toString();
 
         // A keyword?
-        if (alpha.equals("int")) return new Token(Token.TokenType.KW_INT, "int", lineNumber);
-        if (alpha.equals("float")) return new Token(Token.TokenType.KW_FLOAT, "float", lineNumber);
-        if (alpha.equals("if")) return new Token(Token.TokenType.KW_IF, "if", lineNumber);
-        if (alpha.equals("else")) return new Token(Token.TokenType.KW_ELSE, "else", lineNumber);
-        if (alpha.equals("while")) return new Token(Token.TokenType.KW_WHILE, "while", lineNumber);
-        if (alpha.equals("out")) return new Token(Token.TokenType.KW_OUT, "out", lineNumber);
+        if ("int".contentEquals(lexeme)) return Token.TokenType.KW_INT;
+        if ("float".contentEquals(lexeme)) return Token.TokenType.KW_FLOAT;
+        if ("if".contentEquals(lexeme)) return Token.TokenType.KW_IF;
+        if ("else".contentEquals(lexeme)) return Token.TokenType.KW_ELSE;
+        if ("while".contentEquals(lexeme)) return Token.TokenType.KW_WHILE;
+        if ("out".contentEquals(lexeme)) return Token.TokenType.KW_OUT;
 
         // Then it must be an id.
-        return new Token(Token.TokenType.ID, tmp.toString(), lineNumber);
+        return Token.TokenType.ID;
     }
 
-    // Find the next token.
-    private Token next() {
+    // Find the next token without allocating anything.  Its type is returned, its line, offset and length are left in
+    // 'tokenLine', 'tokenStart' and 'tokenLength' and, for ids and literals, its characters in 'lexeme'.
+    private Token.TokenType scan() {
         char ch = nextChar();
 
         // Did we hit raw whitespace?  Remove until we find the next usable character.
@@ -171,22 +306,30 @@ public class Scanner {
         // Did we hit comments? Trim it out.
         ch = handleComments(ch);
 
+        tokenStart = ch == EOF ? position() : position() - 1;
+        Token.TokenType type = scanToken(ch);
+        tokenLine = lineNumber;
+        tokenLength = (int) (position() - tokenStart);
+        return type;
+    }
+
+    private Token.TokenType scanToken(char ch) {
         switch (ch) {
-            case '(': return new Token(Token.TokenType.LPAR, "(", lineNumber);
-            case ')': return new Token(Token.TokenType.RPAR, ")", lineNumber);
-            case '{': return new Token(Token.TokenType.LBRA, "{", lineNumber);
-            case '}': return new Token(Token.TokenType.RBRA, "}", lineNumber);
-            case ',': return new Token(Token.TokenType.COMMA, ",", lineNumber);
-            case ';': return new Token(Token.TokenType.SEMI, ";", lineNumber);
-            case '+': return new Token(Token.TokenType.PLUS, "+", lineNumber);
-            case '*': return new Token(Token.TokenType.MUL, "*", lineNumber);
-            case '/': return new Token(Token.TokenType.DIV, "/", lineNumber);
-            case EOF: return new Token(Token.TokenType.EOF, "EOF", lineNumber);
+            case '(': return Token.TokenType.LPAR;
+            case ')': return Token.TokenType.RPAR;
+            case '{': return Token.TokenType.LBRA;
+            case '}': return Token.TokenType.RBRA;
+            case ',': return Token.TokenType.COMMA;
+            case ';': return Token.TokenType.SEMI;
+            case '+': return Token.TokenType.PLUS;
+            case '*': return Token.TokenType.MUL;
+            case '/': return Token.TokenType.DIV;
+            case EOF: return Token.TokenType.EOF;
 
             default: {
                 // Characters that may be part of double "special character" tokens, these are:
                 // <, <=, >, >=, =, ==, ||, &&, !=, !
-                Token t = handleDoubleSpecial(ch);
+                Token.TokenType t = handleDoubleSpecial(ch);
                 if (t != null) {
                     return t;
                 }
@@ -208,6 +351,42 @@ public class Scanner {
         }
     }
 
+    // Find the next token as a Token object.  Only ids and literals get a new lexeme, the others share a constant one.
+    private Token next() {
+        Token.TokenType type = scan();
+        return new Token(type, Token.hasLexeme(type) ? lexeme.toString() : Token.lexemeOf(type), tokenLine);
+    }
+
+    /**
+     * Scan all remaining tokens, up to and including EOF, into a token buffer.  No Token objects and no strings are
+     * created while doing so.  Must be called before any token has been taken from the scanner.
+     *
+     * @return the tokens.
+     */
+    public TokenBuffer tokenize() {
+        if (token != null) {
+            throw new IllegalStateException("Tokens already taken from the scanner");
+        }
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.LEX);
+        TokenBuffer buffer = new TokenBuffer();
+        Token.TokenType type;
+        do {
+            type = scan(buffer);
+        } while (type != Token.TokenType.EOF);
+        Metrics.end(probe, buffer.size());
+        return buffer;
+    }
+
+    // Scan the next token into a token buffer and return its type.
+    Token.TokenType scan(TokenBuffer buffer) {
+        Token.TokenType type = scan();
+        if (tokenStart > Integer.MAX_VALUE - tokenLength) {
+            throw new RuntimeException("Source too large for a token buffer");
+        }
+        buffer.add(type, (int) tokenStart, tokenLength, tokenLine, Token.hasLexeme(type) ? lexeme : null);
+        return type;
+    }
+
     /**
      * Peek ahead what the next token is without advancing.
      *
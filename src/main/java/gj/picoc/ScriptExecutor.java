@@ -0,0 +1,318 @@
+package gj.picoc;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service that runs many small PicoC programs concurrently within one JVM.
+ *
+ * Every job is given as source or as a tree and runs on a thread of its own: a virtual thread on Java 21 and later,
+ * found through reflection since we compile for Java 11, otherwise a thread of a fixed pool with a thread for every job
+ * that may run at once.  At most 'concurrency' jobs run at the same time and at most 'queue' more wait for their turn.
+ * Beyond that, submitting throws a {@link RejectedExecutionException}, so that callers feel the back pressure.
+ *
+ * A job is compiled to metered {@link Bytecode} and runs on the {@link VirtualMachine} within a budget of fuel, so that
+ * no program can keep a thread forever: 100 million instructions by default, a fraction of a second to a few seconds.  Frames, operand stacks and output buffers are taken from a pool and put back
+ * when a job is done: virtual threads are too many and too short-lived for thread locals, and the pool never holds
+ * more than one set for every job that may run at once.  Errors in a program are reported in its {@link Result}, not
+ * thrown.  Closing waits a bounded time for the jobs submitted, then gives up on those left: their futures are cancelled
+ * and their threads interrupted, and jobs that run go on until they are done or out of fuel.
+ *
+ * See {@link ScriptLoadTest} for throughput and latency under load.
+ */
+public class ScriptExecutor implements AutoCloseable {
+
+    public static final long DEFAULT_FUEL = 100_000_000;
+
+    private final int concurrency;
+    private final int queue;
+    private final ExecutorService threads;
+    private final boolean virtual;
+
+    // Jobs that run, and jobs that were submitted and are not done yet.
+    private final Semaphore running;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final Set<CompletableFuture<Result>> pending = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+    private volatile long fuel = DEFAULT_FUEL;
+    private volatile long closeTimeout = 10_000;
+
+    /**
+     * Start a service.
+     *
+     * @param concurrency the most jobs that run at the same time, at least 1.
+     * @param queue the most jobs that wait for their turn.
+     */
+    public ScriptExecutor(int concurrency, int queue) {
+        if (concurrency < 1 || queue < 0) {
+            throw new IllegalArgumentException("Invalid concurrency or queue size");
+        }
+        this.concurrency = concurrency;
+        this.queue = queue;
+        this.running = new Semaphore(concurrency);
+        ExecutorService threads = virtualThreads();
+        this.virtual = threads != null;
+        this.threads = virtual ? threads : Executors.newFixedThreadPool(concurrency);
+    }
+
+    // A virtual thread per task if the runtime has them (Java 21+), otherwise null.
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not there, or a preview feature that is not enabled.
+            return null;
+        }
+    }
+
+    // The fuel every job may use, in VM instructions, DEFAULT_FUEL by default.  Applies to jobs that start after the
+    // change.
+    public void setFuel(long fuel) {
+        if (fuel <= 0) {
+            throw new IllegalArgumentException("Invalid fuel: " + fuel);
+        }
+        this.fuel = fuel;
+    }
+
+    // How long closing waits for the jobs submitted, in milliseconds, 10 seconds by default.
+    public void setCloseTimeout(long closeTimeout) {
+        this.closeTimeout = closeTimeout;
+    }
+
+    // Whether jobs run on virtual threads.
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** The outcome of a job. */
+    public static class Result {
+        private final String output;
+        private final String error;
+        private final boolean completed;
+        private final long used;
+        private final long queued;
+        private final long compiled;
+        private final long ran;
+
+        Result(String output, String error, boolean completed, long used, long queued, long compiled, long ran) {
+            this.output = output;
+            this.error = error;
+            this.completed = completed;
+            this.used = used;
+            this.queued = queued;
+            this.compiled = compiled;
+            this.ran = ran;
+        }
+
+        // The values written by "out", one per line, up to the error or the end of the fuel if any.
+        public String getOutput() {
+            return output;
+        }
+
+        // The diagnostic, null if the program compiled and ran without error.
+        public String getError() {
+            return error;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        // False if the program ran out of fuel.
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        public long getFuel() {
+            return used;
+        }
+
+        // Nanoseconds from submitting to starting the job.
+        public long getQueuedNanos() {
+            return queued;
+        }
+
+        // Nanoseconds spent parsing and compiling, and running.
+        public long getCompileNanos() {
+            return compiled;
+        }
+
+        public long getRunNanos() {
+            return ran;
+        }
+
+        // Nanoseconds from submitting to the result.
+        public long getLatencyNanos() {
+            return queued + compiled + ran;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = error != null ? error : completed ? "ok" : "out of fuel";
+            return String.format("%s, %d fuel, %.3f ms queued, %.3f ms compiling, %.3f ms running", outcome, used,
+                    queued / 1e6, compiled / 1e6, ran / 1e6);
+        }
+    }
+
+    /**
+     * Run a program.
+     *
+     * @param source the program.
+     * @return its result, once it is done.
+     * @throws RejectedExecutionException if the queue is full or the service is closed.
+     */
+    public CompletableFuture<Result> submit(String source) {
+        return submit(source, null);
+    }
+
+    /**
+     * Run a program that is parsed already.  The tree is analysed and resolved when the job runs, one job at a time
+     * if it is submitted more than once, and must not be changed until the job is done.
+     *
+     * @param program the tree as produced by {@link Parser#program()}.
+     * @return its result, once it is done.
+     * @throws RejectedExecutionException if the queue is full or the service is closed.
+     */
+    public CompletableFuture<Result> submit(Node program) {
+        return submit(null, program);
+    }
+
+    private CompletableFuture<Result> submit(String source, Node program) {
+        if (admitted.incrementAndGet() > concurrency + queue) {
+            admitted.decrementAndGet();
+            throw new RejectedExecutionException("Queue full, " + queue + " jobs waiting");
+        }
+        long submitted = System.nanoTime();
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        pending.add(future);
+        try {
+            threads.execute(() -> {
+                Result result = null;
+                Throwable failure = null;
+                try {
+                    result = run(source, program, submitted);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                // Before completing, so that whoever waits for the result may submit another job straight away.
+                admitted.decrementAndGet();
+                pending.remove(future);
+                if (failure == null) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.decrementAndGet();
+            pending.remove(future);
+            throw e;
+        }
+        return future;
+    }
+
+    private Result run(String source, Node program, long submitted) {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            // Given up on by close().
+            long now = System.nanoTime();
+            return new Result("", "Service closed", false, 0, now - submitted, 0, 0);
+        }
+        long start = System.nanoTime();
+        Workspace workspace = workspaces.poll();
+        if (workspace == null) {
+            workspace = new Workspace();
+        }
+        long compiled = start;
+        try {
+            BytecodeCompiler compiler = new BytecodeCompiler();
+            compiler.setMetered(true);
+            Bytecode bytecode;
+            if (program == null) {
+                bytecode = compiler.compile(new Parser(new Scanner(source).tokenize()).program());
+            } else {
+                // Analysis writes types, symbols and slots into the tree.
+                synchronized (program) {
+                    bytecode = compiler.compile(program);
+                }
+            }
+            compiled = System.nanoTime();
+            VirtualMachine.Outcome outcome = workspace.machine(bytecode).run(workspace, fuel);
+            return new Result(workspace.output.toString(), null, outcome.isCompleted(), outcome.getUsed(),
+                    start - submitted, compiled - start, System.nanoTime() - compiled);
+        } catch (RuntimeException e) {
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            return failed(workspace, message, submitted, start, compiled);
+        } catch (StackOverflowError e) {
+            return failed(workspace, "Program nested too deeply", submitted, start, compiled);
+        } finally {
+            workspace.output.setLength(0);
+            workspaces.add(workspace);
+            running.release();
+        }
+    }
+
+    private static Result failed(Workspace workspace, String error, long submitted, long start, long compiled) {
+        long end = System.nanoTime();
+        return new Result(workspace.output.toString(), error, false, 0, start - submitted, compiled - start,
+                end - compiled);
+    }
+
+    // The frame, operand stack and output buffer of a job, grown to the largest program they ran.
+    private static class Workspace implements OutputSink {
+        private long[] ints = new long[16];
+        private double[] floats = new double[16];
+        private long[] stack = new long[16];
+        private final StringBuilder output = new StringBuilder();
+
+        VirtualMachine machine(Bytecode bytecode) {
+            if (ints.length < bytecode.getIntSlots()) ints = new long[bytecode.getIntSlots()];
+            if (floats.length < bytecode.getFloatSlots()) floats = new double[bytecode.getFloatSlots()];
+            if (stack.length < bytecode.getMaxStack()) stack = new long[bytecode.getMaxStack()];
+            return new VirtualMachine(bytecode, ints, floats, stack);
+        }
+
+        @Override
+        public void writeInt(long value) {
+            output.append(value).append('\n');
+        }
+
+        @Override
+        public void writeFloat(double value) {
+            output.append(value).append('\n');
+        }
+    }
+
+    /**
+     * Stop taking jobs and wait for the ones submitted to be done, at most the close timeout.  The futures of jobs not
+     * done by then are cancelled.
+     */
+    @Override
+    public void close() {
+        threads.shutdown();
+        boolean done = false;
+        try {
+            done = threads.awaitTermination(closeTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!done) {
+            // The VM does not check for interrupts: a job that runs stops when it is done or out of fuel.
+            threads.shutdownNow();
+            for (CompletableFuture<Result> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+}
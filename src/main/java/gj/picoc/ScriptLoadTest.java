@@ -0,0 +1,167 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Load test of the {@link ScriptExecutor}: submits jobs as fast as the service takes them and reports the throughput
+ * and the latency of the jobs, from submitting to the result.
+ *
+ * <pre>
+ * java gj.picoc.ScriptLoadTest [-n jobs] [-c concurrency] [-q queue] [-p programs] [-s statements] [-f fuel]
+ * </pre>
+ *
+ * The programs come from the {@link ProgramGenerator}, with consecutive seeds, and the jobs take turns running them.
+ * The test never has more jobs outstanding than the service takes, so that none is rejected: latencies include the
+ * time spent in the queue.
+ */
+public class ScriptLoadTest {
+
+    /** What a load test measured. */
+    public static class Report {
+        private final int jobs;
+        private final int failed;
+        private final int stopped;
+        private final long nanos;
+        private final long[] latencies;
+
+        Report(int jobs, int failed, int stopped, long nanos, long[] latencies) {
+            this.jobs = jobs;
+            this.failed = failed;
+            this.stopped = stopped;
+            this.nanos = nanos;
+            this.latencies = latencies;
+        }
+
+        public int getJobs() {
+            return jobs;
+        }
+
+        // Jobs with an error.
+        public int getFailed() {
+            return failed;
+        }
+
+        // Jobs that ran out of fuel.
+        public int getStopped() {
+            return stopped;
+        }
+
+        // Jobs per second.
+        public double getThroughput() {
+            return jobs / (nanos / 1e9);
+        }
+
+        /**
+         * A percentile of the latencies.
+         *
+         * @param percentile from 0 to 100.
+         * @return the latency that this percentage of jobs did not exceed, in nanoseconds.
+         */
+        public long getLatency(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d jobs, %d failed, %d out of fuel in %.1f ms: %.0f jobs/s, latency p50 %.3f ms, "
+                    + "p99 %.3f ms, max %.3f ms", jobs, failed, stopped, nanos / 1e6, getThroughput(),
+                    getLatency(50) / 1e6, getLatency(99) / 1e6, getLatency(100) / 1e6);
+        }
+    }
+
+    /**
+     * Run jobs on a service and wait for all of them.
+     *
+     * @param executor the service.
+     * @param window the most jobs outstanding at a time, at most the concurrency and queue of the service together.
+     * @param sources the programs, taken in turn.
+     * @param jobs the number of jobs.
+     * @return what was measured.
+     */
+    public static Report run(ScriptExecutor executor, int window, List<String> sources, int jobs) {
+        Semaphore outstanding = new Semaphore(window);
+        List<CompletableFuture<ScriptExecutor.Result>> futures = new ArrayList<>(jobs);
+        long start = System.nanoTime();
+        for (int i = 0; i < jobs; i++) {
+            outstanding.acquireUninterruptibly();
+            CompletableFuture<ScriptExecutor.Result> future = executor.submit(sources.get(i % sources.size()));
+            future.whenComplete((result, e) -> outstanding.release());
+            futures.add(future);
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        long nanos = System.nanoTime() - start;
+
+        long[] latencies = new long[jobs];
+        int failed = 0;
+        int stopped = 0;
+        for (int i = 0; i < jobs; i++) {
+            ScriptExecutor.Result result = futures.get(i).join();
+            latencies[i] = result.getLatencyNanos();
+            if (!result.isOk()) {
+                failed++;
+            } else if (!result.isCompleted()) {
+                stopped++;
+            }
+        }
+        Arrays.sort(latencies);
+        return new Report(jobs, failed, stopped, nanos, latencies);
+    }
+
+    public static void main(String[] args) {
+        int jobs = 10_000;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int queue = 1000;
+        int programs = 100;
+        int statements = 50;
+        long fuel = 10_000_000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n":
+                    jobs = Integer.parseInt(args[++i]);
+                    break;
+                case "-c":
+                    concurrency = Integer.parseInt(args[++i]);
+                    break;
+                case "-q":
+                    queue = Integer.parseInt(args[++i]);
+                    break;
+                case "-p":
+                    programs = Integer.parseInt(args[++i]);
+                    break;
+                case "-s":
+                    statements = Integer.parseInt(args[++i]);
+                    break;
+                case "-f":
+                    fuel = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: java gj.picoc.ScriptLoadTest [-n jobs] [-c concurrency] [-q queue] "
+                            + "[-p programs] [-s statements] [-f fuel]");
+                    System.exit(2);
+            }
+        }
+
+        List<String> sources = new ArrayList<>();
+        for (int i = 1; i <= programs; i++) {
+            ProgramGenerator generator = new ProgramGenerator(i);
+            generator.setStatements(statements);
+            sources.add(generator.generate());
+        }
+        try (ScriptExecutor executor = new ScriptExecutor(concurrency, queue)) {
+            executor.setFuel(fuel);
+            System.out.println((executor.isVirtual() ? "Virtual" : "Platform") + " threads, concurrency "
+                    + concurrency + ", queue " + queue);
+            // The first round warms up the JIT and is not reported.
+            run(executor, concurrency + queue, sources, Math.min(jobs, 1000));
+            System.out.println(run(executor, concurrency + queue, sources, jobs));
+        }
+    }
+}
@@ -1,52 +1,186 @@
 package gj.picoc;
 
-import java.util.Map;
-
+import java.util.Arrays;
+
+/**
+ * Semantic analysis: derives the type of every node, resolves every identifier to a symbol in a {@link SymbolTable}
+ * and rejects programs that use undeclared variables, declare a variable twice or mistype a condition.
+ *
+ * The analysis is one post-order pass with an explicit stack, so it takes time linear in the size of the tree and
+ * stack space independent of it.  PicoC has a single scope and variables must be declared before use, which is exactly
+ * the order in which a post-order walk meets them.
+ *
+ * Typing rules: arithmetic on two INTs is INT, otherwise FLOAT.  Comparisons and boolean logic are INT, and the
+ * operands of "&&", "||" and "!" as well as the conditions of "if" and "while" must be INT.  An assignment (also an
+ * expression) has the type of its variable, assigning a FLOAT to an INT truncates.  Statements are of type EMPTY.
+ */
 public class SemAnalyser {
 
+    private SymbolTable symbols;
+
     public SemAnalyser() {
     }
 
+    /**
+     * Analyse a whole program, starting with an empty symbol table.  May be called again on the same tree.
+     *
+     * @param root the tree as produced by the parser.
+     * @throws RuntimeException on the first semantic error.
+     */
     public void analyse(Node root) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.ANALYSE);
+        symbols = new SymbolTable();
+
+        // Nodes on the path from the root along with the index of their next child to visit.
+        Node[] nodes = new Node[64];
+        int[] next = new int[64];
+        int depth = 0;
+        nodes[depth] = root;
+        next[depth++] = 0;
+        while (depth > 0) {
+            Node node = nodes[depth - 1];
+            int i = next[depth - 1]++;
+            if (i < node.getChildCount()) {
+                Node child = node.getChildren()[i];
+
+                // The variable of a declaration is not a use, it is handled with the declaration itself.
+                if (child == null || (i == 0 && node.getNodeType() == Node.NodeType.DECLARATION)) {
+                    continue;
+                }
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth++] = 0;
+            } else {
+                depth--;
+                analyseNode(node);
+            }
+        }
+        Metrics.end(probe, symbols.size());
+    }
 
+    /**
+     * The variables found by the last analysis.
+     *
+     * @return the symbol table.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
+    // Derive/check the type of a node whose children all have theirs.
+    private void analyseNode(Node root) {
+        switch (root.getNodeType()) {
+            case PROG:
+            case SEQ:
+            case EMPTY:
+            case OUTPUT:
+                root.setTypeType(Node.TypeType.EMPTY);
+                break;
+            case IF:
+            case WHILE:
+                doCondition(root);
+                break;
+            case DECLARATION:
+                doDeclaration(root);
+                break;
+            case ASSIGNMENT:
+                doAssignment(root);
+                break;
+            case ID:
+                doID(root);
+                break;
+            case VAL_INT:
+                doInt(root);
+                break;
+            case VAL_FLOAT:
+                doFloat(root);
+                break;
+            case MINUS:
+            case PLUS:
+            case MUL:
+            case DIV:
+                doEXPR(root);
+                break;
+            case NEGATE:
+                root.setTypeType(root.getChildren()[0].getTypeType());
+                break;
+            case OR:
+            case AND:
+            case NOT:
+                doBOOL(root);
+                break;
+            case SMALLER:
+            case GREATER:
+            case SMALLER_EQUAL:
+            case GREATER_EQUAL:
+            case EQUALS:
+            case NOT_EQUALS:
+                doEXPR(root);
+                root.setTypeType(Node.TypeType.INT);
+                break;
+        }
+    }
 
-    //PROG, IF, MINUS, PLUS, OR, MUL, DIV, AND, ID, VAL_INT, VAL_FLOAT, NOT, NEGATE,
-    //                    SMALLER, GREATER, SMALLER_EQUAL, GREATER_EQUAL, EQUALS, NOT_EQUALS, EMPTY, WHILE,
-    //                    SEQ,
-    //                    ASSIGNMENT, DECLARATION,
-    //                    OUTPUT
+    private void doCondition(Node root) {
+        if (root.getChildren()[0].getTypeType() != Node.TypeType.INT) {
+            String what = root.getNodeType().toString().toLowerCase();
+            throw new RuntimeException("Semantic error, " + what + "-expression must be integer");
+        }
+        root.setTypeType(Node.TypeType.EMPTY);
+    }
 
-    // assign/check all types
-    private void analyse(Node root, Map<String, Node.TypeType> ids) {
+    // DECLARATION=<type>{ID [expr]}.  The initialiser was analysed already, so 'int a = a;' is rejected.
+    private void doDeclaration(Node root) {
+        Node id = root.getChildren()[0];
+        Node.TypeType type = "float".equals(root.getValue()) ? Node.TypeType.FLOAT : Node.TypeType.INT;
+        int symbol = symbols.declare(id.getValue(), type);
+        if (symbol < 0) {
+            throw new RuntimeException("Semantic error, variable '" + id.getValue() + "' already declared");
+        }
+        id.setSymbol(symbol);
+        id.setTypeType(type);
+        root.setSymbol(symbol);
+        root.setTypeType(type);
+    }
 
-        // Ensure children have all types.
-        for (Node child : root.getChildren()) {
-            if (child != null && child.getTypeType() == null) {
-                analyse(child);
-            }
+    // ASSIGNMENT{ID expr}, its type is that of the variable.
+    private void doAssignment(Node root) {
+        Node id = root.getChildren()[0];
+        if (id.getNodeType() != Node.NodeType.ID) {
+            throw new RuntimeException("Semantic error, left hand side of assignment must be a variable");
         }
+        root.setSymbol(id.getSymbol());
+        root.setTypeType(id.getTypeType());
+    }
 
-        // Derive/check types
-        switch (root.getNodeType()) {
-            case IF: doIF(root); break;
-            case MINUS: doEXPR(root); break;
-            case PLUS: doEXPR(root); break;
-            case OR: doBOOL(root); break;
-            case MUL: doEXPR(root); break;
-            case DIV: doEXPR(root); break;
-            case AND: doBOOL(root); break;
-            case ID: doID(root); break;
+    private void doID(Node root) {
+        int symbol = symbols.lookup(root.getValue());
+        if (symbol < 0) {
+            throw new RuntimeException("Semantic error, variable '" + root.getValue() + "' not declared");
         }
+        root.setSymbol(symbol);
+        root.setTypeType(symbols.type(symbol));
+    }
 
+    private void doInt(Node root) {
+        try {
+            Long.parseLong(root.getValue());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Semantic error, invalid integer " + root.getValue());
+        }
+        root.setTypeType(Node.TypeType.INT);
     }
 
-    private void doIF(Node root) {
-        if (root.getChildren()[0].getTypeType() != Node.TypeType.INT) {
-            throw new RuntimeException("Semantic error, if-expression must be integer");
+    private void doFloat(Node root) {
+        try {
+            Double.parseDouble(root.getValue());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Semantic error, invalid float " + root.getValue());
         }
-        root.setTypeType(Node.TypeType.EMPTY);
+        root.setTypeType(Node.TypeType.FLOAT);
     }
 
     private void doEXPR(Node root) {
@@ -68,17 +202,11 @@ public class SemAnalyser {
     }
 
     private void doBOOL(Node root) {
-        Node.TypeType c1 = root.getChildren()[0].getTypeType();
-        Node.TypeType c2 = root.getChildren()[1].getTypeType();
-
-        if (c1 != Node.TypeType.INT || c2 != Node.TypeType.INT) {
-            throw new RuntimeException("Semantic error, boolean logic only applies to integer types");
+        for (int i = 0; i < root.getChildCount(); i++) {
+            if (root.getChildren()[i].getTypeType() != Node.TypeType.INT) {
+                throw new RuntimeException("Semantic error, boolean logic only applies to integer types");
+            }
         }
         root.setTypeType(Node.TypeType.INT);
     }
-
-    private void doID(Node root) {
-    }
-
-
 }
@@ -0,0 +1,72 @@
+package gj.picoc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The variables of a program, filled by the {@link SemAnalyser}.  Every name is interned to a symbol id, numbered from
+ * 0 in order of declaration, which is stored in the nodes that refer to it so that later passes never look a name up
+ * again.  Per symbol the table holds its name, declared type and its slot: its index among the symbols of its type.
+ */
+public class SymbolTable {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[16];
+    private Node.TypeType[] types = new Node.TypeType[16];
+    private int[] slots = new int[16];
+    private int size;
+
+    private int intCount;
+    private int floatCount;
+
+    /**
+     * Declare a new variable.
+     *
+     * @param name its name.
+     * @param type INT or FLOAT.
+     * @return its symbol id, or -1 if a variable by that name already exists.
+     */
+    public int declare(String name, Node.TypeType type) {
+        if (ids.containsKey(name)) {
+            return -1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        names[size] = name;
+        types[size] = type;
+        slots[size] = type == Node.TypeType.INT ? intCount++ : floatCount++;
+        ids.put(name, size);
+        return size++;
+    }
+
+    // The symbol id of a name, -1 if it was not declared.
+    public int lookup(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int symbol) {
+        return names[symbol];
+    }
+
+    public Node.TypeType type(int symbol) {
+        return types[symbol];
+    }
+
+    public int slot(int symbol) {
+        return slots[symbol];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The number of variables of a type, which is the size of the frame for that type.
+    public int count(Node.TypeType type) {
+        return type == Node.TypeType.INT ? intCount : type == Node.TypeType.FLOAT ? floatCount : 0;
+    }
+}
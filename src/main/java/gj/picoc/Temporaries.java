@@ -0,0 +1,89 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Variables introduced by the optimisation passes.  They are named "$t1", "$t2", ..., which the scanner never
+ * produces, skipping names already declared in the program so that passes can run one after the other.  Also
+ * decides for the passes which expressions are worth a temporary and which may fail when evaluated.
+ */
+class Temporaries {
+
+    private final Set<String> names = new HashSet<>();
+    private int count;
+
+    Temporaries(Node program) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(program);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (node.getNodeType() == Node.NodeType.DECLARATION) {
+                names.add(node.getChildren()[0].getValue());
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+    }
+
+    String next() {
+        String name;
+        do {
+            name = "$t" + ++count;
+        } while (names.contains(name));
+        names.add(name);
+        return name;
+    }
+
+    static boolean isTemporary(String name) {
+        return name.startsWith("$");
+    }
+
+    static Node id(String name, Node.TypeType type) {
+        Node id = new Node(Node.NodeType.ID, name);
+        id.setTypeType(type);
+        return id;
+    }
+
+    // Only operations are worth a temporary.  Negative literals are left since they fold.
+    static boolean isWorthATemporary(Node node) {
+        return !node.isLeaf() && !(node.getNodeType() == Node.NodeType.NEGATE && node.getChildren()[0].isLeaf()
+                && node.getChildren()[0].getNodeType() != Node.NodeType.ID);
+    }
+
+    // Whether evaluating the node itself may fail, given its operands: an integer division by anything but a non-zero
+    // literal.
+    static boolean canTrap(Node node) {
+        Node[] children = node.getChildren();
+        return node.getNodeType() == Node.NodeType.DIV && node.getTypeType() == Node.TypeType.INT
+                && !(children[1].getNodeType() == Node.NodeType.VAL_INT
+                && Long.parseLong(children[1].getValue()) != 0);
+    }
+
+    // Whether evaluating the expression may fail, i.e. any node in it may trap.
+    static boolean canFail(Node expression) {
+        List<Node> todo = new ArrayList<>();
+        todo.add(expression);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (canTrap(node)) {
+                return true;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                todo.add(node.getChildren()[i]);
+            }
+        }
+        return false;
+    }
+
+    // "int name = value;" or "float name = value;", by the type of the value.
+    static Node declaration(String name, Node value) {
+        Node declaration = new Node(Node.NodeType.DECLARATION, value.getTypeType() == Node.TypeType.FLOAT
+                ? "float" : "int", id(name, value.getTypeType()), value);
+        declaration.setTypeType(value.getTypeType());
+        return declaration;
+    }
+}
@@ -18,6 +18,37 @@ public class Token {
     public static TokenType[] ADDITION_OP = { TokenType.PLUS, TokenType.MINUS };
     public static TokenType[] MULTIPLY_OP = { TokenType.MUL, TokenType.DIV };
 
+    // The lexeme of every token type, in the order of TokenType.  Ids and literals carry their own.
+    private static final String[] LEXEMES = {
+            "int", "float", "if", "else", "while", "out",
+            "(", ")", "{", "}", ",", ";",
+            ">", "<", ">=", "<=", "==", "!=",
+            "=",
+            "+", "-", "*", "/",
+            "||", "&&", "!",
+            null, null, null, "EOF"
+    };
+
+    /**
+     * Does a token of this type carry its own lexeme (ids and literals), or is its lexeme always the same?
+     *
+     * @param type the token type.
+     * @return true for ids and literals.
+     */
+    public static boolean hasLexeme(TokenType type) {
+        return type == TokenType.ID || type == TokenType.VAL_INT || type == TokenType.VAL_FLOAT;
+    }
+
+    /**
+     * The lexeme shared by all tokens of a type.
+     *
+     * @param type the token type.
+     * @return the lexeme, or null for ids and literals.
+     */
+    public static String lexemeOf(TokenType type) {
+        return LEXEMES[type.ordinal()];
+    }
+
     // For each token, we store its type, the lexeme as well as the line number ('lineNumber' on which it occurs.  The
     // line number is useful for error reporting.
     private final TokenType type;
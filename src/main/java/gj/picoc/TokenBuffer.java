@@ -0,0 +1,245 @@
+package gj.picoc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The tokens of a program stored as parallel primitive arrays: for every token its type, offset in the source,
+ * length and line number.  The characters of ids and literals are kept in a shared character pool and only turned into
+ * a String when asked for, all other tokens always have the same lexeme.  Filled by {@link Scanner#tokenize()} or the
+ * {@link DfaLexer}.
+ *
+ * Like a ByteBuffer, a token buffer has a position: the next token to be read by the {@link Parser}.
+ */
+public class TokenBuffer implements TokenStream {
+
+    private static final Token.TokenType[] TYPES = Token.TokenType.values();
+
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+
+    // Offset in 'text' of the characters of every id and literal, -1 for other tokens.
+    private int[] texts;
+    private char[] text;
+    private int textSize;
+
+    // Characters in 'text' of tokens that were replaced, see 'replace'.
+    private int unused;
+
+    private int size;
+    private int position;
+
+    public TokenBuffer() {
+        this(64, 256);
+    }
+
+    // Start out with room for 'capacity' tokens and 'textCapacity' characters of ids and literals, so that large
+    // sources need not be copied over and over while growing.
+    TokenBuffer(int capacity, int textCapacity) {
+        types = new byte[Math.max(1, capacity)];
+        starts = new int[types.length];
+        lengths = new int[types.length];
+        lines = new int[types.length];
+        texts = new int[types.length];
+        text = new char[Math.max(1, textCapacity)];
+    }
+
+    // Add a token, 'lexeme' holds its characters for ids and literals and is null for the others.
+    void add(Token.TokenType type, int start, int length, int line, CharSequence lexeme) {
+        add(type, start, length, line);
+        if (lexeme != null) {
+            reserveText(length);
+            for (int i = 0; i < length; i++) {
+                text[textSize + i] = lexeme.charAt(i);
+            }
+            texts[size - 1] = textSize;
+            textSize += length;
+        }
+    }
+
+    // Add a token whose characters are the ASCII bytes in 'source' at the token's offset.
+    void add(Token.TokenType type, int start, int length, int line, ByteBuffer source) {
+        add(type, start, length, line);
+        if (Token.hasLexeme(type)) {
+            reserveText(length);
+            for (int i = 0; i < length; i++) {
+                text[textSize + i] = (char) (source.get(start + i) & 0xff);
+            }
+            texts[size - 1] = textSize;
+            textSize += length;
+        }
+    }
+
+    private void add(Token.TokenType type, int start, int length, int line) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        texts[size] = -1;
+        size++;
+    }
+
+    /**
+     * Replace the tokens from 'from' up to 'to' with the first 'count' tokens of another buffer, and move the tokens
+     * after them 'shift' characters and 'lineShift' lines along.  Used to patch the tokens of an edited source, see
+     * {@link IncrementalParser}.
+     */
+    void replace(int from, int to, TokenBuffer with, int count, int shift, int lineShift) {
+        int moved = size - to;
+        int capacity = Math.max(types.length, from + count + moved);
+        if (capacity > types.length) {
+            capacity = Math.max(capacity, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        for (int i = from; i < to; i++) {
+            if (texts[i] >= 0) {
+                unused += lengths[i];
+            }
+        }
+        System.arraycopy(types, to, types, from + count, moved);
+        System.arraycopy(starts, to, starts, from + count, moved);
+        System.arraycopy(lengths, to, lengths, from + count, moved);
+        System.arraycopy(lines, to, lines, from + count, moved);
+        System.arraycopy(texts, to, texts, from + count, moved);
+        for (int i = 0; i < count; i++) {
+            types[from + i] = with.types[i];
+            starts[from + i] = with.starts[i];
+            lengths[from + i] = with.lengths[i];
+            lines[from + i] = with.lines[i];
+            texts[from + i] = -1;
+            if (with.texts[i] >= 0) {
+                reserveText(with.lengths[i]);
+                System.arraycopy(with.text, with.texts[i], text, textSize, with.lengths[i]);
+                texts[from + i] = textSize;
+                textSize += with.lengths[i];
+            }
+        }
+        size = from + count + moved;
+        for (int i = from + count; i < size; i++) {
+            starts[i] += shift;
+            lines[i] += lineShift;
+        }
+        position = Math.min(position, size);
+
+        // The characters of replaced tokens are left in the pool until they are most of it.
+        if (unused > textSize / 2) {
+            char[] live = new char[Math.max(1, textSize - unused)];
+            int liveSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (texts[i] >= 0) {
+                    System.arraycopy(text, texts[i], live, liveSize, lengths[i]);
+                    texts[i] = liveSize;
+                    liveSize += lengths[i];
+                }
+            }
+            text = live;
+            textSize = liveSize;
+            unused = 0;
+        }
+    }
+
+    private void reserveText(int length) {
+        if (textSize + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + length));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public int line(int index) {
+        return lines[index];
+    }
+
+    // Offset in the source just after the token.
+    public int end(int index) {
+        return starts[index] + lengths[index];
+    }
+
+    /**
+     * The lexeme of a token.  For ids and literals a new String is created, other tokens share a constant one.
+     *
+     * @param index the token.
+     * @return its lexeme.
+     */
+    public String lexeme(int index) {
+        return texts[index] < 0 ? Token.lexemeOf(type(index)) : new String(text, texts[index], lengths[index]);
+    }
+
+    /**
+     * The token as a Token object, mostly for debugging since it defeats the purpose of the buffer.
+     *
+     * @param index the token.
+     * @return a new Token.
+     */
+    public Token token(int index) {
+        return new Token(type(index), lexeme(index), lines[index]);
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public void position(int position) {
+        this.position = position;
+    }
+
+    public void rewind() {
+        position = 0;
+    }
+
+    // --- The token stream read by the parser.  Reading past EOF keeps returning EOF. ---
+
+    @Override
+    public Token.TokenType peek() {
+        return TYPES[types[Math.min(position, size - 1)]];
+    }
+
+    @Override
+    public int peekLine() {
+        return lines[Math.min(position, size - 1)];
+    }
+
+    @Override
+    public Token.TokenType advance() {
+        if (position < size) position++;
+        return TYPES[types[position - 1]];
+    }
+
+    @Override
+    public String lexeme() {
+        return lexeme(position - 1);
+    }
+
+    @Override
+    public int line() {
+        return lines[position - 1];
+    }
+}
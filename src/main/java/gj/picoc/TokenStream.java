@@ -0,0 +1,18 @@
+package gj.picoc;
+
+/**
+ * The tokens the {@link Parser} reads: either one {@link Token} at a time from a {@link Scanner}, or straight from the
+ * arrays of a {@link TokenBuffer}.
+ */
+interface TokenStream {
+
+    // Type and line of the next token, without advancing.
+    Token.TokenType peek();
+    int peekLine();
+
+    // Advance past the next token and return its type.  Its lexeme and line are then available from 'lexeme' and
+    // 'line'.
+    Token.TokenType advance();
+    String lexeme();
+    int line();
+}
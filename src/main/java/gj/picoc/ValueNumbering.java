@@ -0,0 +1,488 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimisation pass that computes repeated expressions once (value numbering, or common subexpression elimination).
+ *
+ * <p>Every expression gets a number such that two expressions with the same number have the same value: literals by
+ * their value, variables by a version that changes with every assignment, and operations by the operation, the type
+ * and the numbers of the operands (sorted for "+", "*", "==" and "!=").  Walking the statements in order, the first
+ * computation of a number is available to the ones that follow for as long as it dominates them: later in the same
+ * block, inside an "if" or "while" after it, or after an "if" or "while" that does not assign its variables, but not
+ * after the branch it is in.  A repeated computation makes the first one store its value in a {@link Temporaries}
+ * temporary, declared right before the statement that computes it, and reads that instead.</p>
+ *
+ * <p>Statements with an assignment nested in an expression are left alone.  The first computation must be certain to
+ * happen where the temporary is declared, so expressions in the condition of a "while" and, unless they cannot fail,
+ * on the right of "&&" and "||" do not become available.  Finally, identical literals and identifiers in expressions
+ * are shared by one node ("hash-consing"), so the result is no longer a tree but a graph whose leaves may have more
+ * than one parent.</p>
+ */
+public class ValueNumbering {
+
+    // Flags of the frames when walking an expression.
+    private static final int EXIT = 1;
+    private static final int SPECULATIVE = 2;
+
+    private Temporaries temporaries;
+
+    // Value numbers by key, for instance "PLUS INT 3 7", and the current version of each variable.
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final Map<String, Integer> versions = new HashMap<>();
+    private int lastVersion;
+
+    // The first computation of each available value number.  Changes are logged to be undone after a branch.
+    private final Map<Integer, Available> available = new HashMap<>();
+    private final List<Integer> log = new ArrayList<>();
+
+    // The available expressions by node, and the declarations of temporaries to put before each statement.
+    private final Map<Node, Available> byNode = new IdentityHashMap<>();
+    private final Map<Node, List<Node>> before = new IdentityHashMap<>();
+
+    private int eliminated;
+    private int shared;
+    private int nodesBefore;
+    private int nodesAfter;
+
+    private static class Available {
+        Node expression;
+        Node parent;
+        int index;
+        // The statement the expression is in, its temporary declaration once it has one.
+        Node statement;
+        String temporary;
+    }
+
+    /**
+     * Optimise a program.
+     *
+     * @param program the tree as produced by the parser.
+     * @return the same PROG node.
+     */
+    public Node optimise(Node program) {
+        new SemAnalyser().analyse(program);
+        temporaries = new Temporaries(program);
+        numbers.clear();
+        versions.clear();
+        available.clear();
+        log.clear();
+        byNode.clear();
+        before.clear();
+        eliminated = shared = 0;
+        nodesBefore = count(program);
+
+        statement(program.getChildren()[0]);
+        program.setChild(0, emit(program.getChildren()[0]));
+        shareLeaves(program);
+        new SemAnalyser().analyse(program);
+
+        nodesAfter = count(program);
+        return program;
+    }
+
+    // Computations replaced by a temporary.
+    public int getEliminated() {
+        return eliminated;
+    }
+
+    // Leaves replaced by an identical one.
+    public int getShared() {
+        return shared;
+    }
+
+    public int getNodesBefore() {
+        return nodesBefore;
+    }
+
+    // Distinct nodes: shared leaves count once.
+    public int getNodesAfter() {
+        return nodesAfter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("eliminated=%d shared=%d nodes=%d->%d", eliminated, shared, nodesBefore, nodesAfter);
+    }
+
+    // --- Statements ---
+
+    private void statement(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    statement(children[i]);
+                }
+                break;
+            case DECLARATION:
+            case ASSIGNMENT:
+            case OUTPUT:
+                expressions(node, true);
+                break;
+            case IF: {
+                expressions(node, true);
+                Set<String> assigned = assigned(node);
+                int mark = log.size();
+                statement(children[1]);
+                undo(mark);
+                if (children[2] != null) {
+                    statement(children[2]);
+                    undo(mark);
+                }
+                for (String name : assigned) {
+                    versions.put(name, ++lastVersion);
+                }
+                break;
+            }
+            case WHILE: {
+                // The variables of the loop have other values at the top of every iteration.
+                for (String name : assigned(node)) {
+                    versions.put(name, ++lastVersion);
+                }
+                expressions(node, false);
+                int mark = log.size();
+                statement(children[1]);
+                undo(mark);
+                for (String name : assigned(node)) {
+                    versions.put(name, ++lastVersion);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // Number the expressions of a statement, reusing what is available.  Only with 'register' do the expressions
+    // become available themselves.  Afterwards the variables the statement assigns get a new version.
+    private void expressions(Node node, boolean register) {
+        Node[] children = node.getChildren();
+        Set<String> assigned = new HashSet<>();
+        boolean nested = false;
+        int first = node.getNodeType() == Node.NodeType.DECLARATION || node.getNodeType() == Node.NodeType.ASSIGNMENT
+                ? 1 : 0;
+        int last = node.getNodeType() == Node.NodeType.IF || node.getNodeType() == Node.NodeType.WHILE ? 1 : 2;
+        for (int i = first; i < Math.min(last, node.getChildCount()); i++) {
+            if (children[i] != null) nested |= collectAssigned(children[i], assigned);
+        }
+        if (!nested) {
+            for (int i = first; i < Math.min(last, node.getChildCount()); i++) {
+                if (children[i] != null) expression(node, node, i, register);
+            }
+        }
+        if (first == 1) {
+            assigned.add(children[0].getValue());
+        }
+        for (String name : assigned) {
+            versions.put(name, ++lastVersion);
+        }
+    }
+
+    // Number the expression 'parent.children[index]', then replace what is available in it by temporaries and, with
+    // 'register', make the rest available, in the order of evaluation.  An available expression is not descended into.
+    private void expression(Node statement, Node parent, int index, boolean register) {
+        Map<Node, Integer> numbered = number(parent.getChildren()[index]);
+
+        // Frames of (parent, index, flags), with EXIT set once the children have been pushed and SPECULATIVE on the
+        // right of "&&" and "||", which is not always evaluated.
+        List<Node> parents = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        List<Integer> flags = new ArrayList<>();
+        parents.add(parent);
+        indexes.add(index);
+        flags.add(0);
+        while (!parents.isEmpty()) {
+            int top = parents.size() - 1;
+            Node at = parents.remove(top);
+            int i = indexes.remove(top);
+            int flag = flags.remove(top);
+            Node node = at.getChildren()[i];
+            if (node.isLeaf()) {
+                continue;
+            }
+            int number = numbered.get(node);
+            if ((flag & EXIT) != 0) {
+                boolean speculative = (flag & SPECULATIVE) != 0;
+                if (register && (!speculative || !Temporaries.canFail(node)) && Temporaries.isWorthATemporary(node)) {
+                    Available expression = new Available();
+                    expression.expression = node;
+                    expression.parent = at;
+                    expression.index = i;
+                    expression.statement = statement;
+                    available.put(number, expression);
+                    byNode.put(node, expression);
+                    log.add(number);
+                }
+                continue;
+            }
+            Available first = available.get(number);
+            if (first != null) {
+                reuse(first, at, i);
+                continue;
+            }
+            parents.add(at);
+            indexes.add(i);
+            flags.add(flag | EXIT);
+            boolean shortCircuit = node.getNodeType() == Node.NodeType.AND || node.getNodeType() == Node.NodeType.OR;
+            for (int c = node.getChildCount() - 1; c >= 0; c--) {
+                parents.add(node);
+                indexes.add(c);
+                flags.add(shortCircuit && c == 1 ? flag | SPECULATIVE : flag);
+            }
+        }
+    }
+
+    // The value numbers of all nodes of an expression, computed bottom-up.
+    private Map<Node, Integer> number(Node root) {
+        Map<Node, Integer> numbered = new IdentityHashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        nodes.add(root);
+        next.add(0);
+        while (!nodes.isEmpty()) {
+            int top = nodes.size() - 1;
+            Node node = nodes.get(top);
+            int i = next.get(top);
+            if (i < node.getChildCount()) {
+                next.set(top, i + 1);
+                nodes.add(node.getChildren()[i]);
+                next.add(0);
+                continue;
+            }
+            nodes.remove(top);
+            next.remove(top);
+            int number;
+            if (node.getNodeType() == Node.NodeType.ID) {
+                number = number("ID " + node.getValue() + " " + versions.getOrDefault(node.getValue(), 0));
+            } else if (node.isLeaf()) {
+                number = number(node.getNodeType() + " " + node.getValue());
+            } else {
+                int[] operands = new int[node.getChildCount()];
+                for (int c = 0; c < operands.length; c++) {
+                    operands[c] = numbered.get(node.getChildren()[c]);
+                }
+                number = number(key(node, operands));
+            }
+            numbered.put(node, number);
+        }
+        return numbered;
+    }
+
+    private static String key(Node node, int[] operands) {
+        StringBuilder key = new StringBuilder();
+        key.append(node.getNodeType()).append(' ').append(node.getTypeType());
+        boolean swap = operands.length == 2 && operands[0] > operands[1]
+                && node.getChildren()[0].getTypeType() == node.getChildren()[1].getTypeType();
+        switch (node.getNodeType()) {
+            case PLUS:
+            case MUL:
+            case EQUALS:
+            case NOT_EQUALS:
+                if (swap) {
+                    return key.append(' ').append(operands[1]).append(' ').append(operands[0]).toString();
+                }
+                break;
+            default:
+                break;
+        }
+        for (int operand : operands) {
+            key.append(' ').append(operand);
+        }
+        return key.toString();
+    }
+
+    private int number(String key) {
+        Integer number = numbers.get(key);
+        if (number == null) {
+            number = numbers.size();
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
+    // Replace 'parent.children[index]' by the temporary of an available expression, giving it one if needed.
+    private void reuse(Available first, Node parent, int index) {
+        Node.TypeType type = first.expression.getTypeType();
+        if (first.temporary == null) {
+            first.temporary = temporaries.next();
+            Node declaration = Temporaries.declaration(first.temporary, first.expression);
+            first.parent.setChild(first.index, Temporaries.id(first.temporary, type));
+            before.computeIfAbsent(first.statement, s -> new ArrayList<>()).add(declaration);
+
+            // Available expressions inside the one moved now have to be declared before its declaration.
+            List<Node> todo = new ArrayList<>();
+            todo.add(first.expression);
+            while (!todo.isEmpty()) {
+                Node node = todo.remove(todo.size() - 1);
+                Available inner = byNode.get(node);
+                if (inner != null && inner.temporary == null) {
+                    inner.statement = declaration;
+                }
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    todo.add(node.getChildren()[i]);
+                }
+            }
+            eliminated++;
+        }
+        parent.setChild(index, Temporaries.id(first.temporary, type));
+        eliminated++;
+    }
+
+    private void undo(int mark) {
+        while (log.size() > mark) {
+            available.remove(log.remove(log.size() - 1));
+        }
+    }
+
+    // --- Rebuilding ---
+
+    // Put the declarations of temporaries before their statements, returning the replacement of 'node'.
+    private Node emit(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case SEQ: {
+                Node seq = new Node(Node.NodeType.SEQ);
+                seq.setTypeType(Node.TypeType.EMPTY);
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    Node statement = emit(children[i]);
+                    for (int j = 0; j < statement.getChildCount() && statement.getNodeType() == Node.NodeType.SEQ;
+                         j++) {
+                        seq.addChild(statement.getChildren()[j]);
+                    }
+                    if (statement.getNodeType() != Node.NodeType.SEQ) {
+                        seq.addChild(statement);
+                    }
+                }
+                return seq;
+            }
+            case IF:
+                node.setChild(1, emit(children[1]));
+                if (children[2] != null) {
+                    node.setChild(2, emit(children[2]));
+                }
+                break;
+            case WHILE:
+                node.setChild(1, emit(children[1]));
+                break;
+            default:
+                break;
+        }
+        List<Node> declarations = before.get(node);
+        if (declarations == null) {
+            return node;
+        }
+        Node seq = new Node(Node.NodeType.SEQ);
+        seq.setTypeType(Node.TypeType.EMPTY);
+        for (Node declaration : declarations) {
+            Node emitted = emit(declaration);
+            for (int j = 0; j < emitted.getChildCount() && emitted.getNodeType() == Node.NodeType.SEQ; j++) {
+                seq.addChild(emitted.getChildren()[j]);
+            }
+            if (emitted.getNodeType() != Node.NodeType.SEQ) {
+                seq.addChild(emitted);
+            }
+        }
+        seq.addChild(node);
+        return seq;
+    }
+
+    // --- Hash-consing ---
+
+    // Let identical literals and identifiers in expressions share one node.
+    private void shareLeaves(Node program) {
+        Map<String, Node> leaves = new HashMap<>();
+        List<Node> todo = new ArrayList<>();
+        todo.add(program);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            boolean hasTarget = node.getNodeType() == Node.NodeType.DECLARATION
+                    || node.getNodeType() == Node.NodeType.ASSIGNMENT;
+            for (int i = hasTarget ? 1 : 0; i < node.getChildCount(); i++) {
+                Node child = node.getChildren()[i];
+                if (child == null) continue;
+                if (child.getNodeType() == Node.NodeType.ID || child.getNodeType() == Node.NodeType.VAL_INT
+                        || child.getNodeType() == Node.NodeType.VAL_FLOAT) {
+                    Node leaf = leaves.putIfAbsent(child.getNodeType() + " " + child.getValue(), child);
+                    if (leaf != null && leaf != child) {
+                        node.setChild(i, leaf);
+                        shared++;
+                    }
+                } else {
+                    todo.add(child);
+                }
+            }
+        }
+    }
+
+    // --- Helpers ---
+
+    // The variables assigned anywhere in a tree.
+    private static Set<String> assigned(Node root) {
+        Set<String> assigned = new HashSet<>();
+        collectAssigned(root, assigned);
+        return assigned;
+    }
+
+    // Add the variables assigned in a tree to 'assigned', returning whether any assignment is in an expression.
+    private static boolean collectAssigned(Node root, Set<String> assigned) {
+        boolean nested = false;
+        List<Node> todo = new ArrayList<>();
+        List<Boolean> inExpression = new ArrayList<>();
+        todo.add(root);
+        inExpression.add(isExpression(root));
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            boolean expression = inExpression.remove(inExpression.size() - 1);
+            if (node.getNodeType() == Node.NodeType.ASSIGNMENT || node.getNodeType() == Node.NodeType.DECLARATION) {
+                assigned.add(node.getChildren()[0].getValue());
+                nested |= expression;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                Node child = node.getChildren()[i];
+                if (child == null) continue;
+                todo.add(child);
+                inExpression.add(expression || isExpression(node));
+            }
+        }
+        return nested;
+    }
+
+    private static boolean isExpression(Node node) {
+        switch (node.getNodeType()) {
+            case PROG:
+            case SEQ:
+            case IF:
+            case WHILE:
+            case DECLARATION:
+            case ASSIGNMENT:
+            case OUTPUT:
+            case EMPTY:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // Distinct nodes reachable from the root.
+    private static int count(Node root) {
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            if (!seen.add(node)) continue;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (node.getChildren()[i] != null) todo.add(node.getChildren()[i]);
+            }
+        }
+        return seen.size();
+    }
+}
@@ -0,0 +1,301 @@
+package gj.picoc;
+
+import java.util.Arrays;
+
+/**
+ * Stack based virtual machine executing {@link Bytecode}.
+ *
+ * The whole program runs in a single switch loop over the code array.  The operand stack is a long array; floats are
+ * kept on it as their raw bits so that no boxing or conversion to objects is ever needed.
+ */
+public class VirtualMachine {
+
+    private final Bytecode bytecode;
+
+    // The frame, one array per type, and the operand stack.
+    private final long[] ints;
+    private final double[] floats;
+    private final long[] stack;
+
+    public VirtualMachine(Bytecode bytecode) {
+        this(bytecode, new long[bytecode.getIntSlots()], new double[bytecode.getFloatSlots()],
+                new long[bytecode.getMaxStack()]);
+    }
+
+    // A machine on a frame and a stack that may be larger than the program needs, as reused by the ScriptExecutor.
+    // The frame is cleared on every run.
+    VirtualMachine(Bytecode bytecode, long[] ints, double[] floats, long[] stack) {
+        this.bytecode = bytecode;
+        this.ints = ints;
+        this.floats = floats;
+        this.stack = stack;
+    }
+
+    /**
+     * Execute the program from the start.  All variables start out as zero.
+     *
+     * @param out where the values of "out" statements go.
+     */
+    public void run(OutputSink out) {
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.EXECUTE);
+        execute(out, Long.MAX_VALUE);
+        Metrics.end(probe, 0);
+    }
+
+    /** How a metered run ended. */
+    public static final class Outcome {
+        private final long budget;
+        private final long left;
+
+        private Outcome(long budget, long left) {
+            this.budget = budget;
+            this.left = left;
+        }
+
+        // False if the program was stopped because it ran out of fuel.
+        public boolean isCompleted() {
+            return left >= 0;
+        }
+
+        public long getBudget() {
+            return budget;
+        }
+
+        // The fuel charged, at most the budget.
+        public long getUsed() {
+            return left >= 0 ? budget - left : budget;
+        }
+
+        @Override
+        public String toString() {
+            return isCompleted() ? String.format("completed, %d of %d fuel used", getUsed(), budget)
+                    : String.format("out of fuel, %d used", budget);
+        }
+    }
+
+    /**
+     * Execute metered code from the start, with a budget of fuel.  When the budget runs out the program stops at the
+     * next loop back-edge, with what it wrote so far flushed to 'out'.
+     *
+     * @param out where the values of "out" statements go.
+     * @param fuel the budget, in instructions.
+     * @return whether the program completed, and the fuel it used.
+     * @throws IllegalStateException if the bytecode is not metered.
+     */
+    public Outcome run(OutputSink out, long fuel) {
+        if (!bytecode.isMetered()) {
+            throw new IllegalStateException("Bytecode not metered, see BytecodeCompiler.setMetered");
+        }
+        Metrics.Probe probe = Metrics.begin(Metrics.Phase.EXECUTE);
+        Outcome outcome = new Outcome(fuel, execute(out, fuel));
+        Metrics.end(probe, 0);
+        return outcome;
+    }
+
+    // Returns the fuel left, negative if it ran out.
+    private long execute(OutputSink out, long fuel) {
+        final int[] code = bytecode.getCode();
+        final long[] constants = bytecode.getConstants();
+        final long[] ints = this.ints;
+        final double[] floats = this.floats;
+        final long[] stack = this.stack;
+        Arrays.fill(ints, 0);
+        Arrays.fill(floats, 0);
+
+        int pc = 0;
+        int sp = 0;
+        long a;
+        long b;
+        while (true) {
+            switch (code[pc++]) {
+                case Bytecode.HALT:
+                    out.flush();
+                    return fuel;
+                case Bytecode.IPUSH:
+                    stack[sp++] = code[pc++];
+                    break;
+                case Bytecode.ICONST:
+                case Bytecode.FCONST:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case Bytecode.ILOAD:
+                    stack[sp++] = ints[code[pc++]];
+                    break;
+                case Bytecode.FLOAD:
+                    stack[sp++] = Double.doubleToRawLongBits(floats[code[pc++]]);
+                    break;
+                case Bytecode.ISTORE:
+                    ints[code[pc++]] = stack[--sp];
+                    break;
+                case Bytecode.FSTORE:
+                    floats[code[pc++]] = Double.longBitsToDouble(stack[--sp]);
+                    break;
+                case Bytecode.DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case Bytecode.POP:
+                    sp--;
+                    break;
+                case Bytecode.IADD:
+                    b = stack[--sp];
+                    stack[sp - 1] += b;
+                    break;
+                case Bytecode.ISUB:
+                    b = stack[--sp];
+                    stack[sp - 1] -= b;
+                    break;
+                case Bytecode.IMUL:
+                    b = stack[--sp];
+                    stack[sp - 1] *= b;
+                    break;
+                case Bytecode.IDIV:
+                    b = stack[--sp];
+                    stack[sp - 1] /= b;
+                    break;
+                case Bytecode.INEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case Bytecode.FADD:
+                    b = stack[--sp];
+                    stack[sp - 1] = f(d(stack[sp - 1]) + d(b));
+                    break;
+                case Bytecode.FSUB:
+                    b = stack[--sp];
+                    stack[sp - 1] = f(d(stack[sp - 1]) - d(b));
+                    break;
+                case Bytecode.FMUL:
+                    b = stack[--sp];
+                    stack[sp - 1] = f(d(stack[sp - 1]) * d(b));
+                    break;
+                case Bytecode.FDIV:
+                    b = stack[--sp];
+                    stack[sp - 1] = f(d(stack[sp - 1]) / d(b));
+                    break;
+                case Bytecode.FNEG:
+                    stack[sp - 1] = f(-d(stack[sp - 1]));
+                    break;
+                case Bytecode.I2F:
+                    stack[sp - 1] = f(stack[sp - 1]);
+                    break;
+                case Bytecode.F2I:
+                    stack[sp - 1] = (long) d(stack[sp - 1]);
+                    break;
+                case Bytecode.NOT:
+                    stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0;
+                    break;
+                case Bytecode.ICMPLT:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] < b ? 1 : 0;
+                    break;
+                case Bytecode.ICMPGT:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] > b ? 1 : 0;
+                    break;
+                case Bytecode.ICMPLE:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] <= b ? 1 : 0;
+                    break;
+                case Bytecode.ICMPGE:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] >= b ? 1 : 0;
+                    break;
+                case Bytecode.ICMPEQ:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] == b ? 1 : 0;
+                    break;
+                case Bytecode.ICMPNE:
+                    b = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] != b ? 1 : 0;
+                    break;
+                case Bytecode.FCMPLT:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) < d(b) ? 1 : 0;
+                    break;
+                case Bytecode.FCMPGT:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) > d(b) ? 1 : 0;
+                    break;
+                case Bytecode.FCMPLE:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) <= d(b) ? 1 : 0;
+                    break;
+                case Bytecode.FCMPGE:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) >= d(b) ? 1 : 0;
+                    break;
+                case Bytecode.FCMPEQ:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) == d(b) ? 1 : 0;
+                    break;
+                case Bytecode.FCMPNE:
+                    b = stack[--sp];
+                    stack[sp - 1] = d(stack[sp - 1]) != d(b) ? 1 : 0;
+                    break;
+                case Bytecode.JMP:
+                    pc = code[pc];
+                    break;
+                case Bytecode.JZ:
+                    pc = stack[--sp] == 0 ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JNZ:
+                    pc = stack[--sp] != 0 ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JLT:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a < b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JGT:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a > b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JLE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a <= b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JGE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a >= b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JEQ:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a == b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JNE:
+                    b = stack[--sp];
+                    a = stack[--sp];
+                    pc = a != b ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.IOUT:
+                    out.writeInt(stack[--sp]);
+                    break;
+                case Bytecode.FOUT:
+                    out.writeFloat(d(stack[--sp]));
+                    break;
+                case Bytecode.FUEL:
+                    fuel -= code[pc++];
+                    if (fuel < 0) {
+                        out.flush();
+                        return fuel;
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Runtime error, invalid opcode " + code[pc - 1] + " at " + (pc - 1));
+            }
+        }
+    }
+
+    // Floats live on the stack as their raw bits.
+    private static double d(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long f(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+}
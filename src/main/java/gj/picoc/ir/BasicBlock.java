@@ -0,0 +1,53 @@
+package gj.picoc.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight line of instructions, entered at the top and left through the terminator at the bottom.  PHIs, if any,
+ * come first.  The i-th operand of a PHI is the value coming in from the i-th predecessor.
+ */
+public class BasicBlock {
+
+    private final int id;
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+    final List<BasicBlock> successors = new ArrayList<>();
+
+    // Position in reverse postorder, assigned by the dominator computation; -1 for unreachable blocks.
+    int order = -1;
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public Instruction getTerminator() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    void add(Instruction instruction) {
+        instruction.block = this;
+        instructions.add(instruction);
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
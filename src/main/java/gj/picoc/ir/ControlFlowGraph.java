@@ -0,0 +1,155 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+import gj.picoc.SemAnalyser;
+import gj.picoc.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A program as basic blocks of {@link Instruction}s with explicit edges between them.  Created from a tree by
+ * {@link #build(Node)}, which reads and writes variables with LOAD and STORE, and then converted to SSA form with
+ * {@link #toSsa()}.
+ *
+ * Variables are numbered as the symbols of the {@link SymbolTable}, followed by temporaries introduced for the
+ * results of "&&" and "||".  All variables start out as zero.
+ */
+public class ControlFlowGraph {
+
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private BasicBlock entry;
+    private int instructions;
+
+    private String[] variableNames = new String[16];
+    private Node.TypeType[] variableTypes = new Node.TypeType[16];
+    private int variables;
+
+    private boolean ssa;
+
+    ControlFlowGraph() {
+    }
+
+    /**
+     * Lower a program into a control flow graph.  The tree is analysed first.
+     *
+     * @param program the tree as produced by the parser.
+     * @return the graph, not yet in SSA form.
+     */
+    public static ControlFlowGraph build(Node program) {
+        SemAnalyser analyser = new SemAnalyser();
+        analyser.analyse(program);
+        ControlFlowGraph cfg = new ControlFlowGraph();
+        SymbolTable symbols = analyser.getSymbols();
+        for (int i = 0; i < symbols.size(); i++) {
+            cfg.newVariable(symbols.name(i), symbols.type(i));
+        }
+        new Lowering(cfg).lower(program);
+        return cfg;
+    }
+
+    /**
+     * Convert to SSA form: place PHIs where definitions of a variable meet and remove all LOADs and STOREs.
+     *
+     * @return this graph.
+     */
+    public ControlFlowGraph toSsa() {
+        if (!ssa) {
+            new SsaBuilder(this).build();
+            ssa = true;
+        }
+        return this;
+    }
+
+    public boolean isSsa() {
+        return ssa;
+    }
+
+    /**
+     * Compute the dominator tree of the graph as it is now.
+     *
+     * @return the dominators.
+     */
+    public DominatorTree dominators() {
+        return new DominatorTree(this);
+    }
+
+    public BasicBlock getEntry() {
+        return entry;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public int getVariableCount() {
+        return variables;
+    }
+
+    public String getVariableName(int variable) {
+        return variableNames[variable];
+    }
+
+    public Node.TypeType getVariableType(int variable) {
+        return variableTypes[variable];
+    }
+
+    // The number of instructions in all blocks.
+    public int size() {
+        int size = 0;
+        for (BasicBlock block : blocks) {
+            size += block.instructions.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return IrPrinter.print(this);
+    }
+
+    // --- Construction ---
+
+    BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(blocks.size());
+        blocks.add(block);
+        if (entry == null) {
+            entry = block;
+        }
+        return block;
+    }
+
+    Instruction newInstruction(Instruction.Op op, Node.TypeType type, Instruction... operands) {
+        return new Instruction(instructions++, op, type, operands);
+    }
+
+    // Temporaries have names that cannot occur in a program.
+    int newVariable(String name, Node.TypeType type) {
+        if (variables == variableNames.length) {
+            variableNames = Arrays.copyOf(variableNames, variables * 2);
+            variableTypes = Arrays.copyOf(variableTypes, variables * 2);
+        }
+        variableNames[variables] = name == null ? "$t" + variables : name;
+        variableTypes[variables] = type;
+        return variables++;
+    }
+
+    static void addEdge(BasicBlock from, BasicBlock to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    // Drop blocks that cannot be reached from the entry, along with their edges.  Only done before conversion to SSA,
+    // so there are no PHIs to update.
+    void removeUnreachable() {
+        for (BasicBlock block : blocks) {
+            if (block.order < 0) {
+                for (BasicBlock successor : block.successors) {
+                    successor.predecessors.remove(block);
+                }
+            }
+        }
+        blocks.removeIf(block -> block.order < 0);
+    }
+}
@@ -0,0 +1,179 @@
+package gj.picoc.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The dominators of a control flow graph, computed with the iterative algorithm of Cooper, Harvey and Kennedy ("A
+ * Simple, Fast Dominance Algorithm").  Blocks are processed in reverse postorder, which for the reducible graphs PicoC
+ * produces settles in two passes.  Also computes the dominance frontiers, where SSA needs its PHIs.
+ *
+ * Computing the tree also numbers the blocks in reverse postorder and drops blocks that cannot be reached.
+ */
+public class DominatorTree {
+
+    // Blocks in reverse postorder, the entry first.  Indexes in the arrays below are positions in this order.
+    private final List<BasicBlock> order;
+    private final int[] idom;
+    private final List<List<BasicBlock>> children;
+    private final List<List<BasicBlock>> frontiers;
+
+    // Preorder numbers in the dominator tree and the last preorder number below each block, so that dominance is a
+    // range check.
+    private final int[] pre;
+    private final int[] last;
+
+    DominatorTree(ControlFlowGraph cfg) {
+        order = reversePostorder(cfg);
+        cfg.removeUnreachable();
+        int n = order.size();
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 1; b < n; b++) {
+                int newIdom = -1;
+                for (BasicBlock p : order.get(b).predecessors) {
+                    int pred = p.order;
+                    if (idom[pred] < 0) continue;
+                    newIdom = newIdom < 0 ? pred : intersect(pred, newIdom);
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        children = new ArrayList<>(n);
+        frontiers = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            children.add(new ArrayList<>());
+            frontiers.add(new ArrayList<>());
+        }
+        for (int b = 1; b < n; b++) {
+            children.get(idom[b]).add(order.get(b));
+        }
+
+        // A join point is in the frontier of every block from each predecessor up to (not including) its idom.
+        for (int b = 0; b < n; b++) {
+            BasicBlock block = order.get(b);
+            if (block.predecessors.size() < 2) continue;
+            for (BasicBlock p : block.predecessors) {
+                int runner = p.order;
+                while (runner != idom[b]) {
+                    List<BasicBlock> frontier = frontiers.get(runner);
+                    if (frontier.isEmpty() || frontier.get(frontier.size() - 1) != block) {
+                        frontier.add(block);
+                    }
+                    runner = idom[runner];
+                }
+            }
+        }
+
+        pre = new int[n];
+        last = new int[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        int depth = 0;
+        int count = 0;
+        stack[depth++] = 0;
+        pre[0] = count++;
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (next[b] < children.get(b).size()) {
+                int child = children.get(b).get(next[b]++).order;
+                pre[child] = count++;
+                stack[depth++] = child;
+            } else {
+                last[b] = count - 1;
+                depth--;
+            }
+        }
+    }
+
+    // Walk up from both blocks to their closest common dominator, using that an idom comes earlier in the order.
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b) a = idom[a];
+            while (b > a) b = idom[b];
+        }
+        return a;
+    }
+
+    private static List<BasicBlock> reversePostorder(ControlFlowGraph cfg) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            block.order = -1;
+        }
+        List<BasicBlock> postorder = new ArrayList<>();
+        BasicBlock[] stack = new BasicBlock[cfg.getBlocks().size()];
+        int[] next = new int[cfg.getBlocks().size()];
+        int depth = 0;
+        BasicBlock entry = cfg.getEntry();
+        entry.order = 0;
+        stack[depth++] = entry;
+        while (depth > 0) {
+            BasicBlock block = stack[depth - 1];
+            if (next[depth - 1] < block.successors.size()) {
+                BasicBlock successor = block.successors.get(next[depth - 1]++);
+                if (successor.order < 0) {
+                    successor.order = 0;
+                    next[depth] = 0;
+                    stack[depth++] = successor;
+                }
+            } else {
+                postorder.add(block);
+                depth--;
+            }
+        }
+        List<BasicBlock> order = new ArrayList<>(postorder.size());
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            postorder.get(i).order = order.size();
+            order.add(postorder.get(i));
+        }
+        return order;
+    }
+
+    // Blocks in reverse postorder: every block comes after its dominators, and after all of its predecessors that do
+    // not reach it over a back edge.
+    public List<BasicBlock> getOrder() {
+        return order;
+    }
+
+    public BasicBlock getRoot() {
+        return order.get(0);
+    }
+
+    // The immediate dominator of a block, null for the entry.
+    public BasicBlock idom(BasicBlock block) {
+        return block.order == 0 ? null : order.get(idom[block.order]);
+    }
+
+    // The blocks immediately dominated by a block.
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block.order);
+    }
+
+    public List<BasicBlock> frontier(BasicBlock block) {
+        return frontiers.get(block.order);
+    }
+
+    // Does 'a' dominate 'b'?  Every block dominates itself.
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        return pre[a.order] <= pre[b.order] && pre[b.order] <= last[a.order];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (BasicBlock block : order) {
+            result.append(block).append(": idom ").append(idom(block) == null ? "-" : idom(block).toString());
+            result.append(", frontier ").append(frontier(block)).append("\n");
+        }
+        return result.toString();
+    }
+}
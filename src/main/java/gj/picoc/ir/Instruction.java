@@ -0,0 +1,117 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+
+import java.util.Arrays;
+
+/**
+ * An instruction of the intermediate representation, which is also the value it computes.  Operands are the
+ * instructions that compute them.
+ *
+ * Before conversion to SSA, variables are read with LOAD and written with STORE.  The conversion removes both: every
+ * use of a LOAD then refers to the instruction that computed the value stored last, or to a PHI where values from
+ * several predecessors meet.  Every block ends in exactly one of JUMP, BRANCH or RETURN.
+ */
+public class Instruction {
+
+    public enum Op {
+        CONST, LOAD, STORE, PHI,
+        ADD, SUB, MUL, DIV, NEG, NOT,
+        LT, GT, LE, GE, EQ, NE,
+        I2F, F2I,
+        OUT,
+        JUMP, BRANCH, RETURN
+    }
+
+    private final int id;
+    private final Op op;
+
+    // The type of the value computed, EMPTY for instructions without a value.  For comparisons this is INT, the type
+    // they compare at is that of their operands.
+    private final Node.TypeType type;
+
+    private Instruction[] operands;
+
+    // CONST: the value, floats as raw bits.  LOAD and STORE: the variable.
+    private long constant;
+    private int variable = -1;
+
+    BasicBlock block;
+
+    // Set while converting to SSA, for LOADs that are replaced.
+    Instruction replacement;
+
+    Instruction(int id, Op op, Node.TypeType type, Instruction... operands) {
+        this.id = id;
+        this.op = op;
+        this.type = type;
+        this.operands = operands;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public Node.TypeType getType() {
+        return type;
+    }
+
+    public Instruction[] getOperands() {
+        return operands;
+    }
+
+    public Instruction getOperand(int i) {
+        return operands[i];
+    }
+
+    public void setOperand(int i, Instruction operand) {
+        operands[i] = operand;
+    }
+
+    void addOperand(Instruction operand) {
+        operands = Arrays.copyOf(operands, operands.length + 1);
+        operands[operands.length - 1] = operand;
+    }
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    public int getVariable() {
+        return variable;
+    }
+
+    void setVariable(int variable) {
+        this.variable = variable;
+    }
+
+    public long getIntConstant() {
+        return constant;
+    }
+
+    public double getFloatConstant() {
+        return Double.longBitsToDouble(constant);
+    }
+
+    void setConstant(long constant) {
+        this.constant = constant;
+    }
+
+    public boolean isTerminator() {
+        return op == Op.JUMP || op == Op.BRANCH || op == Op.RETURN;
+    }
+
+    // Does the instruction do more than compute a value?
+    public boolean hasSideEffect() {
+        return op == Op.STORE || op == Op.OUT || isTerminator();
+    }
+
+    @Override
+    public String toString() {
+        return "v" + id;
+    }
+}
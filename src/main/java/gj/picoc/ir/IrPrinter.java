@@ -0,0 +1,87 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+
+/**
+ * Prints a control flow graph as text, one block at a time:
+ *
+ * <pre>
+ * b1:                                ; preds b0 b2
+ *   v7 = phi.int [v3, b0] [v12, b2]  ; a
+ *   v8 = lt.int v7, v6
+ *   branch v8, b2, b3
+ * </pre>
+ */
+public class IrPrinter {
+
+    private IrPrinter() {
+    }
+
+    public static String print(ControlFlowGraph cfg) {
+        StringBuilder out = new StringBuilder();
+        for (BasicBlock block : cfg.getBlocks()) {
+            out.append(block).append(":");
+            if (!block.predecessors.isEmpty()) {
+                out.append(" ; preds");
+                for (BasicBlock predecessor : block.predecessors) {
+                    out.append(" ").append(predecessor);
+                }
+            }
+            out.append("\n");
+            for (Instruction instruction : block.instructions) {
+                out.append("  ");
+                print(cfg, instruction, out);
+                out.append("\n");
+            }
+        }
+        return out.toString();
+    }
+
+    public static String print(ControlFlowGraph cfg, Instruction instruction) {
+        StringBuilder out = new StringBuilder();
+        print(cfg, instruction, out);
+        return out.toString();
+    }
+
+    private static void print(ControlFlowGraph cfg, Instruction instruction, StringBuilder out) {
+        Instruction.Op op = instruction.getOp();
+        Instruction[] operands = instruction.getOperands();
+        if (instruction.getType() != Node.TypeType.EMPTY) {
+            out.append(instruction).append(" = ");
+        }
+        out.append(op.toString().toLowerCase());
+        if (instruction.getType() != Node.TypeType.EMPTY) {
+            out.append(".").append(instruction.getType().toString().toLowerCase());
+        }
+        switch (op) {
+            case CONST:
+                out.append(" ").append(instruction.getType() == Node.TypeType.FLOAT
+                        ? String.valueOf(instruction.getFloatConstant()) : String.valueOf(instruction.getIntConstant()));
+                break;
+            case LOAD:
+                out.append(" ").append(cfg.getVariableName(instruction.getVariable()));
+                break;
+            case STORE:
+                out.append(" ").append(cfg.getVariableName(instruction.getVariable())).append(", ").append(operands[0]);
+                break;
+            case PHI:
+                for (int i = 0; i < operands.length; i++) {
+                    out.append(" [").append(operands[i]).append(", ");
+                    out.append(instruction.getBlock().predecessors.get(i)).append("]");
+                }
+                out.append("  ; ").append(cfg.getVariableName(instruction.getVariable()));
+                break;
+            case JUMP:
+                out.append(" ").append(instruction.getBlock().successors.get(0));
+                break;
+            case BRANCH:
+                out.append(" ").append(operands[0]).append(", ").append(instruction.getBlock().successors.get(0));
+                out.append(", ").append(instruction.getBlock().successors.get(1));
+                break;
+            default:
+                for (int i = 0; i < operands.length; i++) {
+                    out.append(i == 0 ? " " : ", ").append(operands[i]);
+                }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+
+/**
+ * Lowers an analysed tree into basic blocks.  Variables are read and written with LOAD and STORE, conversions between
+ * INT and FLOAT are made explicit, and "&&" and "||" become branches that store 0 or 1 in a temporary.
+ *
+ * Statements of a block are lowered in a loop, so only nesting adds to the depth of the recursion.
+ */
+class Lowering {
+
+    private final ControlFlowGraph cfg;
+    private BasicBlock current;
+
+    Lowering(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+    }
+
+    void lower(Node program) {
+        current = cfg.newBlock();
+        statement(program);
+        emit(Instruction.Op.RETURN, Node.TypeType.EMPTY);
+    }
+
+    // --- Statements ---
+
+    private void statement(Node node) {
+        Node[] children = node.getChildren();
+        switch (node.getNodeType()) {
+            case PROG:
+            case SEQ:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    statement(children[i]);
+                }
+                break;
+            case DECLARATION: {
+                Node.TypeType type = node.getTypeType();
+                Instruction value = children[1] == null ? constant(type, 0) : convert(expression(children[1]), type);
+                store(node.getSymbol(), value);
+                break;
+            }
+            case ASSIGNMENT:
+                expression(node);
+                break;
+            case OUTPUT: {
+                Instruction value = expression(children[0]);
+                emit(Instruction.Op.OUT, Node.TypeType.EMPTY, value);
+                break;
+            }
+            case IF: {
+                BasicBlock then = cfg.newBlock();
+                BasicBlock otherwise = children[2] == null ? null : cfg.newBlock();
+                BasicBlock join = cfg.newBlock();
+                branch(expression(children[0]), then, otherwise == null ? join : otherwise);
+                current = then;
+                statement(children[1]);
+                jump(join);
+                if (otherwise != null) {
+                    current = otherwise;
+                    statement(children[2]);
+                    jump(join);
+                }
+                current = join;
+                break;
+            }
+            case WHILE: {
+                // The header evaluates the condition, the body jumps back to it.
+                BasicBlock header = cfg.newBlock();
+                BasicBlock body = cfg.newBlock();
+                BasicBlock exit = cfg.newBlock();
+                jump(header);
+                current = header;
+                branch(expression(children[0]), body, exit);
+                current = body;
+                statement(children[1]);
+                jump(header);
+                current = exit;
+                break;
+            }
+            case EMPTY:
+                break;
+            default:
+                throw new RuntimeException("Lowering error, unexpected statement " + node.getNodeType());
+        }
+    }
+
+    // --- Expressions, evaluated to the type of their node. ---
+
+    private Instruction expression(Node node) {
+        Node[] children = node.getChildren();
+        Node.TypeType type = node.getTypeType();
+        switch (node.getNodeType()) {
+            case VAL_INT:
+                return constant(Node.TypeType.INT, Long.parseLong(node.getValue()));
+            case VAL_FLOAT:
+                return constant(Node.TypeType.FLOAT, Double.doubleToRawLongBits(Double.parseDouble(node.getValue())));
+            case ID: {
+                Instruction load = emit(Instruction.Op.LOAD, type);
+                load.setVariable(node.getSymbol());
+                return load;
+            }
+            case ASSIGNMENT: {
+                Instruction value = convert(expression(children[1]), type);
+                store(node.getSymbol(), value);
+                return value;
+            }
+            case PLUS:
+                return arithmetic(Instruction.Op.ADD, type, children);
+            case MINUS:
+                return arithmetic(Instruction.Op.SUB, type, children);
+            case MUL:
+                return arithmetic(Instruction.Op.MUL, type, children);
+            case DIV:
+                return arithmetic(Instruction.Op.DIV, type, children);
+            case NEGATE:
+                return emit(Instruction.Op.NEG, type, expression(children[0]));
+            case NOT:
+                return emit(Instruction.Op.NOT, Node.TypeType.INT, expression(children[0]));
+            case SMALLER:
+                return compare(Instruction.Op.LT, children);
+            case GREATER:
+                return compare(Instruction.Op.GT, children);
+            case SMALLER_EQUAL:
+                return compare(Instruction.Op.LE, children);
+            case GREATER_EQUAL:
+                return compare(Instruction.Op.GE, children);
+            case EQUALS:
+                return compare(Instruction.Op.EQ, children);
+            case NOT_EQUALS:
+                return compare(Instruction.Op.NE, children);
+            case AND:
+            case OR:
+                return logic(node.getNodeType() == Node.NodeType.AND, children);
+        }
+        throw new RuntimeException("Lowering error, unexpected expression " + node.getNodeType());
+    }
+
+    private Instruction arithmetic(Instruction.Op op, Node.TypeType type, Node[] children) {
+        Instruction left = convert(expression(children[0]), type);
+        Instruction right = convert(expression(children[1]), type);
+        return emit(op, type, left, right);
+    }
+
+    // Compared as integers if both sides are, otherwise as floats.
+    private Instruction compare(Instruction.Op op, Node[] children) {
+        Node.TypeType type = children[0].getTypeType() == Node.TypeType.INT
+                && children[1].getTypeType() == Node.TypeType.INT ? Node.TypeType.INT : Node.TypeType.FLOAT;
+        Instruction left = convert(expression(children[0]), type);
+        Instruction right = convert(expression(children[1]), type);
+        return emit(op, Node.TypeType.INT, left, right);
+    }
+
+    // t = 0 (1 for "||"); if the left operand does not decide, t = (right != 0).  The result is t.
+    private Instruction logic(boolean and, Node[] children) {
+        int temporary = cfg.newVariable(null, Node.TypeType.INT);
+        Instruction left = expression(children[0]);
+        store(temporary, constant(Node.TypeType.INT, and ? 0 : 1));
+        BasicBlock right = cfg.newBlock();
+        BasicBlock join = cfg.newBlock();
+        if (and) {
+            branch(left, right, join);
+        } else {
+            branch(left, join, right);
+        }
+        current = right;
+        Instruction value = expression(children[1]);
+        store(temporary, emit(Instruction.Op.NE, Node.TypeType.INT, value, constant(Node.TypeType.INT, 0)));
+        jump(join);
+        current = join;
+        Instruction load = emit(Instruction.Op.LOAD, Node.TypeType.INT);
+        load.setVariable(temporary);
+        return load;
+    }
+
+    // --- Helpers ---
+
+    private Instruction emit(Instruction.Op op, Node.TypeType type, Instruction... operands) {
+        Instruction instruction = cfg.newInstruction(op, type, operands);
+        current.add(instruction);
+        return instruction;
+    }
+
+    private Instruction constant(Node.TypeType type, long bits) {
+        Instruction constant = emit(Instruction.Op.CONST, type);
+        constant.setConstant(type == Node.TypeType.FLOAT && bits == 0 ? Double.doubleToRawLongBits(0.0) : bits);
+        return constant;
+    }
+
+    private void store(int variable, Instruction value) {
+        Instruction store = emit(Instruction.Op.STORE, Node.TypeType.EMPTY, value);
+        store.setVariable(variable);
+    }
+
+    private Instruction convert(Instruction value, Node.TypeType type) {
+        if (value.getType() == type) {
+            return value;
+        }
+        return emit(type == Node.TypeType.FLOAT ? Instruction.Op.I2F : Instruction.Op.F2I, type, value);
+    }
+
+    private void jump(BasicBlock target) {
+        emit(Instruction.Op.JUMP, Node.TypeType.EMPTY);
+        ControlFlowGraph.addEdge(current, target);
+    }
+
+    // Successor 0 is taken if the condition is not zero, successor 1 otherwise.
+    private void branch(Instruction condition, BasicBlock ifTrue, BasicBlock ifFalse) {
+        emit(Instruction.Op.BRANCH, Node.TypeType.EMPTY, condition);
+        ControlFlowGraph.addEdge(current, ifTrue);
+        ControlFlowGraph.addEdge(current, ifFalse);
+    }
+}
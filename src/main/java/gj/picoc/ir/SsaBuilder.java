@@ -0,0 +1,210 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts a control flow graph to SSA form, following Cytron et al.
+ *
+ * <ol>
+ * <li>PHIs are placed in the iterated dominance frontier of the blocks that store a variable.  Only variables that
+ * are loaded in some block before being stored there need them ("semi-pruned" SSA).</li>
+ * <li>Walking the dominator tree, each variable has a stack of its current definitions.  A STORE pushes its value, a
+ * LOAD is replaced by the top of the stack, and the operands of PHIs in successors are filled in from the tops.</li>
+ * </ol>
+ *
+ * A variable that is loaded before anything was stored in it reads a zero constant in the entry block.  Both passes
+ * use explicit stacks and take time linear in the size of the graph plus the number of PHIs.
+ */
+class SsaBuilder {
+
+    private final ControlFlowGraph cfg;
+
+    // Current definitions per variable, along with a log of pushes so they can be undone when leaving a block.
+    private Instruction[][] definitions;
+    private int[] tops;
+    private int[] log = new int[64];
+    private int logSize;
+
+    private Instruction zeroInt;
+    private Instruction zeroFloat;
+
+    SsaBuilder(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+    }
+
+    void build() {
+        DominatorTree dominators = cfg.dominators();
+        placePhis(dominators);
+        rename(dominators);
+    }
+
+    private void placePhis(DominatorTree dominators) {
+        int variables = cfg.getVariableCount();
+        int blocks = dominators.getOrder().size();
+
+        // Which variables are live into some block, and which blocks store each variable.
+        boolean[] global = new boolean[variables];
+        List<List<BasicBlock>> stores = new ArrayList<>(variables);
+        for (int v = 0; v < variables; v++) {
+            stores.add(new ArrayList<>());
+        }
+        int[] stored = new int[variables];
+        Arrays.fill(stored, -1);
+        for (BasicBlock block : dominators.getOrder()) {
+            for (Instruction instruction : block.instructions) {
+                int v = instruction.getVariable();
+                if (instruction.getOp() == Instruction.Op.LOAD && stored[v] != block.order) {
+                    global[v] = true;
+                } else if (instruction.getOp() == Instruction.Op.STORE && stored[v] != block.order) {
+                    stored[v] = block.order;
+                    stores.get(v).add(block);
+                }
+            }
+        }
+
+        // Marks per block of the last variable that got a PHI there or was put on the work list there.
+        int[] hasPhi = new int[blocks];
+        int[] onList = new int[blocks];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(onList, -1);
+        List<BasicBlock> work = new ArrayList<>();
+        for (int v = 0; v < variables; v++) {
+            if (!global[v]) continue;
+            for (BasicBlock block : stores.get(v)) {
+                onList[block.order] = v;
+                work.add(block);
+            }
+            while (!work.isEmpty()) {
+                BasicBlock block = work.remove(work.size() - 1);
+                for (BasicBlock frontier : dominators.frontier(block)) {
+                    if (hasPhi[frontier.order] == v) continue;
+                    hasPhi[frontier.order] = v;
+                    Instruction phi = cfg.newInstruction(Instruction.Op.PHI, cfg.getVariableType(v),
+                            new Instruction[frontier.predecessors.size()]);
+                    phi.setVariable(v);
+                    phi.block = frontier;
+                    frontier.instructions.add(0, phi);
+                    if (onList[frontier.order] != v) {
+                        onList[frontier.order] = v;
+                        work.add(frontier);
+                    }
+                }
+            }
+        }
+    }
+
+    private void rename(DominatorTree dominators) {
+        int variables = cfg.getVariableCount();
+        definitions = new Instruction[variables][];
+        tops = new int[variables];
+
+        // Zero constants for variables that are read before being written, dropped again if not needed.
+        BasicBlock entry = dominators.getRoot();
+        zeroInt = cfg.newInstruction(Instruction.Op.CONST, Node.TypeType.INT);
+        zeroFloat = cfg.newInstruction(Instruction.Op.CONST, Node.TypeType.FLOAT);
+        zeroInt.block = zeroFloat.block = entry;
+        entry.instructions.add(0, zeroFloat);
+        entry.instructions.add(0, zeroInt);
+        boolean[] used = new boolean[2];
+
+        int blocks = dominators.getOrder().size();
+        BasicBlock[] stack = new BasicBlock[blocks];
+        int[] next = new int[blocks];
+        int[] marks = new int[blocks];
+        int depth = 0;
+        stack[depth] = entry;
+        marks[depth] = logSize;
+        next[depth++] = 0;
+        renameBlock(entry, used);
+        while (depth > 0) {
+            BasicBlock block = stack[depth - 1];
+            List<BasicBlock> children = dominators.children(block);
+            if (next[depth - 1] < children.size()) {
+                BasicBlock child = children.get(next[depth - 1]++);
+                stack[depth] = child;
+                marks[depth] = logSize;
+                next[depth++] = 0;
+                renameBlock(child, used);
+            } else {
+                // Leaving the block: undo its definitions.
+                depth--;
+                while (logSize > marks[depth]) {
+                    tops[log[--logSize]]--;
+                }
+            }
+        }
+
+        if (!used[1]) entry.instructions.remove(zeroFloat);
+        if (!used[0]) entry.instructions.remove(zeroInt);
+    }
+
+    private void renameBlock(BasicBlock block, boolean[] used) {
+        List<Instruction> kept = new ArrayList<>(block.instructions.size());
+        for (Instruction instruction : block.instructions) {
+            Instruction.Op op = instruction.getOp();
+            if (op == Instruction.Op.PHI) {
+                push(instruction.getVariable(), instruction);
+                kept.add(instruction);
+                continue;
+            }
+            Instruction[] operands = instruction.getOperands();
+            for (int i = 0; i < operands.length; i++) {
+                Instruction operand = operands[i];
+                while (operand.replacement != null) {
+                    operand = operand.replacement;
+                }
+                operands[i] = operand;
+            }
+            if (op == Instruction.Op.LOAD) {
+                instruction.replacement = current(instruction.getVariable(), used);
+            } else if (op == Instruction.Op.STORE) {
+                push(instruction.getVariable(), operands[0]);
+            } else {
+                kept.add(instruction);
+            }
+        }
+        block.instructions.clear();
+        block.instructions.addAll(kept);
+
+        // Fill in what flows along each edge into the PHIs of the successors.
+        for (BasicBlock successor : block.successors) {
+            for (int j = 0; j < successor.predecessors.size(); j++) {
+                if (successor.predecessors.get(j) != block) continue;
+                for (Instruction phi : successor.instructions) {
+                    if (phi.getOp() != Instruction.Op.PHI) break;
+                    phi.setOperand(j, current(phi.getVariable(), used));
+                }
+            }
+        }
+    }
+
+    private void push(int variable, Instruction value) {
+        Instruction[] stack = definitions[variable];
+        if (stack == null) {
+            stack = definitions[variable] = new Instruction[4];
+        } else if (tops[variable] == stack.length) {
+            stack = definitions[variable] = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[tops[variable]++] = value;
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, logSize * 2);
+        }
+        log[logSize++] = variable;
+    }
+
+    private Instruction current(int variable, boolean[] used) {
+        if (tops[variable] > 0) {
+            return definitions[variable][tops[variable] - 1];
+        }
+        if (cfg.getVariableType(variable) == Node.TypeType.FLOAT) {
+            used[1] = true;
+            return zeroFloat;
+        }
+        used[0] = true;
+        return zeroInt;
+    }
+}
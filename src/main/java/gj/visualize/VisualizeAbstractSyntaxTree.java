@@ -12,37 +12,62 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Random;
 
 public class VisualizeAbstractSyntaxTree {
 
-    private static void construct(Node ast, String id, Graph graph) {
-        graph.addNode(id);
-        if (ast == null) {
-            graph.getNode(id).addAttribute("ui.class","empty");
-            return;
-        }
-
-        if (ast.getNodeType() == Node.NodeType.PROG) {
-            graph.getNode(id).addAttribute("ui.class", "root");
-        } else if (ast.isLeaf()) {
-            graph.getNode(id).addAttribute("ui.class", "external");
-        } else {
-            graph.getNode(id).addAttribute("ui.class","internal");
+    // A node still to be added to the graph, along with the id of its parent (null for the root) and which child it is.
+    private static class Pending {
+        private final Node ast;
+        private final String id;
+        private final String parent;
+        private final int index;
+
+        private Pending(Node ast, String id, String parent, int index) {
+            this.ast = ast;
+            this.id = id;
+            this.parent = parent;
+            this.index = index;
         }
+    }
 
-        String label = ast.getNodeType().toString();
-        if (ast.getValue() != null) {
-            label = label + ":" + ast.getValue();
-        }
-        graph.getNode(id).addAttribute("ui.label", label);
-        int index = 2;
-        while (index >= 0 && ast.getChildren()[index] == null) index--;
-        if (index < 0) return;
-        for (int i = 0; i <= index; i++) {
-            construct(ast.getChildren()[i], id+""+i, graph);
-            graph.addEdge(id+"-"+i, id, id+""+i);
-            graph.getEdge(id+"-"+i).setAttribute("ui.label", String.valueOf(i));
+    // Uses a stack of pending nodes rather than recursion, so blocks of any length can be shown.  Child ids are
+    // separated by dots, since with more than ten children "0" + "11" would clash with "01" + "1".
+    private static void construct(Node root, String rootId, Graph graph) {
+        Deque<Pending> pending = new ArrayDeque<>();
+        pending.push(new Pending(root, rootId, null, 0));
+        while (!pending.isEmpty()) {
+            Pending p = pending.pop();
+            Node ast = p.ast;
+            String id = p.id;
+            graph.addNode(id);
+            if (p.parent != null) {
+                graph.addEdge(p.parent + "-" + p.index, p.parent, id);
+                graph.getEdge(p.parent + "-" + p.index).setAttribute("ui.label", String.valueOf(p.index));
+            }
+            if (ast == null) {
+                graph.getNode(id).addAttribute("ui.class","empty");
+                continue;
+            }
+
+            if (ast.getNodeType() == Node.NodeType.PROG) {
+                graph.getNode(id).addAttribute("ui.class", "root");
+            } else if (ast.isLeaf()) {
+                graph.getNode(id).addAttribute("ui.class", "external");
+            } else {
+                graph.getNode(id).addAttribute("ui.class","internal");
+            }
+
+            String label = ast.getNodeType().toString();
+            if (ast.getValue() != null) {
+                label = label + ":" + ast.getValue();
+            }
+            graph.getNode(id).addAttribute("ui.label", label);
+            for (int i = ast.getChildCount() - 1; i >= 0; i--) {
+                pending.push(new Pending(ast.getChildren()[i], id + "." + i, id, i));
+            }
         }
     }
 
@@ -66,13 +91,11 @@ public class VisualizeAbstractSyntaxTree {
 
     public static void main(String args[]) throws URISyntaxException, IOException {
 
-        String prog = Files.readString(Path.of("prog1.pc"));
-        //System.out.println(prog);
-
-
-        Scanner scanner = new Scanner(prog);
-        Parser parser = new Parser(scanner);
-        Node n = parser.program();
+        Node n;
+        try (Scanner scanner = new Scanner(Path.of("prog1.pc"))) {
+            Parser parser = new Parser(scanner);
+            n = parser.program();
+        }
 
         System.out.println(n);
 
@@ -0,0 +1,110 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class AstArenaTest {
+
+    private static final String PROGRAM = "{ int a = 1, b; float c = 2.5; if (a > 2 && !b) out(a); else out(c); "
+            + "while (a < 10) { a = a + 1; b = b * a; c = c / 2.0; } out(a); out(b); }";
+
+    @Test
+    public void testParseToArena() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        Node expected = new Parser(new Scanner(code)).program();
+        AstArena arena = new Parser(new Scanner(code).tokenize()).programArena();
+        Assert.assertThat(arena.toNode().toString(), Matchers.equalTo(expected.toString()));
+        Assert.assertThat(arena.kind(arena.root()), Matchers.equalTo(Node.NodeType.PROG));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Node expected = new Parser(new Scanner(PROGRAM)).program();
+        AstArena arena = AstArena.fromNode(expected);
+        Assert.assertThat(arena.toNode().toString(), Matchers.equalTo(expected.toString()));
+        Assert.assertThat(AstArena.fromNode(arena.toNode()).size(), Matchers.equalTo(arena.size()));
+    }
+
+    @Test
+    public void testValuePool() {
+        AstArena arena = new Parser(new Scanner(PROGRAM)).programArena();
+
+        // a, b, c, int, float, 1, 2, 10, 2.5 and 2.0, each stored once.
+        Assert.assertThat(arena.poolSize(), Matchers.equalTo(10));
+        int first = -1;
+        int count = 0;
+        for (int node = 0; node < arena.size(); node++) {
+            if (arena.kind(node) == Node.NodeType.ID && "a".equals(arena.value(node))) {
+                if (first < 0) first = node;
+                Assert.assertThat(arena.valueIndex(node), Matchers.equalTo(arena.valueIndex(first)));
+                count++;
+            }
+        }
+        Assert.assertThat(count, Matchers.equalTo(8));
+    }
+
+    @Test
+    public void testVisitorAndCursor() {
+        AstArena arena = new Parser(new Scanner(PROGRAM)).programArena();
+
+        // Every node is entered and exited once, in matching order.
+        int[] entered = new int[1];
+        StringBuilder order = new StringBuilder();
+        arena.walk(new AstArena.Visitor() {
+            @Override
+            public boolean enter(AstArena arena, int node) {
+                entered[0]++;
+                order.append('(');
+                return true;
+            }
+
+            @Override
+            public void exit(AstArena arena, int node) {
+                order.append(')');
+            }
+        });
+        Assert.assertThat(entered[0], Matchers.equalTo(arena.size()));
+        Assert.assertThat(balanced(order), Matchers.equalTo(true));
+
+        // Skipping the children of the WHILE leaves out its whole subtree.
+        int[] skipped = new int[1];
+        arena.walk((a, node) -> {
+            skipped[0]++;
+            return a.kind(node) != Node.NodeType.WHILE;
+        });
+        int whileNode = -1;
+        for (int node = 0; node < arena.size(); node++) {
+            if (arena.kind(node) == Node.NodeType.WHILE) whileNode = node;
+        }
+        int[] subtree = new int[1];
+        arena.walk(whileNode, (a, node) -> ++subtree[0] > 0);
+        Assert.assertThat(skipped[0], Matchers.equalTo(arena.size() - subtree[0] + 1));
+
+        // The cursor goes down the first children to the first declaration and back up again.
+        AstArena.Cursor cursor = arena.new Cursor();
+        Assert.assertThat(cursor.kind(), Matchers.equalTo(Node.NodeType.PROG));
+        while (cursor.firstChild()) {
+            if (cursor.kind() == Node.NodeType.DECLARATION) break;
+        }
+        Assert.assertThat(cursor.kind(), Matchers.equalTo(Node.NodeType.DECLARATION));
+        Assert.assertThat(cursor.value(), Matchers.equalTo("int"));
+        Assert.assertThat(cursor.nextSibling(), Matchers.equalTo(true));
+        Assert.assertThat(cursor.kind(), Matchers.equalTo(Node.NodeType.DECLARATION));
+        while (cursor.parent()) ;
+        Assert.assertThat(cursor.kind(), Matchers.equalTo(Node.NodeType.PROG));
+    }
+
+    private static boolean balanced(CharSequence s) {
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            depth += s.charAt(i) == '(' ? 1 : -1;
+            if (depth < 0) return false;
+        }
+        return depth == 0;
+    }
+}
@@ -0,0 +1,146 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class AstFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Node analysed(String code) {
+        Node program = new Parser(new Scanner(code)).program();
+        new SemAnalyser().analyse(program);
+        return program;
+    }
+
+    // The tree with the type of every node.
+    private static String typed(Node root) {
+        StringBuilder result = new StringBuilder();
+        List<Node> todo = new ArrayList<>();
+        todo.add(root);
+        while (!todo.isEmpty()) {
+            Node node = todo.remove(todo.size() - 1);
+            result.append(node.getNodeType()).append('=').append(node.getValue()).append(':')
+                    .append(node.getTypeType()).append('/').append(node.getChildCount()).append(' ');
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                todo.add(node.getChildren()[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void assertRoundTrip(Node program) {
+        byte[] bytes = AstFormat.toBytes(program);
+        Assert.assertThat(typed(AstFormat.read(ByteBuffer.wrap(bytes))), Matchers.equalTo(typed(program)));
+        AstArena arena = AstFormat.readArena(ByteBuffer.wrap(bytes));
+        Assert.assertThat(typed(arena.toNode()), Matchers.equalTo(typed(program)));
+        Assert.assertThat(AstFormat.toBytes(arena), Matchers.equalTo(bytes));
+    }
+
+    // A random program of ints and floats that passes the analysis.
+    private static String generate(long seed, int statements) {
+        Random random = new Random(seed);
+        StringBuilder code = new StringBuilder("{ int i0, i1, i2, i3; float f0 = 0.5, f1, f2;");
+        for (int s = 0; s < statements; s++) {
+            int kind = random.nextInt(5);
+            String i = "i" + random.nextInt(4);
+            if (kind == 0) {
+                code.append(" f").append(random.nextInt(3)).append(" = f").append(random.nextInt(3)).append(" * ")
+                        .append(random.nextInt(100)).append(".25 - f").append(random.nextInt(3)).append(';');
+            } else if (kind == 1) {
+                code.append(" if (").append(i).append(" > ").append(random.nextInt(50)).append(") out(").append(i)
+                        .append("); else { ").append(i).append(" = ").append(i).append(" + 1; }");
+            } else if (kind == 2) {
+                code.append(" while (").append(i).append(" < ").append(random.nextInt(20)).append(") ").append(i)
+                        .append(" = ").append(i).append(" * 0 + 20;");
+            } else {
+                code.append(' ').append(i).append(" = ");
+                for (int term = random.nextInt(8); term >= 0; term--) {
+                    code.append(random.nextBoolean() ? "i" + random.nextInt(4) : random.nextInt(1000))
+                            .append(term == 0 ? ";" : random.nextBoolean() ? " * " : " - ");
+                }
+            }
+        }
+        return code.append(" out(i0 + i1 + i2 + i3); }").toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        assertRoundTrip(analysed(Files.readString(Path.of("prog1.pc"))));
+        assertRoundTrip(analysed(Files.readString(Path.of("prog3.pc"))));
+
+        // Types are saved as they are, also when there are none, and so are values outside the ASCII range.
+        assertRoundTrip(new Parser(new Scanner("{ int a = 1; float b; b = a * 2.5; out(b); }")).program());
+        Node odd = new Node(Node.NodeType.SEQ, null, new Node(Node.NodeType.ID, "\u00e9t\u00e9"),
+                new Node(Node.NodeType.EMPTY));
+        odd.setTypeType(Node.TypeType.EMPTY);
+        assertRoundTrip(odd);
+
+        for (long seed = 1; seed <= 5; seed++) {
+            String code = generate(seed, 2000);
+            Node program = analysed(code);
+            assertRoundTrip(program);
+            ListOutputSink expected = new ListOutputSink();
+            new Interpreter(program).run(expected);
+            ListOutputSink actual = new ListOutputSink();
+            new Interpreter(AstFormat.read(ByteBuffer.wrap(AstFormat.toBytes(program)))).run(actual);
+            Assert.assertThat(actual.toString(), Matchers.equalTo(expected.toString()));
+        }
+
+        // A deep expression needs more than the initial stack of parents, and many values need two byte varints.
+        StringBuilder deep = new StringBuilder("{ int a; a = 0");
+        for (int i = 0; i < 5000; i++) {
+            deep.append(" + ").append(i);
+        }
+        assertRoundTrip(analysed(deep.append("; out(a); }").toString()));
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        Node program = analysed(generate(42, 5000));
+        Path file = folder.getRoot().toPath().resolve("big.ast");
+        AstFormat.save(program, file);
+        Assert.assertThat(typed(AstFormat.load(file)), Matchers.equalTo(typed(program)));
+        Assert.assertThat(typed(AstFormat.loadArena(file).toNode()), Matchers.equalTo(typed(program)));
+    }
+
+    @Test
+    public void testErrors() {
+        byte[] bytes = AstFormat.toBytes(analysed("{ int a = 1; out(a); }"));
+        assertError(new byte[]{'P', 'C', 'A', 'X', 1}, "not a saved tree");
+        byte[] version = bytes.clone();
+        version[4] = 2;
+        assertError(version, "version 2 instead of 1");
+        for (int length : new int[]{0, 5, bytes.length / 2, bytes.length - 1}) {
+            assertError(Arrays.copyOf(bytes, length), "Format error");
+        }
+    }
+
+    private static void assertError(byte[] bytes, String message) {
+        try {
+            AstFormat.read(ByteBuffer.wrap(bytes));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString(message));
+        }
+        try {
+            AstFormat.readArena(ByteBuffer.wrap(bytes));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString(message));
+        }
+    }
+}
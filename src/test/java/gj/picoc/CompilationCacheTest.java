@@ -0,0 +1,122 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class CompilationCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String PROGRAM = "{ int i; float f = 0.5; while (i < 3) { f = f * 2; i = i + 1; } out(f); }";
+
+    private String run(Node program) {
+        ListOutputSink sink = new ListOutputSink();
+        new Interpreter(program).run(sink);
+        return sink.toString();
+    }
+
+    @Test
+    public void testHits() {
+        CompilationCache cache = new CompilationCache(1000);
+        Node first = cache.program(PROGRAM);
+        Node second = cache.program(PROGRAM);
+        Assert.assertThat(cache.getMisses(), Matchers.equalTo(1L));
+        Assert.assertThat(cache.getHits(), Matchers.equalTo(1L));
+
+        // A tree of its own, with the types of the analysis, that can be changed without changing the cache.
+        Assert.assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+        Assert.assertThat(second.toString(), Matchers.equalTo(first.toString()));
+        Assert.assertThat(second.getChildren()[0].getChildren()[1].getTypeType(),
+                Matchers.equalTo(Node.TypeType.FLOAT));
+        new LoopOptimiser().optimise(second);
+        Assert.assertThat(run(second), Matchers.equalTo(run(cache.program(PROGRAM))));
+        Assert.assertThat(cache.program(PROGRAM).toString(), Matchers.equalTo(first.toString()));
+
+        // Errors are thrown as by the parser and the analyser, and not cached.
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.program("{ a = 1; }");
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertThat(e.getMessage(), Matchers.containsString("Semantic error"));
+            }
+        }
+        Assert.assertThat(cache.getMisses(), Matchers.equalTo(1L));
+        Assert.assertThat(cache.getPrograms(), Matchers.equalTo(1));
+        Assert.assertThat(CompilationCache.key(PROGRAM), Matchers.not(Matchers.equalTo(CompilationCache.key(
+                PROGRAM + " "))));
+    }
+
+    @Test
+    public void testEviction() {
+        String a = "{ out(1); }";
+        String b = "{ out(2); }";
+        String c = "{ out(3); }";
+        int size = AstArena.fromNode(new Parser(new Scanner(a)).program()).size();
+        CompilationCache cache = new CompilationCache(2 * size);
+        cache.program(a);
+        cache.program(b);
+        cache.program(a);
+        // "b" is the least recently used.
+        cache.program(c);
+        Assert.assertThat(cache.getEvictions(), Matchers.equalTo(1L));
+        Assert.assertThat(cache.getNodes(), Matchers.equalTo(2 * size));
+        cache.program(a);
+        Assert.assertThat(cache.getHits(), Matchers.equalTo(2L));
+        cache.program(b);
+        Assert.assertThat(cache.getMisses(), Matchers.equalTo(4L));
+        Assert.assertThat(cache.getEvictions(), Matchers.equalTo(2L));
+
+        // A program bigger than the whole cache is not kept.
+        cache.program(PROGRAM);
+        Assert.assertThat(cache.getPrograms(), Matchers.equalTo(2));
+        Assert.assertThat(cache.toString(), Matchers.startsWith("2 hits (0 from disk), 5 misses (28.6% hits)"));
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        String fibonacci = Files.readString(Path.of("prog1.pc"));
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        CompilationCache cache = new CompilationCache(1000, directory);
+        String expected = run(cache.program(fibonacci));
+        Assert.assertThat(Files.exists(directory.resolve(CompilationCache.key(fibonacci) + ".ast")),
+                Matchers.equalTo(true));
+
+        // Another cache, as in another run, finds the program in the directory.
+        CompilationCache next = new CompilationCache(1000, directory);
+        Node program = next.program(fibonacci);
+        Assert.assertThat(next.getDiskHits(), Matchers.equalTo(1L));
+        Assert.assertThat(next.getMisses(), Matchers.equalTo(0L));
+        Assert.assertThat(run(program), Matchers.equalTo(expected));
+        next.program(fibonacci);
+        Assert.assertThat(next.getDiskHits(), Matchers.equalTo(1L));
+
+        // A damaged file is a miss.
+        Files.write(directory.resolve(CompilationCache.key(PROGRAM) + ".ast"), new byte[]{1, 2, 3});
+        next.program(PROGRAM);
+        Assert.assertThat(next.getMisses(), Matchers.equalTo(1L));
+    }
+
+    @Test
+    public void testCompiler() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("p.pc");
+        Files.writeString(file, PROGRAM);
+        Compiler compiler = new Compiler(Compiler.Backend.BYTECODE, true, 1);
+        CompilationCache cache = new CompilationCache(1000);
+        compiler.setCache(cache);
+        Compiler.Summary summary = compiler.compile(List.of(file, file, file));
+        Assert.assertThat(summary.getFailed(), Matchers.equalTo(0));
+        Assert.assertThat(summary.getResults().get(2).getSize(), Matchers.equalTo(summary.getResults().get(0)
+                .getSize()));
+        Assert.assertThat(cache.getHits(), Matchers.equalTo(2L));
+    }
+}
@@ -0,0 +1,102 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class CompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String name, String code) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, code);
+    }
+
+    @Test
+    public void testDiagnostics() throws IOException {
+        Path good = write("good.pc", "{ int a = 1; while (a < 10) a = a * 2; out(a); }");
+        Path undeclared = write("undeclared.pc", "{ a = 1; }");
+        Path lexical = write("lexical.pc", "{ int a; a = 1 # 2; }");
+        Path missing = folder.getRoot().toPath().resolve("missing.pc");
+
+        Compiler.Summary summary = new Compiler(Compiler.Backend.BYTECODE, true, 2)
+                .compile(List.of(good, undeclared, lexical, missing));
+        List<Compiler.Result> results = summary.getResults();
+        Assert.assertThat(results.get(0).isOk(), Matchers.equalTo(true));
+        Assert.assertThat(results.get(0).getSize(), Matchers.greaterThan(0));
+        Assert.assertThat(results.get(1).getError(), Matchers.containsString("Semantic error"));
+        Assert.assertThat(results.get(2).getError(), Matchers.containsString("Lexical error"));
+        Assert.assertThat(results.get(3).toString(), Matchers.startsWith(missing + ": "));
+        Assert.assertThat(summary.getFailed(), Matchers.equalTo(3));
+        Assert.assertThat(summary.toString(), Matchers.startsWith("4 files, 3 failed"));
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        for (int i = 0; i < 40; i++) {
+            write("batch/p" + (100 + i) + ".pc", "{ int i, s; while (i < " + i + ") { s = s + i * 3; i = i + 1; } "
+                    + "out(s); }");
+        }
+        write("batch/notes.txt", "not a program");
+        write("batch/sub/deep.pc", "{ out(1); }");
+
+        List<Path> all = Compiler.expand(List.of(folder.getRoot() + "/batch"));
+        Assert.assertThat(all.size(), Matchers.equalTo(41));
+        List<Path> glob = Compiler.expand(List.of(folder.getRoot() + "/batch/p1[0-1]*.pc"));
+        Assert.assertThat(glob.size(), Matchers.equalTo(20));
+        Assert.assertThat(glob.get(0).getFileName().toString(), Matchers.equalTo("p100.pc"));
+
+        // The results are in order and the same whatever the number of threads.
+        Compiler parallel = new Compiler(Compiler.Backend.JVM, false, 4);
+        Path classes = folder.newFolder("classes").toPath();
+        parallel.setOutput(classes);
+        Compiler.Summary summary = parallel.compile(all);
+        Compiler.Summary serial = new Compiler(Compiler.Backend.JVM, false, 1).compile(all);
+        Assert.assertThat(summary.getFailed(), Matchers.equalTo(0));
+        Assert.assertThat(summary.getResults().stream().map(Compiler.Result::getSize).collect(Collectors.toList()),
+                Matchers.equalTo(serial.getResults().stream().map(Compiler.Result::getSize)
+                        .collect(Collectors.toList())));
+        Assert.assertThat(Files.exists(classes.resolve("p139.class")), Matchers.equalTo(true));
+    }
+
+    @Test
+    public void testClassFiles() throws Exception {
+        Path first = write("demo/fib.pc", "{ out(1); }");
+        Path second = write("demo/more/fib.pc", "{ out(2); }");
+        Path dashed = write("demo/more/two-fold.pc", "{ out(3); }");
+        Path clash = write("demo/more/two_fold.pc", "{ out(4); }");
+        Assert.assertThat(Compiler.className(Path.of("a.b/2nd-try.pc")), Matchers.equalTo("a_b/_2nd_try"));
+
+        // Classes are named after their files below the directory they are all in, and written in the same layout.
+        Compiler compiler = new Compiler(Compiler.Backend.JVM, false, 2);
+        Path classes = folder.newFolder("classes").toPath();
+        compiler.setOutput(classes);
+        Compiler.Summary summary = compiler.compile(List.of(first, second, dashed, clash));
+        Assert.assertThat(summary.getResults().get(3).getError(),
+                Matchers.equalTo("Class more.two_fold already written for " + dashed));
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+                getClass().getClassLoader())) {
+            List<String> outputs = new ArrayList<>();
+            for (String name : List.of("fib", "more.fib", "more.two_fold")) {
+                ListOutputSink out = new ListOutputSink();
+                ((CompiledProgram) loader.loadClass(name).getConstructor().newInstance()).run(out);
+                outputs.add(out.toString());
+            }
+            Assert.assertThat(outputs, Matchers.equalTo(List.of("[1]", "[2]", "[3]")));
+        }
+    }
+}
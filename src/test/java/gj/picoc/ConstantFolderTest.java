@@ -0,0 +1,86 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ConstantFolderTest {
+
+    private String folded(String code) {
+        return PassAssert.assertSameOutput(code, new ConstantFolder()::fold).toString();
+    }
+
+    @Test
+    public void testArithmetic() {
+        Assert.assertThat(folded("{ int a; a = 10 + 1 * 4; }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } ASSIGNMENT{ID=a VAL_INT=14 } } }"));
+        Assert.assertThat(folded("{ float f = 1 / 2 + 0.5; out(f); out(-(3 * 1.5)); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=float{ID=f VAL_FLOAT=0.5 } OUTPUT{ID=f } "
+                        + "OUTPUT{VAL_FLOAT=-4.5 } } }"));
+        Assert.assertThat(folded("{ out(1 < 2); out(!(2.5 == 2.5) || 0); out(7 / 2 >= 3.5); }"),
+                Matchers.equalTo("PROG{SEQ{OUTPUT{VAL_INT=1 } OUTPUT{VAL_INT=0 } OUTPUT{VAL_INT=0 } } }"));
+    }
+
+    @Test
+    public void testIdentities() {
+        Assert.assertThat(folded("{ int a = 3; out(a * 1 + 0); out(1 * (0 + a) / 1); out((a - 0) * 0); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a VAL_INT=3 } OUTPUT{ID=a } OUTPUT{ID=a } "
+                        + "OUTPUT{VAL_INT=0 } } }"));
+
+        // Not applied when the operand assigns, or for floats.
+        Assert.assertThat(folded("{ int a; float f; out((a = 2) * 0); out(a); out(f + 0); }"),
+                Matchers.containsString("MUL{ASSIGNMENT{ID=a VAL_INT=2 } VAL_INT=0 }"));
+        Assert.assertThat(folded("{ float f; out(f + 0); }"), Matchers.containsString("PLUS{ID=f VAL_INT=0 }"));
+        Assert.assertThat(folded("{ int a; out(0 && (a = 1)); out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } OUTPUT{VAL_INT=0 } OUTPUT{ID=a } } }"));
+
+        // Division by zero stays for the runtime.
+        Node program = new ConstantFolder().fold(new Parser(new Scanner("{ out(1 / 0); }")).program());
+        Assert.assertThat(program.toString(), Matchers.containsString("DIV"));
+        // Also when multiplied by zero, but a division by a non-zero literal goes.
+        program = new ConstantFolder().fold(new Parser(new Scanner("{ int a; out(a / 0 * 0); out(0 * (a / a)); }"))
+                .program());
+        Assert.assertThat(program.toString(), Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } "
+                + "OUTPUT{MUL{DIV{ID=a VAL_INT=0 } VAL_INT=0 } } OUTPUT{MUL{VAL_INT=0 DIV{ID=a ID=a } } } } }"));
+        Assert.assertThat(folded("{ int a = 3; out(a / 2 * 0); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a VAL_INT=3 } OUTPUT{VAL_INT=0 } } }"));
+    }
+
+    @Test
+    public void testBranches() {
+        Assert.assertThat(folded("{ int a; if (1 < 2) a = 1; else a = 2; out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } ASSIGNMENT{ID=a VAL_INT=1 } OUTPUT{ID=a } } }"));
+        Assert.assertThat(folded("{ int a; while (2 < 1) a = a + 1; if (0) out(1); out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } OUTPUT{ID=a } } }"));
+
+        // Declarations in removed code are still declared.
+        Assert.assertThat(folded("{ if (0) { int a = 5; float b; } a = 2; out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=float{ID=b } "
+                        + "ASSIGNMENT{ID=a VAL_INT=2 } OUTPUT{ID=a } } }"));
+        // At the start of the program, before the branch that is kept, which may use them, and outside loops, where
+        // they would reset the variable every time.
+        Assert.assertThat(folded("{ if (0) { int x; } else { x = 1; } out(x); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=x } ASSIGNMENT{ID=x VAL_INT=1 } OUTPUT{ID=x } } }"));
+        Assert.assertThat(folded("{ int i; while (i < 3) { if (0) { int y; } y = y + 1; i = i + 1; } out(y); }"),
+                Matchers.startsWith("PROG{SEQ{DECLARATION=int{ID=y } DECLARATION=int{ID=i } WHILE"));
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        ConstantFolder folder = new ConstantFolder();
+        PassAssert.assertSameOutput("{ int a; a = 10 + 1 * 4; if (1 < 2) out(a * 1); }", folder::fold);
+        Assert.assertThat(folder.getFolded(), Matchers.equalTo(3));
+        Assert.assertThat(folder.getSimplified(), Matchers.equalTo(1));
+        Assert.assertThat(folder.getPruned(), Matchers.equalTo(1));
+        Assert.assertThat(folder.getNodesBefore(), Matchers.equalTo(19));
+        Assert.assertThat(folder.getRemoved(), Matchers.equalTo(10));
+
+        // Nothing to fold in Fibonacci.
+        PassAssert.assertSameOutput(Files.readString(Path.of("prog1.pc")), folder::fold);
+        Assert.assertThat(folder.getRemoved(), Matchers.equalTo(0));
+    }
+}
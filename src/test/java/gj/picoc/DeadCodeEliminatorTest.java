@@ -0,0 +1,99 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DeadCodeEliminatorTest {
+
+    private String optimised(String code) {
+        return PassAssert.assertSameOutput(code, new DeadCodeEliminator()::optimise).toString();
+    }
+
+    @Test
+    public void testDeadStores() {
+        Assert.assertThat(optimised("{ int a, t; t = 5; a = 2; t = a * 3; out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=int{ID=t } "
+                        + "ASSIGNMENT{ID=a VAL_INT=2 } OUTPUT{ID=a } } }"));
+
+        // Initialisers that are never read go, the declaration stays.
+        Assert.assertThat(optimised("{ int a = 1; float f = a + 2.5; a = 3; out(a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=float{ID=f } "
+                        + "ASSIGNMENT{ID=a VAL_INT=3 } OUTPUT{ID=a } } }"));
+
+        // Dead variables in a chain are dropped, unless their conversion is part of the value.
+        Assert.assertThat(optimised("{ int a, b, c; a = b = (c = 4); out(a); out(c); }"),
+                Matchers.containsString("ASSIGNMENT{ID=a ASSIGNMENT{ID=c VAL_INT=4 } }"));
+        Assert.assertThat(optimised("{ int b; float f; f = b = 2.5; out(f); }"),
+                Matchers.containsString("ASSIGNMENT{ID=f ASSIGNMENT{ID=b VAL_FLOAT=2.5 } }"));
+
+        // Stores whose value has a side effect, or may fail, stay.
+        Assert.assertThat(optimised("{ int a, b = 2, t; t = (a = 1) + 1; t = 5 / b; out(a); }"),
+                Matchers.allOf(Matchers.containsString("ASSIGNMENT{ID=t PLUS"),
+                        Matchers.containsString("ASSIGNMENT{ID=t DIV")));
+    }
+
+    @Test
+    public void testLoopsAndBranches() {
+        // Stores read in a later iteration are live, the one after the loop is not.
+        String code = "{ int i, s, t; while (i < 5) { s = s + i; t = i; i = i + 1; } out(s); t = 0; }";
+        Assert.assertThat(optimised(code), Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=i } DECLARATION=int{ID=s } "
+                + "DECLARATION=int{ID=t } WHILE{SMALLER{ID=i VAL_INT=5 } SEQ{ASSIGNMENT{ID=s PLUS{ID=s ID=i } } "
+                + "ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=1 } } } } OUTPUT{ID=s } } }"));
+
+        // A store is live if read on either branch; an "if" left with nothing in it goes.
+        Assert.assertThat(optimised("{ int a, b, c; a = 1; b = 2; if (c) out(a); else c = b; if (a) c = 1; }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=int{ID=b } DECLARATION=int{ID=c } "
+                        + "ASSIGNMENT{ID=a VAL_INT=1 } IF{ID=c OUTPUT{ID=a } } } }"));
+
+        // Loops stay even if they do nothing visible, they might not end.
+        Assert.assertThat(optimised("{ int i, t; while (i < 3) { t = i; i = i + 1; } }"),
+                Matchers.containsString("WHILE{SMALLER{ID=i VAL_INT=3 } SEQ{ASSIGNMENT{ID=i"));
+
+        // Unreachable code is removed by folding first.
+        Assert.assertThat(optimised("{ int a; while (0) out(a); if (1 > 2) { a = 1; out(a); } out(2); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } OUTPUT{VAL_INT=2 } } }"));
+    }
+
+    @Test
+    public void testCopies() {
+        Assert.assertThat(optimised("{ int a, b = 7, c; a = b; c = a; out(c + a); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=int{ID=b VAL_INT=7 } "
+                        + "DECLARATION=int{ID=c } OUTPUT{PLUS{ID=b ID=b } } } }"));
+
+        // Not after either side changes, not across a loop that changes either and not between types.
+        Assert.assertThat(optimised("{ int a, b = 7; a = b; b = 1; out(a); }"),
+                Matchers.containsString("OUTPUT{ID=a }"));
+        Assert.assertThat(optimised("{ int a, b = 7, i; a = b; while (i < 2) { out(a); b = i; i = i + 1; } }"),
+                Matchers.containsString("OUTPUT{ID=a }"));
+        Assert.assertThat(optimised("{ int a; float f = 1.5; a = f; out(a); }"),
+                Matchers.containsString("OUTPUT{ID=a }"));
+
+        // Only copies made on both paths survive an "if".
+        Assert.assertThat(optimised("{ int a, b = 2, c = 3; a = b; if (c) a = c; out(a); }"),
+                Matchers.containsString("OUTPUT{ID=a }"));
+        Assert.assertThat(optimised("{ int a, b = 2, c = 3; if (c) a = b; else a = b; out(a); }"),
+                Matchers.containsString("OUTPUT{ID=b }"));
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        PassAssert.assertSameOutput("{ int a, b = 7, c, t; t = 1; a = b; c = a; if (0) out(t); out(c); }",
+                eliminator::optimise);
+        Assert.assertThat(eliminator.getCopiesPropagated(), Matchers.equalTo(2));
+        Assert.assertThat(eliminator.getStoresRemoved(), Matchers.equalTo(3));
+        Assert.assertThat(eliminator.getStatementsBefore(), Matchers.equalTo(10));
+        Assert.assertThat(eliminator.getStatementsRemoved(), Matchers.equalTo(5));
+
+        // The Fibonacci loop has no dead code, just as many statements come out as go in.
+        Node program = PassAssert.assertSameOutput(Files.readString(Path.of("prog1.pc")), eliminator::optimise);
+        Assert.assertThat(eliminator.getStatementsRemoved(), Matchers.equalTo(0));
+        Assert.assertThat(program.toString(), Matchers.containsString("OUTPUT{ID=a }"));
+        PassAssert.assertSameOutput(Files.readString(Path.of("prog2.pc")), eliminator::optimise);
+    }
+}
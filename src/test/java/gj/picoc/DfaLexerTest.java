@@ -0,0 +1,107 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DfaLexerTest {
+
+    // Every token, with lexeme and line, as produced by the Scanner.
+    private List<String> scanned(String code) {
+        Scanner scanner = new Scanner(code);
+        List<String> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = scanner.nextToken();
+            tokens.add(token.toString());
+        } while (token.getType() != Token.TokenType.EOF);
+        return tokens;
+    }
+
+    private List<String> lexed(String code) {
+        TokenBuffer buffer = DfaLexer.tokenize(code);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.token(i).toString());
+        }
+        return tokens;
+    }
+
+    private void test(String code) {
+        Assert.assertThat(code, lexed(code), Matchers.equalTo(scanned(code)));
+    }
+
+    @Test
+    public void testScannerTestPrograms() {
+        test("if (a < 10) { b = 12; c = b + 6; }");
+        test("while (a < -10) { a=a+1; } // this is a comment");
+        test("if (value >=(90)) final = 1; else final = 0;");
+        test("--12");
+        test("-3.141592");
+        test("counter");
+    }
+
+    @Test
+    public void testPrograms() throws IOException {
+        test(Files.readString(Path.of("prog1.pc")));
+        test(Files.readString(Path.of("prog2.pc")));
+    }
+
+    @Test
+    public void testOperatorsAndKeywords() {
+        test("a>=b<=c==d!=e||f&&!g>h<i=j-k*l/m+n; int float if else while out ints floats iff elses outs i in o");
+        test("// one\n// two\n\n  //three\nx // four");
+        test("1.2.3 -1. 007 a1b2 -x - 1 -1");
+        test("");
+        test("   \n\t\r\n ");
+    }
+
+    // Random streams of lexemes and separators.
+    @Test
+    public void testRandom() {
+        String[] parts = { "if", "else", "while", "out", "int", "float", "(", ")", "{", "}", ",", ";", ">", "<",
+                ">=", "<=", "==", "!=", "=", "+", "-", "*", "/", "||", "&&", "!", "1", "23", "4.5", ".", "x", "ab",
+                "i", "whilex", " ", " ", "\n", "\t", "// c\n" };
+        Random random = new Random(1210);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder code = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; i++) {
+                code.append(parts[random.nextInt(parts.length)]);
+            }
+            boolean scanFails = false;
+            try {
+                scanned(code.toString());
+            } catch (RuntimeException e) {
+                scanFails = true;
+            }
+            if (scanFails) {
+                try {
+                    lexed(code.toString());
+                    Assert.fail("Expected a lexical error for " + code);
+                } catch (RuntimeException expected) {
+                    // Both reject it.
+                }
+            } else {
+                test(code.toString());
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSingleBar() {
+        DfaLexer.tokenize("a | b");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUpperCase() {
+        DfaLexer.tokenize("Abc");
+    }
+}
@@ -0,0 +1,146 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class IncrementalParserTest {
+
+    // The tree and tokens must be those of the edited source parsed from scratch.
+    private static void assertParsed(IncrementalParser parser) {
+        String source = parser.getSource();
+        TokenBuffer expected = new Scanner(source).tokenize();
+        TokenBuffer actual = parser.getTokens();
+        Assert.assertThat(actual.size(), Matchers.equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertThat(actual.token(i).toString(), Matchers.equalTo(expected.token(i).toString()));
+            Assert.assertThat(actual.start(i), Matchers.equalTo(expected.start(i)));
+            Assert.assertThat(actual.length(i), Matchers.equalTo(expected.length(i)));
+        }
+        Assert.assertThat(parser.getProgram().toString(),
+                Matchers.equalTo(new Parser(new Scanner(source)).program().toString()));
+    }
+
+    private static void edit(IncrementalParser parser, String find, String replace) {
+        parser.edit(parser.getSource().indexOf(find), find.length(), replace);
+        assertParsed(parser);
+    }
+
+    @Test
+    public void testEdits() {
+        IncrementalParser parser = new IncrementalParser("{ int a, b; a = 1; b = 2;\n out(a + b); }");
+        edit(parser, "a = 1;", "a = 10;");
+        edit(parser, "b = 2;", "b = 2; if (a > b) out(a);");
+        edit(parser, "out(a);", "out(a); else { out(b); }");
+        edit(parser, "{ out(b); }", "{ out(b); b = b - 1; }");
+        edit(parser, "a > b", "a >= b + 1");
+        edit(parser, " else { out(b); b = b - 1; }", "");
+        edit(parser, "int a, b;", "int a, b; float c = 0.5;");
+        edit(parser, "b = 2;", "{ b = 2; { c = c * 2; } }");
+        edit(parser, "c = c * 2;", "c = c * 2; c = c + 1;");
+        edit(parser, "{ b = 2; { c = c * 2; c = c + 1; } }", "b = 2; { c = c * 2; c = c + 1; }");
+        edit(parser, "\n", "\n// a comment\n");
+        edit(parser, "comment", "comment; a = 1;");
+        edit(parser, "a + b", "a+b*c");
+        edit(parser, "{ int", "if (1) { int");
+        Assert.assertThat(parser.getSource(), Matchers.startsWith("if (1) { int a, b;"));
+
+        // Bodies of ifs and whiles that are a SEQ only for some statements.
+        parser = new IncrementalParser("{ int a; if (a) a = 1; else a = 2; while (a) { a = a - 1; } }");
+        edit(parser, "a = 1;", "out(1);");
+        edit(parser, "a = 2;", "a = 2, a = 3;");
+        edit(parser, "out(1);", "a = 1;");
+        edit(parser, "a = 1;", "if (a) a = 1;");
+        edit(parser, "{ a = a - 1; }", "a = a - 1;");
+        edit(parser, "a = a - 1;", "{ a = a - 1; }");
+    }
+
+    @Test
+    public void testErrors() {
+        IncrementalParser parser = new IncrementalParser("{ int a; a = 1; out(a); }");
+        try {
+            parser.edit(parser.getSource().indexOf("a = 1;"), 0, "a = ;");
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString("Unexpected symbol"));
+        }
+        Assert.assertThat(parser.getProgram(), Matchers.nullValue());
+        edit(parser, "a = ;", "a = 2;");
+
+        try {
+            parser.edit(0, 0, "#");
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString("Lexical error"));
+        }
+        edit(parser, "#", "");
+    }
+
+    @Test
+    public void testLocal() {
+        StringBuilder code = new StringBuilder("{ int a, b;\n");
+        for (int i = 0; i < 20_000; i++) {
+            code.append("while (a < ").append(i).append(") { a = a + 1; b = b * 2; }\n");
+        }
+        code.append("out(a); }");
+        IncrementalParser parser = new IncrementalParser(code.toString());
+        int size = parser.getTokens().size();
+        Assert.assertThat(parser.getParsed(), Matchers.equalTo(size));
+
+        // Only the statement and the tokens around the edit are lexed and parsed again, along with the statement before
+        // it in case the edit added an else to it.
+        parser.edit(parser.getSource().indexOf("b = b * 2; }\nwhile (a < 10000)"), 1, "c");
+        Assert.assertThat(parser.getLexed(), Matchers.lessThan(5));
+        Assert.assertThat(parser.getParsed(), Matchers.lessThan(20));
+        parser.edit(parser.getSource().indexOf("(a < 12345)") + 1, 0, "(a < 2) && ");
+        Assert.assertThat(parser.getParsed(), Matchers.lessThan(40));
+        parser.edit(parser.getSource().indexOf("b = b * 2; }\nwhile (a < 15000)"), 0, "{ c = 1; }");
+        Assert.assertThat(parser.getParsed(), Matchers.lessThan(20));
+        assertParsed(parser);
+        Assert.assertThat(parser.getProgram().getChildren()[0].getChildCount(), Matchers.equalTo(20_003));
+    }
+
+    @Test
+    public void testRandomEdits() throws IOException {
+        String[] pieces = {" ", "\n", ";", "{", "}", "(", ")", "a", "b1", "=", "==", "-", "1", "2.5", "+", "*", ",",
+                "int ", "float ", "if ", "else ", "while ", "out", "// x\n", "a = 1;", "{ b1 = a; }", "out(a);"};
+        Random random = new Random(7);
+        IncrementalParser parser = new IncrementalParser(Files.readString(Path.of("prog1.pc")));
+        int checked = 0;
+        for (int i = 0; i < 3000; i++) {
+            String source = parser.getSource();
+            int offset = random.nextInt(source.length() + 1);
+            int length = random.nextInt(Math.min(4, source.length() - offset) + 1);
+            String text = random.nextInt(3) == 0 ? "" : pieces[random.nextInt(pieces.length)];
+            String expected = source.substring(0, offset) + text + source.substring(offset + length);
+
+            String error = null;
+            try {
+                new Parser(new Scanner(expected).tokenize()).program();
+            } catch (RuntimeException e) {
+                error = e.getMessage();
+            }
+            try {
+                parser.edit(offset, length, text);
+                Assert.assertThat(error, Matchers.nullValue());
+                assertParsed(parser);
+                checked++;
+            } catch (RuntimeException e) {
+                Assert.assertThat(e.getMessage(), Matchers.equalTo(error));
+                Assert.assertThat(parser.getProgram(), Matchers.nullValue());
+            }
+            Assert.assertThat(parser.getSource(), Matchers.equalTo(expected));
+
+            // Undo the edits that break the program, so that most edits are to a valid program.
+            if (parser.getProgram() == null) {
+                parser.edit(offset, text.length(), source.substring(offset, offset + length));
+            }
+        }
+        Assert.assertThat(checked, Matchers.greaterThan(500));
+    }
+}
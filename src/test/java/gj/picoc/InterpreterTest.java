@@ -0,0 +1,61 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class InterpreterTest {
+
+    private void test(String code, String expected) {
+        Node program = new Parser(new Scanner(code)).program();
+        ListOutputSink sink = new ListOutputSink();
+        new Interpreter(program).run(sink);
+        Assert.assertThat(sink.toString(), Matchers.equalTo(expected));
+    }
+
+    @Test
+    public void testFibonacci() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        test(code, "[1, 1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987]");
+    }
+
+    @Test
+    public void testProg2() throws IOException {
+        test(Files.readString(Path.of("prog2.pc")), "[1]");
+    }
+
+    @Test
+    public void testArithmetic() {
+        test("{ int a = 7, b = 2; out(a / b); out(a - b); out(-a * b); out(a + b * 3); }", "[3, 5, -14, 13]");
+    }
+
+    @Test
+    public void testFloats() {
+        test("{ float f = 1.5; int i = 3; out(f * i); i = f * 3; out(i); out(i / 2.0); }", "[4.5, 4, 2.0]");
+    }
+
+    @Test
+    public void testLogic() {
+        test("{ int a = 1, b = 0; if (a && !b) out(1); else out(2); if (b || a > 2) out(3); out(a >= 1); }",
+                "[1, 1]");
+    }
+
+    @Test
+    public void testMultipleAssignments() {
+        test("{ int a, b; a = 1, b = 2; out(a); out(b); a = b = 5; out(a + b); }", "[1, 2, 10]");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUndeclared() {
+        test("{ a = 1; }", "[]");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRedeclared() {
+        test("{ int a; float a; }", "[]");
+    }
+}
@@ -0,0 +1,54 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class JvmCompilerTest {
+
+    private void test(String code, String expected) {
+        CompiledProgram program = new JvmCompiler().compile(new Parser(new Scanner(code)).program());
+        ListOutputSink sink = new ListOutputSink();
+        program.run(sink);
+        Assert.assertThat(sink.toString(), Matchers.equalTo(expected));
+
+        // Running it again starts from scratch.
+        sink = new ListOutputSink();
+        program.run(sink);
+        Assert.assertThat(sink.toString(), Matchers.equalTo(expected));
+    }
+
+    @Test
+    public void testFibonacci() throws IOException {
+        test(Files.readString(Path.of("prog1.pc")), "[1, 1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987]");
+    }
+
+    @Test
+    public void testArithmetic() {
+        test("{ int a = 7, b = 2; out(a / b); out(a - b); out(-a * b); out(a + b * 3); out(5000000000 + a); }",
+                "[3, 5, -14, 13, 5000000007]");
+    }
+
+    @Test
+    public void testFloats() {
+        test("{ float f = 1.5, g; int i = 3; out(f * i); i = f * 3; out(i); out(i / 2.0); out(g); out(f > i); }",
+                "[4.5, 4, 2.0, 0.0, 0]");
+    }
+
+    @Test
+    public void testConditions() {
+        test("{ int a = 1, b = 0, c; if (a && !b) out(1); else out(2); if (b || a > 2) out(3); else out(4);"
+                + " c = a && (b || a == 1); out(c); out(!(a != 1)); if (c = 0) out(5); out(c); }",
+                "[1, 4, 1, 1, 0]");
+    }
+
+    @Test
+    public void testNestedLoops() {
+        test("{ int i = 0, j, s = 0; while (i < 4) { j = 0; while (j <= i) { s = s + j; j = j + 1; } i = i + 1; }"
+                + " out(s); }", "[10]");
+    }
+}
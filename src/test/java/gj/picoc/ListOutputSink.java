@@ -0,0 +1,29 @@
+package gj.picoc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects everything written by "out" as strings, for comparing the output of a program.
+public class ListOutputSink implements OutputSink {
+
+    private final List<String> values = new ArrayList<>();
+
+    @Override
+    public void writeInt(long value) {
+        values.add(String.valueOf(value));
+    }
+
+    @Override
+    public void writeFloat(double value) {
+        values.add(String.valueOf(value));
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(values);
+    }
+}
@@ -0,0 +1,100 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class LoopOptimiserTest {
+
+    private String optimised(String code) {
+        return PassAssert.assertSameOutput(code, new LoopOptimiser()::optimise).toString();
+    }
+
+    @Test
+    public void testHoisting() {
+        Assert.assertThat(optimised("{ int i, n = 10, s; float f = 1.5, g; "
+                        + "while (i < n * 2) { s = s + (n - 1) / 2; g = g + f * 3; i = i + 1; } out(s); out(g); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=i } DECLARATION=int{ID=n VAL_INT=10 } "
+                        + "DECLARATION=int{ID=s } DECLARATION=float{ID=f VAL_FLOAT=1.5 } DECLARATION=float{ID=g } "
+                        + "DECLARATION=int{ID=$t1 MUL{ID=n VAL_INT=2 } } "
+                        + "DECLARATION=int{ID=$t2 DIV{MINUS{ID=n VAL_INT=1 } VAL_INT=2 } } "
+                        + "DECLARATION=float{ID=$t3 MUL{ID=f VAL_INT=3 } } "
+                        + "WHILE{SMALLER{ID=i ID=$t1 } SEQ{ASSIGNMENT{ID=s PLUS{ID=s ID=$t2 } } "
+                        + "ASSIGNMENT{ID=g PLUS{ID=g ID=$t3 } } ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=1 } } } } "
+                        + "OUTPUT{ID=s } OUTPUT{ID=g } } }"));
+
+        // Nothing that is assigned in the loop, and no division that might fail.
+        Assert.assertThat(optimised("{ int i, d = 1, s; while (i < 3) { s = s + 6 / d + i * i; i = i + 1; d = 2; } }"),
+                Matchers.not(Matchers.containsString("$t")));
+        Assert.assertThat(optimised("{ int i, d = 3, s; while (i < 3) { s = s + 6 / d; i = i + 1; } out(s); }"),
+                Matchers.not(Matchers.containsString("$t")));
+
+        // A temporary of an inner loop moves out of the outer loop too.
+        Assert.assertThat(optimised("{ int i, j, n = 3, s; while (i < n) { j = 0; "
+                        + "while (j < n) { s = s + n * n; j = j + 1; } i = i + 1; } out(s); }"),
+                Matchers.containsString("DECLARATION=int{ID=$t1 MUL{ID=n ID=n } } WHILE{SMALLER{ID=i ID=n }"));
+    }
+
+    @Test
+    public void testStrengthReduction() {
+        Assert.assertThat(optimised("{ int i, k = 7, s; while (i < 10) { s = s + i * k; i = i + 2; } out(s); }"),
+                Matchers.containsString("DECLARATION=int{ID=$t1 MUL{ID=i ID=k } } "
+                        + "DECLARATION=int{ID=$t2 MUL{VAL_INT=2 ID=k } } "
+                        + "WHILE{SMALLER{ID=i VAL_INT=10 } SEQ{ASSIGNMENT{ID=s PLUS{ID=s ID=$t1 } } "
+                        + "ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=2 } } ASSIGNMENT{ID=$t1 PLUS{ID=$t1 ID=$t2 } } } }"));
+
+        // Counting down, in the condition and with the variable on either side.
+        optimised("{ int i = 20, n; while (3 * i > 4) { out(i * 3); i = i - 1; n = n + 1; } out(n); }");
+
+        // Not for floats, or a variable that is assigned twice.
+        Assert.assertThat(optimised("{ int i; float f = 0.5; while (i < 20) { out(i * f); i = i + 1; } }"),
+                Matchers.not(Matchers.containsString("$t")));
+        Assert.assertThat(optimised("{ int i; while (i < 20) { out(i * 5); i = i + 1; if (i == 7) i = 9; } }"),
+                Matchers.not(Matchers.containsString("$t")));
+    }
+
+    @Test
+    public void testUnrolling() {
+        Assert.assertThat(optimised("{ int i, s; i = 1; while (i <= 3) { s = s + i; i = i + 1; } out(s); out(i); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=i } DECLARATION=int{ID=s } ASSIGNMENT{ID=i VAL_INT=1 } "
+                        + "ASSIGNMENT{ID=s PLUS{ID=s ID=i } } ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=1 } } "
+                        + "ASSIGNMENT{ID=s PLUS{ID=s ID=i } } ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=1 } } "
+                        + "ASSIGNMENT{ID=s PLUS{ID=s ID=i } } ASSIGNMENT{ID=i PLUS{ID=i VAL_INT=1 } } "
+                        + "OUTPUT{ID=s } OUTPUT{ID=i } } }"));
+        Assert.assertThat(optimised("{ int i = 5; while (i != 0) { out(i); i = i - 5; } }"),
+                Matchers.not(Matchers.containsString("WHILE")));
+        // A body with more statements than a node has room for by default.
+        Assert.assertThat(optimised("{ int s; int i = 0; while (i < 4) { s = s + 1; s = s + 2; s = s + 3; "
+                + "i = i + 1; } out(s); }"), Matchers.not(Matchers.containsString("WHILE")));
+
+        // Too many iterations, an unknown start, or a declaration in the body.
+        Assert.assertThat(optimised("{ int i; while (i < 100) i = i + 1; out(i); }"),
+                Matchers.containsString("WHILE"));
+        Assert.assertThat(optimised("{ int i, s; i = s; while (i < 3) i = i + 1; out(i); }"),
+                Matchers.containsString("WHILE"));
+        Assert.assertThat(optimised("{ int i; while (i < 3) { int t = i; out(t); i = i + 1; } }"),
+                Matchers.containsString("WHILE"));
+    }
+
+    @Test
+    public void testSample() throws IOException {
+        LoopOptimiser optimiser = new LoopOptimiser();
+        Node program = PassAssert.assertSameOutput(Files.readString(Path.of("prog3.pc")), optimiser::optimise);
+        Assert.assertThat(optimiser.getUnrolled(), Matchers.equalTo(1));
+        Assert.assertThat(optimiser.getReduced(), Matchers.equalTo(1));
+        Assert.assertThat(optimiser.getHoisted(), Matchers.equalTo(4));
+
+        // i * j became an addition in the inner loop; what does not change is computed before the outer loop.
+        Assert.assertThat(program.toString(), Matchers.stringContainsInOrder(List.of("DECLARATION=int{ID=$t2 DIV",
+                "DECLARATION=float{ID=$t3", "WHILE{SMALLER{ID=i ID=n }", "DECLARATION=int{ID=$t1 MUL{ID=i ID=j } }",
+                "ASSIGNMENT{ID=$t1 PLUS{ID=$t1 ID=i } }")));
+
+        PassAssert.assertSameOutput(Files.readString(Path.of("prog1.pc")), optimiser::optimise);
+        Assert.assertThat(optimiser.toString(), Matchers.equalTo("unrolled=0 reduced=0 hoisted=0"));
+    }
+}
@@ -0,0 +1,105 @@
+package gj.picoc;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class MetricsTest {
+
+    private static final String CODE = "{ int a, b; float c; a = 1; while (a < 100) { b = b + a; a = a + 1; } "
+            + "c = b * 0.5; out(b); out(c); }";
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    private static void run() {
+        TokenBuffer tokens = new Scanner(CODE).tokenize();
+        Node program = new Parser(tokens).program();
+        new SemAnalyser().analyse(program);
+        new Interpreter(program).run(new ListOutputSink());
+        new VirtualMachine(new BytecodeCompiler().compile(program)).run(new ListOutputSink());
+        new JvmCompiler().compile(program).run(new ListOutputSink());
+    }
+
+    @Test
+    public void testSnapshot() {
+        long tokens = new Scanner(CODE).tokenize().size();
+        long nodes = new Parser(new Scanner(CODE)).programArena().size();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        run();
+        Metrics.Snapshot snapshot = Metrics.snapshot();
+
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.LEX), Matchers.equalTo(1L));
+        Assert.assertThat(snapshot.getCount(Metrics.Phase.LEX), Matchers.equalTo(tokens));
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.PARSE), Matchers.equalTo(1L));
+        Assert.assertThat(snapshot.getCount(Metrics.Phase.PARSE), Matchers.equalTo(nodes));
+        // Every backend analyses the program again before resolving it.
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.ANALYSE), Matchers.equalTo(4L));
+        Assert.assertThat(snapshot.getCount(Metrics.Phase.ANALYSE), Matchers.equalTo(4 * 3L));
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.COMPILE), Matchers.equalTo(2L));
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.EXECUTE), Matchers.equalTo(3L));
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            Assert.assertThat(snapshot.getNanos(phase), Matchers.greaterThan(0L));
+        }
+        Assert.assertThat(snapshot.getAllocated(Metrics.Phase.PARSE), Matchers.greaterThan(0L));
+        Assert.assertThat(snapshot.toString(), Matchers.containsString("EXECUTE"));
+
+        // Snapshots do not change, and add up.
+        run();
+        Assert.assertThat(snapshot.getRuns(Metrics.Phase.LEX), Matchers.equalTo(1L));
+        Assert.assertThat(Metrics.snapshot().getRuns(Metrics.Phase.LEX), Matchers.equalTo(2L));
+        Metrics.reset();
+        Assert.assertThat(Metrics.snapshot().toString(), Matchers.equalTo(""));
+    }
+
+    @Test
+    public void testDisabled() {
+        Metrics.reset();
+        run();
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            Assert.assertThat(Metrics.snapshot().getRuns(phase), Matchers.equalTo(0L));
+        }
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        Path file = Files.createTempFile("picoc", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("gj.picoc.Phase").withThreshold(Duration.ZERO);
+                recording.start();
+                run();
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("gj.picoc.Phase"))
+                    .collect(Collectors.toList());
+            Assert.assertThat(events.stream().map(event -> event.getString("phase")).collect(Collectors.toList()),
+                    Matchers.contains("LEX", "PARSE", "ANALYSE", "ANALYSE", "EXECUTE", "ANALYSE", "COMPILE",
+                            "EXECUTE", "ANALYSE", "COMPILE", "EXECUTE"));
+            Assert.assertThat(events.get(0).getLong("count"),
+                    Matchers.equalTo((long) new Scanner(CODE).tokenize().size()));
+
+            // A recording does not add to the totals.
+            Assert.assertThat(Metrics.snapshot().getRuns(Metrics.Phase.LEX), Matchers.equalTo(0L));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OutputSinkTest {
+
+    private static final String PROGRAM = "{ int i; float f; while (i < 1000) { out(i - 500); f = i / 4.0; out(f); "
+            + "i = i + 1; } out(-9223372036854775807 - 1); }";
+
+    private static void run(OutputSink out) {
+        new VirtualMachine(new BytecodeCompiler().compile(new Parser(new Scanner(PROGRAM)).program())).run(out);
+    }
+
+    private static String printed() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        run(new PrintStreamOutputSink(new PrintStream(bytes)));
+        return bytes.toString();
+    }
+
+    private static String listed() {
+        ListOutputSink out = new ListOutputSink();
+        run(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testChannel() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // A small buffer, so that it is drained many times.
+        try (ChannelOutputSink out = new ChannelOutputSink(Channels.newChannel(bytes), 100)) {
+            run(out);
+        }
+        Assert.assertThat(bytes.toString(), Matchers.equalTo(printed()));
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryOutputSink out = new BinaryOutputSink(Channels.newChannel(bytes), 100)) {
+            run(out);
+        }
+        byte[] written = bytes.toByteArray();
+        Assert.assertThat(written.length, Matchers.equalTo(2001 * 9));
+        // The first value is the int -500, little-endian.
+        Assert.assertThat(written[0], Matchers.equalTo(BinaryOutputSink.INT));
+        Assert.assertThat(written[1], Matchers.equalTo((byte) 0x0c));
+        Assert.assertThat(written[2], Matchers.equalTo((byte) 0xfe));
+        Assert.assertThat(written[9], Matchers.equalTo(BinaryOutputSink.FLOAT));
+
+        ListOutputSink out = new ListOutputSink();
+        Assert.assertThat(BinaryOutputSink.read(Channels.newChannel(new ByteArrayInputStream(written)), out),
+                Matchers.equalTo(2001L));
+        Assert.assertThat(out.toString(), Matchers.equalTo(listed()));
+
+        try {
+            BinaryOutputSink.read(Channels.newChannel(new ByteArrayInputStream(written, 0, 13)), out);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString("Incomplete"));
+        }
+    }
+
+    @Test
+    public void testBuffered() {
+        ListOutputSink list = new ListOutputSink();
+        AtomicInteger batches = new AtomicInteger();
+        BufferedOutputSink out = new BufferedOutputSink(64, batch -> {
+            batches.incrementAndGet();
+            batch.writeTo(list);
+        });
+        run(out);
+        Assert.assertThat(list.toString(), Matchers.equalTo(listed()));
+        Assert.assertThat(batches.get(), Matchers.equalTo((2001 + 63) / 64));
+    }
+
+    @Test
+    public void testBackpressure() {
+        ListOutputSink list = new ListOutputSink();
+        AtomicInteger batches = new AtomicInteger();
+        try (BufferedOutputSink out = new BufferedOutputSink(100, 2, batch -> {
+            // A slow consumer: the program has to wait for it.
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            batches.incrementAndGet();
+            batch.writeTo(list);
+        })) {
+            run(out);
+            // All values were consumed by the time the program is done.
+            Assert.assertThat(batches.get(), Matchers.equalTo(21));
+            Assert.assertThat(list.toString(), Matchers.equalTo(listed()));
+
+            // And the sink can be used again.
+            run(out);
+            Assert.assertThat(batches.get(), Matchers.equalTo(42));
+        }
+    }
+
+    @Test
+    public void testConsumerFailure() {
+        try (BufferedOutputSink out = new BufferedOutputSink(100, 1, batch -> {
+            throw new IllegalStateException("Disk full");
+        })) {
+            run(out);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertThat(e.getCause().getMessage(), Matchers.equalTo("Disk full"));
+        }
+    }
+
+    @Test
+    public void testDiscard() {
+        DiscardOutputSink out = new DiscardOutputSink();
+        run(out);
+        Assert.assertThat(out.getCount(), Matchers.equalTo(2001L));
+    }
+}
@@ -1,7 +1,13 @@
 package gj.picoc;
 
+import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 public class ParserTest {
 
     @Test
@@ -12,4 +18,39 @@ public class ParserTest {
         System.out.println(n);
     }
 
+    @Test
+    public void testTokenBuffer() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        Node expected = new Parser(new Scanner(code)).program();
+        Node actual = new Parser(new Scanner(code).tokenize()).program();
+        Assert.assertThat(actual.toString(), Matchers.equalTo(expected.toString()));
+    }
+
+    @Test
+    public void testFlatBlocks() {
+        Node n = new Parser(new Scanner("{ int a, b; { a = 1; } b = 2; }")).program();
+        Assert.assertThat(n.toString(), Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a } DECLARATION=int{ID=b } "
+                + "ASSIGNMENT{ID=a VAL_INT=1 } ASSIGNMENT{ID=b VAL_INT=2 } } }"));
+        n = new Parser(new Scanner("if (1) out(1); else { out(2); }")).program();
+        Assert.assertThat(n.toString(), Matchers.equalTo("PROG{IF{VAL_INT=1 OUTPUT{VAL_INT=1 } SEQ{OUTPUT{VAL_INT=2 } } } }"));
+    }
+
+    @Test
+    public void testLongBlock() {
+        StringBuilder code = new StringBuilder("{ int a;\n");
+        for (int i = 0; i < 100_000; i++) {
+            code.append("a = a + 1;\n");
+        }
+        code.append("out(a); }");
+        Node n = new Parser(new Scanner(code.toString()).tokenize()).program();
+        Node block = n.getChildren()[0];
+        Assert.assertThat(block.getChildCount(), Matchers.equalTo(100_002));
+        Assert.assertThat(n.toString().length(), Matchers.greaterThan(100_000));
+        Assert.assertThat(AstArena.fromNode(n).toNode().toString(), Matchers.equalTo(n.toString()));
+
+        ListOutputSink out = new ListOutputSink();
+        new Interpreter(n).run(out);
+        Assert.assertThat(out.toString(), Matchers.equalTo("[100000]"));
+    }
+
 }
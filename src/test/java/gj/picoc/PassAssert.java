@@ -0,0 +1,24 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.function.UnaryOperator;
+
+// Checks that an optimisation pass leaves what a program does unchanged.
+public class PassAssert {
+
+    private static String run(Node program) {
+        ListOutputSink sink = new ListOutputSink();
+        new Interpreter(program).run(sink);
+        return sink.toString();
+    }
+
+    // Runs the pass on the program, checks that it still does the same and returns the optimised tree.
+    public static Node assertSameOutput(String code, UnaryOperator<Node> pass) {
+        String expected = run(new Parser(new Scanner(code)).program());
+        Node program = pass.apply(new Parser(new Scanner(code)).program());
+        Assert.assertThat(code, run(program), Matchers.equalTo(expected));
+        return program;
+    }
+}
@@ -0,0 +1,107 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ProfilerTest {
+
+    private static final String CODE = "{\n"
+            + "  int i, n;\n"
+            + "  float f;\n"
+            + "  while (i < 100) {\n"
+            + "    if (i / 10 * 10 == i)\n"
+            + "      n = n + 1;\n"
+            + "    else {\n"
+            + "      f = f + i * 0.5;\n"
+            + "    }\n"
+            + "    i = i + 1;\n"
+            + "  }\n"
+            + "  out(n);\n"
+            + "}\n";
+
+    @Test
+    public void testLines() {
+        Node program = new Parser(new Scanner(CODE)).program();
+        Node[] statements = program.getChildren()[0].getChildren();
+        Assert.assertThat(statements[0].getLine(), Matchers.equalTo(2));
+        Assert.assertThat(statements[2].getLine(), Matchers.equalTo(3));
+        Node loop = statements[3];
+        Assert.assertThat(loop.getLine(), Matchers.equalTo(4));
+        Node[] body = loop.getChildren()[1].getChildren();
+        Assert.assertThat(body[0].getLine(), Matchers.equalTo(5));
+        Assert.assertThat(body[0].getChildren()[1].getLine(), Matchers.equalTo(6));
+        Assert.assertThat(body[0].getChildren()[2].getChildren()[0].getLine(), Matchers.equalTo(8));
+        Assert.assertThat(body[1].getLine(), Matchers.equalTo(10));
+        Assert.assertThat(statements[4].getLine(), Matchers.equalTo(12));
+
+        // The same from a token buffer.
+        Node buffered = new Parser(new Scanner(CODE).tokenize()).program();
+        Assert.assertThat(buffered.getChildren()[0].getChildren()[4].getLine(), Matchers.equalTo(12));
+    }
+
+    @Test
+    public void testCounts() {
+        Node program = new Parser(new Scanner(CODE)).program();
+        Profiler profiler = new Profiler(program);
+        ListOutputSink sink = new ListOutputSink();
+        profiler.run(sink);
+        Assert.assertThat(sink.toString(), Matchers.equalTo("[10]"));
+
+        Node loop = program.getChildren()[0].getChildren()[3];
+        Node branch = loop.getChildren()[1].getChildren()[0];
+        Assert.assertThat(profiler.getHits(loop), Matchers.equalTo(1L));
+        Assert.assertThat(profiler.getTaken(loop), Matchers.equalTo(100L));
+        Assert.assertThat(profiler.getHits(loop.getChildren()[0]), Matchers.equalTo(101L));
+        Assert.assertThat(profiler.getHits(branch), Matchers.equalTo(100L));
+        Assert.assertThat(profiler.getTaken(branch), Matchers.equalTo(10L));
+        Assert.assertThat(profiler.getHits(branch.getChildren()[1]), Matchers.equalTo(10L));
+        // The else branch is an assignment in a SEQ.
+        Assert.assertThat(profiler.getHits(branch.getChildren()[2]), Matchers.equalTo(90L));
+        Assert.assertThat(profiler.getHits(branch.getChildren()[2].getChildren()[0]), Matchers.equalTo(90L));
+        // The float expression widens 'i', which is counted once.
+        Node sum = branch.getChildren()[2].getChildren()[0].getChildren()[1];
+        Assert.assertThat(profiler.getHits(sum.getChildren()[1].getChildren()[0]), Matchers.equalTo(90L));
+
+        List<String> names = profiler.getRegions().stream().map(Profiler.Region::getName)
+                .collect(Collectors.toList());
+        Assert.assertThat(names, Matchers.containsInAnyOrder("program", "while:4", "if:5", "else:5"));
+        for (Profiler.Region region : profiler.getRegions()) {
+            Assert.assertThat(region.getSelfNanos(), Matchers.lessThanOrEqualTo(region.getNanos()));
+            if (region.getName().equals("else:5")) {
+                Assert.assertThat(region.getEntries(), Matchers.equalTo(90L));
+                Assert.assertThat(region.getStack(), Matchers.equalTo("program;while:4;else:5"));
+            }
+        }
+
+        // Counting starts over on every run.
+        profiler.run(new ListOutputSink());
+        Assert.assertThat(profiler.getTaken(loop), Matchers.equalTo(100L));
+    }
+
+    @Test
+    public void testReport() {
+        Profiler profiler = new Profiler(new Parser(new Scanner(CODE)).program());
+        profiler.run(new ListOutputSink());
+
+        String report = profiler.report(4);
+        Assert.assertThat(report, Matchers.containsString("while:4"));
+        Assert.assertThat(report, Matchers.containsString("10.0%"));
+        Assert.assertThat(report, Matchers.containsString("90.0%"));
+        // The statements that ran most often: the if and the assignment on line 10 in the loop, then the else.
+        String[] lines = report.substring(report.indexOf("Line")).split("\n");
+        Assert.assertTrue(lines[1], lines[1].matches("5 +IF +100"));
+        Assert.assertTrue(lines[2], lines[2].matches("10 +ASSIGNMENT +100"));
+        Assert.assertTrue(lines[3], lines[3].matches("8 +ASSIGNMENT +90"));
+        Assert.assertThat(lines.length, Matchers.equalTo(5));
+
+        for (String line : profiler.collapsed().split("\n")) {
+            if (!line.isEmpty()) {
+                Assert.assertTrue(line, line.matches("program(;(while|if|else):\\d+)* \\d+"));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProgramGeneratorTest {
+
+    private static ProgramGenerator generator(long seed, int statements, int depth, int block, int operands) {
+        ProgramGenerator generator = new ProgramGenerator(seed);
+        generator.setStatements(statements);
+        generator.setDepth(depth);
+        generator.setBlock(block);
+        generator.setOperands(operands);
+        return generator;
+    }
+
+    // A generated program must parse, pass the analysis and run to the end, with the same output on every backend.
+    // The JVM backend is left out for programs too large for a single method.
+    private static Node check(String code) {
+        return check(code, true);
+    }
+
+    private static Node check(String code, boolean jvm) {
+        Node program = new Parser(new Scanner(code).tokenize()).program();
+        new SemAnalyser().analyse(program);
+
+        ListOutputSink interpreted = new ListOutputSink();
+        new Interpreter(program).run(interpreted);
+        ListOutputSink executed = new ListOutputSink();
+        new VirtualMachine(new BytecodeCompiler().compile(new Parser(new Scanner(code)).program())).run(executed);
+        Assert.assertThat(executed.toString(), Matchers.equalTo(interpreted.toString()));
+        if (!jvm) {
+            return program;
+        }
+        ListOutputSink compiled = new ListOutputSink();
+        new JvmCompiler().compile(new Parser(new Scanner(code)).program()).run(compiled);
+        Assert.assertThat(compiled.toString(), Matchers.equalTo(interpreted.toString()));
+        return program;
+    }
+
+    // The most ifs and whiles around a statement.
+    private static int nesting(Node node) {
+        int nesting = 0;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (node.getChildren()[i] != null) {
+                nesting = Math.max(nesting, nesting(node.getChildren()[i]));
+            }
+        }
+        Node.NodeType type = node.getNodeType();
+        return type == Node.NodeType.IF || type == Node.NodeType.WHILE ? nesting + 1 : nesting;
+    }
+
+    @Test
+    public void testValid() {
+        for (long seed = 1; seed <= 200; seed++) {
+            check(generator(seed, 50, 4, 6, 5).generate());
+        }
+    }
+
+    @Test
+    public void testReproducible() {
+        String code = generator(42, 500, 5, 8, 4).generate();
+        Assert.assertThat(generator(42, 500, 5, 8, 4).generate(), Matchers.equalTo(code));
+        Assert.assertThat(generator(43, 500, 5, 8, 4).generate(), Matchers.not(Matchers.equalTo(code)));
+        ProgramGenerator generator = generator(42, 500, 5, 8, 4);
+        Assert.assertThat(generator.generate(), Matchers.equalTo(generator.generate()));
+    }
+
+    @Test
+    public void testShapes() {
+        // A single long block.
+        Node program = check(generator(1, 20_000, 0, 1, 3).generate(), false);
+        Assert.assertThat(program.getChildren()[0].getChildCount(), Matchers.greaterThan(20_000));
+
+        // Nesting, up to the depth.
+        Assert.assertThat(nesting(check(generator(2, 2000, 2, 3, 2).generate())), Matchers.lessThanOrEqualTo(2));
+        Assert.assertThat(nesting(check(generator(2, 2000, 50, 3, 2).generate())), Matchers.greaterThan(4));
+
+        // Wide expressions.
+        String wide = generator(3, 20, 1, 4, 500).generate();
+        check(wide);
+        Assert.assertThat(wide.length(), Matchers.greaterThan(20 * 500));
+
+        // Sizes grow with the number of statements.
+        int small = generator(4, 1000, 4, 8, 4).generate().length();
+        int large = generator(4, 10_000, 4, 8, 4).generate().length();
+        Assert.assertThat(large, Matchers.greaterThan(5 * small));
+    }
+}
@@ -4,13 +4,24 @@ import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 public class ScannerTest {
 
     private void test(String code, String expected) {
-        Scanner scanner = new Scanner(code);
+        test(new Scanner(code), expected);
+    }
+
+    private void test(Scanner scanner, String expected) {
         List<Token.TokenType> actual = new ArrayList<>();
         while (scanner.peekToken().getType() != Token.TokenType.EOF) {
             actual.add(scanner.nextToken().getType());
@@ -19,6 +30,17 @@ public class ScannerTest {
         Assert.assertThat(String.valueOf(actual), Matchers.equalTo(expected));
     }
 
+    // Every token, including its lexeme and line number.
+    private List<String> tokens(Scanner scanner) {
+        List<String> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = scanner.nextToken();
+            tokens.add(token.toString());
+        } while (token.getType() != Token.TokenType.EOF);
+        return tokens;
+    }
+
     @Test
     public void testScanner1() {
         String code = "if (a < 10) { b = 12; c = b + 6; }";
@@ -61,5 +83,70 @@ public class ScannerTest {
         Assert.assertThat(scanner.nextToken().getLexeme(), Matchers.equalTo("counter"));
     }
 
+    @Test
+    public void testChannel() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        List<String> expected = tokens(new Scanner(code));
 
+        // Windows of a few bytes make tokens straddle window boundaries.
+        for (int window : new int[] { 1, 2, 3, 7, 64 * 1024 }) {
+            Scanner scanner = new Scanner(Channels.newChannel(
+                    new ByteArrayInputStream(code.getBytes(StandardCharsets.US_ASCII))), window);
+            Assert.assertThat(tokens(scanner), Matchers.equalTo(expected));
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        List<String> expected = tokens(new Scanner(code));
+
+        try (Scanner scanner = new Scanner(Path.of("prog1.pc"))) {
+            Assert.assertThat(tokens(scanner), Matchers.equalTo(expected));
+        }
+        for (int window : new int[] { 1, 5, 4096 }) {
+            try (Scanner scanner = new Scanner(FileChannel.open(Path.of("prog1.pc"), StandardOpenOption.READ), window)) {
+                Assert.assertThat(tokens(scanner), Matchers.equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Path empty = Files.createTempFile("picoc", ".pc");
+        try (Scanner scanner = new Scanner(empty)) {
+            test(scanner, "[]");
+        } finally {
+            Files.delete(empty);
+        }
+    }
+
+    @Test
+    public void testTokenBuffer() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc")) + " if (x >= -1.5 && y != 2 || !z) a = b <= c;";
+        List<String> expected = tokens(new Scanner(code));
+
+        TokenBuffer buffer = new Scanner(code).tokenize();
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            actual.add(buffer.token(i).toString());
+
+            // Offsets and lengths point at the lexeme in the source.
+            if (buffer.type(i) != Token.TokenType.EOF) {
+                String source = code.substring(buffer.start(i), buffer.start(i) + buffer.length(i));
+                Assert.assertThat(source, Matchers.equalTo(buffer.lexeme(i)));
+            }
+        }
+        Assert.assertThat(actual, Matchers.equalTo(expected));
+
+        // The same from a channel, in small windows.
+        buffer = new Scanner(Channels.newChannel(
+                new ByteArrayInputStream(code.getBytes(StandardCharsets.US_ASCII))), 5).tokenize();
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.type(i) != Token.TokenType.EOF) {
+                Assert.assertThat(code.substring(buffer.start(i), buffer.start(i) + buffer.length(i)),
+                        Matchers.equalTo(buffer.lexeme(i)));
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+public class ScriptExecutorTest {
+
+    @Test
+    public void testRun() throws IOException {
+        String fibonacci = Files.readString(Path.of("prog1.pc"));
+        try (ScriptExecutor executor = new ScriptExecutor(4, 100)) {
+            ScriptExecutor.Result result = executor.submit(fibonacci).join();
+            Assert.assertThat(result.isOk(), Matchers.equalTo(true));
+            Assert.assertThat(result.isCompleted(), Matchers.equalTo(true));
+            Assert.assertThat(result.getOutput(), Matchers.startsWith("1\n1\n2\n3\n5\n"));
+            Assert.assertThat(result.getOutput(), Matchers.endsWith("610\n987\n"));
+            Assert.assertThat(result.getFuel(), Matchers.greaterThan(0L));
+            Assert.assertThat(result.getLatencyNanos(), Matchers.greaterThan(0L));
+
+            // Many jobs at once, some of them on the same tree, give the same results.
+            Node tree = new Parser(new Scanner(fibonacci)).program();
+            List<CompletableFuture<ScriptExecutor.Result>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(i % 2 == 0 ? executor.submit(tree)
+                        : executor.submit("{ float f = " + i + " / 2.0; out(f); }"));
+            }
+            for (int i = 0; i < 100; i++) {
+                Assert.assertThat(futures.get(i).join().getOutput(),
+                        Matchers.equalTo(i % 2 == 0 ? result.getOutput() : i / 2.0 + "\n"));
+            }
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        try (ScriptExecutor executor = new ScriptExecutor(2, 10)) {
+            ScriptExecutor.Result result = executor.submit("{ int a; a = ; }").join();
+            Assert.assertThat(result.getError(), Matchers.containsString("Unexpected symbol"));
+
+            result = executor.submit("{ int a = 1; out(a); out(a / (a - 1)); }").join();
+            Assert.assertThat(result.isOk(), Matchers.equalTo(false));
+            Assert.assertThat(result.getOutput(), Matchers.equalTo("1\n"));
+
+            // The runaway stops when its fuel runs out, and the next job gets a clean frame and buffer.
+            executor.setFuel(100_000);
+            result = executor.submit("{ int a; out(7); while (1 < 2) a = a + 1; }").join();
+            Assert.assertThat(result.isOk(), Matchers.equalTo(true));
+            Assert.assertThat(result.isCompleted(), Matchers.equalTo(false));
+            Assert.assertThat(result.getFuel(), Matchers.equalTo(100_000L));
+            Assert.assertThat(result.getOutput(), Matchers.equalTo("7\n"));
+            Assert.assertThat(executor.submit("{ int b; out(b); }").join().getOutput(), Matchers.equalTo("0\n"));
+        }
+    }
+
+    @Test
+    public void testQueue() {
+        try (ScriptExecutor executor = new ScriptExecutor(1, 1)) {
+            executor.setFuel(200_000_000);
+            String runaway = "{ int a; while (1 < 2) a = a + 1; }";
+            long before = System.nanoTime();
+            CompletableFuture<ScriptExecutor.Result> first = executor.submit(runaway);
+            CompletableFuture<ScriptExecutor.Result> second = executor.submit(runaway);
+            long submitting = System.nanoTime() - before;
+            try {
+                executor.submit(runaway);
+                Assert.fail();
+            } catch (RejectedExecutionException e) {
+                Assert.assertThat(e.getMessage(), Matchers.containsString("Queue full"));
+            }
+            Assert.assertThat(first.join().isCompleted(), Matchers.equalTo(false));
+            // The second waits until the first is done, which it may have started compiling before the second came.
+            Assert.assertThat(second.join().getQueuedNanos(),
+                    Matchers.greaterThanOrEqualTo(first.join().getLatencyNanos() - submitting));
+        }
+    }
+
+    @Test
+    public void testClose() {
+        String runaway = "{ int a; while (1 < 2) a = a + 1; }";
+        ScriptExecutor executor = new ScriptExecutor(1, 1);
+        // A runaway stops by default.
+        ScriptExecutor.Result result = executor.submit(runaway).join();
+        Assert.assertThat(result.isCompleted(), Matchers.equalTo(false));
+        Assert.assertThat(result.getFuel(), Matchers.equalTo(ScriptExecutor.DEFAULT_FUEL));
+
+        // Closing gives up on the jobs that are not done in time.
+        executor.setFuel(200_000_000);
+        executor.setCloseTimeout(10);
+        CompletableFuture<ScriptExecutor.Result> first = executor.submit(runaway);
+        CompletableFuture<ScriptExecutor.Result> second = executor.submit(runaway);
+        executor.close();
+        Assert.assertThat(first.isCancelled(), Matchers.equalTo(true));
+        Assert.assertThat(second.isCancelled(), Matchers.equalTo(true));
+    }
+
+    @Test
+    public void testLoad() {
+        List<String> sources = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            ProgramGenerator generator = new ProgramGenerator(i);
+            generator.setStatements(30);
+            sources.add(generator.generate());
+        }
+        try (ScriptExecutor executor = new ScriptExecutor(4, 8)) {
+            ScriptLoadTest.Report report = ScriptLoadTest.run(executor, 12, sources, 500);
+            Assert.assertThat(report.getJobs(), Matchers.equalTo(500));
+            Assert.assertThat(report.getFailed(), Matchers.equalTo(0));
+            Assert.assertThat(report.getLatency(99), Matchers.greaterThanOrEqualTo(report.getLatency(50)));
+            Assert.assertThat(report.getLatency(100), Matchers.greaterThanOrEqualTo(report.getLatency(99)));
+            Assert.assertThat(report.toString(), Matchers.containsString("p99"));
+        }
+    }
+}
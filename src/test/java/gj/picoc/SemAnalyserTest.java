@@ -0,0 +1,76 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SemAnalyserTest {
+
+    private Node analyse(String code, SemAnalyser analyser) {
+        Node program = new Parser(new Scanner(code)).program();
+        analyser.analyse(program);
+        return program;
+    }
+
+    private String error(String code) {
+        try {
+            analyse(code, new SemAnalyser());
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    @Test
+    public void testTypesAndSymbols() {
+        SemAnalyser analyser = new SemAnalyser();
+        Node program = analyse("{ int a; float b; a = 1; b = a * 2.5; out(b < a); }", analyser);
+        Node[] statements = program.getChildren()[0].getChildren();
+
+        SymbolTable symbols = analyser.getSymbols();
+        Assert.assertThat(symbols.size(), Matchers.equalTo(2));
+        Assert.assertThat(symbols.lookup("a"), Matchers.equalTo(0));
+        Assert.assertThat(symbols.type(1), Matchers.equalTo(Node.TypeType.FLOAT));
+        Assert.assertThat(symbols.slot(1), Matchers.equalTo(0));
+
+        Node assignment = statements[3];
+        Assert.assertThat(assignment.getTypeType(), Matchers.equalTo(Node.TypeType.FLOAT));
+        Assert.assertThat(assignment.getSymbol(), Matchers.equalTo(1));
+        Node product = assignment.getChildren()[1];
+        Assert.assertThat(product.getTypeType(), Matchers.equalTo(Node.TypeType.FLOAT));
+        Assert.assertThat(product.getChildren()[0].getSymbol(), Matchers.equalTo(0));
+        Assert.assertThat(product.getChildren()[0].getTypeType(), Matchers.equalTo(Node.TypeType.INT));
+        Assert.assertThat(statements[4].getChildren()[0].getTypeType(), Matchers.equalTo(Node.TypeType.INT));
+        Assert.assertThat(program.getTypeType(), Matchers.equalTo(Node.TypeType.EMPTY));
+
+        // Analysing again starts over.
+        analyser.analyse(program);
+        Assert.assertThat(analyser.getSymbols().size(), Matchers.equalTo(2));
+    }
+
+    @Test
+    public void testErrors() {
+        Assert.assertThat(error("{ a = 1; }"), Matchers.containsString("'a' not declared"));
+        Assert.assertThat(error("{ int a; float a; }"), Matchers.containsString("'a' already declared"));
+        Assert.assertThat(error("{ int a = a; }"), Matchers.containsString("'a' not declared"));
+        Assert.assertThat(error("{ float a; if (a) out(1); }"), Matchers.containsString("if-expression"));
+        Assert.assertThat(error("{ float a; while (a) out(1); }"), Matchers.containsString("while-expression"));
+        Assert.assertThat(error("{ float a; out(a && 1); }"), Matchers.containsString("boolean logic"));
+        Assert.assertThat(error("{ int a; out(a + 1 = 2); }"), Matchers.containsString("must be a variable"));
+        Assert.assertThat(error("{ int a; out(a = 2.5); }"), Matchers.nullValue());
+    }
+
+    @Test
+    public void testLargeTree() {
+        // A single expression of a million nodes, nested as deep as it is large.
+        StringBuilder code = new StringBuilder("{ int a; a = a");
+        for (int i = 0; i < 500_000; i++) {
+            code.append(" + a");
+        }
+        code.append("; }");
+        SemAnalyser analyser = new SemAnalyser();
+        Node program = analyse(code.toString(), analyser);
+        Node sum = program.getChildren()[0].getChildren()[1].getChildren()[1];
+        Assert.assertThat(sum.getTypeType(), Matchers.equalTo(Node.TypeType.INT));
+    }
+}
@@ -0,0 +1,77 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ValueNumberingTest {
+
+    private String optimised(String code) {
+        return PassAssert.assertSameOutput(code, new ValueNumbering()::optimise).toString();
+    }
+
+    @Test
+    public void testBlock() {
+        Assert.assertThat(optimised("{ int a = 2, b = 3, c = 4, x, y; x = a * b + c; y = c + b * a; out(x - y); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a VAL_INT=2 } DECLARATION=int{ID=b VAL_INT=3 } "
+                        + "DECLARATION=int{ID=c VAL_INT=4 } DECLARATION=int{ID=x } DECLARATION=int{ID=y } "
+                        + "DECLARATION=int{ID=$t1 PLUS{MUL{ID=a ID=b } ID=c } } ASSIGNMENT{ID=x ID=$t1 } "
+                        + "ASSIGNMENT{ID=y ID=$t1 } OUTPUT{MINUS{ID=x ID=y } } } }"));
+
+        // Within one expression, and a part of an expression that was reused before.
+        String code = "{ float f = 1.5, g; g = (f * 2) / (f * 2 + 1); out(f * 2 - g); out(f * 2 + 1); }";
+        Assert.assertThat(optimised(code),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=float{ID=f VAL_FLOAT=1.5 } DECLARATION=float{ID=g } "
+                        + "DECLARATION=float{ID=$t1 MUL{ID=f VAL_INT=2 } } "
+                        + "DECLARATION=float{ID=$t2 PLUS{ID=$t1 VAL_INT=1 } } "
+                        + "ASSIGNMENT{ID=g DIV{ID=$t1 ID=$t2 } } OUTPUT{MINUS{ID=$t1 ID=g } } OUTPUT{ID=$t2 } } }"));
+
+        // Not once a variable changes, or across an assignment in an expression.
+        Assert.assertThat(optimised("{ int a = 2, b = 3, x; x = a * b; a = 4; out(a * b); }"),
+                Matchers.not(Matchers.containsString("$t")));
+        Assert.assertThat(optimised("{ int a = 2, b = 3, x; x = a * b + (a = 1) * (a * b); out(a * b); }"),
+                Matchers.not(Matchers.containsString("$t")));
+    }
+
+    @Test
+    public void testBranches() {
+        // Available inside a branch and after it, but not from one branch to the other or after the branch.
+        Assert.assertThat(optimised("{ int a = 2, b = 3, c; c = a - b; if (c) out(a - b); else { out(b * 2); } "
+                        + "out(b * 2); while (c < 3) { out(a - b); c = c + 1; } out(a - b); }"),
+                Matchers.equalTo("PROG{SEQ{DECLARATION=int{ID=a VAL_INT=2 } DECLARATION=int{ID=b VAL_INT=3 } "
+                        + "DECLARATION=int{ID=c } DECLARATION=int{ID=$t1 MINUS{ID=a ID=b } } ASSIGNMENT{ID=c ID=$t1 } "
+                        + "IF{ID=c OUTPUT{ID=$t1 } SEQ{OUTPUT{MUL{ID=b VAL_INT=2 } } } } OUTPUT{MUL{ID=b VAL_INT=2 } } "
+                        + "WHILE{SMALLER{ID=c VAL_INT=3 } SEQ{OUTPUT{ID=$t1 } "
+                        + "ASSIGNMENT{ID=c PLUS{ID=c VAL_INT=1 } } } } OUTPUT{ID=$t1 } } }"));
+
+        // Not across an "if" or "while" that assigns a variable.
+        Assert.assertThat(optimised("{ int a = 2, b = 3; out(a + b); if (b > 2) a = 5; out(a + b); }"),
+                Matchers.not(Matchers.containsString("$t")));
+        Assert.assertThat(optimised("{ int a = 2, b = 3; out(a + b); while (a < 4) { out(a + b); a = a + 1; } }"),
+                Matchers.not(Matchers.containsString("$t")));
+
+        // A division on the right of "&&" might not happen, so it is not computed ahead.
+        Assert.assertThat(optimised("{ int a = 7, b = 2; if (b && a / b > 1) out(1); out(a / b); }"),
+                Matchers.not(Matchers.containsString("$t")));
+    }
+
+    @Test
+    public void testSharing() throws IOException {
+        ValueNumbering numbering = new ValueNumbering();
+        Node program = PassAssert.assertSameOutput("{ int a = 1, b; b = a + 1; out(a * b + 1); }",
+                numbering::optimise);
+        Node[] statements = program.getChildren()[0].getChildren();
+        Assert.assertThat(statements[2].getChildren()[1].getChildren()[0],
+                Matchers.sameInstance(statements[3].getChildren()[0].getChildren()[0].getChildren()[0]));
+        Assert.assertThat(numbering.getShared(), Matchers.equalTo(3));
+        Assert.assertThat(numbering.getNodesAfter(), Matchers.equalTo(numbering.getNodesBefore() - 3));
+
+        // Fibonacci has nothing to reuse.
+        PassAssert.assertSameOutput(Files.readString(Path.of("prog1.pc")), numbering::optimise);
+        Assert.assertThat(numbering.getEliminated(), Matchers.equalTo(0));
+    }
+}
@@ -0,0 +1,127 @@
+package gj.picoc;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class VirtualMachineTest {
+
+    private Bytecode compile(String code) {
+        return new BytecodeCompiler().compile(new Parser(new Scanner(code)).program());
+    }
+
+    // The virtual machine must produce exactly what the interpreter produces.
+    private void test(String code, String expected) {
+        ListOutputSink interpreted = new ListOutputSink();
+        new Interpreter(new Parser(new Scanner(code)).program()).run(interpreted);
+        Assert.assertThat(interpreted.toString(), Matchers.equalTo(expected));
+
+        ListOutputSink executed = new ListOutputSink();
+        new VirtualMachine(compile(code)).run(executed);
+        Assert.assertThat(executed.toString(), Matchers.equalTo(expected));
+    }
+
+    @Test
+    public void testFibonacci() throws IOException {
+        test(Files.readString(Path.of("prog1.pc")), "[1, 1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610, 987]");
+    }
+
+    @Test
+    public void testArithmetic() {
+        test("{ int a = 7, b = 2; out(a / b); out(a - b); out(-a * b); out(a + b * 3); out(5000000000 + a); }",
+                "[3, 5, -14, 13, 5000000007]");
+    }
+
+    @Test
+    public void testFloats() {
+        test("{ float f = 1.5, g; int i = 3; out(f * i); i = f * 3; out(i); out(i / 2.0); out(g); out(f > i); }",
+                "[4.5, 4, 2.0, 0.0, 0]");
+    }
+
+    @Test
+    public void testConditions() {
+        test("{ int a = 1, b = 0, c; if (a && !b) out(1); else out(2); if (b || a > 2) out(3); else out(4);"
+                + " c = a && (b || a == 1); out(c); out(!(a != 1)); if (c = 0) out(5); out(c); }",
+                "[1, 4, 1, 1, 0]");
+    }
+
+    @Test
+    public void testNestedLoops() {
+        test("{ int i = 0, j, s = 0; while (i < 4) { j = 0; while (j <= i) { s = s + j; j = j + 1; } i = i + 1; }"
+                + " out(s); }", "[10]");
+    }
+
+    @Test
+    public void testDisassemble() {
+        String listing = compile("{ int a = 1; while (a < 1000) a = a * 2; out(a); }").disassemble();
+        Assert.assertThat(listing, Matchers.containsString("JMP"));
+        Assert.assertThat(listing, Matchers.containsString("JLT"));
+        Assert.assertThat(listing, Matchers.containsString("IOUT"));
+        Assert.assertThat(listing, Matchers.containsString("HALT"));
+    }
+
+    private Bytecode metered(String code) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        compiler.setMetered(true);
+        return compiler.compile(new Parser(new Scanner(code)).program());
+    }
+
+    @Test
+    public void testFuel() throws IOException {
+        String code = Files.readString(Path.of("prog1.pc"));
+        Bytecode bytecode = metered(code);
+        Assert.assertThat(bytecode.disassemble(), Matchers.containsString("FUEL"));
+
+        ListOutputSink plain = new ListOutputSink();
+        new VirtualMachine(compile(code)).run(plain);
+        ListOutputSink executed = new ListOutputSink();
+        VirtualMachine.Outcome outcome = new VirtualMachine(bytecode).run(executed, 1_000_000);
+        Assert.assertThat(outcome.isCompleted(), Matchers.equalTo(true));
+        Assert.assertThat(executed.toString(), Matchers.equalTo(plain.toString()));
+
+        // 16 iterations of a loop of 16 instructions, and what is outside it.
+        long used = outcome.getUsed();
+        Assert.assertThat(used, Matchers.greaterThan(16L * 16));
+        Assert.assertThat(used, Matchers.lessThan(16L * 16 + 40));
+
+        // The budget is enough or it is not.
+        Assert.assertThat(new VirtualMachine(bytecode).run(new ListOutputSink(), used).isCompleted(),
+                Matchers.equalTo(true));
+        ListOutputSink stopped = new ListOutputSink();
+        outcome = new VirtualMachine(bytecode).run(stopped, used - 1);
+        Assert.assertThat(outcome.isCompleted(), Matchers.equalTo(false));
+        Assert.assertThat(outcome.getUsed(), Matchers.equalTo(used - 1));
+        Assert.assertThat(stopped.toString(), Matchers.startsWith("[1, 1, 2, 3, 5, 8"));
+
+        // Metered code runs without a budget too, but plain code has no meter.
+        ListOutputSink unlimited = new ListOutputSink();
+        new VirtualMachine(bytecode).run(unlimited);
+        Assert.assertThat(unlimited.toString(), Matchers.equalTo(plain.toString()));
+        try {
+            new VirtualMachine(compile(code)).run(new ListOutputSink(), 100);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), Matchers.containsString("not metered"));
+        }
+    }
+
+    @Test
+    public void testRunaway() {
+        ListOutputSink sink = new ListOutputSink();
+        VirtualMachine.Outcome outcome = new VirtualMachine(metered(
+                "{ int a, b; out(1); while (1 < 2) { a = a + 1; while (b < a) b = b + 1; if (a > 5) out(a); } }"))
+                .run(sink, 10_000_000);
+        Assert.assertThat(outcome.isCompleted(), Matchers.equalTo(false));
+        Assert.assertThat(outcome.getUsed(), Matchers.equalTo(10_000_000L));
+        Assert.assertThat(outcome.toString(), Matchers.containsString("out of fuel"));
+        Assert.assertThat(sink.toString(), Matchers.startsWith("[1, 6, 7"));
+
+        // The inner loop is charged for by itself, on every iteration.
+        Assert.assertThat(new VirtualMachine(metered("{ int i, j; while (i < 10) { j = 0; while (j < 10) j = j + 1;"
+                + " i = i + 1; } }")).run(new ListOutputSink(), 1000).isCompleted(), Matchers.equalTo(false));
+    }
+}
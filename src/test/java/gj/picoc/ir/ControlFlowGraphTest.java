@@ -0,0 +1,137 @@
+package gj.picoc.ir;
+
+import gj.picoc.Interpreter;
+import gj.picoc.ListOutputSink;
+import gj.picoc.Node;
+import gj.picoc.Parser;
+import gj.picoc.Scanner;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ControlFlowGraphTest {
+
+    private static final String[] PROGRAMS = {
+            "{ int a = 7, b = 2; out(a / b); out(a - b); out(-a * b); out(a + b * 3); }",
+            "{ float f = 1.5; int i = 3; out(f * i); i = f * 3; out(i); out(i / 2.0); }",
+            "{ int a = 1, b = 0; if (a && !b) out(1); else out(2); if (b || a > 2) out(3); out(a >= 1); }",
+            "{ int a, b; a = 1, b = 2; out(a); out(b); a = b = 5; out(a + b); }",
+            "{ int i, j, n; float s; while (i < 5) { j = 0; while (j < i) { s = s + j / 2.0; j = j + 1; "
+                    + "if (j == 2) n = n + 1; } i = i + 1; } out(s); out(n); out(i); }",
+            "{ int a, b; if (a) out(1); while ((b = b + 1) < 3 || a) { out(b); } out(b && 0); }",
+    };
+
+    private static Node parse(String code) {
+        return new Parser(new Scanner(code)).program();
+    }
+
+    private static String interpret(String code) {
+        ListOutputSink sink = new ListOutputSink();
+        new Interpreter(parse(code)).run(sink);
+        return sink.toString();
+    }
+
+    private static String execute(ControlFlowGraph cfg) {
+        ListOutputSink sink = new ListOutputSink();
+        new IrInterpreter(cfg).run(sink);
+        return sink.toString();
+    }
+
+    // No LOADs or STOREs are left, every PHI has a value per predecessor and every operand is defined before it is
+    // used: earlier in the same block or in a dominating block (for a PHI, one dominating the predecessor).
+    private static void checkSsa(ControlFlowGraph cfg) {
+        DominatorTree dominators = cfg.dominators();
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                Assert.assertThat(instruction.getOp(), Matchers.not(Matchers.isOneOf(
+                        Instruction.Op.LOAD, Instruction.Op.STORE)));
+                Instruction[] operands = instruction.getOperands();
+                if (instruction.getOp() == Instruction.Op.PHI) {
+                    Assert.assertThat(operands.length, Matchers.equalTo(block.getPredecessors().size()));
+                }
+                for (int i = 0; i < operands.length; i++) {
+                    BasicBlock user = instruction.getOp() == Instruction.Op.PHI
+                            ? block.getPredecessors().get(i) : block;
+                    BasicBlock definer = operands[i].getBlock();
+                    if (definer == block && user == block) {
+                        Assert.assertThat(block.getInstructions().indexOf(operands[i]),
+                                Matchers.lessThan(block.getInstructions().indexOf(instruction)));
+                    } else {
+                        Assert.assertThat(IrPrinter.print(cfg, instruction), dominators.dominates(definer, user),
+                                Matchers.equalTo(true));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrograms() throws IOException {
+        String[] files = { Files.readString(Path.of("prog1.pc")), Files.readString(Path.of("prog2.pc")) };
+        for (String[] programs : new String[][] { PROGRAMS, files }) {
+            for (String code : programs) {
+                String expected = interpret(code);
+                ControlFlowGraph cfg = ControlFlowGraph.build(parse(code));
+                Assert.assertThat(code, execute(cfg), Matchers.equalTo(expected));
+                cfg.toSsa();
+                checkSsa(cfg);
+                Assert.assertThat(code, execute(cfg), Matchers.equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void testPhis() {
+        ControlFlowGraph cfg = ControlFlowGraph.build(parse("{ int a = 1; float f; if (a) a = 2; else f = 1.5; "
+                + "out(a); out(f); }")).toSsa();
+        String printed = cfg.toString();
+        Assert.assertThat(printed, Matchers.containsString("phi.int"));
+        Assert.assertThat(printed, Matchers.containsString("phi.float"));
+        Assert.assertThat(printed, Matchers.containsString("; preds b1 b2"));
+        Assert.assertThat(printed, Matchers.containsString("const.float 0.0"));
+
+        // A variable that is only used where it is set needs no PHI.
+        cfg = ControlFlowGraph.build(parse("{ int a, t; if (a) { t = 1; out(t); } else { t = 2; out(t); } }"));
+        Assert.assertThat(cfg.toSsa().toString(), Matchers.not(Matchers.containsString("phi")));
+    }
+
+    @Test
+    public void testDominators() {
+        // b0 -> b1 (then) / b2 (else) -> b3 (join) -> b4 (while header) -> b5 (body) / b6 (exit)
+        ControlFlowGraph cfg = ControlFlowGraph.build(parse(
+                "{ int a; if (a) a = 1; else a = 2; while (a < 10) a = a + 1; out(a); }"));
+        DominatorTree dominators = cfg.dominators();
+        BasicBlock[] b = cfg.getBlocks().toArray(new BasicBlock[0]);
+        Assert.assertThat(dominators.idom(b[0]), Matchers.nullValue());
+        Assert.assertThat(dominators.idom(b[1]), Matchers.equalTo(b[0]));
+        Assert.assertThat(dominators.idom(b[3]), Matchers.equalTo(b[0]));
+        Assert.assertThat(dominators.idom(b[4]), Matchers.equalTo(b[3]));
+        Assert.assertThat(dominators.idom(b[5]), Matchers.equalTo(b[4]));
+        Assert.assertThat(dominators.idom(b[6]), Matchers.equalTo(b[4]));
+        Assert.assertThat(dominators.frontier(b[1]), Matchers.contains(b[3]));
+        Assert.assertThat(dominators.frontier(b[5]), Matchers.contains(b[4]));
+        Assert.assertThat(dominators.frontier(b[4]), Matchers.contains(b[4]));
+        Assert.assertThat(dominators.dominates(b[3], b[6]), Matchers.equalTo(true));
+        Assert.assertThat(dominators.dominates(b[1], b[3]), Matchers.equalTo(false));
+        Assert.assertThat(dominators.getOrder().get(0), Matchers.equalTo(b[0]));
+    }
+
+    @Test
+    public void testLinearSize() {
+        // Doubling the program doubles the graph, PHIs included.
+        int[] sizes = new int[2];
+        for (int k = 0; k < 2; k++) {
+            StringBuilder code = new StringBuilder("{ int a, b, c;\n");
+            for (int i = 0; i < 2000 << k; i++) {
+                code.append("if (a < b) { a = a + 1; c = b; } else b = b + 1; while (c > 0) c = c - 1;\n");
+            }
+            code.append("out(a); out(b); }");
+            sizes[k] = ControlFlowGraph.build(parse(code.toString())).toSsa().size();
+        }
+        Assert.assertThat((double) sizes[1] / sizes[0], Matchers.closeTo(2.0, 0.01));
+    }
+}
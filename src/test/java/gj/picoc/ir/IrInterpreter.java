@@ -0,0 +1,95 @@
+package gj.picoc.ir;
+
+import gj.picoc.Node;
+import gj.picoc.OutputSink;
+
+import java.util.List;
+
+// Executes a control flow graph, before or after conversion to SSA, to check that lowering and optimising keep the
+// meaning of a program.  Values are kept per instruction, floats as raw bits.
+class IrInterpreter {
+
+    private final ControlFlowGraph cfg;
+
+    IrInterpreter(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+    }
+
+    void run(OutputSink out) {
+        int size = 0;
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                size = Math.max(size, instruction.getId() + 1);
+            }
+        }
+        long[] values = new long[size];
+        long[] variables = new long[cfg.getVariableCount()];
+        long[] phis = new long[16];
+
+        BasicBlock previous = null;
+        BasicBlock block = cfg.getEntry();
+        while (true) {
+            List<Instruction> instructions = block.getInstructions();
+
+            // All PHIs read their operands before any of them is written.
+            int p = 0;
+            if (previous != null) {
+                int edge = block.getPredecessors().indexOf(previous);
+                for (; p < instructions.size() && instructions.get(p).getOp() == Instruction.Op.PHI; p++) {
+                    if (p == phis.length) phis = java.util.Arrays.copyOf(phis, p * 2);
+                    phis[p] = values[instructions.get(p).getOperand(edge).getId()];
+                }
+                for (int i = 0; i < p; i++) {
+                    values[instructions.get(i).getId()] = phis[i];
+                }
+            }
+
+            BasicBlock next = null;
+            for (int i = p; i < instructions.size() && next == null; i++) {
+                Instruction instruction = instructions.get(i);
+                Instruction[] operands = instruction.getOperands();
+                long a = operands.length > 0 ? values[operands[0].getId()] : 0;
+                long b = operands.length > 1 ? values[operands[1].getId()] : 0;
+                boolean isFloat = operands.length > 0 && operands[0].getType() == Node.TypeType.FLOAT;
+                long result = 0;
+                switch (instruction.getOp()) {
+                    case CONST: result = instruction.getIntConstant(); break;
+                    case LOAD: result = variables[instruction.getVariable()]; break;
+                    case STORE: variables[instruction.getVariable()] = a; break;
+                    case ADD: result = isFloat ? f(d(a) + d(b)) : a + b; break;
+                    case SUB: result = isFloat ? f(d(a) - d(b)) : a - b; break;
+                    case MUL: result = isFloat ? f(d(a) * d(b)) : a * b; break;
+                    case DIV: result = isFloat ? f(d(a) / d(b)) : a / b; break;
+                    case NEG: result = isFloat ? f(-d(a)) : -a; break;
+                    case NOT: result = a == 0 ? 1 : 0; break;
+                    case LT: result = (isFloat ? d(a) < d(b) : a < b) ? 1 : 0; break;
+                    case GT: result = (isFloat ? d(a) > d(b) : a > b) ? 1 : 0; break;
+                    case LE: result = (isFloat ? d(a) <= d(b) : a <= b) ? 1 : 0; break;
+                    case GE: result = (isFloat ? d(a) >= d(b) : a >= b) ? 1 : 0; break;
+                    case EQ: result = (isFloat ? d(a) == d(b) : a == b) ? 1 : 0; break;
+                    case NE: result = (isFloat ? d(a) != d(b) : a != b) ? 1 : 0; break;
+                    case I2F: result = f(a); break;
+                    case F2I: result = (long) d(a); break;
+                    case OUT:
+                        if (isFloat) out.writeFloat(d(a)); else out.writeInt(a);
+                        break;
+                    case JUMP: next = block.getSuccessors().get(0); break;
+                    case BRANCH: next = block.getSuccessors().get(a != 0 ? 0 : 1); break;
+                    case RETURN: out.flush(); return;
+                    default: throw new IllegalStateException("Unexpected " + instruction.getOp());
+                }
+                values[instruction.getId()] = result;
+            }
+            previous = block;
+            block = next;
+        }
+    }
+
+    private static double d(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long f(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+}